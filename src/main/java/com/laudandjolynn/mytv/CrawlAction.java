@@ -15,20 +15,36 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlScheduler;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlWindow;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.Gauge;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
 import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.service.CrawlJobQueue;
 import com.laudandjolynn.mytv.service.TvService;
 import com.laudandjolynn.mytv.service.TvServiceImpl;
-import com.laudandjolynn.mytv.utils.DateUtils;
+import com.laudandjolynn.mytv.utils.Config;
 
 /**
  * @author: Laud
@@ -39,10 +55,34 @@ import com.laudandjolynn.mytv.utils.DateUtils;
 public class CrawlAction {
 	private final static Logger logger = LoggerFactory
 			.getLogger(CrawlAction.class);
-	private final ConcurrentHashSet<CrawlerTask> CURRENT_EPG_TASK = new ConcurrentHashSet<CrawlerTask>();
+	private final ConcurrentHashMap<CrawlerTask, FutureTask<List<ProgramTable>>> CURRENT_EPG_TASK = new ConcurrentHashMap<CrawlerTask, FutureTask<List<ProgramTable>>>();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
 	private TvService tvService = new TvServiceImpl();
 
 	private CrawlAction() {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.register("crawl_action.in_flight", new Gauge<Integer>() {
+
+			@Override
+			public Integer getValue() {
+				return CURRENT_EPG_TASK.size();
+			}
+		});
+		metrics.register("crawl_action.coalesced", new Gauge<Long>() {
+
+			@Override
+			public Long getValue() {
+				return coalescedCount.get();
+			}
+		});
+		metrics.register("crawl_action.timeout", new Gauge<Long>() {
+
+			@Override
+			public Long getValue() {
+				return timeoutCount.get();
+			}
+		});
 	}
 
 	public static CrawlAction getIntance() {
@@ -77,9 +117,8 @@ public class CrawlAction {
 			logger.error(name + " isn't exists.");
 			return null;
 		}
-		String[] weeks = DateUtils.getWeek(new Date(), "yyyy-MM-dd");
-		// 只能查询一周内的节目表
-		if (date.compareTo(weeks[0]) < 0 || date.compareTo(weeks[6]) > 0) {
+		// 只能查询抓取窗口内的节目表
+		if (!CrawlWindow.contains(date)) {
 			return null;
 		}
 
@@ -88,65 +127,324 @@ public class CrawlAction {
 		if (tvService.isProgramTableExists(stationName, date)) {
 			return tvService.getProgramTable(stationName, date);
 		}
-		return queryProgramTable(tvStation, date);
+		return queryProgramTable(tvStation, date, CrawlPriority.ON_DEMAND);
 	}
 
 	/**
+	 * <pre>
 	 * 查询指定日期、电视台的电视节目表
+	 * 同一电视台、日期的并发请求共享同一次抓取结果，不同电视台、日期之间互不影响
+	 * </pre>
 	 * 
 	 * @param tvStation
 	 *            电视台对象
 	 * @param date
 	 *            日期，yyyy-MM-dd
+	 * @param priority
+	 *            抓取优先级
 	 * @return
 	 */
-	protected List<ProgramTable> queryProgramTable(TvStation tvStation,
-			final String date) {
-		String stationName = tvStation.getName();
-		CrawlerTask crawlerTask = new CrawlerTask(stationName, date);
-		if (CURRENT_EPG_TASK.contains(crawlerTask)) {
-			synchronized (this) {
-				try {
-					logger.debug(crawlerTask
-							+ " is wait for the other same task's notification.");
-					wait();
-				} catch (InterruptedException e) {
-					throw new MyTvException(
-							"thread interrupted while query program table of "
-									+ stationName + " at " + date, e);
-				}
+	public List<ProgramTable> queryProgramTable(final TvStation tvStation,
+			final String date, CrawlPriority priority) {
+		return await(submit(tvStation, date, priority),
+				TimeUnit.SECONDS.toNanos(Config.getCrawlWaitTimeout()));
+	}
+
+	/**
+	 * <pre>
+	 * 批量查询多个电视台在日期范围内的节目表
+	 * 已存在的节目表一次从数据库查询，缺失的电视台、日期合并为一波抓取，全部提交后再统一等待，
+	 * 整波抓取最多等待crawl_wait_timeout秒；
+	 * 每次最多查询query_max_stations个电视台、query_max_dates个日期，
+	 * 最多即时抓取query_max_crawls个节目表，其余缺失的节目表加入抓取任务队列
+	 * </pre>
+	 * 
+	 * @param names
+	 *            电视台名
+	 * @param classifies
+	 *            电视台分类，与电视台名一一对应，可为null
+	 * @param startDate
+	 *            开始日期，yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期，yyyy-MM-dd
+	 * @return 以请求的电视台名为键，不存在的电视台不包含在内
+	 * @throws MyTvException
+	 *             参数为null或电视台数超过上限
+	 */
+	public Map<String, List<ProgramTable>> queryProgramTables(String[] names,
+			String[] classifies, String startDate, String endDate) {
+		if (names == null || startDate == null || endDate == null) {
+			throw new MyTvException(
+					"station names, start date and end date must be not null.");
+		}
+		if (names.length > Config.getQueryMaxStations()) {
+			throw new MyTvException("query at most "
+					+ Config.getQueryMaxStations() + " stations at a time.");
+		}
+		if (classifies != null && classifies.length != names.length) {
+			throw new MyTvException("station names and classifies mismatch.");
+		}
+		Map<String, List<ProgramTable>> result = new LinkedHashMap<String, List<ProgramTable>>();
+		String[] window = CrawlWindow.getDates();
+		// 只能查询抓取窗口内的节目表
+		String start = startDate.compareTo(window[0]) < 0 ? window[0]
+				: startDate;
+		String end = endDate.compareTo(window[window.length - 1]) > 0 ? window[window.length - 1]
+				: endDate;
+		if (start.compareTo(end) > 0) {
+			return result;
+		}
+
+		Map<String, TvStation> stations = new LinkedHashMap<String, TvStation>();
+		Map<String, TvStation> stationByName = new LinkedHashMap<String, TvStation>();
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (name == null) {
+				continue;
+			}
+			TvStation tvStation = tvService.getStation(name);
+			if (tvStation == null) {
+				tvStation = tvService.getStationByDisplayName(name,
+						classifies == null ? null : classifies[i]);
+			}
+			if (tvStation == null) {
+				logger.error(name + " isn't exists.");
+				continue;
+			}
+			stations.put(name, tvStation);
+			stationByName.put(tvStation.getName(), tvStation);
+		}
+		List<String> dates = new ArrayList<String>();
+		for (String date : window) {
+			if (date.compareTo(start) >= 0 && date.compareTo(end) <= 0
+					&& dates.size() < Config.getQueryMaxDates()) {
+				dates.add(date);
+			}
+		}
+		if (dates.isEmpty()) {
+			return result;
+		}
+		end = dates.get(dates.size() - 1);
+		logger.info("query program table of " + stationByName.size()
+				+ " stations from " + start + " to " + end);
 
+		Map<CrawlerTask, List<ProgramTable>> programTables = tvService
+				.getProgramTable(stationByName.keySet(), start, end);
+		// 即时抓取的节目表数有上限，其余缺失的节目表加入抓取任务队列，由后台尽快抓取
+		List<PendingCrawl> wave = new ArrayList<PendingCrawl>();
+		List<CrawlerTask> deferred = new ArrayList<CrawlerTask>();
+		int maxCrawls = Config.getQueryMaxCrawls();
+		try {
+			for (TvStation tvStation : stationByName.values()) {
+				for (String date : dates) {
+					CrawlerTask crawlerTask = new CrawlerTask(
+							tvStation.getName(), date);
+					if (programTables.containsKey(crawlerTask)) {
+						continue;
+					}
+					if (wave.size() < maxCrawls) {
+						wave.add(submit(tvStation, date,
+								CrawlPriority.ON_DEMAND));
+					} else {
+						deferred.add(crawlerTask);
+					}
+				}
+			}
+			if (!deferred.isEmpty()) {
+				CrawlJobQueue.getInstance().enqueue(deferred,
+						CrawlPriority.ON_DEMAND, 0);
+			}
+			long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(Config.getCrawlWaitTimeout());
+			for (PendingCrawl pending : wave) {
 				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
-					// do nothing
+					List<ProgramTable> ptList = await(pending,
+							Math.max(0, deadline - System.nanoTime()));
+					if (ptList != null) {
+						programTables.put(pending.crawlerTask, ptList);
+					}
+				} catch (MyTvException e) {
+					// 单个电视台、日期抓取失败不影响其他结果
+					logger.error("query " + pending.crawlerTask + " is fail.", e);
+				}
+			}
+		} finally {
+			// 提交或等待中途失败时，未等待的抓取也不能留在正在进行的抓取中，否则之后的查询一直共享已结束的结果
+			for (PendingCrawl pending : wave) {
+				if (pending.owner) {
+					CURRENT_EPG_TASK.remove(pending.crawlerTask, pending.task);
 				}
+			}
+		}
 
-				logger.debug(crawlerTask
-						+ " has receive notification and try to get program table from db.");
-				return tvService.getProgramTable(stationName, date);
+		for (Map.Entry<String, TvStation> entry : stations.entrySet()) {
+			List<ProgramTable> ptList = new ArrayList<ProgramTable>();
+			for (String date : dates) {
+				List<ProgramTable> dayList = programTables.get(new CrawlerTask(
+						entry.getValue().getName(), date));
+				if (dayList != null) {
+					ptList.addAll(dayList);
+				}
 			}
+			result.put(entry.getKey(), ptList);
+		}
+		return result;
+	}
+
+	/**
+	 * 提交指定电视台、日期的节目表抓取，已有相同的抓取时共享其结果
+	 * 
+	 * @param tvStation
+	 * @param date
+	 * @param priority
+	 * @return
+	 */
+	private PendingCrawl submit(final TvStation tvStation, final String date,
+			final CrawlPriority priority) {
+		CrawlerTask crawlerTask = new CrawlerTask(tvStation.getName(), date);
+		CrawlScheduler scheduler = CrawlScheduler.getInstance();
+		final long submitted = System.nanoTime();
+		FutureTask<List<ProgramTable>> task = scheduler.newTask(
+				new Callable<List<ProgramTable>>() {
+
+					@Override
+					public List<ProgramTable> call() throws Exception {
+						MetricsRegistry metrics = MetricsRegistry
+								.getInstance();
+						// 在抓取调度器中排队的时间
+						metrics.timer(
+								"crawl_action.queue."
+										+ priority.name().toLowerCase())
+								.updateSince(submitted);
+						long start = System.nanoTime();
+						try {
+							return tvService
+									.crawlProgramTable(tvStation, date);
+						} finally {
+							metrics.timer("crawl_action.crawl").updateSince(
+									start);
+						}
+					}
+				}, priority);
+		FutureTask<List<ProgramTable>> inFlightTask = CURRENT_EPG_TASK
+				.putIfAbsent(crawlerTask, task);
+		if (inFlightTask != null) {
+			coalescedCount.incrementAndGet();
+			// 客户端查询遇到排队中的批量抓取时，提升其优先级
+			scheduler.promote(inFlightTask, priority);
+			logger.debug(crawlerTask
+					+ " is waiting for the other same task's result.");
+			return new PendingCrawl(crawlerTask, inFlightTask, false);
 		}
 
 		logger.debug(crawlerTask
 				+ " is trying to query program table from network.");
-		CURRENT_EPG_TASK.add(crawlerTask);
 		try {
-			return tvService.crawlProgramTable(tvStation, date);
-		} catch (Exception e) {
+			scheduler.execute(task);
+		} catch (RuntimeException e) {
+			CURRENT_EPG_TASK.remove(crawlerTask, task);
+			throw e;
+		}
+		return new PendingCrawl(crawlerTask, task, true);
+	}
+
+	/**
+	 * 等待已提交的抓取结果，超时后取消自己提交的抓取
+	 * 
+	 * @param pending
+	 * @param timeout
+	 *            等待时间，纳秒
+	 * @return
+	 */
+	private List<ProgramTable> await(PendingCrawl pending, long timeout) {
+		long start = System.nanoTime();
+		try {
+			return await0(pending, timeout);
+		} finally {
+			MetricsRegistry.getInstance().timer("crawl_action.await")
+					.updateSince(start);
+		}
+	}
+
+	private List<ProgramTable> await0(PendingCrawl pending, long timeout) {
+		CrawlerTask crawlerTask = pending.crawlerTask;
+		if (!pending.owner) {
+			return waitFor(crawlerTask, pending.task, timeout);
+		}
+		String stationName = crawlerTask.getStationName();
+		String date = crawlerTask.getDate();
+		try {
+			return pending.task.get(timeout, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// 抓取超时后取消，不再占用抓取线程，等待同一结果的请求随之失败
+			timeoutCount.incrementAndGet();
+			pending.task.cancel(true);
+			throw new MyTvException("crawl program table of " + stationName
+					+ " at " + date + " timeout after "
+					+ TimeUnit.NANOSECONDS.toMillis(timeout) + " milliseconds.",
+					e);
+		} catch (ExecutionException e) {
 			logger.error("crawl program table of " + stationName + " at "
-					+ date + " is fail.", e);
-			throw new MyTvException(e);
+					+ date + " is fail.", e.getCause());
+			throw new MyTvException(e.getCause());
+		} catch (CancellationException e) {
+			throw new MyTvException("crawl program table of " + stationName
+					+ " at " + date + " is cancelled.", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException(
+					"thread interrupted while query program table of "
+							+ stationName + " at " + date, e);
 		} finally {
-			synchronized (this) {
-				CURRENT_EPG_TASK.remove(crawlerTask);
-				logger.debug(crawlerTask
-						+ " have finished to get program table data and send notification.");
-				notifyAll();
-			}
+			CURRENT_EPG_TASK.remove(crawlerTask, pending.task);
+			logger.debug(crawlerTask
+					+ " have finished to get program table data.");
 		}
 	}
 
+	/**
+	 * 等待正在进行的同一抓取任务的结果
+	 * 
+	 * @param crawlerTask
+	 * @param inFlightTask
+	 * @param timeout
+	 *            等待时间，纳秒
+	 * @return
+	 */
+	private List<ProgramTable> waitFor(CrawlerTask crawlerTask,
+			Future<List<ProgramTable>> inFlightTask, long timeout) {
+		try {
+			return inFlightTask.get(timeout, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			timeoutCount.incrementAndGet();
+			throw new MyTvException("wait for " + crawlerTask
+					+ " timeout after "
+					+ TimeUnit.NANOSECONDS.toMillis(timeout) + " milliseconds.",
+					e);
+		} catch (ExecutionException e) {
+			throw new MyTvException(e.getCause());
+		} catch (CancellationException e) {
+			throw new MyTvException(crawlerTask + " is cancelled.", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException("thread interrupted while wait for "
+					+ crawlerTask, e);
+		}
+	}
+
+	/**
+	 * 取消正在进行的指定电视台、日期的节目表抓取，所有等待该结果的请求都将失败
+	 * 
+	 * @param tvStation
+	 * @param date
+	 * @return 存在正在进行的抓取并已取消时返回true
+	 */
+	public boolean cancel(TvStation tvStation, String date) {
+		Future<List<ProgramTable>> task = CURRENT_EPG_TASK
+				.get(new CrawlerTask(tvStation.getName(), date));
+		return task != null && task.cancel(true);
+	}
+
 	/**
 	 * 是否已经在查询指定电视台、日期的电视节目表
 	 * 
@@ -154,8 +452,51 @@ public class CrawlAction {
 	 * @param date
 	 * @return
 	 */
-	protected boolean isInQuerying(TvStation tvStation, String date) {
-		return CURRENT_EPG_TASK.contains(new CrawlerTask(tvStation.getName(),
-				date));
+	public boolean isInQuerying(TvStation tvStation, String date) {
+		return CURRENT_EPG_TASK.containsKey(new CrawlerTask(
+				tvStation.getName(), date));
+	}
+
+	/**
+	 * 获取共享了其他请求抓取结果的请求数
+	 * 
+	 * @return
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * 获取等待抓取结果超时的请求数
+	 * 
+	 * @return
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * 获取正在进行的抓取数
+	 * 
+	 * @return
+	 */
+	public int getInFlightCount() {
+		return CURRENT_EPG_TASK.size();
+	}
+
+	/**
+	 * 已提交的抓取，owner为true时由当前请求负责清理
+	 */
+	private final static class PendingCrawl {
+		private final CrawlerTask crawlerTask;
+		private final FutureTask<List<ProgramTable>> task;
+		private final boolean owner;
+
+		private PendingCrawl(CrawlerTask crawlerTask,
+				FutureTask<List<ProgramTable>> task, boolean owner) {
+			this.crawlerTask = crawlerTask;
+			this.task = task;
+			this.owner = owner;
+		}
 	}
 }
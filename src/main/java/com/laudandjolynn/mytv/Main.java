@@ -15,16 +15,19 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -36,21 +39,41 @@ import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.laudandjolynn.mytv.crawler.CrawlerStatistics;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlScheduler;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlWindow;
 import com.laudandjolynn.mytv.datasource.DataSourceManager;
+import com.laudandjolynn.mytv.datasource.DataSourceStatistics;
+import com.laudandjolynn.mytv.datasource.ProgramTablePartition;
+import com.laudandjolynn.mytv.datasource.SchemaMigrator;
+import com.laudandjolynn.mytv.datasource.TvDaoImpl;
 import com.laudandjolynn.mytv.event.CrawlEvent;
 import com.laudandjolynn.mytv.event.CrawlEventListener;
 import com.laudandjolynn.mytv.event.CrawlEventListenerAdapter;
 import com.laudandjolynn.mytv.event.TvStationFoundEvent;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.MyTv;
 import com.laudandjolynn.mytv.model.TvStation;
 import com.laudandjolynn.mytv.proxy.ConfigProxy;
 import com.laudandjolynn.mytv.proxy.MyTvProxyManager;
+import com.laudandjolynn.mytv.service.CrawlJobQueue;
+import com.laudandjolynn.mytv.service.CrawlPlanner;
+import com.laudandjolynn.mytv.service.ProgramScheduleIndex;
+import com.laudandjolynn.mytv.service.ProgramTablePrefetcher;
+import com.laudandjolynn.mytv.service.ProgramTableWriter;
+import com.laudandjolynn.mytv.service.QueryStatistics;
+import com.laudandjolynn.mytv.service.ResponseCache;
 import com.laudandjolynn.mytv.service.TvService;
 import com.laudandjolynn.mytv.service.TvServiceImpl;
+import com.laudandjolynn.mytv.utils.Config;
 import com.laudandjolynn.mytv.utils.Constant;
+import com.laudandjolynn.mytv.utils.CrawlArchive;
 import com.laudandjolynn.mytv.utils.DateUtils;
 import com.laudandjolynn.mytv.utils.MemoryCache;
+import com.laudandjolynn.mytv.utils.ProgramTableCache;
+import com.laudandjolynn.mytv.utils.WebCrawler;
 
 /**
  * @author: Laud
@@ -86,80 +109,34 @@ public class Main {
 	 */
 	private static void startService() {
 		logger.info("start My TV Program Table Crawler.");
+		// 应用退出时释放资源
+		Runtime.getRuntime().addShutdownHook(
+				new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						logger.info("stop My TV Program Table Crawler.");
+						CrawlJobQueue.getInstance().shutdown();
+						ProgramTableWriter.getInstance().shutdown();
+						DataSourceManager.shutdown();
+						CrawlArchive.getInstance().close();
+					}
+				}, "Mytv_Shutdown_Hook"));
 		// 加载应用数据
 		MyTvData data = new MyTvData();
-		// 创建数据库及表结构
-		initDb(data);
+		// 创建数据库或升级表结构
+		initDb();
 		// 初始化数据库数据
 		initDbData0(data);
 		initDbData(data);
 	}
 
-	@SuppressWarnings("unchecked")
-	private static List<String> loadSql() {
-		Object object = DataSourceManager.DATA_SOURCE_PROP
-				.get(DataSourceManager.RES_KEY_DB_SQL_LIST);
-		if (object instanceof List) {
-			return (List<String>) object;
-		}
-		throw new MyTvException("error occur while trying to init db.");
-	}
-
 	/**
-	 * 初始化数据库
+	 * 初始化数据库，将数据库结构迁移到最新版本
 	 */
-	private static void initDb(MyTvData data) {
-		if (data.isDbInited()) {
-			logger.debug("db have already init.");
-			return;
-		}
-
-		File myTvDataFilePath = new File(Constant.MY_TV_DATA_FILE_PATH);
-		Connection conn = null;
-		Statement stmt = null;
-		try {
-			conn = DataSourceManager.getConnection();
-			conn.setAutoCommit(false);
-			stmt = conn.createStatement();
-			List<String> sqlList = loadSql();
-			for (String sql : sqlList) {
-				stmt.addBatch(sql);
-				logger.info("execute sql: " + sql);
-			}
-			stmt.executeBatch();
-			conn.commit();
-			DataSourceManager.DATA_SOURCE_PROP
-					.remove(DataSourceManager.RES_KEY_DB_SQL_LIST);
-			data.writeData(null, Constant.XML_TAG_DB, "true");
-		} catch (SQLException e) {
-			if (conn != null) {
-				try {
-					conn.rollback();
-				} catch (SQLException e1) {
-					throw new MyTvException(
-							"error occur while rollback transaction.", e);
-				}
-			}
-			myTvDataFilePath.deleteOnExit();
-			throw new MyTvException("error occur while execute sql on db.", e);
-		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(
-							"error occur while close statement.", e);
-				}
-			}
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(
-							"error occur while close sqlite connection.", e);
-				}
-			}
-		}
+	private static void initDb() {
+		SchemaMigrator.migrate();
+		ProgramTablePartition.getInstance().init();
 	}
 
 	/**
@@ -232,14 +209,12 @@ public class Main {
 	}
 
 	private static void makeCache(TvService tvService) {
+		MemoryCache.getInstance().beginRefresh();
 		List<TvStation> stationList = tvService.getAllCrawlableStation();
-		if (stationList != null) {
-			MemoryCache.getInstance().addCache(stationList);
-		}
 		List<MyTv> myTvList = tvService.getMyTv();
-		if (myTvList != null) {
-			MemoryCache.getInstance().addMyTvCache(myTvList);
-		}
+		MemoryCache.getInstance().refresh(stationList, myTvList);
+		// 电视台数据可能已改变，重新生成接口响应
+		ResponseCache.getInstance().clear();
 	}
 
 	/**
@@ -275,10 +250,7 @@ public class Main {
 			final TvService tvService) {
 		CrawlEventListener listener = null;
 		final String today = DateUtils.today();
-		final ExecutorService executorService = Executors.newFixedThreadPool(
-				Constant.CPU_PROCESSOR_NUM, new BasicThreadFactory.Builder()
-						.namingPattern("Mytv_Crawl_Program_Table_%d").build());
-		if (!data.isProgramCrawlerInited()) {
+		if (!data.isStationCrawlerInited()) {
 			listener = new CrawlEventListenerAdapter() {
 				@Override
 				public void itemFound(CrawlEvent event) {
@@ -286,18 +258,12 @@ public class Main {
 						final TvStation item = (TvStation) ((TvStationFoundEvent) event)
 								.getItem();
 						if (!tvService.isInMyTv(item)
-								|| CrawlAction.getIntance().isInQuerying(item,
-										today)) {
+								|| !new CrawlPlanner().isDue(item, today)) {
 							return;
 						}
-						executorService.execute(new Runnable() {
-
-							@Override
-							public void run() {
-								CrawlAction.getIntance().queryProgramTable(
-										item, today);
-							}
-						});
+						CrawlJobQueue.getInstance().enqueue(
+								Arrays.asList(new CrawlerTask(item.getName(),
+										today)), CrawlPriority.BULK, 0);
 					}
 				}
 			};
@@ -308,23 +274,23 @@ public class Main {
 		MyTvProxyManager.getInstance().prepareProxies(new ConfigProxy());
 		logger.info("found " + MyTvProxyManager.getInstance().getProxySize()
 				+ " proxies.");
+		// 继续上次未完成的抓取任务
+		CrawlJobQueue.getInstance().start();
 
 		if (!data.isStationCrawlerInited()) {
 			// 首次抓取
 			tvService.crawlAllTvStation(listener);
 
-			// 抓取本周其他日期的数据
-			String[] weeks = DateUtils.getWeek(new Date(), "yyyy-MM-dd");
+			// 抓取窗口内其他日期的数据
 			List<TvStation> stationList = tvService.getDisplayedTvStation();
-			for (String date : weeks) {
+			List<String> dates = new ArrayList<String>();
+			for (String date : CrawlWindow.getDates()) {
 				if (date.compareTo(today) >= 1) {
-					crawlAllProgramTable(stationList, executorService, date,
-							tvService);
+					dates.add(date);
 				}
 			}
-			executorService.shutdown();
+			crawlAllProgramTable(stationList, dates);
 			data.writeData(null, Constant.XML_TAG_STATION, "true");
-			data.writeData(null, Constant.XML_TAG_PROGRAM, "true");
 		}
 	}
 
@@ -340,34 +306,11 @@ public class Main {
 				new BasicThreadFactory.Builder().namingPattern(
 						"Mytv_Scheduled_Task").build());
 		Date today = new Date();
-		String nextWeek = DateUtils.date2String(DateUtils.nextWeek(today),
-				"yyyy-MM-dd 00:01:00");
-		long crawlTaskInitDelay = (DateUtils.string2Date(nextWeek).getTime() - today
-				.getTime()) / 1000;
-		logger.info("cron crawler task will be automatic start after "
-				+ crawlTaskInitDelay + " seconds at " + nextWeek);
-		scheduled.scheduleWithFixedDelay(new Runnable() {
-
-			@Override
-			public void run() {
-				Date[] weeks = DateUtils.getWeek(new Date());
-				logger.info("begin to crawl program table of "
-						+ Arrays.deepToString(weeks));
-				ExecutorService executorService = Executors
-						.newFixedThreadPool(
-								Constant.CPU_PROCESSOR_NUM,
-								new BasicThreadFactory.Builder().namingPattern(
-										"Mytv_Schedule_Crawl_Program_Table_%d")
-										.build());
-				List<TvStation> stationList = tvService.getDisplayedTvStation();
-				for (Date date : weeks) {
-					crawlAllProgramTable(stationList, executorService,
-							DateUtils.date2String(date, "yyyy-MM-dd"),
-							tvService);
-				}
-				executorService.shutdown();
-			}
-		}, crawlTaskInitDelay, 604860, TimeUnit.SECONDS);
+		if (CrawlWindow.isRolling()) {
+			createRollingCrawlCron(scheduled, tvService);
+		} else {
+			createWeeklyCrawlCron(scheduled, tvService);
+		}
 
 		// 定期刷新代理服务器列表
 		String nextDate = DateUtils.tommorow() + " 23:00:00";
@@ -384,6 +327,22 @@ public class Main {
 			}
 		}, commonInitDelay, 86400, TimeUnit.SECONDS);
 
+		// 删除超过保留天数的节目表分区及抓取记录
+		logger.info("cron drop program table partitions task will be automatic start after "
+				+ commonInitDelay + " seconds at " + nextDate);
+		scheduled.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					dropExpiredProgramTable();
+				} catch (RuntimeException e) {
+					// 异常不能抛出，否则之后不再执行
+					logger.error("drop expired program tables fail.", e);
+				}
+			}
+		}, commonInitDelay, 86400, TimeUnit.SECONDS);
+
 		// 刷缓存
 		logger.info("cron refresh cache task will be automatic start after "
 				+ commonInitDelay + " seconds at " + nextDate);
@@ -393,33 +352,235 @@ public class Main {
 			public void run() {
 				logger.info("begin to refresh caches.");
 				makeCache(tvService);
+				DataSourceStatistics stat = DataSourceManager.getStatistics();
+				if (stat != null) {
+					logger.info("data source statistics: " + stat);
+				}
+				logger.info("program table cache statistics: "
+						+ ProgramTableCache.getInstance());
+				logger.info("response cache statistics: "
+						+ ResponseCache.getInstance());
+				CrawlAction crawlAction = CrawlAction.getIntance();
+				logger.info("crawl action statistics: coalesced="
+						+ crawlAction.getCoalescedCount() + ", timeout="
+						+ crawlAction.getTimeoutCount() + ", inFlight="
+						+ crawlAction.getInFlightCount());
+				CrawlScheduler scheduler = CrawlScheduler.getInstance();
+				logger.info("crawl scheduler statistics: queue="
+						+ scheduler.getQueueSize() + ", buckets="
+						+ scheduler.getBuckets());
+				logger.info("web client pool statistics: "
+						+ WebCrawler.getStatistics());
+				logger.info("crawl archive statistics: "
+						+ CrawlArchive.getInstance());
+				logger.info("program table writer statistics: "
+						+ ProgramTableWriter.getInstance());
+				logger.info("crawler statistics: "
+						+ CrawlerStatistics.getInstance());
+				logger.info("prefetcher statistics: "
+						+ ProgramTablePrefetcher.getInstance());
+				CrawlJobQueue crawlJobQueue = CrawlJobQueue.getInstance();
+				logger.info("crawl job queue statistics: " + crawlJobQueue
+						+ ", jobs=" + crawlJobQueue.getJobCount());
 			}
 		}, commonInitDelay, 86400, TimeUnit.SECONDS);
 
+		// 按客户端查询热度预取节目表
+		if (Config.getPrefetchMaxTasks() > 0) {
+			ScheduledExecutorService prefetchExecutor = new ScheduledThreadPoolExecutor(
+					1, new BasicThreadFactory.Builder().namingPattern(
+							"Mytv_Prefetch_Program_Table").build());
+			long interval = Config.getPrefetchIntervalMinutes();
+			logger.info("prefetch program table task will be run every "
+					+ interval + " minutes.");
+			prefetchExecutor.scheduleWithFixedDelay(
+					ProgramTablePrefetcher.getInstance(), interval, interval,
+					TimeUnit.MINUTES);
+		}
+
 		// scheduled不能关闭，否则定时任务将不再被接受并执行
 		// scheduled.shutdown();
 	}
 
 	/**
-	 * 抓取所有客户端显示的电视台节目表
+	 * 删除超过保留天数的节目表分区、抓取记录及抓取任务
+	 */
+	private static void dropExpiredProgramTable() {
+		Calendar retention = Calendar.getInstance();
+		retention.add(Calendar.DAY_OF_MONTH,
+				-Config.getProgramTableRetentionDays());
+		String date = DateUtils.date2String(retention.getTime(),
+				"yyyy-MM-dd");
+		int count = ProgramTablePartition.getInstance().dropBefore(
+				date);
+		logger.info(count + " program table partitions dropped.");
+		// 已删除的日期不能再由缓存返回
+		ProgramTableCache.getInstance().evictBefore(date);
+		ResponseCache.getInstance().evictBefore(date);
+		ProgramScheduleIndex.getInstance().evictBefore(date);
+		count = new TvDaoImpl().deleteCrawlLedgerBefore(date);
+		logger.info(count + " crawl ledgers deleted.");
+		count = new TvDaoImpl().deleteCrawlJobBefore(date);
+		logger.info(count + " crawl jobs deleted.");
+	}
+
+	/**
+	 * 创建每周一抓取本周节目表的定时任务
 	 * 
-	 * @param executorService
-	 * @param date
+	 * @param scheduled
 	 * @param tvService
 	 */
-	private static void crawlAllProgramTable(List<TvStation> stationList,
-			ExecutorService executorService, final String date,
-			TvService tvService) {
-		int size = stationList == null ? 0 : stationList.size();
-		for (int i = 0; i < size; i++) {
-			final TvStation tvStation = stationList.get(i);
-			executorService.execute(new Runnable() {
+	private static void createWeeklyCrawlCron(
+			ScheduledExecutorService scheduled, final TvService tvService) {
+		Date today = new Date();
+		String nextWeek = DateUtils.date2String(DateUtils.nextWeek(today),
+				"yyyy-MM-dd 00:01:00");
+		long crawlTaskInitDelay = (DateUtils.string2Date(nextWeek).getTime() - today
+				.getTime()) / 1000;
+		logger.info("cron crawler task will be automatic start after "
+				+ crawlTaskInitDelay + " seconds at " + nextWeek);
+		scheduled.scheduleWithFixedDelay(new Runnable() {
 
-				@Override
-				public void run() {
-					CrawlAction.getIntance().queryProgramTable(tvStation, date);
+			@Override
+			public void run() {
+				try {
+					crawlWeek(tvService);
+				} catch (RuntimeException e) {
+					// 异常不能抛出，否则之后不再执行
+					logger.error("crawl program table of this week fail.", e);
+				}
+			}
+		}, crawlTaskInitDelay, 604860, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 抓取本周节目表
+	 * 
+	 * @param tvService
+	 */
+	private static void crawlWeek(TvService tvService) {
+		Date[] weeks = DateUtils.getWeek(new Date());
+		logger.info("begin to crawl program table of "
+				+ Arrays.deepToString(weeks));
+		// 新的一周开始，淘汰上周的节目表缓存
+		ProgramTableCache.getInstance().evictBefore(
+				DateUtils.date2String(weeks[0], "yyyy-MM-dd"));
+		compactCrawlArchive();
+		List<TvStation> stationList = tvService.getDisplayedTvStation();
+		List<String> dates = new ArrayList<String>();
+		for (Date date : weeks) {
+			dates.add(DateUtils.date2String(date, "yyyy-MM-dd"));
+		}
+		crawlAllProgramTable(stationList, dates);
+	}
+
+	/**
+	 * <pre>
+	 * 创建滚动窗口的每日抓取定时任务
+	 * 每天0点过后按抓取计划抓取新进入窗口的日期，窗口内其他日期只补抓缺失的节目表，
+	 * 热门电视台节目不全、过期的节目表由预取任务重新抓取，
+	 * 抓取在crawl_window_spread_hours小时内均匀分布，客户端查询多的电视台先抓取
+	 * </pre>
+	 * 
+	 * @param scheduled
+	 * @param tvService
+	 */
+	private static void createRollingCrawlCron(
+			ScheduledExecutorService scheduled, final TvService tvService) {
+		Date today = new Date();
+		String nextDate = DateUtils.tommorow() + " 00:01:00";
+		long crawlTaskInitDelay = (DateUtils.string2Date(nextDate).getTime() - today
+				.getTime()) / 1000;
+		logger.info("cron rolling crawler task will be automatic start after "
+				+ crawlTaskInitDelay + " seconds at " + nextDate);
+		scheduled.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					crawlRollingWindow(tvService);
+				} catch (RuntimeException e) {
+					// 异常不能抛出，否则之后不再执行
+					logger.error("crawl program table of rolling window fail.",
+							e);
 				}
-			});
+			}
+		}, crawlTaskInitDelay, 86400, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 按抓取计划将滚动窗口的节目表加入抓取任务队列
+	 * 
+	 * @param tvService
+	 */
+	private static void crawlRollingWindow(TvService tvService) {
+		String[] window = CrawlWindow.getDates();
+		logger.info("begin to crawl program table of "
+				+ Arrays.toString(window));
+		ProgramTableCache.getInstance().evictBefore(window[0]);
+		compactCrawlArchive();
+		List<TvStation> stationList = tvService.getDisplayedTvStation();
+		CrawlPlanner planner = new CrawlPlanner();
+		// 窗口最后一天是新进入窗口的日期
+		List<String> dates = Arrays.asList(window);
+		int last = dates.size() - 1;
+		List<CrawlerTask> plan = planner.plan(stationList,
+				dates.subList(last, last + 1));
+		plan.addAll(planner.planMissing(stationList,
+				dates.subList(0, last)));
+		// 同一天内查询热度高的电视台先抓取
+		final Map<String, Double> scores = QueryStatistics
+				.getInstance().getStationScores();
+		Collections.sort(plan, new Comparator<CrawlerTask>() {
+
+			@Override
+			public int compare(CrawlerTask o1, CrawlerTask o2) {
+				int result = o1.getDate().compareTo(o2.getDate());
+				if (result != 0) {
+					return result;
+				}
+				return Double.compare(score(o2), score(o1));
+			}
+
+			private double score(CrawlerTask task) {
+				Double score = scores.get(task.getStationName());
+				return score == null ? 0 : score;
+			}
+		});
+		int size = plan.size();
+		long interval = size == 0 ? 0 : Config
+				.getCrawlWindowSpreadHours() * 3600000L / size;
+		logger.info(size + " program tables will be crawled every "
+				+ interval + " milliseconds.");
+		// 以任务的执行时间分散抓取，重启后不会丢失
+		CrawlJobQueue.getInstance().enqueue(plan, CrawlPriority.BULK,
+				interval);
+	}
+
+	/**
+	 * 淘汰超过保留期限的抓取数据
+	 */
+	private static void compactCrawlArchive() {
+		Calendar retention = Calendar.getInstance();
+		retention.add(Calendar.DAY_OF_MONTH,
+				-Config.getCrawlArchiveRetentionDays());
+		CrawlArchive.getInstance().compact(
+				DateUtils.date2String(retention.getTime(), "yyyy-MM-dd"));
+	}
+
+	/**
+	 * 按增量抓取计划将客户端显示的电视台节目表加入抓取任务队列，只抓取缺失、不完整或已过期的日期
+	 * 
+	 * @param stationList
+	 * @param dates
+	 *            日期，yyyy-MM-dd
+	 */
+	private static void crawlAllProgramTable(List<TvStation> stationList,
+			List<String> dates) {
+		if (stationList == null || stationList.isEmpty()) {
+			return;
 		}
+		List<CrawlerTask> plan = new CrawlPlanner().plan(stationList, dates);
+		CrawlJobQueue.getInstance().enqueue(plan, CrawlPriority.BULK, 0);
 	}
 }
@@ -43,9 +43,7 @@ public class MyTvData {
 	private final static Logger logger = LoggerFactory
 			.getLogger(MyTvData.class);
 	private boolean dataInited = false;
-	private boolean dbInited = false;
 	private boolean stationCrawlerInited = false;
-	private boolean programCrawlerInited = false;
 
 	public MyTvData() {
 		this.loadData();
@@ -59,22 +57,15 @@ public class MyTvData {
 				+ Constant.MY_TV_DATA_FILE_PATH);
 		File file = new File(Constant.MY_TV_DATA_FILE_PATH);
 		if (!file.exists()) {
-			this.dbInited = false;
 			this.dataInited = false;
 			this.stationCrawlerInited = false;
-			this.programCrawlerInited = false;
 			return;
 		}
 		SAXReader reader = new SAXReader();
 		try {
 			Document xmlDoc = reader.read(new File(
 					Constant.MY_TV_DATA_FILE_PATH));
-			List<?> nodes = xmlDoc.selectNodes("//" + Constant.XML_TAG_DB);
-			if (nodes != null && nodes.size() > 0) {
-				this.dbInited = Boolean.valueOf(((Element) nodes.get(0))
-						.getText());
-			}
-			nodes = xmlDoc.selectNodes("//" + Constant.XML_TAG_DATA);
+			List<?> nodes = xmlDoc.selectNodes("//" + Constant.XML_TAG_DATA);
 			if (nodes != null && nodes.size() > 0) {
 				this.dataInited = Boolean.valueOf(((Element) nodes.get(0))
 						.getText());
@@ -84,19 +75,11 @@ public class MyTvData {
 				this.stationCrawlerInited = Boolean.valueOf(((Element) nodes
 						.get(0)).getText());
 			}
-
-			nodes = xmlDoc.selectNodes("//" + Constant.XML_TAG_PROGRAM);
-			if (nodes != null && nodes.size() > 0) {
-				this.programCrawlerInited = Boolean.valueOf(((Element) nodes
-						.get(0)).getText());
-			}
 		} catch (DocumentException e) {
 			logger.debug("can't parse xml file.  -- "
 					+ Constant.MY_TV_DATA_FILE_PATH);
-			this.dbInited = false;
 			this.dataInited = false;
 			this.stationCrawlerInited = false;
-			this.programCrawlerInited = false;
 			file.deleteOnExit();
 		}
 	}
@@ -144,15 +127,6 @@ public class MyTvData {
 		}
 	}
 
-	/**
-	 * 判断db是否已经初始化
-	 * 
-	 * @return
-	 */
-	public boolean isDbInited() {
-		return this.dbInited;
-	}
-
 	/**
 	 * 数据是否已经初始化
 	 * 
@@ -162,14 +136,6 @@ public class MyTvData {
 		return dataInited;
 	}
 
-	/**
-	 * 电视节目初始抓取任务是否完成
-	 * @return
-	 */
-	public boolean isProgramCrawlerInited() {
-		return programCrawlerInited;
-	}
-
 	/**
 	 * 电视台初始抓取任务是否完成
 	 * @return
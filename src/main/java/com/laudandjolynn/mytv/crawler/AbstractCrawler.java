@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.laudandjolynn.mytv.event.CrawlEventListener;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
+import com.laudandjolynn.mytv.model.ProgramTable;
 
 /**
  * @author: Laud
@@ -38,4 +40,23 @@ public abstract class AbstractCrawler implements Crawler {
 	public void removeCrawlEventListener(CrawlEventListener listener) {
 		this.listeners.remove(listener);
 	}
+
+	/**
+	 * 记录抓取节目表的耗时及抓取到的节目数
+	 * 
+	 * @param start
+	 *            开始抓取的时间，纳秒
+	 * @param ptList
+	 *            抓取结果
+	 */
+	protected void recordCrawl(long start, List<ProgramTable> ptList) {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		String prefix = "crawler." + getCrawlerName();
+		metrics.timer(prefix + ".crawl").updateSince(start);
+		if (ptList == null || ptList.isEmpty()) {
+			metrics.counter(prefix + ".empty").inc();
+		} else {
+			metrics.counter(prefix + ".programs").inc(ptList.size());
+		}
+	}
 }
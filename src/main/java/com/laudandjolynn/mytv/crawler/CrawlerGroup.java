@@ -23,7 +23,12 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
@@ -34,9 +39,13 @@ import com.laudandjolynn.mytv.event.CrawlEvent;
 import com.laudandjolynn.mytv.event.CrawlEventListener;
 import com.laudandjolynn.mytv.event.CrawlEventListenerAdapter;
 import com.laudandjolynn.mytv.event.ProgramTableCrawlEndEvent;
+import com.laudandjolynn.mytv.event.ProgramTableFoundEvent;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.Gauge;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.Config;
 import com.laudandjolynn.mytv.utils.Constant;
 
 /**
@@ -50,12 +59,41 @@ public class CrawlerGroup extends AbstractCrawler {
 	private final static String CRAWLER_GROUP_NAME = "crawlergroup";
 	private final static Logger logger = LoggerFactory
 			.getLogger(CrawlerGroup.class);
+	// 抓取线程池，不排队，没有空闲线程时主抓取在调用线程中执行，对冲抓取不再启动；
+	// 被取消的抓取器可能仍在执行并占用线程，排队会使新的抓取等待这些抓取结束，影响对冲等待时间的统计
+	private final static ThreadPoolExecutor HEDGE_EXECUTOR = new ThreadPoolExecutor(
+			Config.getCrawlThreads() * 2, Config.getCrawlThreads() * 2, 60L,
+			TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+			new BasicThreadFactory.Builder()
+					.namingPattern("Mytv_CrawlerGroup_Hedge_%d").daemon(true)
+					.build());
+
+	static {
+		HEDGE_EXECUTOR.allowCoreThreadTimeOut(true);
+		MetricsRegistry.getInstance().register(
+				"executor.crawler_group_hedge.active", new Gauge<Integer>() {
+
+					@Override
+					public Integer getValue() {
+						return HEDGE_EXECUTOR.getActiveCount();
+					}
+				});
+	}
+	// 当前线程正在执行的抓取，用于区分抓取器发出的节目属于哪次抓取
+	private final static ThreadLocal<Attempt> CURRENT_ATTEMPT = new ThreadLocal<Attempt>();
 	private CrawlEventListener listener = null;
 
 	public CrawlerGroup() {
 		this.listener = new CrawlEventListenerAdapter() {
 			@Override
 			public void itemFound(CrawlEvent event) {
+				// 节目只转发最先发出节目的抓取的，其他抓取的节目不转发，避免混入多个来源的节目
+				if (event instanceof ProgramTableFoundEvent) {
+					Attempt attempt = CURRENT_ATTEMPT.get();
+					if (attempt != null && !attempt.crawl.stream(attempt)) {
+						return;
+					}
+				}
 				for (CrawlEventListener listener : listeners) {
 					listener.itemFound(event);
 				}
@@ -143,6 +181,16 @@ public class CrawlerGroup extends AbstractCrawler {
 		return resultList;
 	}
 
+	/**
+	 * <pre>
+	 * 按抓取统计选出主抓取器先行抓取，对冲模式下主抓取器超过其耗时百分位仍未返回时启动下一个抓取器，
+	 * 最先完成且抓取到节目的结果胜出，其他抓取被取消；
+	 * 非对冲模式下按顺序抓取，前一个抓取器没有抓取到节目时才尝试下一个。
+	 * 最先发出节目的抓取边解析边转发节目，其他抓取的节目不转发。该抓取未胜出时，
+	 * 胜出结果在抓取结束时逐条转发，抓取结束事件标记为替换，由监听器以胜出结果替换该日期的节目表，
+	 * 撤销已转发的节目；没有抓取胜出时已转发的部分节目保留，待下次抓取成功后按内容摘要替换
+	 * </pre>
+	 */
 	@Override
 	public List<ProgramTable> crawlProgramTable(String date, TvStation station) {
 		if (station == null || date == null) {
@@ -150,23 +198,130 @@ public class CrawlerGroup extends AbstractCrawler {
 			return null;
 		}
 		List<ProgramTable> resultList = new ArrayList<ProgramTable>();
-		for (Crawler crawler : crawlers) {
-			if (crawler.exists(station)) {
-				List<ProgramTable> ptList = crawler.crawlProgramTable(date,
-						station);
-				if (ptList != null) {
-					resultList.addAll(ptList);
+		Crawl crawl = new Crawl();
+		Attempt winner = null;
+		try {
+			winner = crawlProgramTable(crawl, CrawlerStatistics.getInstance()
+					.rank(crawlers, station.getName()), date, station);
+		} finally {
+			crawl.close();
+		}
+		Attempt streaming = crawl.streaming;
+		boolean replace = false;
+		if (winner != null) {
+			resultList.addAll(winner.ptList);
+			if (winner != streaming) {
+				for (ProgramTable pt : winner.ptList) {
+					for (CrawlEventListener listener : listeners) {
+						listener.itemFound(new ProgramTableFoundEvent(
+								winner.crawler, pt));
+					}
 				}
-				break;
+				replace = streaming != null;
 			}
 		}
+		if (replace) {
+			logger.info(streaming.crawler.getCrawlerName()
+					+ " lost the crawl of program table of "
+					+ station.getName() + " at " + date
+					+ ", replace with the result of "
+					+ winner.crawler.getCrawlerName());
+		}
 		for (CrawlEventListener listener : listeners) {
 			listener.crawlEnd(new ProgramTableCrawlEndEvent(this, resultList,
-					station.getName(), date));
+					station.getName(), date, replace));
 		}
 		return resultList;
 	}
 
+	/**
+	 * 执行抓取，返回最先完成且抓取到节目的抓取结果，没有抓取到节目时返回null
+	 * 
+	 * @param crawl
+	 * @param ranked
+	 * @param date
+	 * @param station
+	 * @return
+	 */
+	private Attempt crawlProgramTable(Crawl crawl, List<Crawler> ranked,
+			String date, TvStation station) {
+		CompletionService<Attempt> completionService = new ExecutorCompletionService<Attempt>(
+				HEDGE_EXECUTOR);
+		List<Future<Attempt>> futures = new ArrayList<Future<Attempt>>();
+		boolean hedge = Config.isCrawlHedgeEnable();
+		int size = ranked.size();
+		int next = 0;
+		int pending = 0;
+		try {
+			while (next < size || pending > 0) {
+				if (pending == 0) {
+					Attempt attempt = new Attempt(crawl, ranked.get(next++),
+							date, station);
+					try {
+						futures.add(completionService.submit(attempt));
+						pending++;
+					} catch (RejectedExecutionException e) {
+						logger.info("no idle hedge thread, crawl program table of "
+								+ station.getName() + " at " + date + " with "
+								+ attempt.crawler.getCrawlerName()
+								+ " in current thread.");
+						attempt.crawl();
+						if (attempt.ptList != null && !attempt.ptList.isEmpty()) {
+							return attempt;
+						}
+					}
+					continue;
+				}
+				Future<Attempt> future = null;
+				if (hedge && next < size) {
+					Crawler last = ranked.get(next - 1);
+					future = completionService.poll(CrawlerStatistics
+							.getInstance().getHedgeDelay(
+									last.getCrawlerName()),
+							TimeUnit.MILLISECONDS);
+					if (future == null) {
+						try {
+							futures.add(completionService.submit(new Attempt(
+									crawl, ranked.get(next), date, station)));
+						} catch (RejectedExecutionException e) {
+							logger.info("no idle hedge thread, skip hedge of "
+									+ station.getName() + " at " + date);
+							hedge = false;
+							continue;
+						}
+						logger.info(last.getCrawlerName()
+								+ " is slow to crawl program table of "
+								+ station.getName() + " at " + date
+								+ ", hedge with "
+								+ ranked.get(next).getCrawlerName());
+						next++;
+						pending++;
+						continue;
+					}
+				} else {
+					future = completionService.take();
+				}
+				pending--;
+				Attempt attempt = future.get();
+				if (attempt.ptList != null && !attempt.ptList.isEmpty()) {
+					return attempt;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException(
+					"thread interrupted while crawl program table of "
+							+ station.getName() + " at " + date, e);
+		} catch (ExecutionException e) {
+			throw new MyTvException(e.getCause());
+		} finally {
+			for (Future<Attempt> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return null;
+	}
+
 	@Override
 	public boolean exists(TvStation station) {
 		for (Crawler crawler : crawlers) {
@@ -176,4 +331,86 @@ public class CrawlerGroup extends AbstractCrawler {
 		}
 		return false;
 	}
+
+	/**
+	 * 对节目表的一次抓取，记录边解析边转发节目的抓取器
+	 */
+	private final static class Crawl {
+		private Attempt streaming = null;
+		private boolean closed = false;
+
+		/**
+		 * 抓取器发出节目时调用，最先发出节目的抓取可以转发节目，抓取结束后都不再转发
+		 * 
+		 * @param attempt
+		 * @return 是否转发该抓取器的节目
+		 */
+		private synchronized boolean stream(Attempt attempt) {
+			if (closed) {
+				return false;
+			}
+			if (streaming == null) {
+				streaming = attempt;
+			}
+			return streaming == attempt;
+		}
+
+		/**
+		 * 结束抓取，被取消仍在执行的抓取器发出的节目不再转发
+		 */
+		private synchronized void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * 一个抓取器对节目表的一次抓取
+	 */
+	private final static class Attempt implements Callable<Attempt> {
+		private final Crawl crawl;
+		private final Crawler crawler;
+		private final String date;
+		private final TvStation station;
+		private List<ProgramTable> ptList = null;
+
+		private Attempt(Crawl crawl, Crawler crawler, String date,
+				TvStation station) {
+			this.crawl = crawl;
+			this.crawler = crawler;
+			this.date = date;
+			this.station = station;
+		}
+
+		@Override
+		public Attempt call() throws Exception {
+			crawl();
+			return this;
+		}
+
+		/**
+		 * 执行抓取并记录抓取统计
+		 */
+		private void crawl() {
+			long start = System.currentTimeMillis();
+			CURRENT_ATTEMPT.set(this);
+			try {
+				if (crawler.exists(station)) {
+					ptList = crawler.crawlProgramTable(date, station);
+				}
+			} catch (RuntimeException e) {
+				logger.error(crawler.getCrawlerName()
+						+ " fail to crawl program table of "
+						+ station.getName() + " at " + date, e);
+			} finally {
+				CURRENT_ATTEMPT.remove();
+			}
+			// 被取消的抓取不计入统计
+			if (!Thread.currentThread().isInterrupted()) {
+				CrawlerStatistics.getInstance().record(
+						crawler.getCrawlerName(), station.getName(),
+						ptList != null && !ptList.isEmpty(),
+						System.currentTimeMillis() - start);
+			}
+		}
+	}
 }
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.crawler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.laudandjolynn.mytv.utils.Config;
+
+/**
+ * <pre>
+ * 抓取器节目表抓取统计，按抓取器、电视台记录成功率及耗时的指数加权平均值，
+ * 用于选择电视台的主抓取器；按抓取器保留最近的成功耗时样本，用于计算启动备用抓取器的等待时间
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月13日 下午2:16:35
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlerStatistics {
+	private final static char KEY_SEPARATOR = '\u0001';
+	// 历史值的权重
+	private final static double DECAY = 0.8;
+	private final static int LATENCY_SAMPLES = 128;
+	private final static int MIN_LATENCY_SAMPLES = 10;
+	private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+	private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+
+	private CrawlerStatistics() {
+	}
+
+	public static CrawlerStatistics getInstance() {
+		return CrawlerStatisticsSingleton.CRAWLER_STATISTICS;
+	}
+
+	private final static class CrawlerStatisticsSingleton {
+		private final static CrawlerStatistics CRAWLER_STATISTICS = new CrawlerStatistics();
+	}
+
+	/**
+	 * 记录一次节目表抓取结果
+	 * 
+	 * @param crawlerName
+	 *            抓取器名称
+	 * @param stationName
+	 *            电视台名称
+	 * @param success
+	 *            是否抓取到节目表
+	 * @param latency
+	 *            耗时，毫秒
+	 */
+	public void record(String crawlerName, String stationName,
+			boolean success, long latency) {
+		getRecord(key(crawlerName, stationName)).update(success, latency);
+		getRecord(crawlerName).update(success, latency);
+		if (success) {
+			LatencyWindow window = latencies.get(crawlerName);
+			if (window == null) {
+				window = new LatencyWindow();
+				LatencyWindow existing = latencies.putIfAbsent(crawlerName,
+						window);
+				if (existing != null) {
+					window = existing;
+				}
+			}
+			window.add(latency);
+		}
+	}
+
+	/**
+	 * 按成功率与耗时的比值从高到低排列抓取器，得分相同时保持原有顺序
+	 * 
+	 * @param crawlers
+	 * @param stationName
+	 * @return
+	 */
+	public List<Crawler> rank(List<Crawler> crawlers, String stationName) {
+		final Map<Crawler, Double> scores = new HashMap<Crawler, Double>();
+		for (Crawler crawler : crawlers) {
+			scores.put(crawler, score(crawler.getCrawlerName(), stationName));
+		}
+		List<Crawler> ranked = new ArrayList<Crawler>(crawlers);
+		Collections.sort(ranked, new Comparator<Crawler>() {
+
+			@Override
+			public int compare(Crawler o1, Crawler o2) {
+				return Double.compare(scores.get(o2), scores.get(o1));
+			}
+		});
+		return ranked;
+	}
+
+	/**
+	 * 获取启动备用抓取器前等待主抓取器的时间
+	 * 
+	 * @param crawlerName
+	 *            主抓取器名称
+	 * @return 毫秒
+	 */
+	public long getHedgeDelay(String crawlerName) {
+		LatencyWindow window = latencies.get(crawlerName);
+		long delay = window == null ? -1 : window.percentile(Config
+				.getCrawlHedgePercentile());
+		if (delay < 0) {
+			delay = Config.getCrawlHedgeDelay();
+		}
+		return Math.max(delay, Config.getCrawlHedgeMinDelay());
+	}
+
+	private double score(String crawlerName, String stationName) {
+		Record record = records.get(key(crawlerName, stationName));
+		if (record == null) {
+			// 电视台没有统计数据时使用抓取器的整体数据
+			record = records.get(crawlerName);
+		}
+		if (record == null) {
+			// 没有任何数据的抓取器按一半成功率、默认等待时间估计
+			return 0.5 / Config.getCrawlHedgeDelay();
+		}
+		synchronized (record) {
+			return record.successRate / Math.max(record.latency, 1);
+		}
+	}
+
+	private Record getRecord(String key) {
+		Record record = records.get(key);
+		if (record == null) {
+			record = new Record();
+			Record existing = records.putIfAbsent(key, record);
+			if (existing != null) {
+				record = existing;
+			}
+		}
+		return record;
+	}
+
+	private static String key(String crawlerName, String stationName) {
+		return crawlerName + KEY_SEPARATOR + stationName;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("CrawlerStatistics [");
+		boolean first = true;
+		for (String crawlerName : latencies.keySet()) {
+			Record record = records.get(crawlerName);
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			sb.append(crawlerName).append("=").append(record).append(", p")
+					.append((int) (Config.getCrawlHedgePercentile() * 100))
+					.append("=").append(getHedgeDelay(crawlerName));
+		}
+		return sb.append("]").toString();
+	}
+
+	private final static class Record {
+		private double successRate = -1;
+		private double latency = -1;
+
+		private synchronized void update(boolean success, long latency) {
+			double value = success ? 1 : 0;
+			successRate = successRate < 0 ? value : successRate * DECAY
+					+ value * (1 - DECAY);
+			if (success) {
+				this.latency = this.latency < 0 ? latency : this.latency
+						* DECAY + latency * (1 - DECAY);
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("{successRate=%.2f, latency=%.0f}",
+					successRate, latency);
+		}
+	}
+
+	private final static class LatencyWindow {
+		private final long[] samples = new long[LATENCY_SAMPLES];
+		private int count = 0;
+		private int position = 0;
+
+		private synchronized void add(long latency) {
+			samples[position] = latency;
+			position = (position + 1) % samples.length;
+			if (count < samples.length) {
+				count++;
+			}
+		}
+
+		/**
+		 * @param percentile
+		 *            0~1
+		 * @return 样本不足时返回-1
+		 */
+		private long percentile(double percentile) {
+			long[] sorted;
+			synchronized (this) {
+				if (count < MIN_LATENCY_SAMPLES) {
+					return -1;
+				}
+				sorted = Arrays.copyOf(samples, count);
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile * sorted.length) - 1;
+			return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+		}
+	}
+}
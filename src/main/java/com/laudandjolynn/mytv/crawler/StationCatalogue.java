@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.crawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.utils.AppendLog;
+import com.laudandjolynn.mytv.utils.Constant;
+
+/**
+ * <pre>
+ * 电视台目录索引，记录各抓取器(抓取器, 城市, 分类, 电视台名称)到节目表页面地址的映射
+ * 解析电视台页面时更新，以追加方式持久化，启动时载入一次；
+ * 同时记录每个抓取数据文件解析时的内容摘要，文件内容改变时才需要重新解析
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月9日 下午4:21:35
+ * @copyright: www.laudandjolynn.com
+ */
+public class StationCatalogue {
+	private final static Logger logger = LoggerFactory
+			.getLogger(StationCatalogue.class);
+	private final static String CATALOGUE_FILE_PATH = Constant.MY_TV_DATA_PATH
+			+ "station_catalogue.log";
+	private final static String TAB = "\t";
+	private final static String LINE_SOURCE = "S";
+	private final static String LINE_ENTRY = "E";
+	// (抓取器, 城市, 分类, 电视台名称) -> 页面地址
+	private final ConcurrentHashMap<String, String> urls = new ConcurrentHashMap<String, String>();
+	// (抓取器, 抓取数据文件) -> 内容摘要
+	private final ConcurrentHashMap<String, String> sourceHashes = new ConcurrentHashMap<String, String>();
+	// (抓取器, 抓取数据文件) -> 该文件解析出的电视台
+	private final Map<String, List<String>> sourceEntries = new HashMap<String, List<String>>();
+	// (抓取器, 城市, 分类, 电视台名称) -> 列出该电视台的抓取数据文件数，为0时才从索引中移除
+	private final Map<String, Integer> keyRefs = new HashMap<String, Integer>();
+	private final AppendLog log = new AppendLog(CATALOGUE_FILE_PATH);
+
+	private StationCatalogue() {
+		try {
+			int lines = load();
+			// 重复解析产生的过期记录过多时重写索引文件
+			if (lines > 2 * (urls.size() + sourceHashes.size()) + 1000) {
+				rewrite();
+			}
+		} catch (IOException e) {
+			throw new MyTvException("error occur while load station catalogue.",
+					e);
+		}
+		logger.info("station catalogue loaded, " + urls.size()
+				+ " stations of " + sourceHashes.size() + " sources.");
+	}
+
+	public static StationCatalogue getInstance() {
+		return StationCatalogueSingletonHolder.STATION_CATALOGUE;
+	}
+
+	private final static class StationCatalogueSingletonHolder {
+		private final static StationCatalogue STATION_CATALOGUE = new StationCatalogue();
+	}
+
+	/**
+	 * 抓取数据文件是否已按指定内容摘要解析过
+	 * 
+	 * @param crawlerName
+	 * @param source
+	 *            抓取数据文件名
+	 * @param hash
+	 *            抓取数据文件的内容摘要
+	 * @return
+	 */
+	public boolean isIndexed(String crawlerName, String source, String hash) {
+		return hash != null
+				&& hash.equals(sourceHashes.get(key(crawlerName, source)));
+	}
+
+	/**
+	 * 以抓取数据文件解析出的电视台替换该文件原有的索引
+	 * 
+	 * @param crawlerName
+	 * @param source
+	 *            抓取数据文件名
+	 * @param hash
+	 *            抓取数据文件的内容摘要
+	 * @param entries
+	 *            解析出的电视台
+	 */
+	public synchronized void update(String crawlerName, String source,
+			String hash, List<Entry> entries) {
+		if (isIndexed(crawlerName, source, hash)) {
+			return;
+		}
+		try {
+			applySource(crawlerName, source, hash);
+			log.append(LINE_SOURCE, crawlerName, source, hash);
+			for (Entry entry : entries) {
+				applyEntry(crawlerName, source, entry.city, entry.classify,
+						entry.stationName, entry.url);
+				log.append(LINE_ENTRY, crawlerName, source, entry.city,
+						entry.classify, entry.stationName, entry.url);
+			}
+			log.flush();
+		} catch (IOException e) {
+			throw new MyTvException("error occur while update station catalogue.",
+					e);
+		}
+	}
+
+	/**
+	 * 电视台是否存在于指定抓取器
+	 * 
+	 * @param crawlerName
+	 * @param city
+	 *            城市，可以为null
+	 * @param classify
+	 *            分类，可以为null
+	 * @param stationName
+	 * @return
+	 */
+	public boolean exists(String crawlerName, String city, String classify,
+			String stationName) {
+		return urls.containsKey(key(crawlerName, city, classify, stationName));
+	}
+
+	/**
+	 * 获取电视台节目表页面地址
+	 * 
+	 * @param crawlerName
+	 * @param city
+	 * @param classify
+	 * @param stationName
+	 * @return 不存在时返回null，地址未知时返回空字符串
+	 */
+	public String getUrl(String crawlerName, String city, String classify,
+			String stationName) {
+		return urls.get(key(crawlerName, city, classify, stationName));
+	}
+
+	private void applySource(String crawlerName, String source, String hash) {
+		String sourceKey = key(crawlerName, source);
+		List<String> previous = sourceEntries.remove(sourceKey);
+		if (previous != null) {
+			// 同一电视台可能出现在多个城市、分类页面，其他文件仍列出时保留
+			for (String key : previous) {
+				Integer refs = keyRefs.get(key);
+				if (refs == null || refs.intValue() <= 1) {
+					keyRefs.remove(key);
+					urls.remove(key);
+				} else {
+					keyRefs.put(key, refs.intValue() - 1);
+				}
+			}
+		}
+		sourceHashes.put(sourceKey, hash);
+	}
+
+	private void applyEntry(String crawlerName, String source, String city,
+			String classify, String stationName, String url) {
+		String sourceKey = key(crawlerName, source);
+		List<String> keys = sourceEntries.get(sourceKey);
+		if (keys == null) {
+			keys = new ArrayList<String>();
+			sourceEntries.put(sourceKey, keys);
+		}
+		String key = key(crawlerName, city, classify, stationName);
+		keys.add(key);
+		Integer refs = keyRefs.get(key);
+		keyRefs.put(key, refs == null ? 1 : refs.intValue() + 1);
+		urls.put(key, url == null ? "" : url);
+	}
+
+	/**
+	 * 载入索引文件
+	 * 
+	 * @return 索引文件行数
+	 * @throws IOException
+	 */
+	private int load() throws IOException {
+		return log.read(new AppendLog.LineHandler() {
+
+			@Override
+			public void handle(String[] values, String line) {
+				if (LINE_SOURCE.equals(values[0]) && values.length == 4) {
+					applySource(values[1], values[2], values[3]);
+				} else if (LINE_ENTRY.equals(values[0]) && values.length == 7) {
+					applyEntry(values[1], values[2], nullIfEmpty(values[3]),
+							nullIfEmpty(values[4]), values[5], values[6]);
+				} else {
+					logger.warn("skip invalid station catalogue line: " + line);
+				}
+			}
+		});
+	}
+
+	/**
+	 * 只保留当前有效的记录重写索引文件，失败时保留原索引文件
+	 */
+	private void rewrite() {
+		try {
+			log.rewrite(new AppendLog.LineSource() {
+
+				@Override
+				public void writeTo(AppendLog.LineWriter writer)
+						throws IOException {
+					for (Map.Entry<String, String> source : sourceHashes
+							.entrySet()) {
+						String[] sourceKey = source.getKey().split(TAB, -1);
+						writer.write(LINE_SOURCE, sourceKey[0], sourceKey[1],
+								source.getValue());
+						List<String> keys = sourceEntries.get(source.getKey());
+						for (int i = 0, size = keys == null ? 0 : keys.size(); i < size; i++) {
+							String key = keys.get(i);
+							String[] values = key.split(TAB, -1);
+							writer.write(LINE_ENTRY, values[0], sourceKey[1],
+									values[1], values[2], values[3],
+									urls.get(key));
+						}
+					}
+				}
+			});
+			logger.info("station catalogue rewritten.");
+		} catch (IOException e) {
+			logger.warn("can't rewrite station catalogue file.", e);
+		}
+	}
+
+	private static String key(String... values) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				sb.append(TAB);
+			}
+			sb.append(values[i] == null ? "" : values[i]);
+		}
+		return sb.toString();
+	}
+
+	private static String nullIfEmpty(String value) {
+		return value.length() == 0 ? null : value;
+	}
+
+	/**
+	 * 电视台目录条目
+	 */
+	public static class Entry {
+		private final String city;
+		private final String classify;
+		private final String stationName;
+		private final String url;
+
+		/**
+		 * @param city
+		 *            城市，可以为null
+		 * @param classify
+		 *            分类，可以为null
+		 * @param stationName
+		 *            电视台名称
+		 * @param url
+		 *            节目表页面地址，未知时为null
+		 */
+		public Entry(String city, String classify, String stationName,
+				String url) {
+			this.city = city;
+			this.classify = classify;
+			this.stationName = stationName;
+			this.url = url;
+		}
+	}
+}
@@ -15,7 +15,6 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv.crawler.epg;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
@@ -29,20 +28,25 @@ import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.html.DomElement;
 import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.laudandjolynn.mytv.crawler.AbstractCrawler;
+import com.laudandjolynn.mytv.crawler.StationCatalogue;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlScheduler;
 import com.laudandjolynn.mytv.event.AllTvStationCrawlEndEvent;
 import com.laudandjolynn.mytv.event.CrawlEventListener;
 import com.laudandjolynn.mytv.event.ProgramTableCrawlEndEvent;
 import com.laudandjolynn.mytv.event.ProgramTableFoundEvent;
 import com.laudandjolynn.mytv.event.TvStationFoundEvent;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
 import com.laudandjolynn.mytv.utils.Constant;
 import com.laudandjolynn.mytv.utils.DateUtils;
 import com.laudandjolynn.mytv.utils.MyTvUtils;
+import com.laudandjolynn.mytv.utils.PageHandler;
 import com.laudandjolynn.mytv.utils.WebCrawler;
 
 /**
@@ -72,22 +76,19 @@ public class EpgCrawler extends AbstractCrawler {
 
 	@Override
 	public List<TvStation> crawlAllTvStation() {
-		String epgFile = getCrawlFilePath();
-		File file = new File(epgFile);
-		String html = null;
-		if (file.exists()) {
-			try {
-				html = MyTvUtils.readAsHtml(epgFile);
-				return parseTvStation(html);
-			} catch (IOException e) {
-				// do nothing
-			}
-			return null;
+		String html = MyTvUtils.readCrawlData(getCrawlerName(),
+				getCrawlFileName());
+		if (html != null) {
+			Document doc = Jsoup.parse(html, EPG_URL);
+			indexTvStation(MyTvUtils.getCrawlDataHash(getCrawlerName(),
+					getCrawlFileName()), doc);
+			return parseTvStation(doc);
 		}
-		HtmlPage htmlPage = (HtmlPage) WebCrawler.crawl(getUrl());
-		html = htmlPage.asXml();
-		MyTvUtils.outputCrawlData(getCrawlerName(), html, getCrawlFileName());
-		List<TvStation> stationList = parseTvStation(html);
+		Document doc = WebCrawler.crawlAsDocument(getCrawlerName(), getUrl());
+		String hash = MyTvUtils.outputCrawlData(getCrawlerName(),
+				doc.outerHtml(), getCrawlFileName());
+		indexTvStation(hash, doc);
+		List<TvStation> stationList = parseTvStation(doc);
 		for (CrawlEventListener listener : listeners) {
 			listener.crawlEnd(new AllTvStationCrawlEndEvent(this, stationList));
 		}
@@ -109,7 +110,9 @@ public class EpgCrawler extends AbstractCrawler {
 			logger.debug("station name or date is null.");
 			return null;
 		}
+		long start = System.nanoTime();
 		List<ProgramTable> ptList = crawlProgramTable(station, date);
+		recordCrawl(start, ptList);
 		for (CrawlEventListener listener : listeners) {
 			listener.crawlEnd(new ProgramTableCrawlEndEvent(this, ptList,
 					station.getName(), date));
@@ -119,51 +122,56 @@ public class EpgCrawler extends AbstractCrawler {
 
 	@Override
 	public boolean exists(TvStation station) {
-		String epgFile = getCrawlFilePath();
-		File file = new File(epgFile);
-		String city = station.getCity();
-		String stationName = station.getName();
-		if (file.exists()) {
-			String html = null;
-			try {
-				html = MyTvUtils.readAsHtml(epgFile);
-			} catch (IOException e) {
-				return false;
-			}
-			Document doc = Jsoup.parse(html);
-			Elements elements = null;
-			if (city == null) {
-				elements = doc.select("div.md_left_right dl h3 a.channel");
+		// 电视台目录索引中有该页面的记录时直接查询，页面内容改变时才重新解析
+		String fileName = getCrawlFileName();
+		String hash = MyTvUtils.getCrawlDataHash(getCrawlerName(), fileName);
+		StationCatalogue catalogue = StationCatalogue.getInstance();
+		if (!catalogue.isIndexed(getCrawlerName(), fileName, hash)) {
+			String html = MyTvUtils.readCrawlData(getCrawlerName(), fileName);
+			Document doc = null;
+			if (html != null) {
+				doc = Jsoup.parse(html, EPG_URL);
 			} else {
-				elements = doc.select("dl#cityList div.lv3 a.channel");
-			}
-			for (Element element : elements) {
-				if (stationName.equals(element.text())) {
-					return true;
-				}
+				doc = WebCrawler.crawlAsDocument(getCrawlerName(), EPG_URL);
+				hash = MyTvUtils.outputCrawlData(getCrawlerName(),
+						doc.outerHtml(), fileName);
 			}
-			return false;
-		}
-		HtmlPage htmlPage = (HtmlPage) WebCrawler.crawl(EPG_URL);
-		MyTvUtils.outputCrawlData(getCrawlerName(), htmlPage.asXml(),
-				getCrawlFileName());
-		List<?> stationElements = null;
-		if (city == null) {
-			stationElements = htmlPage
-					.getByXPath("//div[@class='md_left_right']/dl//h3//a[@class='channel']");
-		} else {
-			// 城市电视台
-			stationElements = htmlPage
-					.getByXPath("//dl[@id='cityList']//div[@class='lv3']//a[@class='channel']");
+			indexTvStation(hash, doc);
 		}
 
-		for (Object element : stationElements) {
-			HtmlAnchor anchor = (HtmlAnchor) element;
-			if (stationName.equals(anchor.getTextContent().trim())) {
-				return true;
-			}
+		// 城市电视台只按名称查找，不区分城市
+		return catalogue.exists(getCrawlerName(),
+				station.getCity() == null ? null : CITY, null,
+				station.getName());
+	}
+
+	/**
+	 * <pre>
+	 * 将电视台页面中的电视台登记到电视台目录索引，页面内容未改变时不重复解析
+	 * 索引不区分分类，城市电视台的城市统一登记为城市分类名称
+	 * </pre>
+	 * 
+	 * @param hash
+	 *            抓取数据文件的内容摘要
+	 * @param doc
+	 */
+	private void indexTvStation(String hash, Document doc) {
+		String fileName = getCrawlFileName();
+		StationCatalogue catalogue = StationCatalogue.getInstance();
+		if (hash == null
+				|| catalogue.isIndexed(getCrawlerName(), fileName, hash)) {
+			return;
+		}
+		List<StationCatalogue.Entry> entries = new ArrayList<StationCatalogue.Entry>();
+		for (Element element : doc.select("div.md_left_right dl h3 a.channel")) {
+			entries.add(new StationCatalogue.Entry(null, null, element.text()
+					.trim(), element.absUrl("href")));
 		}
-		return false;
+		for (Element element : doc.select("dl#cityList div.lv3 a.channel")) {
+			entries.add(new StationCatalogue.Entry(CITY, null, element.text()
+					.trim(), element.absUrl("href")));
+		}
+		catalogue.update(getCrawlerName(), fileName, hash, entries);
 	}
 
 	/**
@@ -185,74 +193,95 @@ public class EpgCrawler extends AbstractCrawler {
 			logger.debug("date must not null.");
 			return null;
 		}
-		String stationName = station.getName();
-		String queryDate = DateUtils.date2String(dateObj, "yyyy-MM-dd");
+		final String stationName = station.getName();
+		final String queryDate = DateUtils.date2String(dateObj, "yyyy-MM-dd");
 		logger.info("crawl program table of " + stationName + " at "
 				+ queryDate);
-		String city = station.getCity();
-		List<?> stationElements = null;
-		HtmlPage htmlPage = (HtmlPage) WebCrawler.crawl(EPG_URL);
-		if (city == null) {
-			stationElements = htmlPage
-					.getByXPath("//div[@class='md_left_right']/dl//h3//a[@class='channel']");
-		} else {
-			// 城市电视台
-			stationElements = htmlPage
-					.getByXPath("//dl[@id='cityList']//div[@class='lv3']//a[@class='channel']");
-		}
-		boolean exists = false;
-		for (Object element : stationElements) {
-			HtmlAnchor anchor = (HtmlAnchor) element;
-			if (stationName.equals(anchor.getTextContent().trim())) {
-				exists = true;
-				try {
-					htmlPage = anchor.click();
-				} catch (IOException e) {
-					logger.error("error occur while search program table of "
-							+ stationName + " at spec date: " + queryDate, e);
-					return null;
+		final String city = station.getCity();
+		// 需要在页面内点击，处理完成前一直占用浏览器
+		String html = WebCrawler.crawl(EPG_URL, new PageHandler<String>() {
+
+			@Override
+			public String handle(Page page) throws IOException {
+				HtmlPage htmlPage = (HtmlPage) page;
+				List<?> stationElements = null;
+				if (city == null) {
+					stationElements = htmlPage
+							.getByXPath("//div[@class='md_left_right']/dl//h3//a[@class='channel']");
+				} else {
+					// 城市电视台
+					stationElements = htmlPage
+							.getByXPath("//dl[@id='cityList']//div[@class='lv3']//a[@class='channel']");
+				}
+				boolean exists = false;
+				for (Object element : stationElements) {
+					HtmlAnchor anchor = (HtmlAnchor) element;
+					if (stationName.equals(anchor.getTextContent().trim())) {
+						exists = true;
+						try {
+							CrawlScheduler.getInstance().acquireHost(EPG_URL);
+							htmlPage = anchor.click();
+						} catch (IOException e) {
+							logger.error(
+									"error occur while search program table of "
+											+ stationName + " at spec date: "
+											+ queryDate, e);
+							return null;
+						}
+						break;
+					}
 				}
-				break;
-			}
-		}
 
-		if (!exists) {
-			logger.info(stationName + " isn't exists at " + getCrawlerName());
-			return null;
-		}
+				if (!exists) {
+					logger.info(stationName + " isn't exists at "
+							+ getCrawlerName());
+					return null;
+				}
 
-		if (!queryDate.equals(DateUtils.today())) {
-			DomElement element = htmlPage.getElementById("date");
-			element.setAttribute("readonly", "false");
-			element.setAttribute("value", queryDate);
-			element.setNodeValue(queryDate);
-			element.setTextContent(queryDate);
-			List<?> list = htmlPage.getByXPath("//div[@id='search_1']/a");
-			HtmlAnchor anchor = (HtmlAnchor) list.get(0);
-			try {
-				htmlPage = anchor.click();
-			} catch (IOException e) {
-				logger.error("error occur while search program table of "
-						+ stationName + " at spec date: " + queryDate, e);
-				return null;
+				if (!queryDate.equals(DateUtils.today())) {
+					DomElement element = htmlPage.getElementById("date");
+					element.setAttribute("readonly", "false");
+					element.setAttribute("value", queryDate);
+					element.setNodeValue(queryDate);
+					element.setTextContent(queryDate);
+					List<?> list = htmlPage
+							.getByXPath("//div[@id='search_1']/a");
+					HtmlAnchor anchor = (HtmlAnchor) list.get(0);
+					try {
+						CrawlScheduler.getInstance().acquireHost(EPG_URL);
+						htmlPage = anchor.click();
+					} catch (IOException e) {
+						logger.error(
+								"error occur while search program table of "
+										+ stationName + " at spec date: "
+										+ queryDate, e);
+						return null;
+					}
+				}
+				return htmlPage.asXml();
 			}
+		});
+		if (html == null) {
+			return null;
 		}
-		String html = htmlPage.asXml();
 		MyTvUtils.outputCrawlData(queryDate, html, queryDate
 				+ Constant.UNDERLINE + getCrawlerName() + Constant.UNDERLINE
 				+ stationName);
+		long start = System.nanoTime();
 		List<ProgramTable> ptList = parseProgramTable(html);
+		MetricsRegistry.getInstance()
+				.timer("crawler." + getCrawlerName() + ".parse")
+				.updateSince(start);
 		return ptList;
 	}
 
 	/**
 	 * 解析电视台列表
 	 * 
-	 * @param html
+	 * @param doc
 	 * @return
 	 */
-	private List<TvStation> parseTvStation(String html) {
-		Document doc = Jsoup.parse(html);
+	private List<TvStation> parseTvStation(Document doc) {
 		Elements classifyElements = doc.select("ul.weishi a[href]");
 		Elements stationElements = doc.select("div.md_left_right");
 		List<TvStation> resultList = new ArrayList<TvStation>();
@@ -347,16 +376,6 @@ public class EpgCrawler extends AbstractCrawler {
 		return resultList;
 	}
 
-	/**
-	 * 取得将被存储的抓取文件路径
-	 * 
-	 * @return
-	 */
-	private String getCrawlFilePath() {
-		return Constant.CRAWL_FILE_PATH + getCrawlerName() + File.separator
-				+ getCrawlFileName();
-	}
-
 	/**
 	 * 取得将被存储的抓取文件名
 	 * 
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.crawler.scheduler;
+
+/**
+ * 抓取任务优先级，客户端即时查询优先于预取，预取优先于批量抓取
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月8日 上午10:12:31
+ * @copyright: www.laudandjolynn.com
+ */
+public enum CrawlPriority {
+	// 客户端即时查询
+	ON_DEMAND,
+	// 按客户端查询热度预取
+	PREFETCH,
+	// 定时批量抓取
+	BULK;
+}
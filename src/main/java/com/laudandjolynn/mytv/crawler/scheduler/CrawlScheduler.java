@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.crawler.scheduler;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.Gauge;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
+import com.laudandjolynn.mytv.model.Proxy;
+import com.laudandjolynn.mytv.utils.Config;
+
+/**
+ * <pre>
+ * 抓取调度器
+ * 1. 每个目标主机、每个代理服务器各有一个令牌桶，控制访问速率
+ * 2. 被限流(403/429/503)或超时时降低速率，成功时缓慢恢复
+ * 3. 抓取任务按优先级排队执行，客户端即时查询优先于批量抓取
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月8日 上午10:35:18
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlScheduler {
+	private final static Logger logger = LoggerFactory
+			.getLogger(CrawlScheduler.class);
+	// 不使用代理时的令牌桶名称
+	private final static String DIRECT = "direct";
+	private final static String UNKNOWN_HOST = "unknown";
+	private final ConcurrentHashMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final ConcurrentHashMap<String, TokenBucket> proxyBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final ThreadPoolExecutor executor;
+
+	private CrawlScheduler() {
+		int threads = Config.getCrawlThreads();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(),
+				new BasicThreadFactory.Builder()
+						.namingPattern("Mytv_Crawl_Scheduler_%d").daemon(true)
+						.build());
+		// 提升优先级时直接将任务放回队列，需要工作线程已启动
+		this.executor.prestartAllCoreThreads();
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.register("executor.crawl_scheduler.queue", new Gauge<Integer>() {
+
+			@Override
+			public Integer getValue() {
+				return executor.getQueue().size();
+			}
+		});
+		metrics.register("executor.crawl_scheduler.active",
+				new Gauge<Integer>() {
+
+					@Override
+					public Integer getValue() {
+						return executor.getActiveCount();
+					}
+				});
+	}
+
+	public static CrawlScheduler getInstance() {
+		return CrawlSchedulerSingletonHolder.CRAWL_SCHEDULER;
+	}
+
+	private final static class CrawlSchedulerSingletonHolder {
+		private final static CrawlScheduler CRAWL_SCHEDULER = new CrawlScheduler();
+	}
+
+	/**
+	 * 创建抓取任务，任务须通过{@link #execute(FutureTask)}提交执行
+	 * 
+	 * @param callable
+	 * @param priority
+	 * @return
+	 */
+	public <T> FutureTask<T> newTask(Callable<T> callable,
+			CrawlPriority priority) {
+		return new PrioritizedTask<T>(callable, priority,
+				sequence.incrementAndGet());
+	}
+
+	/**
+	 * 按优先级执行抓取任务
+	 * 
+	 * @param task
+	 *            由{@link #newTask(Callable, CrawlPriority)}创建的任务
+	 */
+	public void execute(FutureTask<?> task) {
+		if (!(task instanceof PrioritizedTask)) {
+			throw new MyTvException("task must be created by crawl scheduler.");
+		}
+		executor.execute(task);
+	}
+
+	/**
+	 * 提升排队中任务的优先级，任务已开始执行时不做处理
+	 * 
+	 * @param task
+	 * @param priority
+	 */
+	public void promote(FutureTask<?> task, CrawlPriority priority) {
+		if (!(task instanceof PrioritizedTask)) {
+			return;
+		}
+		PrioritizedTask<?> prioritizedTask = (PrioritizedTask<?>) task;
+		if (prioritizedTask.priority.compareTo(priority) <= 0) {
+			return;
+		}
+		if (executor.getQueue().remove(prioritizedTask)) {
+			prioritizedTask.priority = priority;
+			executor.getQueue().offer(prioritizedTask);
+			logger.debug("crawl task promoted to " + priority);
+		}
+	}
+
+	/**
+	 * 访问目标地址前获取主机和代理服务器的令牌，令牌不足时阻塞
+	 * 
+	 * @param url
+	 *            目标地址
+	 * @param proxy
+	 *            代理服务器，不使用代理时为null
+	 */
+	public void acquire(String url, Proxy proxy) {
+		try {
+			getHostBucket(url).acquire();
+			getProxyBucket(proxy).acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException("thread interrupted while wait for "
+					+ url, e);
+		}
+	}
+
+	/**
+	 * 只获取目标主机的令牌，用于页面内点击等无法确定代理服务器的访问
+	 * 
+	 * @param url
+	 */
+	public void acquireHost(String url) {
+		try {
+			getHostBucket(url).acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException("thread interrupted while wait for "
+					+ url, e);
+		}
+	}
+
+	/**
+	 * 访问成功
+	 * 
+	 * @param url
+	 * @param proxy
+	 */
+	public void onSuccess(String url, Proxy proxy) {
+		getHostBucket(url).onSuccess();
+		getProxyBucket(proxy).onSuccess();
+	}
+
+	/**
+	 * 访问被限流或超时
+	 * 
+	 * @param url
+	 * @param proxy
+	 */
+	public void onThrottled(String url, Proxy proxy) {
+		TokenBucket hostBucket = getHostBucket(url);
+		TokenBucket proxyBucket = getProxyBucket(proxy);
+		hostBucket.onThrottled();
+		proxyBucket.onThrottled();
+		logger.warn("crawl throttled, slow down to " + hostBucket + ", "
+				+ proxyBucket);
+	}
+
+	/**
+	 * 获取所有令牌桶当前状态
+	 * 
+	 * @return
+	 */
+	public List<TokenBucket> getBuckets() {
+		List<TokenBucket> resultList = new ArrayList<TokenBucket>(
+				hostBuckets.values());
+		resultList.addAll(proxyBuckets.values());
+		return resultList;
+	}
+
+	/**
+	 * 获取排队中的抓取任务数
+	 * 
+	 * @return
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * 获取目标地址的主机名，无法解析时返回unknown，所有无法解析的地址共用一个限速桶
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public static String getHost(String url) {
+		String host = null;
+		try {
+			host = new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			return UNKNOWN_HOST;
+		}
+		if (host == null || host.length() == 0) {
+			return UNKNOWN_HOST;
+		}
+		return host.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * 获取代理服务器名称，不使用代理时为direct
+	 * 
+	 * @param proxy
+	 * @return
+	 */
+	public static String getProxyName(Proxy proxy) {
+		return proxy == null ? DIRECT : proxy.getIp() + ":" + proxy.getPort();
+	}
+
+	private TokenBucket getHostBucket(String url) {
+		return getBucket(hostBuckets, getHost(url), Config.getCrawlHostRate());
+	}
+
+	private TokenBucket getProxyBucket(Proxy proxy) {
+		return getBucket(proxyBuckets, getProxyName(proxy),
+				Config.getCrawlProxyRate());
+	}
+
+	private TokenBucket getBucket(ConcurrentHashMap<String, TokenBucket> buckets,
+			String name, double rate) {
+		TokenBucket bucket = buckets.get(name);
+		if (bucket == null) {
+			bucket = new TokenBucket(name, rate, Config.getCrawlMinRate(),
+					Config.getCrawlRateIncrease(), Config.getCrawlBurst());
+			TokenBucket existing = buckets.putIfAbsent(name, bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * 按优先级、提交顺序排序的任务
+	 */
+	private final static class PrioritizedTask<T> extends FutureTask<T>
+			implements Comparable<PrioritizedTask<?>> {
+		private volatile CrawlPriority priority;
+		private final long sequence;
+
+		private PrioritizedTask(Callable<T> callable, CrawlPriority priority,
+				long sequence) {
+			super(callable);
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask<?> o) {
+			int result = priority.compareTo(o.priority);
+			if (result != 0) {
+				return result;
+			}
+			return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0
+					: 1);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.crawler.scheduler;
+
+import java.util.Date;
+
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.DateUtils;
+
+/**
+ * <pre>
+ * 节目表抓取窗口，可查询、抓取的日期范围
+ * weekly：本周一至周日
+ * rolling：从今天起crawl_window_days天
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月14日 下午3:32:09
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlWindow {
+	public final static String MODE_WEEKLY = "weekly";
+	public final static String MODE_ROLLING = "rolling";
+	private final static String DATE_PATTERN = "yyyy-MM-dd";
+
+	private CrawlWindow() {
+	}
+
+	/**
+	 * 是否是滚动窗口模式
+	 * 
+	 * @return
+	 */
+	public static boolean isRolling() {
+		return MODE_ROLLING.equalsIgnoreCase(Config.getCrawlWindowMode());
+	}
+
+	/**
+	 * 获取当前窗口内的所有日期
+	 * 
+	 * @return yyyy-MM-dd
+	 */
+	public static String[] getDates() {
+		return getDates(new Date());
+	}
+
+	/**
+	 * 获取指定日期所在窗口内的所有日期
+	 * 
+	 * @param date
+	 * @return yyyy-MM-dd
+	 */
+	public static String[] getDates(Date date) {
+		if (!isRolling()) {
+			return DateUtils.getWeek(date, DATE_PATTERN);
+		}
+		String[] dates = new String[Math.max(1, Config.getCrawlWindowDays())];
+		for (int i = 0; i < dates.length; i++) {
+			dates[i] = DateUtils.date2String(DateUtils.addDay(date, i),
+					DATE_PATTERN);
+		}
+		return dates;
+	}
+
+	/**
+	 * 获取当前窗口的第一天
+	 * 
+	 * @return yyyy-MM-dd
+	 */
+	public static String getStartDate() {
+		return getDates()[0];
+	}
+
+	/**
+	 * 获取当前窗口的最后一天
+	 * 
+	 * @return yyyy-MM-dd
+	 */
+	public static String getEndDate() {
+		String[] dates = getDates();
+		return dates[dates.length - 1];
+	}
+
+	/**
+	 * 日期是否在当前窗口内
+	 * 
+	 * @param date
+	 *            yyyy-MM-dd
+	 * @return
+	 */
+	public static boolean contains(String date) {
+		return date.compareTo(getStartDate()) >= 0
+				&& date.compareTo(getEndDate()) <= 0;
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.crawler.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * 令牌桶，控制对同一目标的访问速率
+ * 速率按AIMD调整：每次成功访问加性增加，被限流或超时时乘性减少
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月8日 上午10:20:46
+ * @copyright: www.laudandjolynn.com
+ */
+public class TokenBucket {
+	private final static double NANOS_PER_SECOND = 1000000000d;
+	// 被限流时速率减少的比例
+	private final static double DECREASE_FACTOR = 0.5;
+	private final String name;
+	private final double minRate;
+	private final double maxRate;
+	private final double increase;
+	private final int capacity;
+	private double rate;
+	private double tokens;
+	private long lastRefillTime;
+	private long lastDecreaseTime;
+
+	/**
+	 * @param name
+	 *            名称
+	 * @param rate
+	 *            初始速率，每秒令牌数，最大可增加到初始速率的2倍
+	 * @param minRate
+	 *            最小速率
+	 * @param increase
+	 *            每次成功访问增加的速率
+	 * @param capacity
+	 *            令牌桶容量，即允许的突发访问数
+	 */
+	public TokenBucket(String name, double rate, double minRate,
+			double increase, int capacity) {
+		this.name = name;
+		this.rate = rate;
+		this.maxRate = rate * 2;
+		this.minRate = Math.min(minRate, rate);
+		this.increase = increase;
+		this.capacity = Math.max(1, capacity);
+		this.tokens = this.capacity;
+		this.lastRefillTime = System.nanoTime();
+		this.lastDecreaseTime = lastRefillTime - (long) NANOS_PER_SECOND;
+	}
+
+	/**
+	 * 获取一个令牌，令牌不足时阻塞至可用
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos = 0;
+		synchronized (this) {
+			refill(System.nanoTime());
+			// 令牌可以预支，等待时间由欠下的令牌数决定
+			tokens -= 1;
+			if (tokens < 0) {
+				waitNanos = (long) (-tokens / rate * NANOS_PER_SECOND);
+			}
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * 访问成功，加性增加速率
+	 */
+	public synchronized void onSuccess() {
+		refill(System.nanoTime());
+		rate = Math.min(maxRate, rate + increase);
+	}
+
+	/**
+	 * 访问被限流或超时，乘性减少速率并清空令牌
+	 */
+	public synchronized void onThrottled() {
+		long now = System.nanoTime();
+		// 同一时间窗口内的多次失败只减少一次
+		if (now - lastDecreaseTime < (long) (NANOS_PER_SECOND / rate)) {
+			return;
+		}
+		refill(now);
+		rate = Math.max(minRate, rate * DECREASE_FACTOR);
+		tokens = Math.min(tokens, 0);
+		lastDecreaseTime = now;
+	}
+
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(capacity, tokens + (now - lastRefillTime) * rate
+				/ NANOS_PER_SECOND);
+		lastRefillTime = now;
+	}
+
+	@Override
+	public String toString() {
+		return "TokenBucket [name=" + name + ", rate=" + getRate() + "]";
+	}
+}
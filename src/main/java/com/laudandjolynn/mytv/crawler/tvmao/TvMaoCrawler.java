@@ -15,14 +15,11 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv.crawler.tvmao;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
@@ -30,16 +27,13 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -49,21 +43,19 @@ import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.gargoylesoftware.htmlunit.Page;
-import com.gargoylesoftware.htmlunit.html.DomElement;
-import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
-import com.gargoylesoftware.htmlunit.html.HtmlBold;
-import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.laudandjolynn.mytv.crawler.AbstractCrawler;
+import com.laudandjolynn.mytv.crawler.StationCatalogue;
 import com.laudandjolynn.mytv.event.AllTvStationCrawlEndEvent;
 import com.laudandjolynn.mytv.event.CrawlEventListener;
 import com.laudandjolynn.mytv.event.ProgramTableCrawlEndEvent;
 import com.laudandjolynn.mytv.event.ProgramTableFoundEvent;
 import com.laudandjolynn.mytv.event.TvStationFoundEvent;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
 import com.laudandjolynn.mytv.proxy.MyTvProxyManager;
+import com.laudandjolynn.mytv.utils.Config;
 import com.laudandjolynn.mytv.utils.Constant;
 import com.laudandjolynn.mytv.utils.DateUtils;
 import com.laudandjolynn.mytv.utils.MyTvUtils;
@@ -86,13 +78,10 @@ public class TvMaoCrawler extends AbstractCrawler {
 	private final static AtomicInteger SEQUENCE = new AtomicInteger(300000);
 	// 防反爬虫
 	private final static int MAX_ACTIVITY_CRALWER_SIZE = 2;
-	private final static ScheduledExecutorService SCHEDULED_EXECUTOR_SERVICE = new ScheduledThreadPoolExecutor(
-			Constant.CPU_PROCESSOR_NUM);
-	private final static GenericKeyedObjectPool<TvMaoObjectKey, HtmlPage> TV_MAO_PAGES = new GenericKeyedObjectPool<TvMaoObjectKey, HtmlPage>(
+	private final static GenericKeyedObjectPool<TvMaoObjectKey, Document> TV_MAO_PAGES = new GenericKeyedObjectPool<TvMaoObjectKey, Document>(
 			new TvMaoPageObjectFactory(), MAX_ACTIVITY_CRALWER_SIZE,
 			GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK, 1000,
 			MAX_ACTIVITY_CRALWER_SIZE);
-	private final static Random RANDOM = new Random();
 
 	@Override
 	public String getCrawlerName() {
@@ -106,11 +95,10 @@ public class TvMaoCrawler extends AbstractCrawler {
 
 	@Override
 	public List<TvStation> crawlAllTvStation() {
-		String tvMaoFile = Constant.CRAWL_FILE_PATH + getCrawlerName();
-		File file = new File(tvMaoFile);
+		List<String> fileNames = MyTvUtils.listCrawlData(getCrawlerName());
 		List<TvStation> resultList = null;
-		if (file.exists() && file.listFiles().length > 0) {
-			resultList = crawlAllTvStationFromFile(file.listFiles());
+		if (fileNames.size() > 0) {
+			resultList = crawlAllTvStationFromFile(fileNames);
 		} else {
 			resultList = crawlAllTvStationFromWeb();
 		}
@@ -121,7 +109,11 @@ public class TvMaoCrawler extends AbstractCrawler {
 	}
 
 	/**
+	 * <pre>
 	 * 从web抓取数据
+	 * 城市页面、分类页面并行抓取，并发数受每个主机、每个代理服务器的并发数限制，
+	 * 每个页面抓取完成后即发布电视台发现事件，同一次抓取中相同的网址只抓取一次
+	 * </pre>
 	 * 
 	 * @return
 	 */
@@ -129,71 +121,158 @@ public class TvMaoCrawler extends AbstractCrawler {
 		logger.info("crawl all tv station from " + getUrl() + ".");
 		List<TvStation> resultList = new ArrayList<TvStation>();
 
-		String today = DateUtils.today();
-		HtmlPage htmlPage = null;
+		final String today = DateUtils.today();
+		Document doc = null;
 		TvMaoObjectKey key = new TvMaoObjectKey(getUrl(), today);
 		try {
-			htmlPage = TV_MAO_PAGES.borrowObject(key);
-			List<?> elements = htmlPage
-					.getByXPath("//div[@class='pgnav_wrap']/table[@class='pgnav']//a");
-			int size = elements == null ? 0 : elements.size();
-			for (int i = 0; i < size; i++) {
-				HtmlAnchor anchor = null;
-				HtmlPage hp = null;
-				TvMaoObjectKey hpKey = null;
-				try {
-					anchor = (HtmlAnchor) elements.get(i);
-					if (!anchor.getAttribute("href").startsWith("/program/")) {
-						continue;
-					}
-					final String city = anchor.getTextContent().trim();
-					if ("CCTV".equals(city)) {
-						logger.debug("a city program table of tvmao: " + city
-								+ ", url: " + anchor.getHrefAttribute());
-						resultList.addAll(getTvStations(htmlPage, city));
-						resultList
-								.addAll(getAllTvStationOfCity(htmlPage, city));
-					} else {
-						String href = anchor.getHrefAttribute();
-						String url = TV_MAO_URL_PREFIX + href;
-						hpKey = new TvMaoObjectKey(url, today);
-						logger.debug("a city of tvmao: " + city + ", url: "
-								+ url);
-						TimeUnit.MILLISECONDS.sleep(getRandomSleepTime());
-						hp = TV_MAO_PAGES.borrowObject(hpKey);
-						resultList.addAll(getTvStations(hp, city));
-						resultList.addAll(getAllTvStationOfCity(hp, city));
-					}
-				} catch (Exception e) {
-					logger.error("error occur while crawl tv station.", e);
+			doc = TV_MAO_PAGES.borrowObject(key);
+		} catch (Exception e) {
+			logger.error("borrow " + getUrl() + " fail.", e);
+			return resultList;
+		}
+
+		int parallelism = getParallelism();
+		logger.info("crawl all tv station of tvmao with " + parallelism
+				+ " threads.");
+		ThreadFactory threadFactory = new BasicThreadFactory.Builder()
+				.namingPattern("Mytv_Crawl_All_TV_Station_Of_TvMao_Web_%d")
+				.build();
+		ExecutorService executorService = Executors.newFixedThreadPool(
+				parallelism, threadFactory);
+		final CompletionService<List<TvStation>> completionService = new ExecutorCompletionService<List<TvStation>>(
+				executorService);
+		final AtomicInteger pending = new AtomicInteger();
+		final Set<String> visited = new ConcurrentHashSet<String>();
+		visited.add(getUrl());
+		try {
+			for (Element anchor : doc.select("div.pgnav_wrap > table.pgnav a")) {
+				String href = anchor.attr("href");
+				if (!href.startsWith("/program/")) {
 					continue;
-				} finally {
-					if (hp != null) {
-						TV_MAO_PAGES.returnObject(hpKey, hp);
-					}
 				}
+				final String city = anchor.text().trim();
+				if ("CCTV".equals(city)) {
+					logger.debug("a city program table of tvmao: " + city
+							+ ", url: " + href);
+					resultList.addAll(getTvStations(doc, city));
+					submitClassifyPages(doc, city, completionService,
+							pending, visited);
+					continue;
+				}
+
+				final String url = TV_MAO_URL_PREFIX + href;
+				if (!visited.add(url)) {
+					continue;
+				}
+				logger.debug("a city of tvmao: " + city + ", url: " + url);
+				pending.incrementAndGet();
+				completionService.submit(new Callable<List<TvStation>>() {
+
+					@Override
+					public List<TvStation> call() throws Exception {
+						TvMaoObjectKey cityKey = new TvMaoObjectKey(url, today);
+						Document cityDoc = TV_MAO_PAGES.borrowObject(cityKey);
+						try {
+							submitClassifyPages(cityDoc, city,
+									completionService, pending, visited);
+							return getTvStations(cityDoc, city);
+						} finally {
+							TV_MAO_PAGES.returnObject(cityKey, cityDoc);
+						}
+					}
+				});
 			}
-		} catch (Exception e) {
-			logger.error("borrow " + getUrl() + " fail.", e);
-		} finally {
-			if (htmlPage != null) {
+
+			// 城市页面任务会继续提交分类页面任务，所有任务完成前pending不会为0
+			while (pending.get() > 0) {
 				try {
-					TV_MAO_PAGES.returnObject(key, htmlPage);
-				} catch (Exception e) {
-					logger.error("return " + getUrl() + " fail.", e);
+					List<TvStation> stationList = completionService.take()
+							.get();
+					if (stationList != null) {
+						resultList.addAll(stationList);
+					}
+				} catch (InterruptedException e) {
+					logger.error("crawl all tv station task interrupted.", e);
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					logger.error("error occur while crawl tv station.",
+							e.getCause());
 				}
+				pending.decrementAndGet();
+			}
+		} finally {
+			executorService.shutdownNow();
+			try {
+				TV_MAO_PAGES.returnObject(key, doc);
+			} catch (Exception e) {
+				logger.error("return " + getUrl() + " fail.", e);
 			}
 		}
+		logger.info("crawled " + resultList.size()
+				+ " tv stations from tvmao, " + visited.size()
+				+ " pages visited.");
 		return resultList;
 	}
 
 	/**
-	 * 从本地文件抓取数据
+	 * 提交指定城市下其他分类页面的抓取任务
+	 * 
+	 * @param doc
+	 *            城市页面
+	 * @param city
+	 * @param completionService
+	 * @param pending
+	 *            未完成的任务数
+	 * @param visited
+	 *            已访问的网址
+	 */
+	private void submitClassifyPages(Document doc, final String city,
+			CompletionService<List<TvStation>> completionService,
+			AtomicInteger pending, Set<String> visited) {
+		for (Element anchor : getClassifyAnchors(doc)) {
+			String href = anchor.attr("href");
+			if (!href.startsWith("/program/")) {
+				continue;
+			}
+			final String url = TV_MAO_URL_PREFIX + href;
+			if (!visited.add(url)) {
+				continue;
+			}
+			logger.debug(anchor.text() + " program table of tvmao: "
+					+ ", url: " + url);
+			pending.incrementAndGet();
+			completionService.submit(new Callable<List<TvStation>>() {
+
+				@Override
+				public List<TvStation> call() throws Exception {
+					Document classifyDoc = WebCrawler.crawlAsDocument(
+							getCrawlerName(), url);
+					return getTvStations(classifyDoc, city);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 取得抓取线程数，不超过每个主机的并发数及所有代理服务器的并发数之和
 	 * 
-	 * @param files
 	 * @return
 	 */
-	private List<TvStation> crawlAllTvStationFromFile(File[] files) {
+	private int getParallelism() {
+		int proxySize = Math.max(1, MyTvProxyManager.getInstance()
+				.getProxySize());
+		return Math.max(1, Math.min(Config.getCrawlHostParallelism(),
+				Config.getCrawlProxyParallelism() * proxySize));
+	}
+
+	/**
+	 * 从抓取数据归档抓取数据
+	 * 
+	 * @param fileNames
+	 * @return
+	 */
+	private List<TvStation> crawlAllTvStationFromFile(List<String> fileNames) {
 		logger.info("crawl all tv station from files.");
 		List<TvStation> resultList = new ArrayList<TvStation>();
 		ThreadFactory threadFactory = new BasicThreadFactory.Builder()
@@ -202,26 +281,26 @@ public class TvMaoCrawler extends AbstractCrawler {
 				threadFactory);
 		CompletionService<List<TvStation>> completionService = new ExecutorCompletionService<List<TvStation>>(
 				executorService);
-		int size = files == null ? 0 : files.length;
+		int size = fileNames.size();
 		for (int i = 0; i < size; i++) {
-			final File file = files[i];
+			final String fileName = fileNames.get(i);
 			Callable<List<TvStation>> task = new Callable<List<TvStation>>() {
 				@Override
 				public List<TvStation> call() throws Exception {
-					String filePath = file.getPath();
-					String classifyEnds = filePath.substring(0,
-							filePath.lastIndexOf(Constant.UNDERLINE));
+					String classifyEnds = fileName.substring(0,
+							fileName.lastIndexOf(Constant.UNDERLINE));
 					String city = classifyEnds.substring(classifyEnds
 							.lastIndexOf(Constant.UNDERLINE) + 1);
-					String html = null;
-					try {
-						logger.debug("parse tv station file: " + filePath);
-						html = MyTvUtils.readAsHtml(filePath);
-					} catch (IOException e) {
-						logger.error("read as xml error: " + filePath, e);
+					logger.debug("parse tv station file: " + fileName);
+					String html = MyTvUtils.readCrawlData(getCrawlerName(),
+							fileName);
+					if (html == null) {
 						return null;
 					}
-					return parseTvStation(city, html);
+					Document doc = Jsoup.parse(html);
+					indexTvStation(fileName, MyTvUtils.getCrawlDataHash(
+							getCrawlerName(), fileName), city, doc);
+					return parseTvStation(city, doc);
 				}
 			};
 			completionService.submit(task);
@@ -245,57 +324,60 @@ public class TvMaoCrawler extends AbstractCrawler {
 	}
 
 	/**
-	 * 抓取指定城市下的所有电视台
+	 * 解析指定城市下的电视台
 	 * 
-	 * @param htmlPage
+	 * @param doc
 	 * @param city
+	 *            所属城市
 	 * @return
 	 */
-	private List<TvStation> getAllTvStationOfCity(HtmlPage htmlPage, String city) {
-		List<TvStation> resultList = new ArrayList<TvStation>();
-		List<?> elements = htmlPage
-				.getByXPath("//div[@class='chlsnav']//div[@class='plst']/parent::*");
-		for (int i = 0, size = elements == null ? 0 : elements.size(); i < size; i++) {
-			try {
-				HtmlAnchor anchor = (HtmlAnchor) elements.get(i);
-				String href = anchor.getHrefAttribute();
-				if (!href.startsWith("/program/")) {
-					continue;
-				}
-				logger.debug(anchor.getTextContent()
-						+ " program table of tvmao: " + ", url: " + href);
-				TimeUnit.MILLISECONDS.sleep(getRandomSleepTime());
-				HtmlPage p = (HtmlPage) WebCrawler.crawl(TV_MAO_URL_PREFIX
-						+ href);
-				resultList.addAll(getTvStations(p, city));
-			} catch (Exception e) {
-				logger.error("error occur while get all tv station of city: "
-						+ city, e);
-				continue;
-			}
-		}
-		return resultList;
+	private List<TvStation> getTvStations(Document doc, String city) {
+		String classify = getClassify(doc);
+		String fileName = getCrawlFileName(city, classify);
+		String hash = MyTvUtils.outputCrawlData(getCrawlerName(),
+				doc.outerHtml(), fileName);
+		indexTvStation(fileName, hash, city, doc);
+		List<TvStation> stationList = parseTvStation(city, doc);
+		logger.debug("tv station crawled." + stationList);
+		return stationList;
 	}
 
 	/**
-	 * 解析指定城市下的电视台
+	 * 将电视台页面中的电视台登记到电视台目录索引，页面内容未改变时不重复解析
 	 * 
-	 * @param htmlPage
+	 * @param fileName
+	 *            抓取数据文件名
+	 * @param hash
+	 *            抓取数据文件的内容摘要
 	 * @param city
 	 *            所属城市
-	 * @return
+	 * @param doc
 	 */
-	private List<TvStation> getTvStations(HtmlPage htmlPage, String city) {
-		String html = htmlPage.asXml();
-		List<?> elements = htmlPage
-				.getByXPath("//div[@class='chlsnav']/div[@class='pbar']/b");
-		HtmlBold hb = (HtmlBold) elements.get(0);
-		String classify = hb.getTextContent().trim();
-		MyTvUtils.outputCrawlData(getCrawlerName(), html,
-				getCrawlFileName(city, classify));
-		List<TvStation> stationList = parseTvStation(city, html);
-		logger.debug("tv station crawled." + stationList);
-		return stationList;
+	private void indexTvStation(String fileName, String hash, String city,
+			Document doc) {
+		StationCatalogue catalogue = StationCatalogue.getInstance();
+		if (hash == null
+				|| catalogue.isIndexed(getCrawlerName(), fileName, hash)) {
+			return;
+		}
+		String classify = getClassify(doc);
+		String location = doc.location();
+		List<StationCatalogue.Entry> entries = new ArrayList<StationCatalogue.Entry>();
+		for (Element li : doc.select("div.chlsnav ul.r li")) {
+			if (li.children().isEmpty()) {
+				continue;
+			}
+			Element channel = li.child(0);
+			String url = null;
+			if ("a".equalsIgnoreCase(channel.tagName())) {
+				url = TV_MAO_URL_PREFIX + channel.attr("href");
+			} else if (location != null && location.length() > 0) {
+				url = location;
+			}
+			entries.add(new StationCatalogue.Entry(city, classify, channel
+					.text().trim(), url));
+		}
+		catalogue.update(getCrawlerName(), fileName, hash, entries);
 	}
 
 	@Override
@@ -312,28 +394,14 @@ public class TvMaoCrawler extends AbstractCrawler {
 			return null;
 		}
 		String queryDate = DateUtils.date2String(dateObj, "yyyy-MM-dd");
-		final TvMaoCrawlTask task = new TvMaoCrawlTask();
+		TvMaoCrawlTask task = new TvMaoCrawlTask();
 		task.date = queryDate;
 		task.tvStation = station;
-
-		ScheduledFuture<List<ProgramTable>> future = SCHEDULED_EXECUTOR_SERVICE
-				.schedule(new Callable<List<ProgramTable>>() {
-					@Override
-					public List<ProgramTable> call() throws Exception {
-						return crawlProgramTable(task);
-					}
-				}, getScheduleFrequency(), TimeUnit.MILLISECONDS);
-		try {
-			return future.get();
-		} catch (InterruptedException e) {
-			logger.error("crawl task interrupted while crawl program table of "
-					+ station + " at " + queryDate, e);
-		} catch (ExecutionException e) {
-			logger.error(
-					"crawl task executed fail while crawl program table of "
-							+ station + " at " + queryDate, e);
-		}
-		return null;
+		// 访问速率由抓取调度器控制
+		long start = System.nanoTime();
+		List<ProgramTable> ptList = crawlProgramTable(task);
+		recordCrawl(start, ptList);
+		return ptList;
 	}
 
 	private List<ProgramTable> crawlProgramTable(TvMaoCrawlTask task) {
@@ -341,53 +409,58 @@ public class TvMaoCrawler extends AbstractCrawler {
 		String queryDate = task.date;
 		String stationName = station.getName();
 
+		// 网站只提供本周的节目表，滚动窗口超出本周的日期无法抓取
+		Set<String> availableQueryDate = new HashSet<String>();
+		String[] dates = DateUtils.getWeek(new Date(), "yyyy-MM-dd");
+		for (String d : dates) {
+			availableQueryDate.add(d);
+		}
+		if (!availableQueryDate.contains(queryDate)) {
+			logger.debug(queryDate + " is out of the week range of "
+					+ TV_MAO_URL + ", skip " + stationName);
+			return null;
+		}
+
 		logger.info("crawl program table of " + stationName + " at "
 				+ queryDate);
-		HtmlPage htmlPage = (HtmlPage) WebCrawler.crawl(TV_MAO_URL);
+		Document doc = null;
 		try {
-			htmlPage = searchStation(htmlPage, station);
+			doc = searchStation(station);
 		} catch (Exception e) {
 			logger.error("error occur while search station: " + stationName, e);
 			return null;
 		}
 
-		if (htmlPage == null) {
+		if (doc == null) {
 			logger.debug("cannot get station data from " + TV_MAO_URL + " of "
 					+ stationName);
 			return null;
 		}
 
 		if (!queryDate.equals(DateUtils.today())) {
-			Set<String> availableQueryDate = new HashSet<String>();
-			String[] dates = DateUtils.getWeek(new Date(), "yyyy-MM-dd");
-			for (String d : dates) {
-				availableQueryDate.add(d);
-			}
-
-			if (availableQueryDate.contains(queryDate)) {
-				List<?> dateElements = htmlPage
-						.getByXPath("//div[@class='pgnav_wrap']//div[@class='epghdc lt']//dl[@class='commtab clear']/dd/a");
-				for (int i = 0, size = dateElements == null ? 0 : dateElements
-						.size(); i < size; i++) {
-					HtmlAnchor anchor = (HtmlAnchor) dateElements.get(i);
-					String value = anchor.getTextContent().trim();
-					if (value.endsWith(")")
-							&& queryDate.equals(Calendar.getInstance().get(
-									Calendar.YEAR)
-									+ "-"
-									+ value.substring(2, value.length() - 1))) {
-						String href = anchor.getHrefAttribute();
-						htmlPage = (HtmlPage) WebCrawler
-								.crawl(TV_MAO_URL_PREFIX + href);
-						break;
-					}
+			Elements dateElements = doc
+					.select("div.pgnav_wrap div[class=\"epghdc lt\"] dl[class=\"commtab clear\"] > dd > a");
+			for (Element anchor : dateElements) {
+				String value = anchor.text().trim();
+				if (value.endsWith(")")
+						&& queryDate.equals(Calendar.getInstance().get(
+								Calendar.YEAR)
+								+ "-"
+								+ value.substring(2, value.length() - 1))) {
+					String href = anchor.attr("href");
+					doc = WebCrawler.crawlAsDocument(getCrawlerName(),
+							TV_MAO_URL_PREFIX + href);
+					break;
 				}
 			}
 		}
 
-		String html = htmlPage.asXml();
-		List<ProgramTable> ptList = parseProgramTable(html);
-		MyTvUtils.outputCrawlData(queryDate, html, queryDate
+		long start = System.nanoTime();
+		List<ProgramTable> ptList = parseProgramTable(doc);
+		MetricsRegistry.getInstance()
+				.timer("crawler." + getCrawlerName() + ".parse")
+				.updateSince(start);
+		MyTvUtils.outputCrawlData(queryDate, doc.outerHtml(), queryDate
 				+ Constant.UNDERLINE + getCrawlerName() + Constant.UNDERLINE
 				+ stationName);
 		for (CrawlEventListener listener : listeners) {
@@ -404,35 +477,28 @@ public class TvMaoCrawler extends AbstractCrawler {
 		if (city == null || classify == null) {
 			return false;
 		}
-		String tvMaoFile = getCrawlFilePath(station);
-		File file = new File(tvMaoFile);
-		if (file.exists()) {
-			String html = null;
-			try {
-				html = MyTvUtils.readAsHtml(tvMaoFile);
-			} catch (IOException e) {
-				return false;
-			}
-			Document doc = Jsoup.parse(html);
-			Elements classifyElements = doc.select("div.chlsnav div.pbar b");
-			String classifyName = classifyElements.get(0).text().trim();
-			Elements channelElements = doc.select("div.chlsnav ul.r li");
-			for (Element element : channelElements) {
-				Element channel = element.child(0);
-				String stationName = channel.text().trim();
-				if (stationName.equals(station.getName())
-						&& classifyName.equals(classify)) {
-					return true;
+		// 电视台目录索引中有该分类页面的记录时直接查询，页面内容改变时才重新解析
+		String fileName = getCrawlFileName(city, classify);
+		String hash = MyTvUtils.getCrawlDataHash(getCrawlerName(), fileName);
+		if (hash != null) {
+			StationCatalogue catalogue = StationCatalogue.getInstance();
+			if (!catalogue.isIndexed(getCrawlerName(), fileName, hash)) {
+				String html = MyTvUtils.readCrawlData(getCrawlerName(),
+						fileName);
+				if (html != null) {
+					indexTvStation(fileName, hash, city, Jsoup.parse(html));
 				}
 			}
-			return false;
+			return catalogue.exists(getCrawlerName(), city, classify,
+					station.getName());
 		}
 
-		HtmlPage htmlPage = (HtmlPage) WebCrawler.crawl(TV_MAO_URL);
 		try {
-			if ((htmlPage = searchStation(htmlPage, station)) != null) {
-				MyTvUtils.outputCrawlData(getCrawlerName(), htmlPage.asXml(),
-						getCrawlFileName(city, classify));
+			Document doc = searchStation(station);
+			if (doc != null) {
+				hash = MyTvUtils.outputCrawlData(getCrawlerName(),
+						doc.outerHtml(), fileName);
+				indexTvStation(fileName, hash, city, doc);
 				return true;
 			}
 		} catch (Exception e) {
@@ -444,27 +510,24 @@ public class TvMaoCrawler extends AbstractCrawler {
 	}
 
 	/**
-	 * 搜索电视台在html中的位置
+	 * 从tvmao首页开始，依次按城市、分类、电视台名称查找电视台节目表页面
 	 * 
-	 * @param htmlPage
 	 * @param station
-	 * @return
+	 * @return 电视台节目表页面，找不到时返回null
 	 */
-	private HtmlPage searchStation(HtmlPage htmlPage, TvStation station) {
+	private Document searchStation(TvStation station) {
+		Document doc = WebCrawler.crawlAsDocument(getCrawlerName(), TV_MAO_URL);
 		String city = station.getCity();
-		List<?> cityElements = htmlPage
-				.getByXPath("//div[@class='pgnav_wrap']/table[@class='pgnav']//a");
-		int ssize = cityElements == null ? 0 : cityElements.size();
+		Elements cityElements = doc.select("div.pgnav_wrap > table.pgnav a");
 		boolean found = false;
-		for (int i = 0; i < ssize; i++) {
-			final HtmlAnchor anchor = (HtmlAnchor) cityElements.get(i);
-			if (!anchor.getAttribute("href").startsWith("/program/")) {
+		for (Element anchor : cityElements) {
+			String href = anchor.attr("href");
+			if (!href.startsWith("/program/")) {
 				continue;
-			} else if (city.equals(anchor.getTextContent().trim())) {
-				String href = anchor.getHrefAttribute();
+			} else if (city.equals(anchor.text().trim())) {
 				found = true;
-				htmlPage = (HtmlPage) WebCrawler
-						.crawl(TV_MAO_URL_PREFIX + href);
+				doc = WebCrawler.crawlAsDocument(getCrawlerName(),
+						TV_MAO_URL_PREFIX + href);
 				break;
 			}
 		}
@@ -472,25 +535,17 @@ public class TvMaoCrawler extends AbstractCrawler {
 			return null;
 		}
 		found = false;
-		List<?> classifyElements = htmlPage
-				.getByXPath("//div[@class='chlsnav']/div[@class='pbar']/b");
 		String classify = station.getClassify();
-		HtmlBold hb = (HtmlBold) classifyElements.get(0);
-		if (classify.equals(hb.getTextContent().trim())) {
+		if (classify.equals(getClassify(doc))) {
 			found = true;
 		} else {
-			classifyElements = htmlPage
-					.getByXPath("//div[@class='chlsnav']//div[@class='plst']/parent::*");
-			for (int i = 0, size = classifyElements == null ? 0
-					: classifyElements.size(); i < size; i++) {
-				HtmlAnchor anchor = (HtmlAnchor) classifyElements.get(i);
-				String elementText = anchor.getFirstElementChild()
-						.getFirstElementChild().getTextContent().trim();
+			for (Element anchor : getClassifyAnchors(doc)) {
+				String elementText = anchor.child(0).child(0).text().trim();
 				if (classify.equals(elementText)) {
-					String href = anchor.getHrefAttribute();
+					String href = anchor.attr("href");
 					found = true;
-					htmlPage = (HtmlPage) WebCrawler.crawl(TV_MAO_URL_PREFIX
-							+ href);
+					doc = WebCrawler.crawlAsDocument(getCrawlerName(),
+							TV_MAO_URL_PREFIX + href);
 					break;
 				}
 			}
@@ -499,19 +554,19 @@ public class TvMaoCrawler extends AbstractCrawler {
 			return null;
 		}
 		String stationName = station.getName();
-		List<?> stationElements = htmlPage
-				.getByXPath("//div[@class='chlsnav']//ul[@class='r']//li");
-		for (int i = 0, size = stationElements == null ? 0 : stationElements
-				.size(); i < size; i++) {
-			DomElement element = ((DomElement) stationElements.get(i))
-					.getFirstElementChild();
-			if (stationName.equals(element.getTextContent().trim())) {
-				if (element instanceof HtmlBold) {
-					return htmlPage;
-				} else if (element instanceof HtmlAnchor) {
-					String href = ((HtmlAnchor) element).getHrefAttribute();
-					return (HtmlPage) WebCrawler
-							.crawl(TV_MAO_URL_PREFIX + href);
+		Elements stationElements = doc.select("div.chlsnav ul.r li");
+		for (Element li : stationElements) {
+			if (li.children().isEmpty()) {
+				continue;
+			}
+			Element element = li.child(0);
+			if (stationName.equals(element.text().trim())) {
+				if ("b".equalsIgnoreCase(element.tagName())) {
+					return doc;
+				} else if ("a".equalsIgnoreCase(element.tagName())) {
+					String href = element.attr("href");
+					return WebCrawler.crawlAsDocument(getCrawlerName(),
+							TV_MAO_URL_PREFIX + href);
 				}
 				break;
 			}
@@ -520,14 +575,31 @@ public class TvMaoCrawler extends AbstractCrawler {
 	}
 
 	/**
-	 * 取得将被存储的抓取文件路径
+	 * 获取页面当前的电视台分类
 	 * 
-	 * @param station
+	 * @param doc
 	 * @return
 	 */
-	private String getCrawlFilePath(TvStation station) {
-		return Constant.CRAWL_FILE_PATH + getCrawlerName() + File.separator
-				+ getCrawlFileName(station.getCity(), station.getClassify());
+	private String getClassify(Document doc) {
+		return doc.select("div.chlsnav > div.pbar > b").get(0).text().trim();
+	}
+
+	/**
+	 * 获取页面中其他电视台分类的链接
+	 * 
+	 * @param doc
+	 * @return
+	 */
+	private List<Element> getClassifyAnchors(Document doc) {
+		List<Element> resultList = new ArrayList<Element>();
+		for (Element element : doc.select("div.chlsnav div.plst")) {
+			Element parent = element.parent();
+			if (parent != null && "a".equalsIgnoreCase(parent.tagName())
+					&& !resultList.contains(parent)) {
+				resultList.add(parent);
+			}
+		}
+		return resultList;
 	}
 
 	/**
@@ -558,11 +630,10 @@ public class TvMaoCrawler extends AbstractCrawler {
 	 * 解析电视台对象
 	 * 
 	 * @param city
-	 * @param html
+	 * @param doc
 	 * @return
 	 */
-	private List<TvStation> parseTvStation(String city, String html) {
-		Document doc = Jsoup.parse(html);
+	private List<TvStation> parseTvStation(String city, Document doc) {
 		Elements classifyElements = doc.select("div.chlsnav div.pbar b");
 		String classify = classifyElements.get(0).text().trim();
 		List<TvStation> resultList = new ArrayList<TvStation>();
@@ -586,11 +657,10 @@ public class TvMaoCrawler extends AbstractCrawler {
 	/**
 	 * 解析电视节目表
 	 * 
-	 * @param html
+	 * @param doc
 	 * @return
 	 */
-	private List<ProgramTable> parseProgramTable(String html) {
-		Document doc = Jsoup.parse(html);
+	private List<ProgramTable> parseProgramTable(Document doc) {
 		Elements dateElements = doc
 				.select("div.pgmain div[class=\"mt10 clear\"] b:first-child");
 		String dateAndWeek = dateElements.get(0).text().trim();
@@ -696,19 +766,15 @@ public class TvMaoCrawler extends AbstractCrawler {
 	}
 
 	private final static class TvMaoPageObjectFactory extends
-			BaseKeyedPoolableObjectFactory<TvMaoObjectKey, HtmlPage> {
+			BaseKeyedPoolableObjectFactory<TvMaoObjectKey, Document> {
 
 		@Override
-		public HtmlPage makeObject(TvMaoObjectKey key) throws Exception {
-			Page page = WebCrawler.crawl(key.url);
-			if (page.isHtmlPage()) {
-				return (HtmlPage) page;
-			}
-			throw new MyTvException("invalid web page which url: " + key.url);
+		public Document makeObject(TvMaoObjectKey key) throws Exception {
+			return WebCrawler.crawlAsDocument(TV_MAO_NAME, key.url);
 		}
 
 		@Override
-		public void destroyObject(TvMaoObjectKey key, HtmlPage obj)
+		public void destroyObject(TvMaoObjectKey key, Document obj)
 				throws Exception {
 			String today = DateUtils.today();
 			if (!key.date.equals(today)) {
@@ -758,31 +824,4 @@ public class TvMaoCrawler extends AbstractCrawler {
 			return true;
 		}
 	}
-
-	/**
-	 * 生成随机数字
-	 * 
-	 * @return
-	 */
-	private long getRandomNumber(int min, int max) {
-		return min + RANDOM.nextInt(max) % (max - min + 1);
-	}
-
-	private long getRandomSleepTime() {
-		return getRandomNumber(0, 30);
-	}
-
-	/**
-	 * 获取调度频率
-	 * 
-	 * @return
-	 */
-	private long getScheduleFrequency() {
-		int proxySize = MyTvProxyManager.getInstance().getProxySize();
-		if (proxySize == 0) {
-			return getRandomNumber(1000, 2000);
-		} else {
-			return getRandomNumber(1000, 2000) / proxySize;
-		}
-	}
 }
@@ -19,18 +19,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Properties;
 import java.util.ResourceBundle;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.sql.DataSource;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.commons.dbcp.BasicDataSourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.laudandjolynn.mytv.exception.MyTvException;
 import com.laudandjolynn.mytv.utils.Config;
@@ -44,6 +40,8 @@ import com.laudandjolynn.mytv.utils.Config.DbType;
  */
 @SuppressWarnings("unchecked")
 public class DataSourceManager {
+	private final static Logger logger = LoggerFactory
+			.getLogger(DataSourceManager.class);
 	private static Class<TvDataSource> dsClass = null;
 	public final static String RES_KEY_DS_CLASS_NAME = "ds_class_name";
 	public final static String RES_KEY_DB_DRIVER_CLASS = "db_driver_class";
@@ -51,11 +49,8 @@ public class DataSourceManager {
 	public final static String RES_KEY_DB_USER_NAME = "db_username";
 	public final static String RES_KEY_DB_PASSWORD = "db_password";
 	public final static String RES_KEY_DB_FILE_NAME = "db_file_name";
-	public final static String RES_KEY_DB_SQL_LIST = "db_sql_stmt";
 	// 数据源配置文件前缀，如db_sqlite、db_mysql
 	private final static String DB_PROPERTY_FILE_PREFIX = "db_";
-	// 配置文件中的sql语句前缀
-	private final static String DB_PROPERTY_FILE_SQL_PREFIX = "sql_";
 	// DBCP连接池配置
 	private final static String DBCP_FILE_NAME = "dbcp.properties";
 	private final static String DBCP_URL = "url";
@@ -65,8 +60,13 @@ public class DataSourceManager {
 
 	public final static Properties DATA_SOURCE_PROP = new Properties();
 	private final static Properties DBCP_PROP = new Properties();
-	private final static Pattern PATTERN_DB_PROPERTY_FILE_SQL_SUFFIX = Pattern
-			.compile("_(\\d+)$");
+	// 全局共享的连接池，首次获取连接时创建
+	private static volatile BasicDataSource pooledDataSource = null;
+	private static volatile boolean shutdown = false;
+	// 连接池借出统计，时间单位：纳秒
+	private final static AtomicLong BORROW_COUNT = new AtomicLong();
+	private final static AtomicLong BORROW_TIME = new AtomicLong();
+	private final static AtomicLong MAX_BORROW_TIME = new AtomicLong();
 
 	static {
 		// dbcp
@@ -122,34 +122,12 @@ public class DataSourceManager {
 			String dbFileName = bundle.getString(RES_KEY_DB_FILE_NAME);
 			DATA_SOURCE_PROP.setProperty(RES_KEY_DB_FILE_NAME, dbFileName);
 		}
-		List<String> keyList = new ArrayList<String>(bundle.keySet());
-		Collections.sort(keyList, new Comparator<String>() {
-			@Override
-			public int compare(String o1, String o2) {
-				int s1 = 0;
-				int s2 = 0;
-				Matcher matcher = PATTERN_DB_PROPERTY_FILE_SQL_SUFFIX
-						.matcher(o1);
-				if (matcher.find()) {
-					s1 = Integer.valueOf(matcher.group(1));
-				}
-				matcher = PATTERN_DB_PROPERTY_FILE_SQL_SUFFIX.matcher(o2);
-				if (matcher.find()) {
-					s2 = Integer.valueOf(matcher.group(1));
-				}
-				return s1 - s2;
-			}
-		});
-		List<String> sqlList = new ArrayList<String>();
-		for (String key : keyList) {
-			if (key.startsWith(DB_PROPERTY_FILE_SQL_PREFIX)) {
-				String value = bundle.getString(key);
-				sqlList.add(value);
+		for (String key : bundle.keySet()) {
+			if (!DATA_SOURCE_PROP.containsKey(key)) {
+				// 数据源的其他配置，如sqlite连接参数
+				DATA_SOURCE_PROP.setProperty(key, bundle.getString(key));
 			}
 		}
-
-		DATA_SOURCE_PROP.put(RES_KEY_DB_SQL_LIST, sqlList);
-
 	}
 
 	/**
@@ -168,8 +146,10 @@ public class DataSourceManager {
 				return dsClass.newInstance().getConnection(DATA_SOURCE_PROP);
 			}
 
-			DataSource ds = BasicDataSourceFactory.createDataSource(DBCP_PROP);
+			BasicDataSource ds = getPooledDataSource();
+			long start = System.nanoTime();
 			Connection conn = ds.getConnection();
+			recordBorrow(System.nanoTime() - start);
 			return conn;
 		} catch (InstantiationException e) {
 			throw new MyTvException("can't instantce db driver: " + dsClass, e);
@@ -179,4 +159,96 @@ public class DataSourceManager {
 			throw new MyTvException(e);
 		}
 	}
+
+	/**
+	 * 获取连接池，延迟创建，整个进程共享一个连接池
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	private static BasicDataSource getPooledDataSource() throws Exception {
+		BasicDataSource ds = pooledDataSource;
+		if (ds == null) {
+			synchronized (DataSourceManager.class) {
+				ds = pooledDataSource;
+				if (ds == null) {
+					if (shutdown) {
+						throw new MyTvException("data source has been shutdown.");
+					}
+					logger.info("create pooled data source: "
+							+ DBCP_PROP.getProperty(DBCP_URL));
+					ds = (BasicDataSource) BasicDataSourceFactory
+							.createDataSource(DBCP_PROP);
+					pooledDataSource = ds;
+				}
+			}
+		}
+		return ds;
+	}
+
+	/**
+	 * 记录一次连接借出的耗时
+	 * 
+	 * @param elapsed
+	 *            单位：纳秒
+	 */
+	private static void recordBorrow(long elapsed) {
+		BORROW_COUNT.incrementAndGet();
+		BORROW_TIME.addAndGet(elapsed);
+		long max = MAX_BORROW_TIME.get();
+		while (elapsed > max) {
+			if (MAX_BORROW_TIME.compareAndSet(max, elapsed)) {
+				break;
+			}
+			max = MAX_BORROW_TIME.get();
+		}
+	}
+
+	/**
+	 * 获取连接池统计信息，连接池未创建时返回null
+	 * 
+	 * @return
+	 */
+	public static DataSourceStatistics getStatistics() {
+		BasicDataSource ds = pooledDataSource;
+		if (ds == null) {
+			return null;
+		}
+		DataSourceStatistics stat = new DataSourceStatistics();
+		stat.setNumActive(ds.getNumActive());
+		stat.setNumIdle(ds.getNumIdle());
+		stat.setMaxActive(ds.getMaxActive());
+		stat.setMaxIdle(ds.getMaxIdle());
+		stat.setMaxWait(ds.getMaxWait());
+		long count = BORROW_COUNT.get();
+		stat.setBorrowCount(count);
+		stat.setAvgBorrowTime(count == 0 ? 0 : BORROW_TIME.get() / count
+				/ 1000000.0);
+		stat.setMaxBorrowTime(MAX_BORROW_TIME.get() / 1000000.0);
+		return stat;
+	}
+
+	/**
+	 * 关闭连接池，应用退出时调用
+	 */
+	public static void shutdown() {
+		if (Config.getDbType() == DbType.SQLITE) {
+			SqliteConnectionManager.shutdown();
+			return;
+		}
+		synchronized (DataSourceManager.class) {
+			shutdown = true;
+			BasicDataSource ds = pooledDataSource;
+			if (ds == null) {
+				return;
+			}
+			logger.info("shutdown pooled data source. " + getStatistics());
+			pooledDataSource = null;
+			try {
+				ds.close();
+			} catch (SQLException e) {
+				logger.error("error occur while close pooled data source.", e);
+			}
+		}
+	}
 }
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.datasource;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月4日 下午2:16:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class DataSourceStatistics {
+	// 当前借出的连接数
+	private int numActive;
+	// 当前空闲的连接数
+	private int numIdle;
+	private int maxActive;
+	private int maxIdle;
+	// 连接池耗尽时最长等待时间，单位：毫秒
+	private long maxWait;
+	// 累计借出次数
+	private long borrowCount;
+	// 平均借出耗时，单位：毫秒
+	private double avgBorrowTime;
+	// 最长借出耗时，单位：毫秒
+	private double maxBorrowTime;
+
+	public int getNumActive() {
+		return numActive;
+	}
+
+	public void setNumActive(int numActive) {
+		this.numActive = numActive;
+	}
+
+	public int getNumIdle() {
+		return numIdle;
+	}
+
+	public void setNumIdle(int numIdle) {
+		this.numIdle = numIdle;
+	}
+
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	public void setMaxActive(int maxActive) {
+		this.maxActive = maxActive;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	public long getBorrowCount() {
+		return borrowCount;
+	}
+
+	public void setBorrowCount(long borrowCount) {
+		this.borrowCount = borrowCount;
+	}
+
+	public double getAvgBorrowTime() {
+		return avgBorrowTime;
+	}
+
+	public void setAvgBorrowTime(double avgBorrowTime) {
+		this.avgBorrowTime = avgBorrowTime;
+	}
+
+	public double getMaxBorrowTime() {
+		return maxBorrowTime;
+	}
+
+	public void setMaxBorrowTime(double maxBorrowTime) {
+		this.maxBorrowTime = maxBorrowTime;
+	}
+
+	@Override
+	public String toString() {
+		return "DataSourceStatistics [numActive=" + numActive + ", numIdle="
+				+ numIdle + ", maxActive=" + maxActive + ", maxIdle="
+				+ maxIdle + ", maxWait=" + maxWait + ", borrowCount="
+				+ borrowCount + ", avgBorrowTime=" + avgBorrowTime
+				+ ", maxBorrowTime=" + maxBorrowTime + "]";
+	}
+
+}
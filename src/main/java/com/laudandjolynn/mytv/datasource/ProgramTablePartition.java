@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.Config.DbType;
+import com.laudandjolynn.mytv.utils.DateUtils;
+
+/**
+ * <pre>
+ * 节目表分区，按播出日期每周(周一开始)一个分区
+ * sqlite：每个分区一张表，表名为program_table_周一日期(yyyyMMdd)，
+ * 启动时将program_table中的历史数据迁移到分区表
+ * mysql：program_table按to_days(airdate)范围分区，分区名为p周一日期，
+ * 新的一周的数据写入前从p_max分区拆分出新分区；
+ * sqlite每个分区表的自增id从周一日期*10^7开始，不同分区的id不会重复；
+ * 读写分区表须持有共享锁，删除分区时持有排他锁，避免查询期间分区被删除
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月12日 上午10:05:33
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProgramTablePartition {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ProgramTablePartition.class);
+	private final static String PROGRAM_TABLE = "program_table";
+	private final static String SQLITE_PARTITION_PREFIX = PROGRAM_TABLE + "_";
+	private final static String MYSQL_PARTITION_PREFIX = "p";
+	private final static String MYSQL_PARTITION_MAX = "p_max";
+	private final static String WEEK_PATTERN = "yyyyMMdd";
+	private final static String DATE_PATTERN = "yyyy-MM-dd";
+	// 已存在的分区的周一日期，yyyyMMdd
+	private final TreeSet<String> weeks = new TreeSet<String>();
+	private final boolean sqlite = Config.getDbType() == DbType.SQLITE;
+	// 每个sqlite分区表可容纳的id个数
+	private final static long ID_RANGE = 10000000L;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private ProgramTablePartition() {
+	}
+
+	public static ProgramTablePartition getInstance() {
+		return ProgramTablePartitionSingletonHolder.PROGRAM_TABLE_PARTITION;
+	}
+
+	private final static class ProgramTablePartitionSingletonHolder {
+		private final static ProgramTablePartition PROGRAM_TABLE_PARTITION = new ProgramTablePartition();
+	}
+
+	/**
+	 * 载入已存在的分区，sqlite将program_table中的历史数据迁移到分区表
+	 */
+	public synchronized void init() {
+		Connection conn = getConnection();
+		try {
+			weeks.clear();
+			String sql = sqlite ? "select name from sqlite_master where type='table' and name like '"
+					+ SQLITE_PARTITION_PREFIX + "%'"
+					: "select partition_name from information_schema.partitions where table_schema=database() and table_name='"
+							+ PROGRAM_TABLE
+							+ "' and partition_name is not null";
+			String prefix = sqlite ? SQLITE_PARTITION_PREFIX
+					: MYSQL_PARTITION_PREFIX;
+			Statement stmt = conn.createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(sql);
+				while (rs.next()) {
+					String name = rs.getString(1);
+					String week = name.substring(prefix.length());
+					if (week.matches("\\d{8}")) {
+						weeks.add(week);
+					}
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+			if (sqlite) {
+				migrateLegacy(conn);
+			}
+			logger.info("program table partitions: " + weeks);
+		} catch (SQLException e) {
+			throw new MyTvException(
+					"error occur while load program table partitions.", e);
+		} finally {
+			close(conn);
+		}
+	}
+
+	/**
+	 * 读写分区表前获取共享锁，须在finally中调用unlockShared释放
+	 */
+	public void lockShared() {
+		lock.readLock().lock();
+	}
+
+	public void unlockShared() {
+		lock.readLock().unlock();
+	}
+
+	/**
+	 * 获取指定日期的节目表所在的表名
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return
+	 */
+	public String getTableName(String date) {
+		return sqlite ? SQLITE_PARTITION_PREFIX + getWeek(date)
+				: PROGRAM_TABLE;
+	}
+
+	/**
+	 * 指定日期的节目表所在的表是否存在
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return
+	 */
+	public synchronized boolean exists(String date) {
+		return !sqlite || weeks.contains(getWeek(date));
+	}
+
+	/**
+	 * 获取指定日期范围内的节目表所在的已存在的表名
+	 * 
+	 * @param startDate
+	 *            开始日期，yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期，yyyy-MM-dd
+	 * @return
+	 */
+	public synchronized List<String> getTableNames(String startDate,
+			String endDate) {
+		List<String> tableNames = new ArrayList<String>();
+		Date date = DateUtils.string2Date(startDate, DATE_PATTERN);
+		Date end = DateUtils.string2Date(endDate, DATE_PATTERN);
+		for (; !date.after(end); date = DateUtils.addDay(date, 1)) {
+			String day = DateUtils.date2String(date, DATE_PATTERN);
+			String tableName = getTableName(day);
+			if (exists(day) && !tableNames.contains(tableName)) {
+				tableNames.add(tableName);
+			}
+		}
+		return tableNames;
+	}
+
+	/**
+	 * 确保指定日期的分区已存在，须在事务外调用
+	 * 
+	 * @param conn
+	 * @param dates
+	 *            日期，yyyy-MM-dd
+	 * @throws SQLException
+	 */
+	public synchronized void ensure(Connection conn, Collection<String> dates)
+			throws SQLException {
+		TreeSet<String> missing = new TreeSet<String>();
+		for (String date : dates) {
+			String week = getWeek(date);
+			if (sqlite ? !weeks.contains(week) : (weeks.isEmpty() || week
+					.compareTo(weeks.last()) > 0)) {
+				missing.add(week);
+			}
+		}
+		for (String week : missing) {
+			if (sqlite) {
+				createTable(conn, week);
+			} else {
+				splitMaxPartition(conn, week);
+			}
+			weeks.add(week);
+		}
+	}
+
+	/**
+	 * 删除所有日期都早于指定日期的分区，等待正在读写分区表的操作完成后再删除
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return 删除的分区数
+	 */
+	public int dropBefore(String date) {
+		String before = DateUtils.date2String(
+				DateUtils.string2Date(date, DATE_PATTERN), WEEK_PATTERN);
+		// 先获取排他锁再同步，与读写操作的加锁顺序一致
+		lock.writeLock().lock();
+		try {
+			synchronized (this) {
+				List<String> expired = new ArrayList<String>();
+				for (String week : weeks) {
+					if (nextWeek(week).compareTo(before) <= 0) {
+						expired.add(week);
+					}
+				}
+				if (expired.isEmpty()) {
+					return 0;
+				}
+				Connection conn = getConnection();
+				try {
+					Statement stmt = conn.createStatement();
+					try {
+						for (String week : expired) {
+							String sql = sqlite ? "drop table if exists "
+									+ SQLITE_PARTITION_PREFIX + week
+									: "alter table " + PROGRAM_TABLE
+											+ " drop partition "
+											+ MYSQL_PARTITION_PREFIX + week;
+							logger.info("drop program table partition: "
+									+ sql);
+							stmt.execute(sql);
+							weeks.remove(week);
+						}
+					} finally {
+						stmt.close();
+					}
+				} catch (SQLException e) {
+					throw new MyTvException(
+							"error occur while drop program table partitions.",
+							e);
+				} finally {
+					close(conn);
+				}
+				return expired.size();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 获取所有分区的周一日期
+	 * 
+	 * @return
+	 */
+	public synchronized List<String> getWeeks() {
+		return new ArrayList<String>(weeks);
+	}
+
+	private void createTable(Connection conn, String week) throws SQLException {
+		String table = SQLITE_PARTITION_PREFIX + week;
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute("create table if not exists "
+					+ table
+					+ "(id INTEGER primary key AUTOINCREMENT, stationName varchar(16), program varchar(512), airdate date, airtime datetime, week INTEGER)");
+			stmt.execute("create unique index if not exists " + table
+					+ "_uk1 on " + table + "(stationName,airdate,airtime)");
+		} finally {
+			stmt.close();
+		}
+		// 新建的分区表还没有自增序列，从本周的id范围开始分配
+		PreparedStatement seqStmt = conn
+				.prepareStatement("insert into sqlite_sequence (name,seq) select ?,? where not exists (select 1 from sqlite_sequence where name=?)");
+		try {
+			seqStmt.setString(1, table);
+			seqStmt.setLong(2, Long.parseLong(week) * ID_RANGE);
+			seqStmt.setString(3, table);
+			seqStmt.executeUpdate();
+		} finally {
+			seqStmt.close();
+		}
+		logger.info("program table partition created: " + table);
+	}
+
+	/**
+	 * 从p_max分区拆分出新的一周的分区，p_max分区为空时无需移动数据
+	 * 
+	 * @param conn
+	 * @param week
+	 * @throws SQLException
+	 */
+	private void splitMaxPartition(Connection conn, String week)
+			throws SQLException {
+		String partition = MYSQL_PARTITION_PREFIX + week;
+		String sql = "alter table " + PROGRAM_TABLE + " reorganize partition "
+				+ MYSQL_PARTITION_MAX + " into (partition " + partition
+				+ " values less than (to_days('" + toDate(nextWeek(week))
+				+ "')), partition " + MYSQL_PARTITION_MAX
+				+ " values less than maxvalue)";
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+		logger.info("program table partition created: " + partition);
+	}
+
+	/**
+	 * 将program_table中的历史数据按周迁移到分区表
+	 * 
+	 * @param conn
+	 * @throws SQLException
+	 */
+	private void migrateLegacy(Connection conn) throws SQLException {
+		List<String> dates = new ArrayList<String>();
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("select distinct airdate from "
+					+ PROGRAM_TABLE);
+			while (rs.next()) {
+				dates.add(rs.getString(1));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		if (dates.isEmpty()) {
+			return;
+		}
+		logger.info("migrate " + dates.size()
+				+ " days program table to partitions.");
+		ensure(conn, dates);
+		TreeSet<String> legacyWeeks = new TreeSet<String>();
+		for (String date : dates) {
+			legacyWeeks.add(getWeek(date));
+		}
+		conn.setAutoCommit(false);
+		try {
+			for (String week : legacyWeeks) {
+				PreparedStatement insertStmt = conn
+						.prepareStatement("insert or ignore into "
+								+ SQLITE_PARTITION_PREFIX
+								+ week
+								+ " (stationName,program,airdate,airtime,week) select stationName,program,airdate,airtime,week from "
+								+ PROGRAM_TABLE
+								+ " where airdate>=? and airdate<?");
+				try {
+					insertStmt.setString(1, toDate(week));
+					insertStmt.setString(2, toDate(nextWeek(week)));
+					insertStmt.executeUpdate();
+				} finally {
+					insertStmt.close();
+				}
+			}
+			stmt = conn.createStatement();
+			try {
+				stmt.executeUpdate("delete from " + PROGRAM_TABLE);
+			} finally {
+				stmt.close();
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * 获取日期所在周的周一日期
+	 * 
+	 * @param date
+	 *            yyyy-MM-dd
+	 * @return yyyyMMdd
+	 */
+	private static String getWeek(String date) {
+		Date day = DateUtils.string2Date(date, DATE_PATTERN);
+		if (day == null) {
+			throw new MyTvException("invalid date: " + date);
+		}
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(day);
+		int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+		// 周日为一周的最后一天
+		int offset = dayOfWeek == Calendar.SUNDAY ? -6 : Calendar.MONDAY
+				- dayOfWeek;
+		calendar.add(Calendar.DAY_OF_MONTH, offset);
+		return DateUtils.date2String(calendar.getTime(), WEEK_PATTERN);
+	}
+
+	private static String nextWeek(String week) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(DateUtils.string2Date(week, WEEK_PATTERN));
+		calendar.add(Calendar.DAY_OF_MONTH, 7);
+		return DateUtils.date2String(calendar.getTime(), WEEK_PATTERN);
+	}
+
+	private static String toDate(String week) {
+		return DateUtils.date2String(
+				DateUtils.string2Date(week, WEEK_PATTERN), DATE_PATTERN);
+	}
+
+	private Connection getConnection() {
+		try {
+			return DataSourceManager.getConnection();
+		} catch (SQLException e) {
+			throw new MyTvException("error occur while connection to db.", e);
+		}
+	}
+
+	private void close(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			throw new MyTvException(e);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.datasource;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 将查询结果的当前行映射为对象
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月12日 下午3:48:10
+ * @copyright: www.laudandjolynn.com
+ */
+public interface RowMapper<T> {
+	/**
+	 * 映射当前行
+	 * 
+	 * @param rs
+	 * @return
+	 * @throws SQLException
+	 */
+	public T mapRow(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.datasource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.Config.DbType;
+import com.laudandjolynn.mytv.utils.DateUtils;
+import com.laudandjolynn.mytv.utils.FileUtils;
+
+/**
+ * <pre>
+ * 数据库结构版本迁移
+ * 迁移脚本位于/migration/数据库类型/V版本号.sql，版本号从1开始连续递增，脚本第一行注释为脚本描述；
+ * 已执行的版本及脚本校验和记录在schema_version表中，已执行的脚本不允许修改；
+ * 没有schema_version表但已有业务表的数据库视为已执行版本1
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月11日 下午2:36:20
+ * @copyright: www.laudandjolynn.com
+ */
+public class SchemaMigrator {
+	private final static Logger logger = LoggerFactory
+			.getLogger(SchemaMigrator.class);
+	private final static String MIGRATION_PATH = "/migration/";
+	private final static String SCHEMA_VERSION_TABLE = "schema_version";
+	private final static String BASELINE_TABLE = "tv_station";
+	private final static int BASELINE_VERSION = 1;
+	private final static String BASELINE_DESCRIPTION = "<< baseline >>";
+
+	private SchemaMigrator() {
+	}
+
+	/**
+	 * 将数据库迁移到最新版本
+	 * 
+	 * @return 当前数据库版本
+	 */
+	public static int migrate() {
+		Connection conn = null;
+		try {
+			conn = DataSourceManager.getConnection();
+			return migrate(conn);
+		} catch (SQLException e) {
+			throw new MyTvException("error occur while migrate db schema.", e);
+		} finally {
+			if (conn != null) {
+				try {
+					conn.close();
+				} catch (SQLException e) {
+					throw new MyTvException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 将指定连接的数据库迁移到最新版本，连接由调用方关闭
+	 * 
+	 * @param conn
+	 * @return 当前数据库版本
+	 */
+	public static int migrate(Connection conn) {
+		String dbType = Config.getDbType().getValue();
+		List<Migration> migrations = loadMigrations(dbType);
+		try {
+			boolean versionTableExists = tableExists(conn,
+					SCHEMA_VERSION_TABLE);
+			boolean baseline = !versionTableExists
+					&& tableExists(conn, BASELINE_TABLE);
+			if (!versionTableExists) {
+				createVersionTable(conn);
+			}
+			if (baseline) {
+				// 迁移机制引入前创建的数据库
+				logger.info("baseline existing db at version "
+						+ BASELINE_VERSION + ".");
+				recordVersion(conn, BASELINE_VERSION, BASELINE_DESCRIPTION,
+						migrations.get(BASELINE_VERSION - 1).checksum, 0);
+			}
+
+			Map<Integer, Long> applied = getAppliedVersions(conn);
+			int current = 0;
+			for (Migration migration : migrations) {
+				Long checksum = applied.get(migration.version);
+				if (checksum == null) {
+					continue;
+				}
+				if (checksum.longValue() != migration.checksum) {
+					throw new MyTvException("checksum of migration V"
+							+ migration.version
+							+ " mismatch, applied script has been modified.");
+				}
+				current = migration.version;
+			}
+			for (Migration migration : migrations) {
+				if (migration.version <= current) {
+					continue;
+				}
+				apply(conn, migration);
+				current = migration.version;
+			}
+			logger.info("db schema is up to date, version: " + current);
+			return current;
+		} catch (SQLException e) {
+			throw new MyTvException("error occur while migrate db schema.", e);
+		}
+	}
+
+	/**
+	 * 执行迁移脚本，sqlite在同一事务中执行脚本并记录版本；
+	 * mysql的ddl语句会隐式提交事务，执行成功后再记录版本
+	 * 
+	 * @param conn
+	 * @param migration
+	 * @throws SQLException
+	 */
+	private static void apply(Connection conn, Migration migration)
+			throws SQLException {
+		logger.info("migrate db schema to version " + migration.version
+				+ ": " + migration.description);
+		boolean transactional = Config.getDbType() == DbType.SQLITE;
+		long start = System.currentTimeMillis();
+		Statement stmt = null;
+		try {
+			conn.setAutoCommit(!transactional);
+			stmt = conn.createStatement();
+			for (String sql : migration.statements) {
+				logger.info("execute sql: " + sql);
+				stmt.execute(sql);
+			}
+			recordVersion(conn, migration.version, migration.description,
+					migration.checksum, System.currentTimeMillis() - start);
+			if (transactional) {
+				conn.commit();
+			}
+		} catch (SQLException e) {
+			if (transactional) {
+				conn.rollback();
+			}
+			throw new MyTvException("error occur while migrate db schema to V"
+					+ migration.version, e);
+		} finally {
+			if (stmt != null) {
+				stmt.close();
+			}
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private static boolean tableExists(Connection conn, String tableName)
+			throws SQLException {
+		DatabaseMetaData metaData = conn.getMetaData();
+		ResultSet rs = metaData.getTables(null, null, tableName, null);
+		try {
+			return rs.next();
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static void createVersionTable(Connection conn)
+			throws SQLException {
+		String sql = "create table " + SCHEMA_VERSION_TABLE
+				+ "(version int primary key, description varchar(128),"
+				+ " checksum bigint, installed_on varchar(19),"
+				+ " execution_time bigint)";
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static void recordVersion(Connection conn, int version,
+			String description, long checksum, long executionTime)
+			throws SQLException {
+		String sql = "insert into " + SCHEMA_VERSION_TABLE
+				+ " (version,description,checksum,installed_on,execution_time)"
+				+ " values(?,?,?,?,?)";
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		try {
+			stmt.setInt(1, version);
+			stmt.setString(2, description);
+			stmt.setLong(3, checksum);
+			stmt.setString(4, DateUtils.date2String(new Date()));
+			stmt.setLong(5, executionTime);
+			stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static Map<Integer, Long> getAppliedVersions(Connection conn)
+			throws SQLException {
+		Map<Integer, Long> applied = new HashMap<Integer, Long>();
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("select version,checksum from "
+					+ SCHEMA_VERSION_TABLE);
+			while (rs.next()) {
+				applied.put(rs.getInt(1), rs.getLong(2));
+			}
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		return applied;
+	}
+
+	/**
+	 * 按版本号顺序载入迁移脚本，直到某个版本号的脚本不存在
+	 * 
+	 * @param dbType
+	 * @return
+	 */
+	private static List<Migration> loadMigrations(String dbType) {
+		List<Migration> migrations = new ArrayList<Migration>();
+		for (int version = 1;; version++) {
+			String path = MIGRATION_PATH + dbType + "/V" + version + ".sql";
+			InputStream is = SchemaMigrator.class.getResourceAsStream(path);
+			if (is == null) {
+				break;
+			}
+			try {
+				migrations.add(new Migration(version, read(is)));
+			} catch (IOException e) {
+				throw new MyTvException("error occur while read migration: "
+						+ path, e);
+			}
+		}
+		if (migrations.isEmpty()) {
+			throw new MyTvException("no migration found of db: " + dbType);
+		}
+		return migrations;
+	}
+
+	private static byte[] read(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			int len = -1;
+			while ((len = is.read(buffer)) != -1) {
+				out.write(buffer, 0, len);
+			}
+		} finally {
+			is.close();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * 迁移脚本
+	 */
+	private final static class Migration {
+		private final int version;
+		private final String description;
+		private final long checksum;
+		private final List<String> statements = new ArrayList<String>();
+
+		private Migration(int version, byte[] data)
+				throws UnsupportedEncodingException {
+			this.version = version;
+			// 忽略换行符差异计算校验和
+			String script = new String(data, FileUtils.DEFAULT_CHARSET_NAME)
+					.replace("\r\n", "\n");
+			CRC32 crc32 = new CRC32();
+			crc32.update(script.getBytes(FileUtils.DEFAULT_CHARSET_NAME));
+			this.checksum = crc32.getValue();
+
+			String description = "";
+			StringBuilder sql = new StringBuilder();
+			for (String line : script.split("\n")) {
+				String trimmed = line.trim();
+				if (trimmed.startsWith("--")) {
+					if (description.length() == 0) {
+						description = trimmed.substring(2).trim();
+					}
+					continue;
+				}
+				sql.append(line).append('\n');
+				if (trimmed.endsWith(";")) {
+					addStatement(sql);
+				}
+			}
+			addStatement(sql);
+			this.description = description;
+		}
+
+		private void addStatement(StringBuilder sql) {
+			String statement = sql.toString().trim();
+			if (statement.endsWith(";")) {
+				statement = statement.substring(0, statement.length() - 1)
+						.trim();
+			}
+			if (statement.length() > 0) {
+				statements.add(statement);
+			}
+			sql.setLength(0);
+		}
+	}
+}
@@ -16,12 +16,9 @@
 package com.laudandjolynn.mytv.datasource;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
-import com.laudandjolynn.mytv.utils.Constant;
-
 /**
  * @author: Laud
  * @email: htd0324@gmail.com
@@ -31,10 +28,7 @@ import com.laudandjolynn.mytv.utils.Constant;
 public class Sqlite implements TvDataSource {
 	@Override
 	public Connection getConnection(Properties prop) throws SQLException {
-		String dbFileName = prop
-				.getProperty(DataSourceManager.RES_KEY_DB_FILE_NAME);
-		return DriverManager.getConnection("jdbc:sqlite:"
-				+ Constant.MY_TV_DATA_PATH + dbFileName);
+		return SqliteConnectionManager.getInstance(prop).getConnection();
 	}
 
 }
@@ -0,0 +1,473 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.utils.Constant;
+
+/**
+ * <pre>
+ * sqlite连接管理器
+ * 读连接从连接池中获取，写连接全局只有一个，使用WAL日志模式，读写互不阻塞。
+ * 调用方拿到的连接在第一次使用时才绑定物理连接：
+ * 调用setAutoCommit(false)开启事务、创建Statement或预编译非select语句的连接绑定到写连接，其余绑定到读连接；
+ * 已绑定读连接的连接需要写时升级为写连接，之后的调用都在写连接上执行。
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月5日 上午10:32:08
+ * @copyright: www.laudandjolynn.com
+ */
+public class SqliteConnectionManager {
+	private final static Logger logger = LoggerFactory
+			.getLogger(SqliteConnectionManager.class);
+	public final static String RES_KEY_SQLITE_READ_POOL_SIZE = "sqlite_read_pool_size";
+	public final static String RES_KEY_SQLITE_JOURNAL_MODE = "sqlite_journal_mode";
+	public final static String RES_KEY_SQLITE_SYNCHRONOUS = "sqlite_synchronous";
+	public final static String RES_KEY_SQLITE_CACHE_SIZE = "sqlite_cache_size";
+	public final static String RES_KEY_SQLITE_MMAP_SIZE = "sqlite_mmap_size";
+	public final static String RES_KEY_SQLITE_BUSY_TIMEOUT = "sqlite_busy_timeout";
+	public final static String RES_KEY_SQLITE_STATEMENT_CACHE_SIZE = "sqlite_statement_cache_size";
+	private final static String DEFAULT_READ_POOL_SIZE = "4";
+	private final static String DEFAULT_JOURNAL_MODE = "WAL";
+	private final static String DEFAULT_SYNCHRONOUS = "NORMAL";
+	private final static String DEFAULT_CACHE_SIZE = "-8000";
+	private final static String DEFAULT_MMAP_SIZE = "268435456";
+	private final static String DEFAULT_BUSY_TIMEOUT = "30000";
+	private final static String DEFAULT_STATEMENT_CACHE_SIZE = "32";
+
+	private static volatile SqliteConnectionManager instance = null;
+
+	private final String url;
+	private final String synchronous;
+	private final String cacheSize;
+	private final String mmapSize;
+	private final String busyTimeout;
+	private final int statementCacheSize;
+	private final GenericObjectPool<PhysicalConnection> readPool;
+	private final PhysicalConnection writer;
+	private final Semaphore writeLock = new Semaphore(1, true);
+
+	private SqliteConnectionManager(Properties prop) throws SQLException {
+		String dbFileName = prop
+				.getProperty(DataSourceManager.RES_KEY_DB_FILE_NAME);
+		this.url = "jdbc:sqlite:" + Constant.MY_TV_DATA_PATH + dbFileName;
+		this.synchronous = prop.getProperty(RES_KEY_SQLITE_SYNCHRONOUS,
+				DEFAULT_SYNCHRONOUS);
+		this.cacheSize = prop.getProperty(RES_KEY_SQLITE_CACHE_SIZE,
+				DEFAULT_CACHE_SIZE);
+		this.mmapSize = prop.getProperty(RES_KEY_SQLITE_MMAP_SIZE,
+				DEFAULT_MMAP_SIZE);
+		this.busyTimeout = prop.getProperty(RES_KEY_SQLITE_BUSY_TIMEOUT,
+				DEFAULT_BUSY_TIMEOUT);
+		this.statementCacheSize = Integer.valueOf(prop.getProperty(
+				RES_KEY_SQLITE_STATEMENT_CACHE_SIZE,
+				DEFAULT_STATEMENT_CACHE_SIZE));
+		int readPoolSize = Integer.valueOf(prop.getProperty(
+				RES_KEY_SQLITE_READ_POOL_SIZE, DEFAULT_READ_POOL_SIZE));
+
+		// 先打开写连接，创建数据库文件并设置日志模式，日志模式是持久化在数据库文件中的
+		this.writer = openConnection();
+		String journalMode = prop.getProperty(RES_KEY_SQLITE_JOURNAL_MODE,
+				DEFAULT_JOURNAL_MODE);
+		execute(writer.connection, "pragma journal_mode=" + journalMode);
+		this.readPool = new GenericObjectPool<PhysicalConnection>(
+				new ReadConnectionFactory(), readPoolSize,
+				GenericObjectPool.WHEN_EXHAUSTED_BLOCK, -1, readPoolSize);
+		logger.info("sqlite connection manager created. url: " + url
+				+ ", journal mode: " + journalMode + ", read pool size: "
+				+ readPoolSize);
+	}
+
+	/**
+	 * 获取连接管理器实例，首次调用时创建
+	 * 
+	 * @param prop
+	 *            数据源配置
+	 * @return
+	 * @throws SQLException
+	 */
+	public static SqliteConnectionManager getInstance(Properties prop)
+			throws SQLException {
+		SqliteConnectionManager manager = instance;
+		if (manager == null) {
+			synchronized (SqliteConnectionManager.class) {
+				manager = instance;
+				if (manager == null) {
+					manager = new SqliteConnectionManager(prop);
+					instance = manager;
+				}
+			}
+		}
+		return manager;
+	}
+
+	/**
+	 * 关闭连接管理器，应用退出时调用
+	 */
+	public static void shutdown() {
+		synchronized (SqliteConnectionManager.class) {
+			SqliteConnectionManager manager = instance;
+			if (manager == null) {
+				return;
+			}
+			instance = null;
+			manager.close();
+		}
+	}
+
+	/**
+	 * 获取连接，连接关闭时归还给管理器
+	 * 
+	 * @return
+	 */
+	public Connection getConnection() {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConnectionHandler());
+	}
+
+	private void close() {
+		logger.info("close sqlite connection manager.");
+		try {
+			readPool.close();
+		} catch (Exception e) {
+			logger.error("error occur while close sqlite read pool.", e);
+		}
+		writer.close();
+	}
+
+	/**
+	 * 打开物理连接，并设置连接级别的参数
+	 * 
+	 * @return
+	 * @throws SQLException
+	 */
+	private PhysicalConnection openConnection() throws SQLException {
+		Connection conn = DriverManager.getConnection(url);
+		execute(conn, "pragma synchronous=" + synchronous);
+		execute(conn, "pragma cache_size=" + cacheSize);
+		execute(conn, "pragma mmap_size=" + mmapSize);
+		execute(conn, "pragma busy_timeout=" + busyTimeout);
+		return new PhysicalConnection(conn, statementCacheSize);
+	}
+
+	private static void execute(Connection conn, String sql)
+			throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private PhysicalConnection borrowReader() throws SQLException {
+		try {
+			return readPool.borrowObject();
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException("can't borrow sqlite read connection.", e);
+		}
+	}
+
+	private void returnReader(PhysicalConnection pc) {
+		try {
+			readPool.returnObject(pc);
+		} catch (Exception e) {
+			logger.error("error occur while return sqlite read connection.", e);
+		}
+	}
+
+	private PhysicalConnection acquireWriter() throws SQLException {
+		try {
+			writeLock.acquire();
+		} catch (InterruptedException e) {
+			throw new SQLException(
+					"interrupted while waiting for sqlite write connection.", e);
+		}
+		return writer;
+	}
+
+	private void releaseWriter() {
+		writeLock.release();
+	}
+
+	/**
+	 * 物理连接，附带预编译语句缓存
+	 */
+	private final static class PhysicalConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statementCache;
+
+		private PhysicalConnection(Connection connection,
+				final int statementCacheSize) {
+			this.connection = connection;
+			this.statementCache = new LinkedHashMap<String, PreparedStatement>(
+					16, 0.75f, true) {
+				private static final long serialVersionUID = 4213427046390932016L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, PreparedStatement> eldest) {
+					if (size() > statementCacheSize) {
+						try {
+							eldest.getValue().close();
+						} catch (SQLException e) {
+							logger.debug("error occur while close statement.",
+									e);
+						}
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		/**
+		 * 获取预编译语句，优先从缓存中取得
+		 * 
+		 * @param sql
+		 * @return
+		 * @throws SQLException
+		 */
+		private PreparedStatement prepareStatement(String sql)
+				throws SQLException {
+			PreparedStatement stmt = statementCache.get(sql);
+			if (stmt == null) {
+				stmt = connection.prepareStatement(sql);
+				statementCache.put(sql, stmt);
+			}
+			return stmt;
+		}
+
+		/**
+		 * 归还前重置连接状态，未提交的事务将被回滚
+		 * 
+		 * @throws SQLException
+		 */
+		private void reset() throws SQLException {
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		}
+
+		private void close() {
+			for (PreparedStatement stmt : statementCache.values()) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					logger.debug("error occur while close statement.", e);
+				}
+			}
+			statementCache.clear();
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				logger.error("error occur while close sqlite connection.", e);
+			}
+		}
+	}
+
+	private final class ReadConnectionFactory extends
+			BasePoolableObjectFactory<PhysicalConnection> {
+
+		@Override
+		public PhysicalConnection makeObject() throws Exception {
+			return openConnection();
+		}
+
+		@Override
+		public void destroyObject(PhysicalConnection obj) throws Exception {
+			obj.close();
+		}
+	}
+
+	/**
+	 * 返回给调用方的连接，首次使用时绑定物理连接，关闭时归还
+	 */
+	private final class ConnectionHandler implements InvocationHandler {
+		private PhysicalConnection bound = null;
+		// 升级为写连接前绑定的读连接，其上的语句可能仍在使用，关闭时归还
+		private PhysicalConnection reader = null;
+		private boolean writable = false;
+		private boolean closed = false;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				release();
+				return null;
+			} else if ("isClosed".equals(name)) {
+				return closed;
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("toString".equals(name)) {
+				return "SqliteConnection [bound=" + bound + ", writable="
+						+ writable + ", closed=" + closed + "]";
+			}
+
+			if (closed) {
+				throw new SQLException("connection is closed.");
+			}
+			if (!writable && isWrite(name, args)) {
+				bound = acquireWriter();
+				writable = true;
+			} else if (bound == null) {
+				bound = reader = borrowReader();
+			}
+			if ("prepareStatement".equals(name) && args.length == 1) {
+				return cachedStatement(bound.prepareStatement((String) args[0]));
+			}
+			try {
+				return method.invoke(bound.connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		/**
+		 * 调用是否需要写连接，无法确定语句类型的Statement视为写
+		 * 
+		 * @param name
+		 * @param args
+		 * @return
+		 */
+		private boolean isWrite(String name, Object[] args) {
+			if ("setAutoCommit".equals(name)) {
+				return Boolean.FALSE.equals(args[0]);
+			} else if ("createStatement".equals(name)) {
+				return true;
+			} else if ("prepareStatement".equals(name)
+					|| "prepareCall".equals(name)) {
+				String sql = ((String) args[0]).trim();
+				return !sql.regionMatches(true, 0, "select", 0, 6);
+			}
+			return false;
+		}
+
+		private void release() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (bound == null) {
+				return;
+			}
+			try {
+				bound.reset();
+			} catch (SQLException e) {
+				logger.error("error occur while reset sqlite connection.", e);
+			}
+			if (writable) {
+				releaseWriter();
+			}
+			if (reader != null) {
+				returnReader(reader);
+			}
+			bound = null;
+			reader = null;
+		}
+	}
+
+	/**
+	 * 包装缓存的预编译语句，关闭时关闭其打开的结果集并清理参数，不关闭物理语句
+	 * 
+	 * @param stmt
+	 * @return
+	 */
+	private static PreparedStatement cachedStatement(
+			final PreparedStatement stmt) {
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				new InvocationHandler() {
+					private final List<ResultSet> resultSets = new ArrayList<ResultSet>();
+					private boolean closed = false;
+
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("close".equals(name)) {
+							if (!closed) {
+								closed = true;
+								for (ResultSet rs : resultSets) {
+									try {
+										rs.close();
+									} catch (SQLException e) {
+										logger.debug(
+												"error occur while close result set.",
+												e);
+									}
+								}
+								resultSets.clear();
+								stmt.clearParameters();
+								stmt.clearBatch();
+							}
+							return null;
+						} else if ("isClosed".equals(name)) {
+							return closed;
+						} else if ("equals".equals(name)) {
+							return proxy == args[0];
+						} else if ("hashCode".equals(name)) {
+							return System.identityHashCode(proxy);
+						}
+						if (closed) {
+							throw new SQLException("statement is closed.");
+						}
+						try {
+							Object result = method.invoke(stmt, args);
+							if (result instanceof ResultSet) {
+								resultSets.add((ResultSet) result);
+							}
+							return result;
+						} catch (InvocationTargetException e) {
+							throw e.getTargetException();
+						}
+					}
+				});
+	}
+}
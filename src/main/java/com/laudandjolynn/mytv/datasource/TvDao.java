@@ -15,8 +15,13 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv.datasource;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
+import com.laudandjolynn.mytv.model.CrawlJob;
+import com.laudandjolynn.mytv.model.CrawlLedger;
+import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.MyTv;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
@@ -71,20 +76,34 @@ public interface TvDao {
 	public TvStation getStationByDisplayName(String displayName, String classify);
 
 	/**
-	 * 保存电视台
+	 * 批量保存电视台，以(名称, 城市, 分类)唯一确定一个电视台，已存在的电视台保持不变
 	 * 
 	 * @param stations
-	 * @return
+	 * @return 新增的电视台数
 	 */
-	public int[] save(TvStation... stations);
+	public int upsert(TvStation... stations);
 
 	/**
-	 * 保存电视节目表
+	 * 批量保存电视节目表，以(电视台名称, 播出日期, 播出时间)唯一确定一条节目，已存在的节目保持不变
 	 * 
 	 * @param programTables
-	 * @return
+	 * @return 新增的节目数
+	 */
+	public int upsert(ProgramTable... programTables);
+
+	/**
+	 * 替换电视台指定日期的全部节目，在同一事务中删除原有节目后写入，用于重新抓取后更新节目名称或删除已取消的节目
+	 * 
+	 * @param stationName
+	 *            电视台名称
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @param programTables
+	 *            该电视台、日期的完整节目表
+	 * @return 写入的节目数
 	 */
-	public int[] save(ProgramTable... programTables);
+	public int replaceProgramTable(String stationName, String date,
+			ProgramTable... programTables);
 
 	/**
 	 * 根据电视台、日期获取电视节目表
@@ -96,13 +115,26 @@ public interface TvDao {
 	public List<ProgramTable> getProgramTable(String stationName, String date);
 
 	/**
-	 * 判断指定电视台、日期的电视节目表是否已存在
+	 * 获取多个电视台在日期范围内的电视节目表，按电视台名称、播出时间排列
+	 * 
+	 * @param stationNames
+	 *            电视台名称
+	 * @param startDate
+	 *            开始日期，yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期，yyyy-MM-dd
+	 * @return
+	 */
+	public List<ProgramTable> getProgramTable(Collection<String> stationNames,
+			String startDate, String endDate);
+
+	/**
+	 * 获取指定日期所有电视台的电视节目表，按电视台名称、播出时间排列
 	 * 
-	 * @param stationName
 	 * @param date
 	 * @return
 	 */
-	public boolean isProgramTableExists(String stationName, String date);
+	public List<ProgramTable> getProgramTableByDate(String date);
 
 	/**
 	 * 获取所有在客户端显示的电视台
@@ -118,4 +150,139 @@ public interface TvDao {
 	 */
 	public List<MyTv> getMyTv();
 
+
+	/**
+	 * 统计多个电视台在日期范围内每天的节目数
+	 * 
+	 * @param stationNames
+	 *            电视台名称
+	 * @param startDate
+	 *            开始日期，yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期，yyyy-MM-dd
+	 * @return 以电视台、日期为键，没有节目的不包含在内
+	 */
+	public Map<CrawlerTask, Integer> countProgramTable(
+			Collection<String> stationNames, String startDate, String endDate);
+
+	/**
+	 * 保存节目表抓取记录，已存在时覆盖
+	 * 
+	 * @param ledger
+	 * @return
+	 */
+	public int saveCrawlLedger(CrawlLedger ledger);
+
+	/**
+	 * 获取多个电视台在日期范围内的节目表抓取记录
+	 * 
+	 * @param stationNames
+	 *            电视台名称
+	 * @param startDate
+	 *            开始日期，yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期，yyyy-MM-dd
+	 * @return
+	 */
+	public List<CrawlLedger> getCrawlLedger(Collection<String> stationNames,
+			String startDate, String endDate);
+
+	/**
+	 * 删除早于指定日期的节目表抓取记录
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return
+	 */
+	public int deleteCrawlLedgerBefore(String date);
+
+	/**
+	 * 加入节目表抓取任务，已完成或已失败的任务重新排队，排队中的任务只提升优先级，执行中的任务不变
+	 * 
+	 * @param job
+	 * @return 加入或重新排队时返回1，否则返回0
+	 */
+	public int enqueueCrawlJob(CrawlJob job);
+
+	/**
+	 * 获取到期可以执行的抓取任务，包括租约已过期的执行中任务
+	 * 
+	 * @param now
+	 *            当前时间，毫秒
+	 * @param limit
+	 *            最多返回的个数
+	 * @return 按优先级、执行时间升序排列
+	 */
+	public List<CrawlJob> getRunnableCrawlJob(long now, int limit);
+
+	/**
+	 * 领取抓取任务，只有任务仍可执行时才能领取成功
+	 * 
+	 * @param job
+	 * @param owner
+	 *            领取者
+	 * @param token
+	 *            本次领取的租约标识
+	 * @param leaseExpireAt
+	 *            租约到期时间，毫秒
+	 * @param now
+	 *            当前时间，毫秒
+	 * @return 领取成功返回true
+	 */
+	public boolean claimCrawlJob(CrawlJob job, String owner, String token,
+			long leaseExpireAt, long now);
+
+	/**
+	 * 延长抓取任务的租约
+	 * 
+	 * @param job
+	 *            任务，leaseToken为领取时的租约标识
+	 * @param leaseExpireAt
+	 *            新的租约到期时间，毫秒
+	 * @return 租约已被他人领取时返回0
+	 */
+	public int renewCrawlJob(CrawlJob job, long leaseExpireAt);
+
+	/**
+	 * 结束抓取任务并释放租约
+	 * 
+	 * @param job
+	 *            任务，status、nextRunAt、lastError为结束后的状态，leaseToken为领取时的租约标识
+	 * @return 租约已被他人领取时返回0
+	 */
+	public int finishCrawlJob(CrawlJob job);
+
+	/**
+	 * 释放抓取任务的租约，任务重新排队且不计入执行次数
+	 * 
+	 * @param job
+	 *            任务，leaseToken为领取时的租约标识
+	 * @return 租约已被他人领取时返回0
+	 */
+	public int releaseCrawlJob(CrawlJob job);
+
+	/**
+	 * 释放领取者持有的所有抓取任务，用于实例重启后恢复上次未完成的任务
+	 * 
+	 * @param owner
+	 *            领取者
+	 * @return
+	 */
+	public int recoverCrawlJob(String owner);
+
+	/**
+	 * 按状态统计抓取任务数
+	 * 
+	 * @return
+	 */
+	public Map<String, Integer> countCrawlJob();
+
+	/**
+	 * 删除早于指定日期的抓取任务
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return
+	 */
+	public int deleteCrawlJobBefore(String date);
 }
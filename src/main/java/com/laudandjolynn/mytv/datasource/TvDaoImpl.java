@@ -19,14 +19,27 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
+import com.laudandjolynn.mytv.model.CrawlJob;
+import com.laudandjolynn.mytv.model.CrawlLedger;
+import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.MyTv;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.Config.DbType;
 
 /**
  * @author: Laud
@@ -35,236 +48,157 @@ import com.laudandjolynn.mytv.model.TvStation;
  * @copyright: www.laudandjolynn.com
  */
 public class TvDaoImpl implements TvDao {
-	@Override
-	public List<String> getMyTvClassify() {
-		String sql = "select classify from my_tv group by classify order by sequence asc";
-		Connection conn = getConnection();
-		Statement stmt = null;
-		List<String> classifies = new ArrayList<String>();
-		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				classifies.add(rs.getString(1));
-			}
-		} catch (SQLException e) {
-			throw new MyTvException(e);
-		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
+	// 每条多行插入语句的最大行数，sqlite每条语句最多允许999个参数
+	private final static int UPSERT_CHUNK_SIZE = 100;
+	// sqlite单条语句默认最多999个参数
+	private final static int MAX_PARAMETERS = 999;
+	private final static RowMapper<String> STRING_MAPPER = new RowMapper<String>() {
 
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
+		@Override
+		public String mapRow(ResultSet rs) throws SQLException {
+			return rs.getString(1);
 		}
+	};
+	private final static RowMapper<TvStation> TV_STATION_MAPPER = new RowMapper<TvStation>() {
 
-		return classifies;
+		@Override
+		public TvStation mapRow(ResultSet rs) throws SQLException {
+			int index = 1;
+			TvStation station = new TvStation();
+			station.setId(rs.getInt(index++));
+			station.setName(rs.getString(index++));
+			station.setCity(nullIfEmpty(rs.getString(index++)));
+			station.setClassify(rs.getString(index++));
+			station.setSequence(rs.getInt(index++));
+			return station;
+		}
+	};
+	private final static RowMapper<MyTv> MY_TV_MAPPER = new RowMapper<MyTv>() {
+
+		@Override
+		public MyTv mapRow(ResultSet rs) throws SQLException {
+			int index = 1;
+			MyTv myTv = new MyTv();
+			myTv.setId(rs.getInt(index++));
+			myTv.setStationName(rs.getString(index++));
+			myTv.setDisplayName(rs.getString(index++));
+			myTv.setClassify(rs.getString(index++));
+			myTv.setChannel(rs.getString(index++));
+			myTv.setSequence(rs.getInt(index++));
+			return myTv;
+		}
+	};
+	private final static RowMapper<ProgramTable> PROGRAM_TABLE_MAPPER = new RowMapper<ProgramTable>() {
+
+		@Override
+		public ProgramTable mapRow(ResultSet rs) throws SQLException {
+			ProgramTable pt = new ProgramTable();
+			pt.setId(rs.getLong(1));
+			pt.setStationName(rs.getString(2));
+			pt.setProgram(rs.getString(3));
+			pt.setAirDate(rs.getString(4));
+			pt.setAirTime(rs.getString(5));
+			pt.setWeek(rs.getInt(6));
+			return pt;
+		}
+	};
+
+	private final static RowMapper<CrawlLedger> CRAWL_LEDGER_MAPPER = new RowMapper<CrawlLedger>() {
+
+		@Override
+		public CrawlLedger mapRow(ResultSet rs) throws SQLException {
+			CrawlLedger ledger = new CrawlLedger();
+			ledger.setStationName(rs.getString(1));
+			ledger.setAirDate(rs.getString(2));
+			ledger.setFetchedAt(rs.getLong(3));
+			ledger.setHash(rs.getString(4));
+			ledger.setRowCount(rs.getInt(5));
+			return ledger;
+		}
+	};
+
+	private final static RowMapper<CrawlJob> CRAWL_JOB_MAPPER = new RowMapper<CrawlJob>() {
+
+		@Override
+		public CrawlJob mapRow(ResultSet rs) throws SQLException {
+			CrawlJob job = new CrawlJob();
+			job.setStationName(rs.getString(1));
+			job.setAirDate(rs.getString(2));
+			job.setPriority(CrawlPriority.valueOf(rs.getString(3)));
+			job.setStatus(rs.getString(4));
+			job.setAttempt(rs.getInt(5));
+			job.setNextRunAt(rs.getLong(6));
+			job.setLeaseOwner(rs.getString(7));
+			job.setLeaseExpireAt(rs.getLong(8));
+			job.setLastError(rs.getString(9));
+			job.setLeaseToken(rs.getString(10));
+			return job;
+		}
+	};
+
+	@Override
+	public List<String> getMyTvClassify() {
+		String sql = "select classify from my_tv group by classify order by sequence asc";
+		return query("getMyTvClassify", sql, STRING_MAPPER);
 	}
 
 	@Override
 	public List<MyTv> getMyTvByClassify(String classify) {
-		String sql = "select id,stationName,displayName,classify,channel,sequence from my_tv where classify='"
-				+ classify + "' order by sequence asc";
-		List<MyTv> tvList = new ArrayList<MyTv>();
-		Connection conn = getConnection();
-		Statement stmt = null;
-		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				MyTv myTv = new MyTv();
-				int index = 1;
-				myTv.setId(rs.getInt(index++));
-				myTv.setStationName(rs.getString(index++));
-				myTv.setDisplayName(rs.getString(index++));
-				myTv.setClassify(rs.getString(index++));
-				myTv.setChannel(rs.getString(index++));
-				myTv.setSequence(rs.getInt(index++));
-				tvList.add(myTv);
-			}
-			rs.close();
-		} catch (SQLException e) {
-			throw new MyTvException(e);
-		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-		}
-		return tvList;
+		String sql = "select id,stationName,displayName,classify,channel,sequence from my_tv where classify=? order by sequence asc";
+		return query("getMyTvByClassify", sql, MY_TV_MAPPER, classify);
 	}
 
 	@Override
 	public List<TvStation> getAllCrawlableStation() {
 		String sql = "select id,name,city,classify,sequence from tv_station order by sequence asc";
-		Connection conn = getConnection();
-		Statement stmt = null;
-		List<TvStation> stations = new ArrayList<TvStation>();
-		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				int index = 1;
-				TvStation station = new TvStation();
-				station.setId(rs.getInt(index++));
-				station.setName(rs.getString(index++));
-				station.setCity(rs.getString(index++));
-				station.setClassify(rs.getString(index++));
-				station.setSequence(rs.getInt(index++));
-				stations.add(station);
-			}
-		} catch (SQLException e) {
-			throw new MyTvException(e);
-		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-		}
-
-		return stations;
+		return query("getAllCrawlableStation", sql, TV_STATION_MAPPER);
 	}
 
 	@Override
 	public List<TvStation> getStation(String stationName) {
-		String sql = "select id,name,city,classify,sequence from tv_station where name='"
-				+ stationName + "' order by sequence asc";
-		List<TvStation> stationList = new ArrayList<TvStation>();
-		Connection conn = getConnection();
-		Statement stmt = null;
-		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				int index = 1;
-				TvStation station = new TvStation();
-				station.setId(rs.getInt(index++));
-				station.setName(rs.getString(index++));
-				station.setCity(rs.getString(index++));
-				station.setClassify(rs.getString(index++));
-				station.setSequence(rs.getInt(index++));
-				stationList.add(station);
-			}
-			rs.close();
-		} catch (SQLException e) {
-			throw new MyTvException(e);
-		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-		}
-		return stationList;
+		String sql = "select id,name,city,classify,sequence from tv_station where name=? order by sequence asc";
+		return query("getStation", sql, TV_STATION_MAPPER, stationName);
 	}
 
 	@Override
 	public TvStation getStationByDisplayName(String displayName, String classify) {
-		String sql = "select b.id,b.name,b.city,b.classify,b.sequence from my_tv a, tv_station b where a.stationName=b.name and a.displayName='"
-				+ displayName
-				+ "' and a.classify='"
-				+ classify
-				+ "' order by sequence asc";
-		TvStation station = null;
-		Connection conn = getConnection();
-		Statement stmt = null;
-		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			if (rs.next()) {
-				int index = 1;
-				station = new TvStation();
-				station.setId(rs.getInt(index++));
-				station.setName(rs.getString(index++));
-				station.setCity(rs.getString(index++));
-				station.setClassify(rs.getString(index++));
-				station.setSequence(rs.getInt(index++));
-			}
-			rs.close();
-		} catch (SQLException e) {
-			throw new MyTvException(e);
-		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-		}
-		return station;
+		String sql = "select b.id,b.name,b.city,b.classify,b.sequence from my_tv a, tv_station b where a.stationName=b.name and a.displayName=? and a.classify=? order by b.sequence asc";
+		List<TvStation> stationList = query("getStationByDisplayName", sql,
+				TV_STATION_MAPPER, displayName, classify);
+		return stationList.isEmpty() ? null : stationList.get(0);
 	}
 
 	@Override
-	public int[] save(TvStation... stations) {
+	public int upsert(TvStation... stations) {
+		String columns = "tv_station (name,city,classify,sequence)";
+		String placeholder = "(?,?,?,?)";
+		long start = System.nanoTime();
 		Connection conn = getConnection();
-		String insertSql = "insert into tv_station (name,city,classify,sequence) values(?,?,?,?)";
-		PreparedStatement insertStmt = null;
+		PreparedStatement stmt = null;
+		int count = 0;
 		try {
 			conn.setAutoCommit(false);
-			insertStmt = conn.prepareStatement(insertSql);
 			int len = stations.length;
-			for (int i = 0; i < len; i++) {
-				TvStation station = stations[i];
+			for (int from = 0; from < len; from += UPSERT_CHUNK_SIZE) {
+				int to = Math.min(len, from + UPSERT_CHUNK_SIZE);
+				stmt = conn.prepareStatement(getUpsertSql(columns,
+						placeholder, to - from));
 				int index = 1;
-				insertStmt.setString(index++, station.getName());
-				insertStmt.setString(index++, station.getCity());
-				insertStmt.setString(index++, station.getClassify());
-				insertStmt.setInt(index++, station.getSequence());
-				insertStmt.addBatch();
+				for (int i = from; i < to; i++) {
+					TvStation station = stations[i];
+					stmt.setString(index++, station.getName());
+					// 城市为空时以空字符串保存，保证唯一约束生效
+					stmt.setString(index++, station.getCity() == null ? ""
+							: station.getCity());
+					stmt.setString(index++, station.getClassify());
+					stmt.setInt(index++, station.getSequence());
+				}
+				count += stmt.executeUpdate();
+				stmt.close();
+				stmt = null;
 			}
-			int[] r = insertStmt.executeBatch();
 			conn.commit();
-			return r;
+			return count;
 		} catch (SQLException e) {
 			if (conn != null) {
 				try {
@@ -276,9 +210,10 @@ public class TvDaoImpl implements TvDao {
 			throw new MyTvException(
 					"error occur while save data to tv_station.", e);
 		} finally {
-			if (insertStmt != null) {
+			recordLatency("upsertTvStation", start);
+			if (stmt != null) {
 				try {
-					insertStmt.close();
+					stmt.close();
 				} catch (SQLException e) {
 					throw new MyTvException(e);
 				}
@@ -295,157 +230,565 @@ public class TvDaoImpl implements TvDao {
 	}
 
 	@Override
-	public int[] save(ProgramTable... programTables) {
-		Connection conn = getConnection();
-		String insertSql = "insert into program_table (stationName,program,airdate,airtime,week) values(?,?,?,?,?)";
-		PreparedStatement insertStmt = null;
+	public int upsert(ProgramTable... programTables) {
+		ProgramTablePartition.getInstance().lockShared();
 		try {
-			conn.setAutoCommit(false);
-			insertStmt = conn.prepareStatement(insertSql);
-			int len = programTables.length;
-			for (int i = 0; i < len; i++) {
-				ProgramTable pt = programTables[i];
-				insertStmt.setString(1, pt.getStationName());
-				insertStmt.setString(2, pt.getProgram());
-				insertStmt.setString(3, pt.getAirDate());
-				insertStmt.setString(4, pt.getAirTime());
-				insertStmt.setInt(5, pt.getWeek());
-				insertStmt.addBatch();
-			}
-			int[] r = insertStmt.executeBatch();
-			conn.commit();
-			return r;
-		} catch (SQLException e) {
-			if (conn != null) {
-				try {
-					conn.rollback();
-				} catch (SQLException e1) {
-					throw new MyTvException(e1);
+			// 按分区表分组
+			Map<String, List<ProgramTable>> groups = new LinkedHashMap<String, List<ProgramTable>>();
+			Set<String> dates = new HashSet<String>();
+			ProgramTablePartition partition = ProgramTablePartition.getInstance();
+			for (ProgramTable pt : programTables) {
+				String table = partition.getTableName(pt.getAirDate());
+				List<ProgramTable> group = groups.get(table);
+				if (group == null) {
+					group = new ArrayList<ProgramTable>();
+					groups.put(table, group);
+				}
+				group.add(pt);
+				dates.add(pt.getAirDate());
+			}
+			MetricsRegistry.getInstance()
+					.histogram("dao.upsertProgramTable.batch_rows")
+					.update(programTables.length);
+			long start = System.nanoTime();
+			Connection conn = getConnection();
+			int count = 0;
+			try {
+				partition.ensure(conn, dates);
+				conn.setAutoCommit(false);
+				for (Map.Entry<String, List<ProgramTable>> entry : groups
+						.entrySet()) {
+					count += insertProgramTable(conn, entry.getKey(),
+							entry.getValue());
+				}
+				conn.commit();
+				return count;
+			} catch (SQLException e) {
+				if (conn != null) {
+					try {
+						conn.rollback();
+					} catch (SQLException e1) {
+						throw new MyTvException(e1);
+					}
+				}
+				throw new MyTvException(
+						"error occur while save data to program_table.", e);
+			} finally {
+				recordLatency("upsertProgramTable", start);
+				if (conn != null) {
+					try {
+						conn.close();
+					} catch (SQLException e) {
+						throw new MyTvException(e);
+					}
 				}
 			}
-			throw new MyTvException(
-					"error occur while save data to program_table.", e);
 		} finally {
-			if (insertStmt != null) {
-				try {
-					insertStmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
+			ProgramTablePartition.getInstance().unlockShared();
+		}
+	}
+
+	@Override
+	public int replaceProgramTable(String stationName, String date,
+			ProgramTable... programTables) {
+		ProgramTablePartition.getInstance().lockShared();
+		try {
+			ProgramTablePartition partition = ProgramTablePartition.getInstance();
+			String table = partition.getTableName(date);
+			List<ProgramTable> group = new ArrayList<ProgramTable>();
+			for (ProgramTable pt : programTables) {
+				if (stationName.equals(pt.getStationName())
+						&& date.equals(pt.getAirDate())) {
+					group.add(pt);
 				}
 			}
+			if (group.isEmpty()) {
+				// 没有该电视台、日期的节目时保留原有节目
+				return 0;
+			}
+			long start = System.nanoTime();
+			Connection conn = getConnection();
+			PreparedStatement stmt = null;
+			try {
+				partition.ensure(conn, Collections.singleton(date));
+				conn.setAutoCommit(false);
+				stmt = conn.prepareStatement("delete from " + table
+						+ " where stationName=? and airdate=?");
+				stmt.setString(1, stationName);
+				stmt.setString(2, date);
+				stmt.executeUpdate();
+				int count = insertProgramTable(conn, table, group);
+				conn.commit();
+				return count;
+			} catch (SQLException e) {
+				if (conn != null) {
+					try {
+						conn.rollback();
+					} catch (SQLException e1) {
+						throw new MyTvException(e1);
+					}
+				}
+				throw new MyTvException("error occur while replace program table of "
+						+ stationName + " at " + date, e);
+			} finally {
+				recordLatency("replaceProgramTable", start);
+				if (stmt != null) {
+					try {
+						stmt.close();
+					} catch (SQLException e) {
+						throw new MyTvException(e);
+					}
+				}
 
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
+				if (conn != null) {
+					try {
+						conn.close();
+					} catch (SQLException e) {
+						throw new MyTvException(e);
+					}
 				}
 			}
+		} finally {
+			ProgramTablePartition.getInstance().unlockShared();
+		}
+	}
+
+	/**
+	 * 在当前事务中分块写入同一分区表的节目，已存在的节目由唯一约束忽略
+	 * 
+	 * @param conn
+	 * @param table
+	 *            分区表名
+	 * @param group
+	 * @return 新增的节目数
+	 * @throws SQLException
+	 */
+	private int insertProgramTable(Connection conn, String table,
+			List<ProgramTable> group) throws SQLException {
+		String columns = table + " (stationName,program,airdate,airtime,week)";
+		String placeholder = "(?,?,?,?,?)";
+		int count = 0;
+		int len = group.size();
+		for (int from = 0; from < len; from += UPSERT_CHUNK_SIZE) {
+			int to = Math.min(len, from + UPSERT_CHUNK_SIZE);
+			PreparedStatement stmt = conn.prepareStatement(getUpsertSql(
+					columns, placeholder, to - from));
+			try {
+				int index = 1;
+				for (int i = from; i < to; i++) {
+					ProgramTable pt = group.get(i);
+					stmt.setString(index++, pt.getStationName());
+					stmt.setString(index++, pt.getProgram());
+					stmt.setString(index++, pt.getAirDate());
+					stmt.setString(index++, pt.getAirTime());
+					stmt.setInt(index++, pt.getWeek());
+				}
+				count += stmt.executeUpdate();
+			} finally {
+				stmt.close();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 生成多行插入语句，违反唯一约束的行将被忽略
+	 * 
+	 * @param columns
+	 *            表名及字段，如tv_station (name,city)
+	 * @param placeholder
+	 *            每行的参数占位符，如(?,?)
+	 * @param rows
+	 *            行数
+	 * @return
+	 */
+	private String getUpsertSql(String columns, String placeholder, int rows) {
+		StringBuilder sql = new StringBuilder();
+		if (Config.getDbType() == DbType.SQLITE) {
+			sql.append("insert or ignore into ");
+		} else {
+			sql.append("insert into ");
+		}
+		sql.append(columns).append(" values ");
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append(placeholder);
+		}
+		if (Config.getDbType() == DbType.MYSQL) {
+			sql.append(" on duplicate key update id=id");
 		}
+		return sql.toString();
 	}
 
 	@Override
 	public List<ProgramTable> getProgramTable(String stationName, String date) {
-		String sql = "select id,stationName,program,airdate,airtime,week from program_table a where stationName='"
-				+ stationName
-				+ "' and airdate='"
-				+ date
-				+ "' order by airtime asc";
-		Connection conn = getConnection();
-		Statement stmt = null;
+		ProgramTablePartition.getInstance().lockShared();
 		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
+			ProgramTablePartition partition = ProgramTablePartition.getInstance();
+			if (!partition.exists(date)) {
+				return new ArrayList<ProgramTable>();
+			}
+			String sql = "select id,stationName,program,airdate,airtime,week from "
+					+ partition.getTableName(date)
+					+ " where stationName=? and airdate=? order by airtime asc";
+			return query("getProgramTable", sql, PROGRAM_TABLE_MAPPER,
+					stationName, date);
+		} finally {
+			ProgramTablePartition.getInstance().unlockShared();
+		}
+	}
+
+	@Override
+	public List<ProgramTable> getProgramTable(Collection<String> stationNames,
+			String startDate, String endDate) {
+		ProgramTablePartition.getInstance().lockShared();
+		try {
+			List<String> tableNames = ProgramTablePartition.getInstance()
+					.getTableNames(startDate, endDate);
+			if (stationNames.isEmpty() || tableNames.isEmpty()) {
+				return new ArrayList<ProgramTable>();
+			}
 			List<ProgramTable> resultList = new ArrayList<ProgramTable>();
-			while (rs.next()) {
-				ProgramTable pt = new ProgramTable();
-				pt.setId(rs.getLong(1));
-				pt.setStationName(rs.getString(2));
-				pt.setProgram(rs.getString(3));
-				pt.setAirDate(rs.getString(4));
-				pt.setAirTime(rs.getString(5));
-				pt.setWeek(rs.getInt(6));
-				resultList.add(pt);
+			for (List<String> chunk : getChunks(stationNames,
+					getChunkSize(tableNames.size(), 2))) {
+				String placeholder = getPlaceholder(chunk.size());
+				// 跨周的范围合并为一条union all语句
+				StringBuilder sql = new StringBuilder();
+				List<Object> params = new ArrayList<Object>();
+				for (String tableName : tableNames) {
+					if (sql.length() > 0) {
+						sql.append(" union all ");
+					}
+					sql.append(
+							"select id,stationName,program,airdate,airtime,week from ")
+							.append(tableName).append(" where stationName in (")
+							.append(placeholder)
+							.append(") and airdate>=? and airdate<=?");
+					params.addAll(chunk);
+					params.add(startDate);
+					params.add(endDate);
+				}
+				sql.append(" order by stationName asc, airtime asc");
+				resultList.addAll(query("getProgramTableInRange", sql.toString(),
+						PROGRAM_TABLE_MAPPER, params.toArray()));
 			}
-			rs.close();
 			return resultList;
-		} catch (SQLException e) {
-			throw new MyTvException(e);
 		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
+			ProgramTablePartition.getInstance().unlockShared();
+		}
+	}
+
+	@Override
+	public Map<CrawlerTask, Integer> countProgramTable(
+			Collection<String> stationNames, String startDate, String endDate) {
+		ProgramTablePartition.getInstance().lockShared();
+		try {
+			Map<CrawlerTask, Integer> result = new HashMap<CrawlerTask, Integer>();
+			List<String> tableNames = ProgramTablePartition.getInstance()
+					.getTableNames(startDate, endDate);
+			if (stationNames.isEmpty() || tableNames.isEmpty()) {
+				return result;
+			}
+			for (List<String> chunk : getChunks(stationNames,
+					getChunkSize(tableNames.size(), 2))) {
+				String placeholder = getPlaceholder(chunk.size());
+				StringBuilder sql = new StringBuilder();
+				List<Object> params = new ArrayList<Object>();
+				for (String tableName : tableNames) {
+					if (sql.length() > 0) {
+						sql.append(" union all ");
+					}
+					sql.append("select stationName,airdate,count(*) from ")
+							.append(tableName).append(" where stationName in (")
+							.append(placeholder)
+							.append(") and airdate>=? and airdate<=?")
+							.append(" group by stationName,airdate");
+					params.addAll(chunk);
+					params.add(startDate);
+					params.add(endDate);
 				}
-			}
+				List<Object[]> rows = query("countProgramTable", sql.toString(),
+						new RowMapper<Object[]>() {
 
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
+							@Override
+							public Object[] mapRow(ResultSet rs)
+									throws SQLException {
+								return new Object[] {
+										new CrawlerTask(rs.getString(1), rs
+												.getString(2)), rs.getInt(3) };
+							}
+						}, params.toArray());
+				for (Object[] row : rows) {
+					result.put((CrawlerTask) row[0], (Integer) row[1]);
 				}
 			}
+			return result;
+		} finally {
+			ProgramTablePartition.getInstance().unlockShared();
 		}
 	}
 
 	@Override
-	public boolean isProgramTableExists(String stationName, String date) {
-		String sql = "select * from program_table where stationName='"
-				+ stationName + "' and airdate='" + date + "'";
-		Connection conn = getConnection();
-		Statement stmt = null;
+	public int saveCrawlLedger(CrawlLedger ledger) {
+		String sql = Config.getDbType() == DbType.SQLITE ? "insert or replace into crawl_ledger (stationName,airdate,fetched_at,hash,row_count) values (?,?,?,?,?)"
+				: "insert into crawl_ledger (stationName,airdate,fetched_at,hash,row_count) values (?,?,?,?,?) on duplicate key update fetched_at=values(fetched_at),hash=values(hash),row_count=values(row_count)";
+		return update("saveCrawlLedger", sql, ledger.getStationName(),
+				ledger.getAirDate(), ledger.getFetchedAt(), ledger.getHash(),
+				ledger.getRowCount());
+	}
+
+	@Override
+	public List<CrawlLedger> getCrawlLedger(Collection<String> stationNames,
+			String startDate, String endDate) {
+		if (stationNames.isEmpty()) {
+			return new ArrayList<CrawlLedger>();
+		}
+		List<CrawlLedger> resultList = new ArrayList<CrawlLedger>();
+		for (List<String> chunk : getChunks(stationNames, getChunkSize(1, 2))) {
+			String sql = "select stationName,airdate,fetched_at,hash,row_count from crawl_ledger where stationName in ("
+					+ getPlaceholder(chunk.size())
+					+ ") and airdate>=? and airdate<=?";
+			List<Object> params = new ArrayList<Object>(chunk);
+			params.add(startDate);
+			params.add(endDate);
+			resultList.addAll(query("getCrawlLedger", sql,
+					CRAWL_LEDGER_MAPPER, params.toArray()));
+		}
+		return resultList;
+	}
+
+	@Override
+	public int deleteCrawlLedgerBefore(String date) {
+		return update("deleteCrawlLedgerBefore",
+				"delete from crawl_ledger where airdate<?", date);
+	}
+
+	@Override
+	public int enqueueCrawlJob(CrawlJob job) {
+		long now = System.currentTimeMillis();
+		int priorityOrder = job.getPriority().ordinal();
+		int count = update(
+				"enqueueCrawlJob",
+				"update crawl_job set priority=?,priority_order=?,status=?,attempt=0,next_run_at=?,lease_owner=null,lease_token=null,lease_expire_at=0,last_error=null,updated_at=? where stationName=? and airdate=? and status in (?,?)",
+				job.getPriority().name(), priorityOrder,
+				CrawlJob.STATUS_PENDING, job.getNextRunAt(), now,
+				job.getStationName(), job.getAirDate(), CrawlJob.STATUS_DONE,
+				CrawlJob.STATUS_FAILED);
+		if (count > 0) {
+			return count;
+		}
+		// 排队中的任务以更高优先级再次加入时提升优先级
+		count = update(
+				"enqueueCrawlJob",
+				"update crawl_job set priority=?,priority_order=?,next_run_at=case when next_run_at>? then ? else next_run_at end,updated_at=? where stationName=? and airdate=? and status=? and priority_order>?",
+				job.getPriority().name(), priorityOrder, job.getNextRunAt(),
+				job.getNextRunAt(), now, job.getStationName(),
+				job.getAirDate(), CrawlJob.STATUS_PENDING, priorityOrder);
+		if (count > 0) {
+			return count;
+		}
+		String sql = (Config.getDbType() == DbType.SQLITE ? "insert or ignore"
+				: "insert ignore")
+				+ " into crawl_job (stationName,airdate,priority,priority_order,status,attempt,next_run_at,lease_expire_at,updated_at) values (?,?,?,?,?,0,?,0,?)";
+		return update("enqueueCrawlJob", sql, job.getStationName(),
+				job.getAirDate(), job.getPriority().name(), priorityOrder,
+				CrawlJob.STATUS_PENDING, job.getNextRunAt(), now);
+	}
+
+	@Override
+	public List<CrawlJob> getRunnableCrawlJob(long now, int limit) {
+		String sql = "select stationName,airdate,priority,status,attempt,next_run_at,lease_owner,lease_expire_at,last_error,lease_token from crawl_job where (status=? and next_run_at<=?) or (status=? and lease_expire_at<?) order by priority_order asc,next_run_at asc limit ?";
+		return query("getRunnableCrawlJob", sql, CRAWL_JOB_MAPPER,
+				CrawlJob.STATUS_PENDING, now, CrawlJob.STATUS_RUNNING, now,
+				limit);
+	}
+
+	@Override
+	public boolean claimCrawlJob(CrawlJob job, String owner, String token,
+			long leaseExpireAt, long now) {
+		// 以条件更新代替加锁，同一任务只有一个领取者能更新成功
+		String sql = "update crawl_job set status=?,attempt=attempt+1,lease_owner=?,lease_token=?,lease_expire_at=?,updated_at=? where stationName=? and airdate=? and ((status=? and next_run_at<=?) or (status=? and lease_expire_at<?))";
+		return update("claimCrawlJob", sql, CrawlJob.STATUS_RUNNING, owner,
+				token, leaseExpireAt, now, job.getStationName(),
+				job.getAirDate(), CrawlJob.STATUS_PENDING, now,
+				CrawlJob.STATUS_RUNNING, now) == 1;
+	}
+
+	@Override
+	public int renewCrawlJob(CrawlJob job, long leaseExpireAt) {
+		String sql = "update crawl_job set lease_expire_at=?,updated_at=? where stationName=? and airdate=? and status=? and lease_token=?";
+		return update("renewCrawlJob", sql, leaseExpireAt,
+				System.currentTimeMillis(), job.getStationName(),
+				job.getAirDate(), CrawlJob.STATUS_RUNNING, job.getLeaseToken());
+	}
+
+	@Override
+	public int finishCrawlJob(CrawlJob job) {
+		String sql = "update crawl_job set status=?,next_run_at=?,lease_owner=null,lease_token=null,lease_expire_at=0,last_error=?,updated_at=? where stationName=? and airdate=? and status=? and lease_token=?";
+		return update("finishCrawlJob", sql, job.getStatus(),
+				job.getNextRunAt(), job.getLastError(),
+				System.currentTimeMillis(), job.getStationName(),
+				job.getAirDate(), CrawlJob.STATUS_RUNNING, job.getLeaseToken());
+	}
+
+	@Override
+	public int releaseCrawlJob(CrawlJob job) {
+		long now = System.currentTimeMillis();
+		String sql = "update crawl_job set status=?,attempt=attempt-1,next_run_at=?,lease_owner=null,lease_token=null,lease_expire_at=0,updated_at=? where stationName=? and airdate=? and status=? and lease_token=?";
+		return update("releaseCrawlJob", sql, CrawlJob.STATUS_PENDING, now,
+				now, job.getStationName(), job.getAirDate(),
+				CrawlJob.STATUS_RUNNING, job.getLeaseToken());
+	}
+
+	@Override
+	public int recoverCrawlJob(String owner) {
+		long now = System.currentTimeMillis();
+		String sql = "update crawl_job set status=?,attempt=attempt-1,next_run_at=?,lease_owner=null,lease_token=null,lease_expire_at=0,updated_at=? where status=? and lease_owner=?";
+		return update("recoverCrawlJob", sql, CrawlJob.STATUS_PENDING, now,
+				now, CrawlJob.STATUS_RUNNING, owner);
+	}
+
+	@Override
+	public Map<String, Integer> countCrawlJob() {
+		List<Object[]> rows = query("countCrawlJob",
+				"select status,count(*) from crawl_job group by status",
+				new RowMapper<Object[]>() {
+
+					@Override
+					public Object[] mapRow(ResultSet rs) throws SQLException {
+						return new Object[] { rs.getString(1), rs.getInt(2) };
+					}
+				});
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		for (Object[] row : rows) {
+			result.put((String) row[0], (Integer) row[1]);
+		}
+		return result;
+	}
+
+	@Override
+	public int deleteCrawlJobBefore(String date) {
+		return update("deleteCrawlJobBefore",
+				"delete from crawl_job where airdate<?", date);
+	}
+
+	@Override
+	public List<ProgramTable> getProgramTableByDate(String date) {
+		ProgramTablePartition.getInstance().lockShared();
 		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			boolean exists = rs.next();
-			rs.close();
-			return exists;
-		} catch (SQLException e) {
-			throw new MyTvException(e);
+			ProgramTablePartition partition = ProgramTablePartition.getInstance();
+			if (!partition.exists(date)) {
+				return new ArrayList<ProgramTable>();
+			}
+			String sql = "select id,stationName,program,airdate,airtime,week from "
+					+ partition.getTableName(date)
+					+ " where airdate=? order by stationName asc, airtime asc";
+			return query("getProgramTableByDate", sql, PROGRAM_TABLE_MAPPER, date);
 		} finally {
-			if (stmt != null) {
-				try {
-					stmt.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
-
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException e) {
-					throw new MyTvException(e);
-				}
-			}
+			ProgramTablePartition.getInstance().unlockShared();
 		}
 	}
 
 	@Override
 	public List<TvStation> getDisplayedTvStation() {
-		String sql = "select id,name,city,classify,sequence from tv_station where name in (select stationName from my_tv) group by name order by sequence;";
-		List<TvStation> stationList = new ArrayList<TvStation>();
+		String sql = "select id,name,city,classify,sequence from tv_station where name in (select stationName from my_tv) group by name order by sequence";
+		return query("getDisplayedTvStation", sql, TV_STATION_MAPPER);
+	}
+
+	@Override
+	public List<MyTv> getMyTv() {
+		String sql = "select id,stationName,displayName,classify,channel,sequence from my_tv order by sequence asc";
+		return query("getMyTv", sql, MY_TV_MAPPER);
+	}
+
+	/**
+	 * 记录DAO方法的耗时
+	 * 
+	 * @param method
+	 *            DAO方法名
+	 * @param start
+	 *            开始时间，纳秒
+	 */
+	private static void recordLatency(String method, long start) {
+		MetricsRegistry.getInstance().timer("dao." + method)
+				.updateSince(start);
+	}
+
+	/**
+	 * 计算in语句每次最多包含的参数个数，保证整条语句的参数个数不超过MAX_PARAMETERS
+	 * 
+	 * @param repeat
+	 *            in语句在整条语句中重复的次数
+	 * @param others
+	 *            每次重复时in语句以外的参数个数
+	 * @return
+	 */
+	private static int getChunkSize(int repeat, int others) {
+		return Math.max(1, MAX_PARAMETERS / repeat - others);
+	}
+
+	/**
+	 * 按个数切分in语句的参数
+	 * 
+	 * @param values
+	 * @param size
+	 * @return
+	 */
+	private static List<List<String>> getChunks(Collection<String> values,
+			int size) {
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		List<String> chunk = null;
+		for (String value : values) {
+			if (chunk == null || chunk.size() >= size) {
+				chunk = new ArrayList<String>(Math.min(size, values.size()));
+				chunks.add(chunk);
+			}
+			chunk.add(value);
+		}
+		return chunks;
+	}
+
+	/**
+	 * 生成in条件的参数占位符，如?,?,?
+	 * 
+	 * @param size
+	 * @return
+	 */
+	private static String getPlaceholder(int size) {
+		StringBuilder placeholder = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			placeholder.append(i == 0 ? "?" : ",?");
+		}
+		return placeholder.toString();
+	}
+
+	/**
+	 * 执行参数化更新
+	 * 
+	 * @param method
+	 *            调用的DAO方法名，用于统计耗时
+	 * @param sql
+	 *            更新语句，参数以?占位
+	 * @param params
+	 *            参数
+	 * @return 影响的行数
+	 */
+	private int update(String method, String sql, Object... params) {
+		long start = System.nanoTime();
 		Connection conn = getConnection();
-		Statement stmt = null;
+		PreparedStatement stmt = null;
 		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-			while (rs.next()) {
-				int index = 1;
-				TvStation station = new TvStation();
-				station.setId(rs.getInt(index++));
-				station.setName(rs.getString(index++));
-				station.setCity(rs.getString(index++));
-				station.setClassify(rs.getString(index++));
-				station.setSequence(rs.getInt(index++));
-				stationList.add(station);
+			stmt = conn.prepareStatement(sql);
+			for (int i = 0, length = params == null ? 0 : params.length; i < length; i++) {
+				stmt.setObject(i + 1, params[i]);
 			}
-			rs.close();
+			return stmt.executeUpdate();
 		} catch (SQLException e) {
 			throw new MyTvException(e);
 		} finally {
+			recordLatency(method, start);
 			if (stmt != null) {
 				try {
 					stmt.close();
@@ -462,33 +805,41 @@ public class TvDaoImpl implements TvDao {
 				}
 			}
 		}
-		return stationList;
 	}
 
-	@Override
-	public List<MyTv> getMyTv() {
-		String sql = "select id,stationName,displayName,classify,channel,sequence from my_tv order by sequence asc";
-		List<MyTv> tvList = new ArrayList<MyTv>();
+	/**
+	 * 执行参数化查询，语句由驱动或连接缓存复用
+	 * 
+	 * @param method
+	 *            调用的DAO方法名，用于统计耗时
+	 * @param sql
+	 *            查询语句，参数以?占位
+	 * @param mapper
+	 *            行映射
+	 * @param params
+	 *            查询参数
+	 * @return
+	 */
+	private <T> List<T> query(String method, String sql, RowMapper<T> mapper,
+			Object... params) {
+		long start = System.nanoTime();
 		Connection conn = getConnection();
-		Statement stmt = null;
+		PreparedStatement stmt = null;
+		List<T> resultList = new ArrayList<T>();
 		try {
-			stmt = conn.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
+			stmt = conn.prepareStatement(sql);
+			for (int i = 0, length = params == null ? 0 : params.length; i < length; i++) {
+				stmt.setObject(i + 1, params[i]);
+			}
+			ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
-				MyTv myTv = new MyTv();
-				int index = 1;
-				myTv.setId(rs.getInt(index++));
-				myTv.setStationName(rs.getString(index++));
-				myTv.setDisplayName(rs.getString(index++));
-				myTv.setClassify(rs.getString(index++));
-				myTv.setChannel(rs.getString(index++));
-				myTv.setSequence(rs.getInt(index++));
-				tvList.add(myTv);
+				resultList.add(mapper.mapRow(rs));
 			}
 			rs.close();
 		} catch (SQLException e) {
 			throw new MyTvException(e);
 		} finally {
+			recordLatency(method, start);
 			if (stmt != null) {
 				try {
 					stmt.close();
@@ -505,7 +856,17 @@ public class TvDaoImpl implements TvDao {
 				}
 			}
 		}
-		return tvList;
+		return resultList;
+	}
+
+	/**
+	 * 电视台城市以空字符串保存，读取时还原为null
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static String nullIfEmpty(String value) {
+		return value == null || value.length() == 0 ? null : value;
 	}
 
 	/**
@@ -30,12 +30,20 @@ public class ProgramTableCrawlEndEvent extends
 	private static final long serialVersionUID = 8031335081624277839L;
 	private String stationName = null;
 	private String date = null;
+	private boolean replace = false;
 
 	public ProgramTableCrawlEndEvent(Object source,
 			List<ProgramTable> returnValue, String stationName, String date) {
+		this(source, returnValue, stationName, date, false);
+	}
+
+	public ProgramTableCrawlEndEvent(Object source,
+			List<ProgramTable> returnValue, String stationName, String date,
+			boolean replace) {
 		super(source, returnValue);
 		this.stationName = stationName;
 		this.date = date;
+		this.replace = replace;
 	}
 
 	public String getStationName() {
@@ -46,4 +54,13 @@ public class ProgramTableCrawlEndEvent extends
 		return date;
 	}
 
+	/**
+	 * 已通知的节目是否混入了其他抓取器的节目，需要以抓取结果替换该日期的节目表
+	 * 
+	 * @return
+	 */
+	public boolean isReplace() {
+		return replace;
+	}
+
 }
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 计数器
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月17日 上午9:22:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class Counter {
+	private final AtomicLong count = new AtomicLong();
+
+	public void inc() {
+		count.incrementAndGet();
+	}
+
+	public void inc(long n) {
+		count.addAndGet(n);
+	}
+
+	public void dec() {
+		count.decrementAndGet();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 直方图，保留最近的样本计算均值、最值及分位数
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月17日 上午9:45:52
+ * @copyright: www.laudandjolynn.com
+ */
+public class Histogram {
+	// 保留的样本数
+	private final static int SIZE = 1028;
+	private final long[] samples = new long[SIZE];
+	private long count = 0;
+
+	public synchronized void update(long value) {
+		samples[(int) (count % SIZE)] = value;
+		count++;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * 最近样本的有序副本
+	 * 
+	 * @return
+	 */
+	private synchronized long[] getValues() {
+		long[] values = Arrays.copyOf(samples, (int) Math.min(count, SIZE));
+		Arrays.sort(values);
+		return values;
+	}
+
+	/**
+	 * 输出度量值
+	 * 
+	 * @param scale
+	 *            样本值的换算比例，输出值为样本值除以该比例
+	 * @return
+	 */
+	public Map<String, Object> snapshot(double scale) {
+		long[] values = getValues();
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("count", getCount());
+		if (values.length == 0) {
+			return result;
+		}
+		double sum = 0;
+		for (long value : values) {
+			sum += value;
+		}
+		result.put("min", values[0] / scale);
+		result.put("max", values[values.length - 1] / scale);
+		result.put("mean", sum / values.length / scale);
+		result.put("p50", percentile(values, 0.5) / scale);
+		result.put("p75", percentile(values, 0.75) / scale);
+		result.put("p95", percentile(values, 0.95) / scale);
+		result.put("p99", percentile(values, 0.99) / scale);
+		return result;
+	}
+
+	private static long percentile(long[] values, double quantile) {
+		int index = (int) Math.ceil(quantile * values.length) - 1;
+		return values[Math.max(0, Math.min(index, values.length - 1))];
+	}
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 速率计，统计事件总数、平均速率及最近1、5、15分钟的指数加权移动平均速率，单位为次/秒。
+ * 移动平均每5秒衰减一次，在记录或读取时补齐经过的衰减周期
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月17日 上午9:31:05
+ * @copyright: www.laudandjolynn.com
+ */
+public class Meter {
+	private final static long TICK_INTERVAL = 5000000000L;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong uncounted = new AtomicLong();
+	private final long startTime = System.nanoTime();
+	private final AtomicLong lastTick = new AtomicLong(startTime);
+	private final Ewma m1Rate = new Ewma(1);
+	private final Ewma m5Rate = new Ewma(5);
+	private final Ewma m15Rate = new Ewma(15);
+
+	public void mark() {
+		mark(1);
+	}
+
+	public void mark(long n) {
+		tickIfNecessary();
+		count.addAndGet(n);
+		uncounted.addAndGet(n);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * 启动以来的平均速率
+	 * 
+	 * @return
+	 */
+	public double getMeanRate() {
+		long elapsed = System.nanoTime() - startTime;
+		return elapsed <= 0 ? 0 : count.get() * 1000000000d / elapsed;
+	}
+
+	public double getOneMinuteRate() {
+		tickIfNecessary();
+		return m1Rate.getRate();
+	}
+
+	public double getFiveMinuteRate() {
+		tickIfNecessary();
+		return m5Rate.getRate();
+	}
+
+	public double getFifteenMinuteRate() {
+		tickIfNecessary();
+		return m15Rate.getRate();
+	}
+
+	/**
+	 * 输出度量值
+	 * 
+	 * @return
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("count", getCount());
+		result.put("meanRate", getMeanRate());
+		result.put("m1Rate", getOneMinuteRate());
+		result.put("m5Rate", getFiveMinuteRate());
+		result.put("m15Rate", getFifteenMinuteRate());
+		return result;
+	}
+
+	private void tickIfNecessary() {
+		long oldTick = lastTick.get();
+		long newTick = System.nanoTime();
+		long age = newTick - oldTick;
+		if (age < TICK_INTERVAL) {
+			return;
+		}
+		long newIntervalStartTick = newTick - age % TICK_INTERVAL;
+		// 只有一个线程负责补齐衰减周期
+		if (lastTick.compareAndSet(oldTick, newIntervalStartTick)) {
+			long ticks = age / TICK_INTERVAL;
+			for (long i = 0; i < ticks; i++) {
+				long n = i == 0 ? uncounted.getAndSet(0) : 0;
+				m1Rate.tick(n);
+				m5Rate.tick(n);
+				m15Rate.tick(n);
+			}
+		}
+	}
+
+	/**
+	 * 指数加权移动平均
+	 */
+	private final static class Ewma {
+		private final double alpha;
+		private volatile boolean initialized = false;
+		private volatile double rate = 0;
+
+		private Ewma(int minutes) {
+			this.alpha = 1 - Math.exp(-5d / 60 / minutes);
+		}
+
+		private synchronized void tick(long count) {
+			double instantRate = count * 1000000000d / TICK_INTERVAL;
+			if (initialized) {
+				rate += alpha * (instantRate - rate);
+			} else {
+				rate = instantRate;
+				initialized = true;
+			}
+		}
+
+		private double getRate() {
+			return rate;
+		}
+	}
+}
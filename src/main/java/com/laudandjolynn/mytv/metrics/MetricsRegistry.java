@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.metrics;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <pre>
+ * 度量注册中心，按名称登记计数器、速率计、直方图、计时器及即时值，
+ * 同名度量只创建一次，通过/metrics以json输出
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月17日 上午10:12:37
+ * @copyright: www.laudandjolynn.com
+ */
+public class MetricsRegistry {
+	private final static Logger logger = LoggerFactory
+			.getLogger(MetricsRegistry.class);
+	private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<String, Meter>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private final ConcurrentMap<String, Gauge<?>> gauges = new ConcurrentHashMap<String, Gauge<?>>();
+
+	private MetricsRegistry() {
+	}
+
+	public static MetricsRegistry getInstance() {
+		return MetricsRegistrySingleton.METRICS_REGISTRY;
+	}
+
+	private final static class MetricsRegistrySingleton {
+		private final static MetricsRegistry METRICS_REGISTRY = new MetricsRegistry();
+	}
+
+	/**
+	 * 获取计数器，不存在时创建
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			counter = new Counter();
+			Counter existing = counters.putIfAbsent(name, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * 获取速率计，不存在时创建
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Meter meter(String name) {
+		Meter meter = meters.get(name);
+		if (meter == null) {
+			meter = new Meter();
+			Meter existing = meters.putIfAbsent(name, meter);
+			if (existing != null) {
+				meter = existing;
+			}
+		}
+		return meter;
+	}
+
+	/**
+	 * 获取直方图，不存在时创建
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			histogram = new Histogram();
+			Histogram existing = histograms.putIfAbsent(name, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * 获取计时器，不存在时创建
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public Timer timer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			timer = new Timer();
+			Timer existing = timers.putIfAbsent(name, timer);
+			if (existing != null) {
+				timer = existing;
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * 登记即时值，同名的即时值被替换
+	 * 
+	 * @param name
+	 * @param gauge
+	 */
+	public void register(String name, Gauge<?> gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * 输出所有度量的当前值，按类型、名称排序
+	 * 
+	 * @return
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> result = new TreeMap<String, Object>();
+		Map<String, Object> gaugeValues = new TreeMap<String, Object>();
+		for (Entry<String, Gauge<?>> entry : gauges.entrySet()) {
+			try {
+				gaugeValues.put(entry.getKey(), entry.getValue().getValue());
+			} catch (RuntimeException e) {
+				logger.error("read gauge " + entry.getKey() + " fail.", e);
+			}
+		}
+		result.put("gauges", gaugeValues);
+		Map<String, Object> counterValues = new TreeMap<String, Object>();
+		for (Entry<String, Counter> entry : counters.entrySet()) {
+			counterValues.put(entry.getKey(), entry.getValue().getCount());
+		}
+		result.put("counters", counterValues);
+		Map<String, Object> meterValues = new TreeMap<String, Object>();
+		for (Entry<String, Meter> entry : meters.entrySet()) {
+			meterValues.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		result.put("meters", meterValues);
+		Map<String, Object> histogramValues = new TreeMap<String, Object>();
+		for (Entry<String, Histogram> entry : histograms.entrySet()) {
+			histogramValues.put(entry.getKey(), entry.getValue().snapshot(1));
+		}
+		result.put("histograms", histogramValues);
+		Map<String, Object> timerValues = new TreeMap<String, Object>();
+		for (Entry<String, Timer> entry : timers.entrySet()) {
+			timerValues.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		result.put("timers", timerValues);
+		return result;
+	}
+}
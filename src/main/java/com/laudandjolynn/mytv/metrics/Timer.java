@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.metrics;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 计时器，记录耗时分布及发生速率，耗时以毫秒输出
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月17日 上午9:58:14
+ * @copyright: www.laudandjolynn.com
+ */
+public class Timer {
+	private final Histogram histogram = new Histogram();
+	private final Meter meter = new Meter();
+
+	/**
+	 * 记录一次耗时
+	 * 
+	 * @param duration
+	 * @param unit
+	 */
+	public void update(long duration, TimeUnit unit) {
+		if (duration < 0) {
+			return;
+		}
+		histogram.update(unit.toNanos(duration));
+		meter.mark();
+	}
+
+	/**
+	 * 记录从开始时间到现在的耗时
+	 * 
+	 * @param startNanos
+	 *            由{@link System#nanoTime()}取得的开始时间
+	 */
+	public void updateSince(long startNanos) {
+		update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getCount() {
+		return histogram.getCount();
+	}
+
+	/**
+	 * 输出度量值
+	 * 
+	 * @return
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> result = histogram.snapshot(1000000d);
+		Map<String, Object> rates = meter.snapshot();
+		rates.remove("count");
+		result.putAll(rates);
+		return result;
+	}
+}
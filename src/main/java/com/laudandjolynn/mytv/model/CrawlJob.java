@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.model;
+
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
+
+/**
+ * 持久化的节目表抓取任务
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月16日 上午9:42:18
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlJob {
+	// 等待执行
+	public final static String STATUS_PENDING = "pending";
+	// 已被某个实例领取，正在执行
+	public final static String STATUS_RUNNING = "running";
+	// 执行成功
+	public final static String STATUS_DONE = "done";
+	// 超过最大重试次数
+	public final static String STATUS_FAILED = "failed";
+
+	private String stationName;
+	private String airDate;
+	private CrawlPriority priority;
+	private String status;
+	private int attempt;
+	private long nextRunAt;
+	private String leaseOwner;
+	private String leaseToken;
+	private long leaseExpireAt;
+	private String lastError;
+
+	public String getStationName() {
+		return stationName;
+	}
+
+	public void setStationName(String stationName) {
+		this.stationName = stationName;
+	}
+
+	public String getAirDate() {
+		return airDate;
+	}
+
+	public void setAirDate(String airDate) {
+		this.airDate = airDate;
+	}
+
+	public CrawlPriority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(CrawlPriority priority) {
+		this.priority = priority;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	/**
+	 * 已执行的次数
+	 * 
+	 * @return
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	public void setAttempt(int attempt) {
+		this.attempt = attempt;
+	}
+
+	/**
+	 * 最早执行时间，毫秒
+	 * 
+	 * @return
+	 */
+	public long getNextRunAt() {
+		return nextRunAt;
+	}
+
+	public void setNextRunAt(long nextRunAt) {
+		this.nextRunAt = nextRunAt;
+	}
+
+	public String getLeaseOwner() {
+		return leaseOwner;
+	}
+
+	public void setLeaseOwner(String leaseOwner) {
+		this.leaseOwner = leaseOwner;
+	}
+
+	/**
+	 * 租约标识，每次领取都不相同，续约、结束和释放任务时只匹配当前租约
+	 * 
+	 * @return
+	 */
+	public String getLeaseToken() {
+		return leaseToken;
+	}
+
+	public void setLeaseToken(String leaseToken) {
+		this.leaseToken = leaseToken;
+	}
+
+	/**
+	 * 租约到期时间，毫秒，到期后其他实例可以重新领取
+	 * 
+	 * @return
+	 */
+	public long getLeaseExpireAt() {
+		return leaseExpireAt;
+	}
+
+	public void setLeaseExpireAt(long leaseExpireAt) {
+		this.leaseExpireAt = leaseExpireAt;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	@Override
+	public String toString() {
+		return "CrawlJob [stationName=" + stationName + ", airDate=" + airDate
+				+ ", priority=" + priority + ", status=" + status
+				+ ", attempt=" + attempt + "]";
+	}
+}
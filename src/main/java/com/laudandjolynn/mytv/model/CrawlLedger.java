@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.model;
+
+/**
+ * 电视台某日节目表的抓取记录
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月14日 上午10:21:37
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlLedger {
+	private String stationName;
+	private String airDate;
+	private long fetchedAt;
+	private String hash;
+	private int rowCount;
+
+	public String getStationName() {
+		return stationName;
+	}
+
+	public void setStationName(String stationName) {
+		this.stationName = stationName;
+	}
+
+	public String getAirDate() {
+		return airDate;
+	}
+
+	public void setAirDate(String airDate) {
+		this.airDate = airDate;
+	}
+
+	/**
+	 * 抓取时间，毫秒
+	 * 
+	 * @return
+	 */
+	public long getFetchedAt() {
+		return fetchedAt;
+	}
+
+	public void setFetchedAt(long fetchedAt) {
+		this.fetchedAt = fetchedAt;
+	}
+
+	/**
+	 * 节目表内容摘要
+	 * 
+	 * @return
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 * 抓取到的节目数
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public void setRowCount(int rowCount) {
+		this.rowCount = rowCount;
+	}
+
+	@Override
+	public String toString() {
+		return "CrawlLedger [stationName=" + stationName + ", airDate="
+				+ airDate + ", fetchedAt=" + fetchedAt + ", hash=" + hash
+				+ ", rowCount=" + rowCount + "]";
+	}
+
+}
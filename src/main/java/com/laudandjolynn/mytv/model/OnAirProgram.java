@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.model;
+
+/**
+ * 电视台正在播出及下一个播出的节目
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月13日 上午9:42:17
+ * @copyright: www.laudandjolynn.com
+ */
+public class OnAirProgram {
+	private String stationName;
+	private String displayName;
+	private String classify;
+	private String channel;
+	private ProgramTable current;
+	private ProgramTable next;
+
+	public String getStationName() {
+		return stationName;
+	}
+
+	public void setStationName(String stationName) {
+		this.stationName = stationName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	public void setDisplayName(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getClassify() {
+		return classify;
+	}
+
+	public void setClassify(String classify) {
+		this.classify = classify;
+	}
+
+	public String getChannel() {
+		return channel;
+	}
+
+	public void setChannel(String channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * 正在播出的节目，没有节目表时为null
+	 * 
+	 * @return
+	 */
+	public ProgramTable getCurrent() {
+		return current;
+	}
+
+	public void setCurrent(ProgramTable current) {
+		this.current = current;
+	}
+
+	/**
+	 * 下一个播出的节目，没有节目表时为null
+	 * 
+	 * @return
+	 */
+	public ProgramTable getNext() {
+		return next;
+	}
+
+	public void setNext(ProgramTable next) {
+		this.next = next;
+	}
+
+	@Override
+	public String toString() {
+		return "OnAirProgram [stationName=" + stationName + ", displayName="
+				+ displayName + ", classify=" + classify + ", channel="
+				+ channel + ", current=" + current + ", next=" + next + "]";
+	}
+
+}
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.CrawlAction;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
+import com.laudandjolynn.mytv.datasource.TvDao;
+import com.laudandjolynn.mytv.datasource.TvDaoImpl;
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.Gauge;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
+import com.laudandjolynn.mytv.model.CrawlJob;
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.Constant;
+
+/**
+ * <pre>
+ * 持久化的节目表抓取任务队列，任务保存在crawl_job表中，进程退出后不会丢失。
+ * 任务以租约方式领取，租约过期未完成的任务可以被重新领取；
+ * 失败的任务按crawl_job_backoff_seconds指数退避重试，超过crawl_job_max_attempts次后不再执行；
+ * 启动时立即释放本实例上次退出前未完成的任务，从中断处继续抓取
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月16日 上午10:15:42
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlJobQueue {
+	private final static Logger logger = LoggerFactory
+			.getLogger(CrawlJobQueue.class);
+	// 重试等待时间上限，毫秒
+	private final static long MAX_BACKOFF = 6 * 3600000L;
+	private final static int MAX_ERROR_LENGTH = 512;
+	private final String owner = createOwner();
+	private final TvDao tvDao = new TvDaoImpl();
+	private final TvService tvService = new TvServiceImpl();
+	// 本实例执行中的任务，key为电视台名称|日期
+	private final ConcurrentMap<String, CrawlJob> running = new ConcurrentHashMap<String, CrawlJob>();
+	private final AtomicLong succeededCount = new AtomicLong();
+	private final AtomicLong retriedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private ScheduledExecutorService poller;
+	private ExecutorService workers;
+	private volatile boolean stopped = false;
+
+	private CrawlJobQueue() {
+		MetricsRegistry.getInstance().register("executor.crawl_job.running",
+				new Gauge<Integer>() {
+
+					@Override
+					public Integer getValue() {
+						return running.size();
+					}
+				});
+	}
+
+	public static CrawlJobQueue getInstance() {
+		return CrawlJobQueueSingleton.CRAWL_JOB_QUEUE;
+	}
+
+	private final static class CrawlJobQueueSingleton {
+		private final static CrawlJobQueue CRAWL_JOB_QUEUE = new CrawlJobQueue();
+	}
+
+	/**
+	 * 领取者标识，同一主机、数据目录的实例重启后保持不变，每次领取的租约标识在此基础上加上随机串
+	 * 
+	 * @return
+	 */
+	private static String createOwner() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException e) {
+			host = "localhost";
+		}
+		return host + ":" + Constant.MY_TV_DATA_PATH;
+	}
+
+	/**
+	 * 启动任务队列，释放本实例上次未完成的任务并开始轮询
+	 */
+	public synchronized void start() {
+		if (poller != null) {
+			return;
+		}
+		int released = tvDao.recoverCrawlJob(owner);
+		logger.info(released + " unfinished crawl jobs of " + owner
+				+ " resumed.");
+		int threads = Config.getCrawlThreads();
+		workers = Executors.newFixedThreadPool(threads,
+				new BasicThreadFactory.Builder()
+						.namingPattern("Mytv_Crawl_Job_%d").daemon(true)
+						.build());
+		poller = new ScheduledThreadPoolExecutor(1,
+				new BasicThreadFactory.Builder()
+						.namingPattern("Mytv_Crawl_Job_Poller").daemon(true)
+						.build());
+		poller.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				poll();
+			}
+		}, 0, Config.getCrawlJobPollSeconds(), TimeUnit.SECONDS);
+		// 租约期内续约三次，任务排队等待或执行较慢时租约不会过期
+		long renewInterval = Math.max(1, Config.getCrawlJobLeaseSeconds() / 3);
+		poller.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				renew();
+			}
+		}, renewInterval, renewInterval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 停止任务队列，释放执行中任务的租约，任务重新排队
+	 */
+	public synchronized void shutdown() {
+		stopped = true;
+		if (poller != null) {
+			poller.shutdownNow();
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+		}
+		for (CrawlJob job : running.values()) {
+			try {
+				tvDao.releaseCrawlJob(job);
+			} catch (RuntimeException e) {
+				logger.error("release crawl job " + job + " fail.", e);
+			}
+		}
+	}
+
+	/**
+	 * 加入抓取任务
+	 * 
+	 * @param tasks
+	 *            电视台、日期
+	 * @param priority
+	 *            抓取优先级
+	 * @param interval
+	 *            相邻任务的执行间隔，毫秒，第i个任务在i*interval毫秒后执行
+	 * @return 新加入或重新排队的任务数
+	 */
+	public int enqueue(List<CrawlerTask> tasks, CrawlPriority priority,
+			long interval) {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (int i = 0, size = tasks.size(); i < size; i++) {
+			CrawlerTask task = tasks.get(i);
+			CrawlJob job = new CrawlJob();
+			job.setStationName(task.getStationName());
+			job.setAirDate(task.getDate());
+			job.setPriority(priority);
+			job.setNextRunAt(now + i * interval);
+			count += tvDao.enqueueCrawlJob(job);
+		}
+		logger.info(count + " of " + tasks.size() + " crawl jobs enqueued.");
+		return count;
+	}
+
+	/**
+	 * 领取到期的任务交给工作线程执行，同时执行的任务数不超过crawl_threads
+	 */
+	private void poll() {
+		try {
+			int free = Config.getCrawlThreads() - running.size();
+			if (free <= 0 || stopped) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			long leaseExpireAt = now + Config.getCrawlJobLeaseSeconds()
+					* 1000L;
+			for (final CrawlJob job : tvDao.getRunnableCrawlJob(now, free)) {
+				String key = getKey(job);
+				if (running.containsKey(key)) {
+					// 本实例仍在执行但租约已丢失的任务，不再重复领取
+					continue;
+				}
+				String token = owner + ":" + UUID.randomUUID().toString();
+				if (!tvDao.claimCrawlJob(job, owner, token, leaseExpireAt,
+						now)) {
+					continue;
+				}
+				job.setAttempt(job.getAttempt() + 1);
+				job.setLeaseOwner(owner);
+				job.setLeaseToken(token);
+				job.setLeaseExpireAt(leaseExpireAt);
+				running.put(key, job);
+				workers.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						execute(job);
+					}
+				});
+			}
+		} catch (RuntimeException e) {
+			// 异常不能抛出，否则轮询将停止
+			logger.error("poll crawl jobs fail.", e);
+		}
+	}
+
+	/**
+	 * 执行已领取的任务，并记录执行结果
+	 * 
+	 * @param job
+	 */
+	private void execute(CrawlJob job) {
+		try {
+			TvStation tvStation = tvService.getStation(job.getStationName());
+			if (tvStation == null) {
+				job.setStatus(CrawlJob.STATUS_FAILED);
+				job.setLastError(job.getStationName() + " isn't exists.");
+				failedCount.incrementAndGet();
+			} else {
+				List<ProgramTable> ptList = CrawlAction.getIntance()
+						.queryProgramTable(tvStation, job.getAirDate(),
+								job.getPriority());
+				if (ptList == null || ptList.isEmpty()) {
+					throw new MyTvException("no program table of " + job
+							+ " found.");
+				}
+				job.setStatus(CrawlJob.STATUS_DONE);
+				job.setLastError(null);
+				succeededCount.incrementAndGet();
+			}
+			job.setNextRunAt(System.currentTimeMillis());
+		} catch (RuntimeException e) {
+			if (stopped) {
+				// 应用退出导致的中断不计为失败，租约由shutdown释放
+				return;
+			}
+			retry(job, e);
+		} finally {
+			if (!stopped) {
+				if (tvDao.finishCrawlJob(job) == 0) {
+					logger.warn("lease of crawl job " + job
+							+ " has been lost, result discarded.");
+				}
+			}
+			running.remove(getKey(job));
+		}
+	}
+
+	/**
+	 * 延长本实例执行中任务的租约
+	 */
+	private void renew() {
+		try {
+			long leaseExpireAt = System.currentTimeMillis()
+					+ Config.getCrawlJobLeaseSeconds() * 1000L;
+			for (CrawlJob job : running.values()) {
+				if (stopped) {
+					return;
+				}
+				if (tvDao.renewCrawlJob(job, leaseExpireAt) == 0) {
+					logger.warn("lease of crawl job " + job
+							+ " has been lost.");
+				} else {
+					job.setLeaseExpireAt(leaseExpireAt);
+				}
+			}
+		} catch (RuntimeException e) {
+			// 异常不能抛出，否则续约将停止
+			logger.error("renew crawl jobs fail.", e);
+		}
+	}
+
+	private static String getKey(CrawlJob job) {
+		return job.getStationName() + "|" + job.getAirDate();
+	}
+
+	/**
+	 * 失败的任务按指数退避重新排队，超过最大执行次数时标记为失败
+	 * 
+	 * @param job
+	 * @param e
+	 */
+	private void retry(CrawlJob job, RuntimeException e) {
+		String error = String.valueOf(e.getMessage());
+		job.setLastError(error.length() > MAX_ERROR_LENGTH ? error.substring(
+				0, MAX_ERROR_LENGTH) : error);
+		if (job.getAttempt() >= Config.getCrawlJobMaxAttempts()) {
+			job.setStatus(CrawlJob.STATUS_FAILED);
+			job.setNextRunAt(System.currentTimeMillis());
+			failedCount.incrementAndGet();
+			logger.error("crawl job " + job + " failed.", e);
+			return;
+		}
+		long backoff = getBackoff(job.getAttempt());
+		job.setStatus(CrawlJob.STATUS_PENDING);
+		job.setNextRunAt(System.currentTimeMillis() + backoff);
+		retriedCount.incrementAndGet();
+		logger.warn("crawl job " + job + " fail, retry after " + backoff
+				+ " milliseconds. -- " + error);
+	}
+
+	/**
+	 * 获取第attempt次执行失败后重新执行前的等待时间，每次失败加倍，不超过上限
+	 * 
+	 * @param attempt
+	 *            已执行次数，从1开始
+	 * @return 毫秒
+	 */
+	public static long getBackoff(int attempt) {
+		return Math.min(MAX_BACKOFF, Config.getCrawlJobBackoffSeconds() * 1000L
+				<< Math.min(Math.max(attempt, 1) - 1, 20));
+	}
+
+	/**
+	 * 按状态统计持久化的任务数
+	 * 
+	 * @return
+	 */
+	public Map<String, Integer> getJobCount() {
+		return tvDao.countCrawlJob();
+	}
+
+	@Override
+	public String toString() {
+		return "CrawlJobQueue [owner=" + owner + ", running=" + running.size()
+				+ ", succeeded=" + succeededCount.get() + ", retried="
+				+ retriedCount.get() + ", failed=" + failedCount.get() + "]";
+	}
+}
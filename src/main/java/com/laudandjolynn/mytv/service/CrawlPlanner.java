@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.datasource.TvDao;
+import com.laudandjolynn.mytv.datasource.TvDaoImpl;
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.model.CrawlLedger;
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.DateUtils;
+import com.laudandjolynn.mytv.utils.FileUtils;
+import com.laudandjolynn.mytv.utils.ProgramTableCache;
+
+/**
+ * <pre>
+ * 增量抓取计划，根据节目表抓取记录及已保存的节目数决定需要抓取的电视台、日期：
+ * 1. 没有节目的日期
+ * 2. 节目数少于crawl_min_programs，且不是刚抓取确认过的日期
+ * 3. 今天及以后抓取记录已超过crawl_ledger_expire_hours的日期
+ * 已播出且节目完整的日期不再抓取；
+ * 重新抓取的节目表与上次抓取的内容摘要不同时替换该日期的节目表
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月14日 上午10:48:12
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlPlanner {
+	private final static Logger logger = LoggerFactory
+			.getLogger(CrawlPlanner.class);
+	private TvDao tvDao = new TvDaoImpl();
+
+	/**
+	 * 生成抓取计划
+	 * 
+	 * @param stations
+	 *            电视台
+	 * @param dates
+	 *            日期，yyyy-MM-dd
+	 * @return 需要抓取的电视台、日期
+	 */
+	public List<CrawlerTask> plan(Collection<TvStation> stations,
+			Collection<String> dates) {
+		return plan(stations, dates, false);
+	}
+
+	/**
+	 * 生成只包含缺失节目表的抓取计划，不含节目不全、已过期的节目表
+	 * 
+	 * @param stations
+	 *            电视台
+	 * @param dates
+	 *            日期，yyyy-MM-dd
+	 * @return 没有节目表的电视台、日期
+	 */
+	public List<CrawlerTask> planMissing(Collection<TvStation> stations,
+			Collection<String> dates) {
+		return plan(stations, dates, true);
+	}
+
+	private List<CrawlerTask> plan(Collection<TvStation> stations,
+			Collection<String> dates, boolean missingOnly) {
+		List<CrawlerTask> plan = new ArrayList<CrawlerTask>();
+		if (stations.isEmpty() || dates.isEmpty()) {
+			return plan;
+		}
+		Set<String> stationNames = new LinkedHashSet<String>();
+		for (TvStation station : stations) {
+			stationNames.add(station.getName());
+		}
+		String startDate = Collections.min(dates);
+		String endDate = Collections.max(dates);
+		Map<CrawlerTask, Integer> counts = tvDao.countProgramTable(
+				stationNames, startDate, endDate);
+		Map<CrawlerTask, CrawlLedger> ledgers = new HashMap<CrawlerTask, CrawlLedger>();
+		for (CrawlLedger ledger : tvDao.getCrawlLedger(stationNames,
+				startDate, endDate)) {
+			ledgers.put(
+					new CrawlerTask(ledger.getStationName(), ledger
+							.getAirDate()), ledger);
+		}
+
+		String today = DateUtils.today();
+		long now = System.currentTimeMillis();
+		long expire = Config.getCrawlLedgerExpireHours() * 3600000L;
+		int minPrograms = Config.getCrawlMinPrograms();
+		int missing = 0, partial = 0, expired = 0;
+		for (String stationName : stationNames) {
+			for (String date : dates) {
+				CrawlerTask task = new CrawlerTask(stationName, date);
+				Integer count = counts.get(task);
+				int rows = count == null ? 0 : count;
+				CrawlLedger ledger = ledgers.get(task);
+				boolean fresh = ledger != null
+						&& now - ledger.getFetchedAt() < expire;
+				if (rows == 0) {
+					missing++;
+				} else if (missingOnly) {
+					continue;
+				} else if (rows < minPrograms
+						&& !(fresh && ledger.getRowCount() <= rows)) {
+					// 最近一次抓取也只有这么多节目时不再重复抓取
+					partial++;
+				} else if (date.compareTo(today) >= 0 && !fresh) {
+					expired++;
+				} else {
+					continue;
+				}
+				plan.add(task);
+			}
+		}
+		logger.info("crawl plan of " + stationNames.size() + " stations from "
+				+ startDate + " to " + endDate + ": missing=" + missing
+				+ ", partial=" + partial + ", expired=" + expired
+				+ ", skipped="
+				+ (stationNames.size() * dates.size() - plan.size()));
+		return plan;
+	}
+
+	/**
+	 * 电视台指定日期的节目表是否需要抓取
+	 * 
+	 * @param station
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return
+	 */
+	public boolean isDue(TvStation station, String date) {
+		return !plan(Collections.singletonList(station),
+				Collections.singletonList(date)).isEmpty();
+	}
+
+	/**
+	 * <pre>
+	 * 记录一次节目表抓取，没有抓取到节目时不记录，下次仍按缺失处理；
+	 * 抓取到的节目已按唯一约束写入，内容摘要与上次抓取不同或已保存的节目数不一致时，
+	 * 以本次抓取结果替换该日期的节目表，更新改名的节目并删除已取消的节目
+	 * </pre>
+	 * 
+	 * @param stationName
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @param ptList
+	 *            抓取到的节目表
+	 */
+	public void record(String stationName, String date,
+			List<ProgramTable> ptList) {
+		record(stationName, date, ptList, false);
+	}
+
+	/**
+	 * 记录一次节目表抓取
+	 * 
+	 * @param stationName
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @param ptList
+	 *            抓取到的节目表
+	 * @param replace
+	 *            是否总是以本次抓取结果替换该日期的节目表，已写入的节目混入了其他抓取器的节目时为true
+	 */
+	public void record(String stationName, String date,
+			List<ProgramTable> ptList, boolean replace) {
+		if (ptList == null || ptList.isEmpty()) {
+			return;
+		}
+		String hash = hash(ptList);
+		// 同一播出时间只保存一条节目
+		Set<String> airTimes = new HashSet<String>();
+		for (ProgramTable pt : ptList) {
+			airTimes.add(pt.getAirTime());
+		}
+		List<String> stationNames = Collections.singletonList(stationName);
+		List<CrawlLedger> ledgers = tvDao.getCrawlLedger(stationNames, date,
+				date);
+		CrawlLedger last = ledgers.isEmpty() ? null : ledgers.get(0);
+		boolean changed;
+		if (replace) {
+			changed = true;
+		} else if (last != null) {
+			changed = !hash.equals(last.getHash());
+		} else {
+			Integer count = tvDao.countProgramTable(stationNames, date, date)
+					.get(new CrawlerTask(stationName, date));
+			changed = count == null || count.intValue() != airTimes.size();
+		}
+		if (changed) {
+			ProgramTable[] programTables = new ProgramTable[ptList.size()];
+			int count = tvDao.replaceProgramTable(stationName, date,
+					ptList.toArray(programTables));
+			ProgramTableCache.getInstance().invalidate(stationName, date);
+			ProgramScheduleIndex.getInstance().invalidate(stationName, date);
+			logger.info("program table of " + stationName + " at " + date
+					+ " changed, " + count + " programs replaced.");
+		}
+		CrawlLedger ledger = new CrawlLedger();
+		ledger.setStationName(stationName);
+		ledger.setAirDate(date);
+		ledger.setFetchedAt(System.currentTimeMillis());
+		ledger.setHash(hash);
+		ledger.setRowCount(airTimes.size());
+		tvDao.saveCrawlLedger(ledger);
+	}
+
+	/**
+	 * 计算节目表内容摘要
+	 * 
+	 * @param ptList
+	 * @return
+	 */
+	private static String hash(List<ProgramTable> ptList) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (ProgramTable pt : ptList) {
+				digest.update((pt.getAirTime() + "\t" + pt.getProgram() + "\n")
+						.getBytes(FileUtils.DEFAULT_CHARSET_NAME));
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new MyTvException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new MyTvException(e);
+		}
+	}
+}
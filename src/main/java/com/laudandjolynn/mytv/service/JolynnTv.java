@@ -56,4 +56,35 @@ public interface JolynnTv extends Remote {
 	 */
 	public String getProgramTable(String stationName, String classify,
 			String date) throws RemoteException;
+
+	/**
+	 * 获取分类下所有电视台在指定时刻正在播出及下一个播出的节目
+	 * 
+	 * @param classify
+	 *            电视台分类
+	 * @param time
+	 *            时刻, yyyy-MM-dd HH:mm:ss，为null时取当前时间
+	 * @throws RemoteException
+	 * @return
+	 */
+	public String getOnAirProgram(String classify, String time)
+			throws RemoteException;
+
+	/**
+	 * 批量获取多个电视台在日期范围内的节目表
+	 * 
+	 * @param stationNames
+	 *            电视台名称
+	 * @param classifies
+	 *            电视台分类，与电视台名称一一对应，可为null
+	 * @param startDate
+	 *            开始日期, yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期, yyyy-MM-dd
+	 * @throws RemoteException
+	 * @return 以电视台名称为键的节目表
+	 */
+	public String getProgramTables(String[] stationNames,
+			String[] classifies, String startDate, String endDate)
+			throws RemoteException;
 }
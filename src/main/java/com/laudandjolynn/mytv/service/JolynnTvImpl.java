@@ -16,14 +16,22 @@
 package com.laudandjolynn.mytv.service;
 
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.alibaba.fastjson.JSON;
 import com.laudandjolynn.mytv.CrawlAction;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.MyTv;
+import com.laudandjolynn.mytv.model.OnAirProgram;
 import com.laudandjolynn.mytv.model.ProgramTable;
-import com.laudandjolynn.mytv.utils.MyTvUtils;
+import com.laudandjolynn.mytv.utils.DateUtils;
+import com.laudandjolynn.mytv.utils.MemoryCache;
 
 /**
  * @author: Laud
@@ -33,29 +41,146 @@ import com.laudandjolynn.mytv.utils.MyTvUtils;
  */
 public class JolynnTvImpl implements JolynnTv {
 	private TvServiceImpl tvService = new TvServiceImpl();
+	private ResponseCache responseCache = ResponseCache.getInstance();
+	private QueryStatistics queryStatistics = QueryStatistics.getInstance();
 
 	@Override
 	public String getMyTvClassify() throws RemoteException {
+		String key = ResponseCache.key("getMyTvClassify");
+		String json = responseCache.get(key);
+		if (json != null) {
+			return json;
+		}
+		long generation = responseCache.getGeneration();
 		List<String> classifies = tvService.getMyTvClassify();
-		return JSON.toJSONString(classifies);
+		json = JSON.toJSONString(classifies);
+		responseCache.put(key, json, null, generation);
+		return json;
 	}
 
 	@Override
 	public String getProgramTable(String stationName, String classify,
 			String date) throws RemoteException {
-		if (!MyTvUtils.checkInvalidString(stationName)
-				|| !MyTvUtils.checkInvalidString(classify)) {
-			throw new MyTvException("invalid stationName: " + stationName);
+		recordClassify(classify);
+		recordStation(stationName, classify);
+		String key = ResponseCache.key("getProgramTable", stationName,
+				classify, date);
+		String json = responseCache.get(key);
+		if (json != null) {
+			return json;
 		}
+		long generation = responseCache.getGeneration();
 		List<ProgramTable> ptList = CrawlAction.getIntance().queryProgramTable(
 				stationName, classify, date);
-		return JSON.toJSONString(ptList);
+		json = JSON.toJSONString(ptList);
+		if (ptList != null && !ptList.isEmpty()) {
+			// 以实际的电视台名称为标签，抓取结束时失效
+			ProgramTable pt = ptList.get(0);
+			responseCache.put(key, json,
+					new CrawlerTask(pt.getStationName(), pt.getAirDate()),
+					generation);
+		}
+		return json;
 	}
 
 	@Override
 	public String getMyTvByClassify(String classify) throws RemoteException {
+		recordClassify(classify);
+		String key = ResponseCache.key("getMyTvByClassify", classify);
+		String json = responseCache.get(key);
+		if (json != null) {
+			return json;
+		}
+		long generation = responseCache.getGeneration();
 		List<MyTv> stationList = tvService.getMyTvByClassify(classify);
-		return JSON.toJSONString(stationList);
+		json = JSON.toJSONString(stationList);
+		responseCache.put(key, json, null, generation);
+		return json;
+	}
+
+	@Override
+	public String getOnAirProgram(String classify, String time)
+			throws RemoteException {
+		Date date = time == null ? new Date() : DateUtils.string2Date(time);
+		if (date == null) {
+			throw new MyTvException("invalid time: " + time);
+		}
+		recordClassify(classify);
+		List<MyTv> myTvList = MemoryCache.getInstance().getMyTvByClassify(
+				classify);
+		if (myTvList.isEmpty()) {
+			myTvList = tvService.getMyTvByClassify(classify);
+		}
+		ProgramScheduleIndex index = ProgramScheduleIndex.getInstance();
+		List<OnAirProgram> result = new ArrayList<OnAirProgram>(
+				myTvList.size());
+		for (MyTv myTv : myTvList) {
+			ProgramTable[] onAir = index.getOnAir(myTv.getStationName(), date);
+			OnAirProgram program = new OnAirProgram();
+			program.setStationName(myTv.getStationName());
+			program.setDisplayName(myTv.getDisplayName());
+			program.setClassify(myTv.getClassify());
+			program.setChannel(myTv.getChannel());
+			program.setCurrent(onAir[0]);
+			program.setNext(onAir[1]);
+			result.add(program);
+		}
+		return JSON.toJSONString(result);
+	}
+
+	@Override
+	public String getProgramTables(String[] stationNames,
+			String[] classifies, String startDate, String endDate)
+			throws RemoteException {
+		if (stationNames != null) {
+			// 一次请求中的每个分类只记录一次
+			Set<String> requestClassifies = new HashSet<String>();
+			for (int i = 0; i < stationNames.length; i++) {
+				String classify = classifies != null && i < classifies.length ? classifies[i]
+						: null;
+				if (requestClassifies.add(classify)) {
+					recordClassify(classify);
+				}
+				recordStation(stationNames[i], classify);
+			}
+		}
+		Map<String, List<ProgramTable>> programTables = CrawlAction
+				.getIntance().queryProgramTables(stationNames, classifies,
+						startDate, endDate);
+		return JSON.toJSONString(programTables);
+	}
+
+	/**
+	 * 记录分类的查询热度，只统计客户端显示的分类
+	 * 
+	 * @param classify
+	 */
+	private void recordClassify(String classify) {
+		if (MemoryCache.getInstance().isMyTvClassify(classify)) {
+			queryStatistics.recordClassify(classify);
+		}
+	}
+
+	/**
+	 * 记录电视台的查询热度，只统计缓存中已知的电视台
+	 * 
+	 * @param stationName
+	 *            电视台名称或显示名
+	 * @param classify
+	 */
+	private void recordStation(String stationName, String classify) {
+		if (stationName == null) {
+			return;
+		}
+		MemoryCache memoryCache = MemoryCache.getInstance();
+		if (memoryCache.getStation(stationName) != null) {
+			queryStatistics.recordStation(stationName);
+			return;
+		}
+		MyTv myTv = memoryCache.getMyTv(stationName, classify);
+		if (myTv != null) {
+			queryStatistics.recordStation(myTv.getStationName());
+		}
 	}
 
 }
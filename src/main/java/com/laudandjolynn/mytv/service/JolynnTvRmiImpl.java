@@ -48,4 +48,18 @@ public class JolynnTvRmiImpl extends UnicastRemoteObject implements JolynnTv {
 		return jolynnTv.getProgramTable(stationName, classify, date);
 	}
 
+	@Override
+	public String getOnAirProgram(String classify, String time)
+			throws RemoteException {
+		return jolynnTv.getOnAirProgram(classify, time);
+	}
+
+	@Override
+	public String getProgramTables(String[] stationNames,
+			String[] classifies, String startDate, String endDate)
+			throws RemoteException {
+		return jolynnTv.getProgramTables(stationNames, classifies, startDate,
+				endDate);
+	}
+
 }
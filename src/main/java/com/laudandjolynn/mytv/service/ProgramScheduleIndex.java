@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.ConcurrentHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlWindow;
+import com.laudandjolynn.mytv.datasource.TvDao;
+import com.laudandjolynn.mytv.datasource.TvDaoImpl;
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.utils.DateUtils;
+
+/**
+ * <pre>
+ * 节目播出时间区间索引，按日期从program_table整体加载一次，
+ * 每个电视台的节目按播出时间排序，通过二分查找定位某一时刻正在播出及下一个播出的节目。
+ * 节目表写入后只把对应电视台、日期标记为失效，下次查询时单独重新加载；
+ * 只为昨天及抓取窗口内的日期建立索引，其他日期直接查询数据库；
+ * 每个日期的版本号在失效时递增，加载期间版本号变化的索引不会被保留
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月13日 上午9:58:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProgramScheduleIndex {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ProgramScheduleIndex.class);
+	private final static String AIRTIME_PATTERN = "yyyy-MM-dd HH:mm";
+	private final static ProgramTable[] EMPTY = new ProgramTable[0];
+	private final ConcurrentMap<String, DayIndex> days = new ConcurrentHashMap<String, DayIndex>();
+	// 正在加载的日期，同一日期只由一个线程加载
+	private final ConcurrentMap<String, FutureTask<DayIndex>> loading = new ConcurrentHashMap<String, FutureTask<DayIndex>>();
+	private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+	private final TvDao tvDao = new TvDaoImpl();
+
+	private ProgramScheduleIndex() {
+	}
+
+	public static ProgramScheduleIndex getInstance() {
+		return ProgramScheduleIndexSingleton.PROGRAM_SCHEDULE_INDEX;
+	}
+
+	private final static class ProgramScheduleIndexSingleton {
+		private final static ProgramScheduleIndex PROGRAM_SCHEDULE_INDEX = new ProgramScheduleIndex();
+	}
+
+	/**
+	 * 获取电视台在指定时刻正在播出及下一个播出的节目
+	 * 
+	 * @param stationName
+	 *            电视台名称
+	 * @param time
+	 *            时刻
+	 * @return 长度为2的数组，第一个为正在播出的节目，第二个为下一个播出的节目，不存在时为null
+	 */
+	public ProgramTable[] getOnAir(String stationName, Date time) {
+		ProgramTable[] result = new ProgramTable[2];
+		String date = DateUtils.date2String(time, "yyyy-MM-dd");
+		Schedule schedule = getSchedule(stationName, date);
+		int index = schedule.floor(time.getTime());
+		if (index >= 0) {
+			result[0] = schedule.programs[index];
+		} else {
+			// 当天第一个节目开始之前，仍在播出前一天的最后一个节目
+			Schedule yesterday = getSchedule(stationName,
+					DateUtils.date2String(DateUtils.addDay(time, -1),
+							"yyyy-MM-dd"));
+			if (yesterday.programs.length > 0) {
+				result[0] = yesterday.programs[yesterday.programs.length - 1];
+			}
+		}
+		if (index + 1 < schedule.programs.length) {
+			result[1] = schedule.programs[index + 1];
+		} else {
+			Schedule tomorrow = getSchedule(stationName,
+					DateUtils.date2String(DateUtils.addDay(time, 1),
+							"yyyy-MM-dd"));
+			if (tomorrow.programs.length > 0) {
+				result[1] = tomorrow.programs[0];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 标记电视台指定日期的节目表已变更
+	 * 
+	 * @param stationName
+	 * @param date
+	 */
+	public void invalidate(String stationName, String date) {
+		if (!getIndexDates().contains(date)) {
+			return;
+		}
+		// 先递增版本号再检查索引，与加载完成后先放入索引再检查版本号的顺序相反，保证失效不会丢失
+		getVersion(date).incrementAndGet();
+		DayIndex day = days.get(date);
+		if (day != null) {
+			day.stale.add(stationName);
+		}
+	}
+
+	/**
+	 * 删除指定日期之前的索引
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 */
+	public void evictBefore(String date) {
+		Iterator<String> iterator = days.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().compareTo(date) < 0) {
+				iterator.remove();
+			}
+		}
+		iterator = versions.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().compareTo(date) < 0) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * 获取已建立索引的日期数
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return days.size();
+	}
+
+	private Schedule getSchedule(String stationName, String date) {
+		if (!getIndexDates().contains(date)) {
+			// 不在索引范围内的日期直接查询数据库，避免索引无限增长
+			return new Schedule(tvDao.getProgramTable(stationName, date));
+		}
+		DayIndex day = getDay(date);
+		if (day.stale.remove(stationName)) {
+			List<ProgramTable> ptList = tvDao.getProgramTable(stationName,
+					date);
+			day.schedules.put(stationName, new Schedule(ptList));
+		}
+		Schedule schedule = day.schedules.get(stationName);
+		return schedule == null ? Schedule.NONE : schedule;
+	}
+
+	private DayIndex getDay(final String date) {
+		DayIndex day = days.get(date);
+		if (day != null) {
+			return day;
+		}
+		FutureTask<DayIndex> task = new FutureTask<DayIndex>(
+				new Callable<DayIndex>() {
+
+					@Override
+					public DayIndex call() throws Exception {
+						return load(date);
+					}
+				});
+		FutureTask<DayIndex> running = loading.putIfAbsent(date, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(date, task);
+			}
+		}
+		try {
+			return running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException(
+					"interrupted while loading program schedule index of "
+							+ date, e);
+		} catch (ExecutionException e) {
+			throw new MyTvException(e.getCause());
+		}
+	}
+
+	/**
+	 * 从数据库加载指定日期的索引，加载期间节目表有变更时不保留该索引
+	 * 
+	 * @param date
+	 * @return
+	 */
+	private DayIndex load(String date) {
+		DayIndex day = days.get(date);
+		if (day != null) {
+			return day;
+		}
+		AtomicLong version = getVersion(date);
+		long loadedVersion = version.get();
+		day = new DayIndex();
+		List<ProgramTable> ptList = tvDao.getProgramTableByDate(date);
+		int size = ptList.size();
+		int from = 0;
+		for (int i = 1; i <= size; i++) {
+			if (i == size
+					|| !ptList.get(i).getStationName()
+							.equals(ptList.get(from).getStationName())) {
+				day.schedules.put(ptList.get(from).getStationName(),
+						new Schedule(ptList.subList(from, i)));
+				from = i;
+			}
+		}
+		days.put(date, day);
+		if (version.get() != loadedVersion) {
+			// 加载期间有节目表写入，本次结果可能已过期，下次查询重新加载
+			days.remove(date, day);
+			logger.debug("program schedule index of " + date
+					+ " changed while loading, discarded.");
+		} else {
+			logger.debug("build program schedule index of " + date + ", "
+					+ day.schedules.size() + " stations, " + size
+					+ " programs.");
+		}
+		evict();
+		return day;
+	}
+
+	private AtomicLong getVersion(String date) {
+		AtomicLong version = versions.get(date);
+		if (version == null) {
+			AtomicLong newVersion = new AtomicLong();
+			version = versions.putIfAbsent(date, newVersion);
+			if (version == null) {
+				version = newVersion;
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * 建立索引的日期：昨天及抓取窗口内的日期
+	 * 
+	 * @return
+	 */
+	private static Set<String> getIndexDates() {
+		Set<String> dates = new HashSet<String>(Arrays.asList(CrawlWindow
+				.getDates()));
+		dates.add(DateUtils.date2String(DateUtils.addDay(new Date(), -1),
+				"yyyy-MM-dd"));
+		return dates;
+	}
+
+	/**
+	 * 删除不在索引范围内的日期
+	 */
+	private void evict() {
+		Set<String> dates = getIndexDates();
+		Iterator<String> iterator = days.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (!dates.contains(iterator.next())) {
+				iterator.remove();
+			}
+		}
+		iterator = versions.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (!dates.contains(iterator.next())) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private final static class DayIndex {
+		private final ConcurrentMap<String, Schedule> schedules = new ConcurrentHashMap<String, Schedule>();
+		private final Set<String> stale = new ConcurrentHashSet<String>();
+	}
+
+	private final static class Schedule {
+		private final static Schedule NONE = new Schedule(
+				new ArrayList<ProgramTable>());
+		private final long[] starts;
+		private final ProgramTable[] programs;
+
+		private Schedule(List<ProgramTable> ptList) {
+			List<ProgramTable> valid = new ArrayList<ProgramTable>(
+					ptList.size());
+			List<Long> times = new ArrayList<Long>(ptList.size());
+			for (ProgramTable pt : ptList) {
+				Date airTime = parseAirTime(pt.getAirTime());
+				if (airTime == null) {
+					continue;
+				}
+				valid.add(pt);
+				times.add(airTime.getTime());
+			}
+			this.programs = valid.toArray(EMPTY);
+			this.starts = new long[times.size()];
+			for (int i = 0; i < starts.length; i++) {
+				starts[i] = times.get(i);
+			}
+		}
+
+		/**
+		 * 查找开始时间不晚于指定时刻的最后一个节目
+		 * 
+		 * @param time
+		 * @return 节目下标，不存在时为-1
+		 */
+		private int floor(long time) {
+			int low = 0, high = starts.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (starts[mid] <= time) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return high;
+		}
+
+		private static Date parseAirTime(String airTime) {
+			if (airTime == null) {
+				return null;
+			}
+			return airTime.length() == AIRTIME_PATTERN.length() ? DateUtils
+					.string2Date(airTime, AIRTIME_PATTERN) : DateUtils
+					.string2Date(airTime);
+		}
+	}
+}
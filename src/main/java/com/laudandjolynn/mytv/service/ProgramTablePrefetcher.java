@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.CrawlAction;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlScheduler;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlWindow;
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.model.MyTv;
+import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.DateUtils;
+import com.laudandjolynn.mytv.utils.MemoryCache;
+
+/**
+ * <pre>
+ * 按客户端查询热度预取节目表，在客户端查询之前抓取热门电视台今天、明天的节目表并放入缓存。
+ * 候选电视台为查询热度最高的电视台，不足时补充热门分类下客户端显示的电视台，
+ * 抓取调度器有任务排队时跳过本次预取，每次最多抓取prefetch_max_tasks个节目表
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月15日 下午2:36:15
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProgramTablePrefetcher implements Runnable {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ProgramTablePrefetcher.class);
+	private final AtomicLong prefetchedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong skippedCount = new AtomicLong();
+	private final TvService tvService = new TvServiceImpl();
+	private final CrawlPlanner crawlPlanner = new CrawlPlanner();
+
+	private ProgramTablePrefetcher() {
+	}
+
+	public static ProgramTablePrefetcher getInstance() {
+		return ProgramTablePrefetcherSingleton.PROGRAM_TABLE_PREFETCHER;
+	}
+
+	private final static class ProgramTablePrefetcherSingleton {
+		private final static ProgramTablePrefetcher PROGRAM_TABLE_PREFETCHER = new ProgramTablePrefetcher();
+	}
+
+	@Override
+	public void run() {
+		try {
+			prefetch();
+		} catch (RuntimeException e) {
+			// 异常不能抛出，否则预取将停止
+			logger.error("prefetch program tables fail.", e);
+		}
+	}
+
+	/**
+	 * 按抓取计划预取查询热度最高的电视台今明两天的节目表
+	 */
+	private void prefetch() {
+		int maxTasks = Config.getPrefetchMaxTasks();
+		if (maxTasks <= 0) {
+			return;
+		}
+		// 不与客户端即时查询及批量抓取争抢抓取配额
+		if (CrawlScheduler.getInstance().getQueueSize() >= Config
+				.getCrawlThreads()) {
+			skippedCount.incrementAndGet();
+			logger.debug("crawl scheduler is busy, skip prefetching.");
+			return;
+		}
+		List<TvStation> stations = getCandidates(Config
+				.getPrefetchTopStations());
+		List<String> dates = new ArrayList<String>();
+		for (String date : new String[] { DateUtils.today(),
+				DateUtils.tommorow() }) {
+			if (CrawlWindow.contains(date)) {
+				dates.add(date);
+			}
+		}
+		if (stations.isEmpty() || dates.isEmpty()) {
+			return;
+		}
+		Map<String, TvStation> stationByName = new LinkedHashMap<String, TvStation>();
+		for (TvStation station : stations) {
+			stationByName.put(station.getName(), station);
+		}
+		// 抓取计划按候选电视台的热度顺序排列
+		List<CrawlerTask> plan = crawlPlanner.plan(stations, dates);
+		CrawlAction crawlAction = CrawlAction.getIntance();
+		int count = 0;
+		for (CrawlerTask task : plan) {
+			if (count >= maxTasks) {
+				break;
+			}
+			TvStation station = stationByName.get(task.getStationName());
+			if (crawlAction.isInQuerying(station, task.getDate())) {
+				continue;
+			}
+			count++;
+			try {
+				crawlAction.queryProgramTable(station, task.getDate(),
+						CrawlPriority.PREFETCH);
+				// 抓取结束后放入节目表缓存
+				tvService.getProgramTable(task.getStationName(),
+						task.getDate());
+				prefetchedCount.incrementAndGet();
+			} catch (MyTvException e) {
+				failedCount.incrementAndGet();
+				logger.error("prefetch program table of "
+						+ task.getStationName() + " at " + task.getDate()
+						+ " fail.", e);
+			}
+		}
+		logger.info(count + " of " + plan.size()
+				+ " program tables prefetched.");
+	}
+
+	/**
+	 * 获取预取的候选电视台，按查询热度降序排列
+	 * 
+	 * @param n
+	 *            最多返回的个数
+	 * @return
+	 */
+	private List<TvStation> getCandidates(int n) {
+		QueryStatistics queryStatistics = QueryStatistics.getInstance();
+		MemoryCache memoryCache = MemoryCache.getInstance();
+		Map<String, TvStation> candidates = new LinkedHashMap<String, TvStation>();
+		for (String stationName : queryStatistics.getHottestStations(n)) {
+			TvStation station = memoryCache.getStation(stationName);
+			if (station != null) {
+				candidates.put(stationName, station);
+			}
+		}
+		for (String classify : queryStatistics.getHottestClassifies(n)) {
+			for (MyTv myTv : memoryCache.getMyTvByClassify(classify)) {
+				if (candidates.size() >= n) {
+					return new ArrayList<TvStation>(candidates.values());
+				}
+				TvStation station = memoryCache.getStation(myTv
+						.getStationName());
+				if (station != null
+						&& !candidates.containsKey(station.getName())) {
+					candidates.put(station.getName(), station);
+				}
+			}
+		}
+		return new ArrayList<TvStation>(candidates.values());
+	}
+
+	/**
+	 * 获取已预取的节目表数
+	 * 
+	 * @return
+	 */
+	public long getPrefetchedCount() {
+		return prefetchedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ProgramTablePrefetcher [prefetched=" + prefetchedCount.get()
+				+ ", failed=" + failedCount.get() + ", skipped="
+				+ skippedCount.get() + ", queryStatistics="
+				+ QueryStatistics.getInstance() + "]";
+	}
+}
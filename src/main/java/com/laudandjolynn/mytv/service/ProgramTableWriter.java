@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.datasource.TvDao;
+import com.laudandjolynn.mytv.datasource.TvDaoImpl;
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.Gauge;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.ProgramTableCache;
+
+/**
+ * <pre>
+ * 节目表写入器，抓取器解析出的节目在解析过程中即进入写入队列，
+ * 由单一写入线程按条目数或等待时间合并成批量写入；
+ * 以(电视台名称, 播出日期, 播出时间)唯一确定一条节目，写入前无需查询节目是否已存在
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月10日 上午10:12:48
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProgramTableWriter {
+	private final static Logger logger = LoggerFactory
+			.getLogger(ProgramTableWriter.class);
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+	private final TvDao tvDao = new TvDaoImpl();
+	private final int batchSize = Config.getProgramTableBatchSize();
+	private final long batchInterval = Config.getProgramTableBatchInterval();
+	private final AtomicLong writeCount = new AtomicLong();
+	private final AtomicLong duplicateCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	private final Thread writer;
+	private volatile boolean running = true;
+	// 写入失败的节目及失败原因，只由写入线程访问，遇到下一个FlushMarker时重试
+	private final List<ProgramTable> failedList = new ArrayList<ProgramTable>();
+	private RuntimeException failure = null;
+
+	private ProgramTableWriter() {
+		writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "Mytv_Program_Table_Writer");
+		writer.setDaemon(true);
+		writer.start();
+		MetricsRegistry.getInstance().register(
+				"executor.program_table_writer.queue", new Gauge<Integer>() {
+
+					@Override
+					public Integer getValue() {
+						return queue.size();
+					}
+				});
+	}
+
+	public static ProgramTableWriter getInstance() {
+		return ProgramTableWriterSingletonHolder.PROGRAM_TABLE_WRITER;
+	}
+
+	private final static class ProgramTableWriterSingletonHolder {
+		private final static ProgramTableWriter PROGRAM_TABLE_WRITER = new ProgramTableWriter();
+	}
+
+	/**
+	 * 节目放入写入队列，立即返回
+	 * 
+	 * @param programTable
+	 */
+	public void offer(ProgramTable programTable) {
+		if (programTable == null) {
+			return;
+		}
+		if (!running) {
+			throw new MyTvException("program table writer has been shutdown.");
+		}
+		queue.offer(programTable);
+	}
+
+	/**
+	 * 节目放入写入队列，并等待写入完成
+	 * 
+	 * @param programTables
+	 * @throws MyTvException
+	 *             写入失败或等待超时
+	 */
+	public void write(ProgramTable... programTables) {
+		for (int i = 0, length = programTables == null ? 0
+				: programTables.length; i < length; i++) {
+			offer(programTables[i]);
+		}
+		flush();
+	}
+
+	/**
+	 * 等待此前放入队列的所有节目写入完成
+	 * 
+	 * @throws MyTvException
+	 *             此前放入队列的节目重试后仍写入失败，或等待超时
+	 */
+	public void flush() {
+		if (!running || Thread.currentThread() == writer) {
+			return;
+		}
+		FlushMarker marker = new FlushMarker();
+		queue.offer(marker);
+		try {
+			if (!marker.latch.await(Config.getCrawlWaitTimeout(),
+					TimeUnit.SECONDS)) {
+				throw new MyTvException(
+						"wait for program table writer timeout.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyTvException(
+					"interrupted while waiting for program table writer.", e);
+		}
+		if (marker.failure != null) {
+			throw new MyTvException("error occur while write program tables.",
+					marker.failure);
+		}
+	}
+
+	/**
+	 * 写入队列中剩余的节目，并停止写入线程
+	 */
+	public void shutdown() {
+		try {
+			flush();
+		} catch (MyTvException e) {
+			logger.error("program tables lost while shutdown.", e);
+		} finally {
+			running = false;
+			writer.interrupt();
+		}
+	}
+
+	private void loop() {
+		List<ProgramTable> batch = new ArrayList<ProgramTable>();
+		while (running) {
+			try {
+				Object item = queue.take();
+				long deadline = System.currentTimeMillis() + batchInterval;
+				while (true) {
+					if (item instanceof FlushMarker) {
+						writeBatch(batch);
+						complete((FlushMarker) item);
+					} else if (item != null) {
+						batch.add((ProgramTable) item);
+						if (batch.size() >= batchSize) {
+							writeBatch(batch);
+						}
+					}
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.isEmpty() || wait <= 0) {
+						break;
+					}
+					item = queue.poll(wait, TimeUnit.MILLISECONDS);
+					if (item == null) {
+						break;
+					}
+				}
+				writeBatch(batch);
+			} catch (InterruptedException e) {
+				if (running) {
+					logger.warn("program table writer interrupted.", e);
+				}
+			}
+		}
+		writeBatch(batch);
+	}
+
+	/**
+	 * 重试此前写入失败的节目，仍然失败时将失败原因交给等待者，并丢弃这些节目
+	 * 
+	 * @param marker
+	 */
+	private void complete(FlushMarker marker) {
+		if (!failedList.isEmpty()) {
+			List<ProgramTable> retryList = new ArrayList<ProgramTable>(
+					failedList);
+			failedList.clear();
+			failure = null;
+			writeBatch(retryList);
+		}
+		if (failure != null) {
+			logger.error(failedList.size()
+					+ " program tables discarded after retry.", failure);
+			marker.failure = failure;
+			failedList.clear();
+			failure = null;
+		}
+		marker.latch.countDown();
+	}
+
+	/**
+	 * 批量写入节目，已保存或重复的节目由唯一约束忽略，写入失败的节目保留到下一次flush时重试
+	 * 
+	 * @param batch
+	 */
+	private void writeBatch(List<ProgramTable> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		// 批内去重，并记录涉及的电视台、日期
+		Set<String> keys = new HashSet<String>();
+		Map<String, ProgramTable> groups = new LinkedHashMap<String, ProgramTable>();
+		List<ProgramTable> resultList = new ArrayList<ProgramTable>();
+		for (ProgramTable pt : batch) {
+			String group = pt.getStationName() + "|" + pt.getAirDate();
+			if (keys.add(group + "|" + pt.getAirTime())) {
+				resultList.add(pt);
+			}
+			if (!groups.containsKey(group)) {
+				groups.put(group, pt);
+			}
+		}
+		int size = batch.size();
+		batch.clear();
+
+		try {
+			ProgramTable[] programTables = new ProgramTable[resultList.size()];
+			int count = tvDao.upsert(resultList.toArray(programTables));
+			writeCount.addAndGet(count);
+			duplicateCount.addAndGet(size - count);
+			batchCount.incrementAndGet();
+		} catch (RuntimeException e) {
+			logger.error("error occur while write " + size
+					+ " program tables.", e);
+			failedList.addAll(resultList);
+			failure = e;
+		} finally {
+			ProgramTableCache cache = ProgramTableCache.getInstance();
+			ProgramScheduleIndex index = ProgramScheduleIndex.getInstance();
+			for (ProgramTable pt : groups.values()) {
+				cache.invalidate(pt.getStationName(), pt.getAirDate());
+				index.invalidate(pt.getStationName(), pt.getAirDate());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ProgramTableWriter [queueSize=" + queue.size()
+				+ ", writeCount=" + writeCount.get() + ", duplicateCount="
+				+ duplicateCount.get() + ", batchCount=" + batchCount.get()
+				+ "]";
+	}
+
+	private final static class FlushMarker {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		// 写入线程在countDown前设置，等待者在await返回后读取
+		private RuntimeException failure = null;
+	}
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.laudandjolynn.mytv.utils.Config;
+
+/**
+ * <pre>
+ * 客户端查询热度统计，分别按电视台、分类累计查询次数，
+ * 查询次数随时间按半衰期衰减，越近的查询权重越大
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月15日 上午10:21:37
+ * @copyright: www.laudandjolynn.com
+ */
+public class QueryStatistics {
+	private final ConcurrentMap<String, Counter> stations = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentMap<String, Counter> classifies = new ConcurrentHashMap<String, Counter>();
+
+	private QueryStatistics() {
+	}
+
+	public static QueryStatistics getInstance() {
+		return QueryStatisticsSingleton.QUERY_STATISTICS;
+	}
+
+	private final static class QueryStatisticsSingleton {
+		private final static QueryStatistics QUERY_STATISTICS = new QueryStatistics();
+	}
+
+	/**
+	 * 记录一次电视台查询
+	 * 
+	 * @param stationName
+	 *            电视台名称
+	 */
+	public void recordStation(String stationName) {
+		record(stations, stationName);
+	}
+
+	/**
+	 * 记录一次分类查询
+	 * 
+	 * @param classify
+	 *            分类
+	 */
+	public void recordClassify(String classify) {
+		record(classifies, classify);
+	}
+
+	/**
+	 * 获取电视台当前的查询热度
+	 * 
+	 * @param stationName
+	 * @return
+	 */
+	public double getStationScore(String stationName) {
+		return getScore(stations, stationName);
+	}
+
+	/**
+	 * 获取分类当前的查询热度
+	 * 
+	 * @param classify
+	 * @return
+	 */
+	public double getClassifyScore(String classify) {
+		return getScore(classifies, classify);
+	}
+
+	/**
+	 * 获取查询热度最高的电视台，按热度降序排列
+	 * 
+	 * @param n
+	 *            最多返回的个数
+	 * @return
+	 */
+	public List<String> getHottestStations(int n) {
+		return getHottest(stations, n);
+	}
+
+	/**
+	 * 获取查询热度最高的分类，按热度降序排列
+	 * 
+	 * @param n
+	 *            最多返回的个数
+	 * @return
+	 */
+	public List<String> getHottestClassifies(int n) {
+		return getHottest(classifies, n);
+	}
+
+	/**
+	 * 获取所有电视台当前查询热度的快照
+	 * 
+	 * @return
+	 */
+	public Map<String, Double> getStationScores() {
+		return snapshot(stations);
+	}
+
+	private void record(ConcurrentMap<String, Counter> counters, String key) {
+		if (key == null) {
+			return;
+		}
+		Counter counter = counters.get(key);
+		if (counter == null) {
+			counter = new Counter();
+			Counter existing = counters.putIfAbsent(key, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		counter.increment(System.currentTimeMillis());
+	}
+
+	private double getScore(ConcurrentMap<String, Counter> counters, String key) {
+		Counter counter = key == null ? null : counters.get(key);
+		return counter == null ? 0 : counter.get(System.currentTimeMillis());
+	}
+
+	private Map<String, Double> snapshot(ConcurrentMap<String, Counter> counters) {
+		long now = System.currentTimeMillis();
+		Map<String, Double> scores = new HashMap<String, Double>();
+		for (Entry<String, Counter> entry : counters.entrySet()) {
+			scores.put(entry.getKey(), entry.getValue().get(now));
+		}
+		return scores;
+	}
+
+	private List<String> getHottest(ConcurrentMap<String, Counter> counters,
+			int n) {
+		// 先取快照再排序，避免排序过程中热度变化
+		final Map<String, Double> scores = snapshot(counters);
+		List<String> keys = new ArrayList<String>(scores.keySet());
+		Collections.sort(keys, new Comparator<String>() {
+
+			@Override
+			public int compare(String o1, String o2) {
+				return Double.compare(scores.get(o2), scores.get(o1));
+			}
+		});
+		return n < keys.size() ? keys.subList(0, n) : keys;
+	}
+
+	@Override
+	public String toString() {
+		return "QueryStatistics [stations=" + getHottest(stations, 10)
+				+ ", classifies=" + getHottest(classifies, 10) + "]";
+	}
+
+	/**
+	 * 按半衰期衰减的计数器
+	 */
+	private final static class Counter {
+		private double value = 0;
+		private long updated = 0;
+
+		private synchronized void increment(long now) {
+			value = decay(now) + 1;
+			updated = now;
+		}
+
+		private synchronized double get(long now) {
+			return decay(now);
+		}
+
+		private double decay(long now) {
+			if (value == 0 || now <= updated) {
+				return value;
+			}
+			double halfLife = Math.max(1,
+					Config.getQueryStatisticsHalfLifeHours()) * 3600000d;
+			return value * Math.pow(0.5, (now - updated) / halfLife);
+		}
+	}
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.utils.Config;
+
+/**
+ * <pre>
+ * 接口响应缓存，缓存序列化后的json，以方法名、参数为键
+ * 节目表响应以电视台、日期为标签，节目表抓取结束时按标签失效，只影响该标签下的响应；
+ * 电视台分类等响应在刷新缓存时整体失效
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月7日 下午3:05:12
+ * @copyright: www.laudandjolynn.com
+ */
+public class ResponseCache {
+	private final static char KEY_SEPARATOR = '\u0001';
+	private final int maxSize;
+	private final LinkedHashMap<String, CachedResponse> cache;
+	// 标签 -> 缓存键，按标签失效时不必遍历整个缓存
+	private final Map<CrawlerTask, Set<String>> keysByTag = new HashMap<CrawlerTask, Set<String>>();
+	// 每次失效都会增加版本号，避免失效前开始计算的结果在失效后被写入缓存
+	private final AtomicLong generation = new AtomicLong();
+	// 标签 -> 最近一次失效时的版本号
+	private final Map<CrawlerTask, Long> tagGenerations = new HashMap<CrawlerTask, Long>();
+	// 最近一次清空时的版本号
+	private long clearGeneration = 0;
+	// 已淘汰此日期之前的节目表响应，yyyy-MM-dd
+	private String evictedBefore = null;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	private ResponseCache() {
+		this.maxSize = Config.getResponseCacheSize();
+		this.cache = new LinkedHashMap<String, CachedResponse>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 2519862443718044751L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, CachedResponse> eldest) {
+				if (size() > maxSize) {
+					unindex(eldest.getKey(), eldest.getValue().tag);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public static ResponseCache getInstance() {
+		return ResponseCacheSingleton.RESPONSE_CACHE;
+	}
+
+	private final static class ResponseCacheSingleton {
+		private final static ResponseCache RESPONSE_CACHE = new ResponseCache();
+	}
+
+	/**
+	 * 生成缓存键
+	 * 
+	 * @param method
+	 *            接口方法名
+	 * @param args
+	 *            参数
+	 * @return
+	 */
+	public static String key(String method, String... args) {
+		StringBuilder sb = new StringBuilder(method);
+		for (String arg : args) {
+			sb.append(KEY_SEPARATOR).append(arg);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 获取缓存的响应
+	 * 
+	 * @param key
+	 * @return 未缓存时返回null
+	 */
+	public String get(String key) {
+		CachedResponse response = null;
+		synchronized (cache) {
+			response = cache.get(key);
+		}
+		if (response == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return response.json;
+	}
+
+	/**
+	 * 获取当前版本号，须在查询数据前获取，写入缓存时传入
+	 * 
+	 * @return
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * 缓存响应，若期间缓存已整体失效或该标签已失效则不缓存
+	 * 
+	 * @param key
+	 * @param json
+	 * @param tag
+	 *            节目表对应的电视台、日期，其他响应为null
+	 * @param generation
+	 *            查询数据前获取的版本号
+	 */
+	public void put(String key, String json, CrawlerTask tag, long generation) {
+		synchronized (cache) {
+			if (clearGeneration > generation) {
+				return;
+			}
+			if (tag != null) {
+				if (evictedBefore != null
+						&& tag.getDate().compareTo(evictedBefore) < 0) {
+					return;
+				}
+				Long invalidated = tagGenerations.get(tag);
+				if (invalidated != null && invalidated > generation) {
+					return;
+				}
+			}
+			CachedResponse previous = cache.put(key, new CachedResponse(json,
+					tag));
+			if (previous != null) {
+				unindex(key, previous.tag);
+			}
+			if (tag != null) {
+				Set<String> keys = keysByTag.get(tag);
+				if (keys == null) {
+					keys = new HashSet<String>();
+					keysByTag.put(tag, keys);
+				}
+				keys.add(key);
+			}
+		}
+	}
+
+	/**
+	 * 使指定电视台、日期的节目表响应失效
+	 * 
+	 * @param stationName
+	 * @param date
+	 */
+	public void invalidate(String stationName, String date) {
+		CrawlerTask tag = new CrawlerTask(stationName, date);
+		synchronized (cache) {
+			tagGenerations.put(tag, generation.incrementAndGet());
+			removeTag(tag);
+		}
+	}
+
+	/**
+	 * 淘汰指定日期之前的节目表响应
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 */
+	public void evictBefore(String date) {
+		synchronized (cache) {
+			if (evictedBefore == null || evictedBefore.compareTo(date) < 0) {
+				evictedBefore = date;
+			}
+			Set<CrawlerTask> expired = new HashSet<CrawlerTask>();
+			for (CrawlerTask tag : keysByTag.keySet()) {
+				if (tag.getDate().compareTo(date) < 0) {
+					expired.add(tag);
+				}
+			}
+			for (CrawlerTask tag : expired) {
+				removeTag(tag);
+			}
+			Iterator<CrawlerTask> iterator = tagGenerations.keySet()
+					.iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().getDate().compareTo(date) < 0) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * 清空所有响应缓存
+	 */
+	public void clear() {
+		synchronized (cache) {
+			clearGeneration = generation.incrementAndGet();
+			cache.clear();
+			keysByTag.clear();
+			tagGenerations.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ResponseCache [size=" + size() + ", hitCount="
+				+ getHitCount() + ", missCount=" + getMissCount() + "]";
+	}
+
+	/**
+	 * 移除标签下的所有响应，须持有cache锁
+	 * 
+	 * @param tag
+	 */
+	private void removeTag(CrawlerTask tag) {
+		Set<String> keys = keysByTag.remove(tag);
+		if (keys != null) {
+			for (String key : keys) {
+				cache.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * 从标签索引中移除缓存键，须持有cache锁
+	 * 
+	 * @param key
+	 * @param tag
+	 */
+	private void unindex(String key, CrawlerTask tag) {
+		if (tag == null) {
+			return;
+		}
+		Set<String> keys = keysByTag.get(tag);
+		if (keys != null && keys.remove(key) && keys.isEmpty()) {
+			keysByTag.remove(tag);
+		}
+	}
+
+	private final static class CachedResponse {
+		private final String json;
+		private final CrawlerTask tag;
+
+		private CachedResponse(String json, CrawlerTask tag) {
+			this.json = json;
+			this.tag = tag;
+		}
+	}
+}
@@ -15,9 +15,12 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.laudandjolynn.mytv.event.CrawlEventListener;
+import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.MyTv;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
@@ -81,6 +84,20 @@ public interface TvService {
 	 */
 	public List<ProgramTable> getProgramTable(String stationName, String date);
 
+	/**
+	 * 获取多个电视台在日期范围内的电视节目表，缓存中没有的一次从数据库查询
+	 * 
+	 * @param stationNames
+	 *            电视台名称
+	 * @param startDate
+	 *            开始日期, yyyy-MM-dd
+	 * @param endDate
+	 *            结束日期, yyyy-MM-dd
+	 * @return 以电视台、日期为键，只包含已存在的节目表
+	 */
+	public Map<CrawlerTask, List<ProgramTable>> getProgramTable(
+			Collection<String> stationNames, String startDate, String endDate);
+
 	/**
 	 * 根据电视台分类获取电视台
 	 * 
@@ -16,7 +16,13 @@
 package com.laudandjolynn.mytv.service;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.laudandjolynn.mytv.crawler.Crawler;
 import com.laudandjolynn.mytv.crawler.MyTvCrawlerManager;
@@ -27,11 +33,15 @@ import com.laudandjolynn.mytv.event.CrawlEvent;
 import com.laudandjolynn.mytv.event.CrawlEventListener;
 import com.laudandjolynn.mytv.event.CrawlEventListenerAdapter;
 import com.laudandjolynn.mytv.event.ProgramTableCrawlEndEvent;
+import com.laudandjolynn.mytv.event.ProgramTableFoundEvent;
 import com.laudandjolynn.mytv.event.TvStationFoundEvent;
+import com.laudandjolynn.mytv.model.CrawlerTask;
 import com.laudandjolynn.mytv.model.MyTv;
 import com.laudandjolynn.mytv.model.ProgramTable;
 import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.DateUtils;
 import com.laudandjolynn.mytv.utils.MemoryCache;
+import com.laudandjolynn.mytv.utils.ProgramTableCache;
 
 /**
  * @author: Laud
@@ -41,6 +51,7 @@ import com.laudandjolynn.mytv.utils.MemoryCache;
  */
 public class TvServiceImpl implements TvService {
 	private TvDao tvDao = new TvDaoImpl();
+	private CrawlPlanner crawlPlanner = new CrawlPlanner();
 	private final static int TV_STATION_PERSISTENT_THRESHOLD = 100;
 
 	/**
@@ -54,7 +65,7 @@ public class TvServiceImpl implements TvService {
 		if (size == 0) {
 			return;
 		}
-		tvDao.save(stations);
+		tvDao.upsert(stations);
 	}
 
 	/**
@@ -68,18 +79,7 @@ public class TvServiceImpl implements TvService {
 		if (size == 0) {
 			return;
 		}
-		List<ProgramTable> resultList = new ArrayList<ProgramTable>();
-		for (int i = 0; i < size; i++) {
-			ProgramTable pt = programTables[i];
-			String stationName = pt.getStationName();
-			String date = pt.getAirDate();
-			if (tvDao.isProgramTableExists(stationName, date)) {
-				continue;
-			}
-			resultList.add(pt);
-		}
-		programTables = new ProgramTable[resultList.size()];
-		tvDao.save(resultList.toArray(programTables));
+		ProgramTableWriter.getInstance().write(programTables);
 	}
 
 	/**
@@ -125,6 +125,14 @@ public class TvServiceImpl implements TvService {
 	 */
 	@Override
 	public TvStation getStationByDisplayName(String displayName, String classify) {
+		MemoryCache memoryCache = MemoryCache.getInstance();
+		MyTv myTv = memoryCache.getMyTv(displayName, classify);
+		if (myTv != null) {
+			TvStation tvStation = memoryCache.getStation(myTv.getStationName());
+			if (tvStation != null) {
+				return tvStation;
+			}
+		}
 		TvStation tvStation = tvDao.getStationByDisplayName(displayName,
 				classify);
 		if (tvStation != null) {
@@ -142,7 +150,72 @@ public class TvServiceImpl implements TvService {
 	 */
 	@Override
 	public List<ProgramTable> getProgramTable(String stationName, String date) {
-		return tvDao.getProgramTable(stationName, date);
+		ProgramTableCache cache = ProgramTableCache.getInstance();
+		List<ProgramTable> ptList = cache.get(stationName, date);
+		if (ptList != null) {
+			return ptList;
+		}
+		long version = cache.getVersion();
+		ptList = tvDao.getProgramTable(stationName, date);
+		return cache.put(stationName, date, ptList, version);
+	}
+
+	/**
+	 * 获取多个电视台在日期范围内的电视节目表
+	 * 
+	 * @param stationNames
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	@Override
+	public Map<CrawlerTask, List<ProgramTable>> getProgramTable(
+			Collection<String> stationNames, String startDate, String endDate) {
+		ProgramTableCache cache = ProgramTableCache.getInstance();
+		List<String> dates = new ArrayList<String>();
+		Date end = DateUtils.string2Date(endDate, "yyyy-MM-dd");
+		for (Date date = DateUtils.string2Date(startDate, "yyyy-MM-dd"); !date
+				.after(end); date = DateUtils.addDay(date, 1)) {
+			dates.add(DateUtils.date2String(date, "yyyy-MM-dd"));
+		}
+		Map<CrawlerTask, List<ProgramTable>> result = new HashMap<CrawlerTask, List<ProgramTable>>();
+		Set<String> missing = new LinkedHashSet<String>();
+		for (String stationName : stationNames) {
+			for (String date : dates) {
+				List<ProgramTable> ptList = cache.get(stationName, date);
+				if (ptList == null) {
+					missing.add(stationName);
+				} else {
+					result.put(new CrawlerTask(stationName, date), ptList);
+				}
+			}
+		}
+		if (missing.isEmpty()) {
+			return result;
+		}
+
+		long version = cache.getVersion();
+		Map<CrawlerTask, List<ProgramTable>> loaded = new HashMap<CrawlerTask, List<ProgramTable>>();
+		for (ProgramTable pt : tvDao.getProgramTable(missing, startDate,
+				endDate)) {
+			CrawlerTask key = new CrawlerTask(pt.getStationName(),
+					pt.getAirDate());
+			List<ProgramTable> ptList = loaded.get(key);
+			if (ptList == null) {
+				ptList = new ArrayList<ProgramTable>();
+				loaded.put(key, ptList);
+			}
+			ptList.add(pt);
+		}
+		for (Map.Entry<CrawlerTask, List<ProgramTable>> entry : loaded
+				.entrySet()) {
+			CrawlerTask key = entry.getKey();
+			if (!result.containsKey(key)) {
+				result.put(key, cache.put(key.getStationName(), key.getDate(),
+						entry.getValue(), version));
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -157,7 +230,7 @@ public class TvServiceImpl implements TvService {
 	}
 
 	/**
-	 * 判断指定的电视节目表是否已存在
+	 * 判断指定的电视节目表是否已存在，存在时节目表将被载入缓存
 	 * 
 	 * @param stationName
 	 * @param date
@@ -165,7 +238,8 @@ public class TvServiceImpl implements TvService {
 	 */
 	@Override
 	public boolean isProgramTableExists(String stationName, String date) {
-		return tvDao.isProgramTableExists(stationName, date);
+		List<ProgramTable> ptList = getProgramTable(stationName, date);
+		return ptList != null && !ptList.isEmpty();
 	}
 
 	/**
@@ -185,14 +259,31 @@ public class TvServiceImpl implements TvService {
 		Crawler crawler = MyTvCrawlerManager.getInstance().newCrawler();
 		crawler.registerCrawlEventListener(new CrawlEventListenerAdapter() {
 
+			@Override
+			public void itemFound(CrawlEvent event) {
+				if (event instanceof ProgramTableFoundEvent) {
+					// 边解析边写入，由写入器合并成批量写入
+					ProgramTableWriter.getInstance().offer(
+							((ProgramTableFoundEvent) event).getItem());
+				}
+			}
+
 			@Override
 			public void crawlEnd(CrawlEvent event) {
 				if (event instanceof ProgramTableCrawlEndEvent) {
-					List<ProgramTable> resultList = ((ProgramTableCrawlEndEvent) event)
-							.getReturnValue();
-					ProgramTable[] resultArray = new ProgramTable[resultList
-							.size()];
-					save(resultList.toArray(resultArray));
+					ProgramTableCrawlEndEvent crawlEndEvent = (ProgramTableCrawlEndEvent) event;
+					try {
+						// 写入失败时抛出异常，不记录抓取台账，由调用者重试
+						ProgramTableWriter.getInstance().flush();
+						crawlPlanner.record(crawlEndEvent.getStationName(),
+								crawlEndEvent.getDate(),
+								crawlEndEvent.getReturnValue(),
+								crawlEndEvent.isReplace());
+					} finally {
+						ResponseCache.getInstance().invalidate(
+								crawlEndEvent.getStationName(),
+								crawlEndEvent.getDate());
+					}
 				}
 			}
 		});
@@ -221,16 +312,13 @@ public class TvServiceImpl implements TvService {
 				if (event instanceof TvStationFoundEvent) {
 					TvStation item = ((TvStationFoundEvent) event).getItem();
 					synchronized (stationList) {
-						int size = stationList.size();
-						if (size > 0
-								&& size % TV_STATION_PERSISTENT_THRESHOLD == 0) {
-							TvStation[] stations = new TvStation[size];
-							tvDao.save(stationList.toArray(stations));
-							// 保存之后再写入缓存，因为持久化前会判断电视台是否已经存在
+						stationList.add(item);
+						if (stationList.size() >= TV_STATION_PERSISTENT_THRESHOLD) {
+							TvStation[] stations = new TvStation[stationList
+									.size()];
+							tvDao.upsert(stationList.toArray(stations));
 							MemoryCache.getInstance().addCache(stationList);
 							stationList.clear();
-						} else {
-							stationList.add(item);
 						}
 					}
 				}
@@ -243,8 +331,7 @@ public class TvServiceImpl implements TvService {
 						if (stationList.size() > 0) {
 							TvStation[] stations = new TvStation[stationList
 									.size()];
-							tvDao.save(stationList.toArray(stations));
-							// 保存之后再写入缓存，因为持久化前会判断电视台是否已经存在
+							tvDao.upsert(stationList.toArray(stations));
 							MemoryCache.getInstance().addCache(stationList);
 							stationList.clear();
 						}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <pre>
+ * 以制表符分隔字段的追加日志文件，每行一条记录
+ * 重写时先完整写入临时文件并同步到磁盘，再将原文件改名为.bak、临时文件改名为原文件，最后删除.bak；
+ * 打开时原文件不存在而.bak存在，说明重写在改名之间中断，恢复.bak；残留的临时文件直接删除
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月17日 上午10:21:08
+ * @copyright: www.laudandjolynn.com
+ */
+public class AppendLog {
+	private final static Logger logger = LoggerFactory
+			.getLogger(AppendLog.class);
+	private final static String TAB = "\t";
+	private final File file;
+	private final File tmpFile;
+	private final File bakFile;
+	private Writer writer = null;
+
+	/**
+	 * @param path
+	 *            日志文件路径
+	 */
+	public AppendLog(String path) {
+		this.file = new File(path);
+		this.tmpFile = new File(path + ".tmp");
+		this.bakFile = new File(path + ".bak");
+		recover();
+	}
+
+	/**
+	 * 逐行读取日志文件
+	 * 
+	 * @param handler
+	 * @return 行数
+	 * @throws IOException
+	 */
+	public int read(LineHandler handler) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+		int lines = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), FileUtils.DEFAULT_CHARSET_NAME));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				lines++;
+				handler.handle(line.split(TAB, -1), line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	/**
+	 * 追加一行记录，null字段写为空字符串
+	 * 
+	 * @param values
+	 * @throws IOException
+	 */
+	public void append(String... values) throws IOException {
+		if (writer == null) {
+			open();
+		}
+		write(writer, values);
+	}
+
+	public void flush() throws IOException {
+		if (writer != null) {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * 以新的内容替换日志文件，失败时原文件保持不变
+	 * 
+	 * @param source
+	 *            新的日志内容
+	 * @throws IOException
+	 */
+	public void rewrite(LineSource source) throws IOException {
+		FileOutputStream tmpOut = new FileOutputStream(tmpFile);
+		final Writer tmpWriter = new OutputStreamWriter(tmpOut,
+				FileUtils.DEFAULT_CHARSET_NAME);
+		try {
+			source.writeTo(new LineWriter() {
+
+				@Override
+				public void write(String... values) throws IOException {
+					AppendLog.write(tmpWriter, values);
+				}
+			});
+			tmpWriter.flush();
+			tmpOut.getFD().sync();
+		} catch (IOException e) {
+			tmpWriter.close();
+			tmpFile.delete();
+			throw e;
+		}
+		tmpWriter.close();
+
+		close();
+		try {
+			if (file.exists()) {
+				bakFile.delete();
+				if (!file.renameTo(bakFile)) {
+					tmpFile.delete();
+					throw new IOException("can't backup " + file);
+				}
+			}
+			if (!tmpFile.renameTo(file)) {
+				bakFile.renameTo(file);
+				tmpFile.delete();
+				throw new IOException("can't rename " + tmpFile + " to "
+						+ file);
+			}
+			bakFile.delete();
+		} finally {
+			open();
+		}
+	}
+
+	/**
+	 * 关闭日志文件，再次追加时重新打开
+	 */
+	public void close() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			logger.error("close " + file + " fail.", e);
+		} finally {
+			writer = null;
+		}
+	}
+
+	/**
+	 * 恢复中断的重写
+	 */
+	private void recover() {
+		if (!file.exists() && bakFile.exists()) {
+			if (bakFile.renameTo(file)) {
+				logger.warn("interrupted rewrite of " + file
+						+ " found, backup restored.");
+			} else {
+				logger.error("can't restore " + bakFile);
+			}
+		}
+		if (file.exists() && bakFile.exists()) {
+			bakFile.delete();
+		}
+		if (tmpFile.exists()) {
+			tmpFile.delete();
+		}
+	}
+
+	private void open() throws IOException {
+		writer = new OutputStreamWriter(new FileOutputStream(file, true),
+				FileUtils.DEFAULT_CHARSET_NAME);
+	}
+
+	private static void write(Writer writer, String... values)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				sb.append(TAB);
+			}
+			sb.append(values[i] == null ? "" : values[i]);
+		}
+		sb.append('\n');
+		writer.write(sb.toString());
+	}
+
+	/**
+	 * 日志行处理
+	 */
+	public static interface LineHandler {
+		/**
+		 * @param values
+		 *            按制表符分隔的字段
+		 * @param line
+		 *            原始行
+		 */
+		public void handle(String[] values, String line);
+	}
+
+	/**
+	 * 重写时写入一行记录
+	 */
+	public static interface LineWriter {
+		public void write(String... values) throws IOException;
+	}
+
+	/**
+	 * 重写的日志内容
+	 */
+	public static interface LineSource {
+		public void writeTo(LineWriter writer) throws IOException;
+	}
+}
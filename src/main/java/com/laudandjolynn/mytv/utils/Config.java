@@ -16,7 +16,13 @@
 package com.laudandjolynn.mytv.utils;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * @author: Laud
@@ -33,9 +39,137 @@ public class Config {
 	private final static String RES_KEY_CONFIG_RMI_PORT = "rmi_port";
 	private final static String RES_KEY_CONFIG_DB_TYPE = "db_type";
 	private final static String RES_KEY_CONFIG_PROXIES = "proxies";
+	private final static String RES_KEY_PROGRAM_TABLE_CACHE_SIZE = "program_table_cache_size";
+	private final static String RES_KEY_PROGRAM_TABLE_CACHE_TTL = "program_table_cache_ttl";
+	private final static String RES_KEY_RESPONSE_CACHE_SIZE = "response_cache_size";
+	private final static String RES_KEY_CRAWL_WAIT_TIMEOUT = "crawl_wait_timeout";
+	private final static String RES_KEY_CRAWL_THREADS = "crawl_threads";
+	private final static String RES_KEY_CRAWL_HOST_RATE = "crawl_host_rate";
+	private final static String RES_KEY_CRAWL_PROXY_RATE = "crawl_proxy_rate";
+	private final static String RES_KEY_CRAWL_MIN_RATE = "crawl_min_rate";
+	private final static String RES_KEY_CRAWL_RATE_INCREASE = "crawl_rate_increase";
+	private final static String RES_KEY_CRAWL_BURST = "crawl_burst";
+	private final static String RES_KEY_WEB_CLIENT_POOL_SIZE = "web_client_pool_size";
+	private final static String RES_KEY_WEB_CLIENT_IDLE_TIMEOUT = "web_client_idle_timeout";
+	private final static String RES_KEY_HTTP_FETCH_CRAWLERS = "http_fetch_crawlers";
+	private final static String RES_KEY_HTMLUNIT_URL_PATTERNS = "htmlunit_url_patterns";
+	private final static String RES_KEY_HTTP_MAX_CONNECTIONS = "http_max_connections";
+	private final static String RES_KEY_HTTP_TIMEOUT = "http_timeout";
+	private final static String RES_KEY_CRAWL_HOST_PARALLELISM = "crawl_host_parallelism";
+	private final static String RES_KEY_CRAWL_PROXY_PARALLELISM = "crawl_proxy_parallelism";
+	private final static String RES_KEY_CRAWL_ARCHIVE_SEGMENT_SIZE = "crawl_archive_segment_size";
+	private final static String RES_KEY_CRAWL_ARCHIVE_RETENTION_DAYS = "crawl_archive_retention_days";
+	private final static String RES_KEY_PROGRAM_TABLE_BATCH_SIZE = "program_table_batch_size";
+	private final static String RES_KEY_PROGRAM_TABLE_BATCH_INTERVAL = "program_table_batch_interval";
+	private final static String RES_KEY_PROGRAM_TABLE_RETENTION_DAYS = "program_table_retention_days";
+	private final static String RES_KEY_CRAWL_HEDGE_ENABLE = "crawl_hedge_enable";
+	private final static String RES_KEY_CRAWL_HEDGE_PERCENTILE = "crawl_hedge_percentile";
+	private final static String RES_KEY_CRAWL_HEDGE_DELAY = "crawl_hedge_delay";
+	private final static String RES_KEY_CRAWL_HEDGE_MIN_DELAY = "crawl_hedge_min_delay";
+	private final static String RES_KEY_CRAWL_LEDGER_EXPIRE_HOURS = "crawl_ledger_expire_hours";
+	private final static String RES_KEY_CRAWL_MIN_PROGRAMS = "crawl_min_programs";
+	private final static String RES_KEY_CRAWL_WINDOW_MODE = "crawl_window_mode";
+	private final static String RES_KEY_CRAWL_WINDOW_DAYS = "crawl_window_days";
+	private final static String RES_KEY_CRAWL_WINDOW_SPREAD_HOURS = "crawl_window_spread_hours";
+	private final static String RES_KEY_QUERY_STATISTICS_HALF_LIFE_HOURS = "query_statistics_half_life_hours";
+	private final static String RES_KEY_PREFETCH_INTERVAL_MINUTES = "prefetch_interval_minutes";
+	private final static String RES_KEY_PREFETCH_TOP_STATIONS = "prefetch_top_stations";
+	private final static String RES_KEY_PREFETCH_MAX_TASKS = "prefetch_max_tasks";
+	private final static String RES_KEY_CRAWL_JOB_POLL_SECONDS = "crawl_job_poll_seconds";
+	private final static String RES_KEY_CRAWL_JOB_LEASE_SECONDS = "crawl_job_lease_seconds";
+	private final static String RES_KEY_CRAWL_JOB_MAX_ATTEMPTS = "crawl_job_max_attempts";
+	private final static String RES_KEY_CRAWL_JOB_BACKOFF_SECONDS = "crawl_job_backoff_seconds";
+	private final static String RES_KEY_QUERY_MAX_STATIONS = "query_max_stations";
+	private final static String RES_KEY_QUERY_MAX_DATES = "query_max_dates";
+	private final static String RES_KEY_QUERY_MAX_CRAWLS = "query_max_crawls";
 
 	private static DbType dbType = DbType.SQLITE;
 	private static String dataFilePath = MyTvUtils.getRunningPath(Config.class);
+	// 节目表缓存最大条目数，每个条目为一个电视台一天的节目表
+	private static int programTableCacheSize = 5000;
+	// 节目表缓存有效期，单位：秒
+	private static long programTableCacheTtl = 86400;
+	// 接口响应缓存最大条目数
+	private static int responseCacheSize = 10000;
+	// 等待节目表抓取结果的超时时间，超时后取消抓取，单位：秒
+	private static long crawlWaitTimeout = 60;
+	// 抓取线程数
+	private static int crawlThreads = 4;
+	// 每个目标主机、每个代理服务器的初始访问速率，单位：次/秒
+	private static double crawlHostRate = 2;
+	private static double crawlProxyRate = 1;
+	// 被限流后的最小访问速率，单位：次/秒
+	private static double crawlMinRate = 0.1;
+	// 每次成功访问增加的速率
+	private static double crawlRateIncrease = 0.02;
+	// 允许的突发访问数
+	private static int crawlBurst = 2;
+	// 浏览器池最大浏览器数
+	private static int webClientPoolSize = 8;
+	// 浏览器最大空闲时间，单位：秒
+	private static long webClientIdleTimeout = 300;
+	// 使用http直接抓取网页的抓取器
+	private static Set<String> httpFetchCrawlers = new HashSet<String>(
+			Arrays.asList("tvmao", "epg"));
+	// 必须使用htmlunit抓取的网址
+	private static List<Pattern> htmlUnitUrlPatterns = new ArrayList<Pattern>();
+	// http连接池最大连接数
+	private static int httpMaxConnections = 32;
+	// http连接、读取超时时间，单位：秒
+	private static int httpTimeout = 30;
+	// 批量抓取时每个主机、每个代理服务器的最大并发数
+	private static int crawlHostParallelism = 4;
+	private static int crawlProxyParallelism = 2;
+	// 抓取数据归档的数据段大小，单位：字节
+	private static long crawlArchiveSegmentSize = 64 * 1024 * 1024;
+	// 抓取数据归档中日期目录的保留天数
+	private static int crawlArchiveRetentionDays = 14;
+	// 节目表批量写入的最大条目数
+	private static int programTableBatchSize = 200;
+	// 节目表批量写入的最长等待时间，单位：毫秒
+	private static long programTableBatchInterval = 500;
+	// 节目表保留天数，超过保留天数的节目表分区将被删除
+	private static int programTableRetentionDays = 28;
+	// 是否对冲抓取节目表，主抓取器超时未返回时同时启动备用抓取器
+	private static boolean crawlHedgeEnable = true;
+	// 启动备用抓取器的等待时间取主抓取器耗时的百分位
+	private static double crawlHedgePercentile = 0.9;
+	// 耗时样本不足时启动备用抓取器的等待时间，毫秒
+	private static long crawlHedgeDelay = 3000;
+	// 启动备用抓取器的最小等待时间，毫秒
+	private static long crawlHedgeMinDelay = 500;
+	// 今天及以后的节目表抓取记录过期小时数，过期后重新抓取
+	private static int crawlLedgerExpireHours = 72;
+	// 每天节目数少于该值时视为不完整
+	private static int crawlMinPrograms = 5;
+	// 节目表抓取窗口模式，weekly：每周一抓取本周；rolling：保持从今天起crawl_window_days天，每天抓取新进入窗口的日期
+	private static String crawlWindowMode = "weekly";
+	// rolling模式的窗口天数
+	private static int crawlWindowDays = 7;
+	// rolling模式每天的抓取在多少小时内均匀分布
+	private static int crawlWindowSpreadHours = 20;
+	// 客户端查询热度的半衰期，小时
+	private static int queryStatisticsHalfLifeHours = 24;
+	// 按查询热度预取节目表的间隔，分钟
+	private static int prefetchIntervalMinutes = 30;
+	// 预取查询热度最高的电视台数
+	private static int prefetchTopStations = 50;
+	// 每次预取最多抓取的节目表数，为0时不预取
+	private static int prefetchMaxTasks = 20;
+	// 抓取任务队列的轮询间隔，秒
+	private static int crawlJobPollSeconds = 5;
+	// 领取抓取任务的租约时长，秒，应大于crawl_wait_timeout
+	private static int crawlJobLeaseSeconds = 300;
+	// 抓取任务最多执行次数
+	private static int crawlJobMaxAttempts = 5;
+	// 抓取任务失败后首次重试的等待时间，秒，之后每次翻倍
+	private static int crawlJobBackoffSeconds = 60;
+	// 客户端批量查询节目表时每次最多查询的电视台数
+	private static int queryMaxStations = 100;
+	// 客户端批量查询节目表时每次最多查询的日期数
+	private static int queryMaxDates = 7;
+	// 客户端批量查询节目表时每次最多即时抓取的节目表数
+	private static int queryMaxCrawls = 20;
 
 	static {
 		ResourceBundle bundle = ResourceBundle.getBundle(CONFIG_FILE_NAME);
@@ -64,6 +198,186 @@ public class Config {
 			dbType = DbType.valueOf(bundle.getString(RES_KEY_CONFIG_DB_TYPE)
 					.toUpperCase());
 		}
+		if (bundle.containsKey(RES_KEY_PROGRAM_TABLE_CACHE_SIZE)) {
+			programTableCacheSize = Integer.valueOf(bundle
+					.getString(RES_KEY_PROGRAM_TABLE_CACHE_SIZE));
+		}
+		if (bundle.containsKey(RES_KEY_PROGRAM_TABLE_CACHE_TTL)) {
+			programTableCacheTtl = Long.valueOf(bundle
+					.getString(RES_KEY_PROGRAM_TABLE_CACHE_TTL));
+		}
+		if (bundle.containsKey(RES_KEY_RESPONSE_CACHE_SIZE)) {
+			responseCacheSize = Integer.valueOf(bundle
+					.getString(RES_KEY_RESPONSE_CACHE_SIZE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_WAIT_TIMEOUT)) {
+			crawlWaitTimeout = Long.valueOf(bundle
+					.getString(RES_KEY_CRAWL_WAIT_TIMEOUT));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_THREADS)) {
+			crawlThreads = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_THREADS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_HOST_RATE)) {
+			crawlHostRate = Double.valueOf(bundle
+					.getString(RES_KEY_CRAWL_HOST_RATE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_PROXY_RATE)) {
+			crawlProxyRate = Double.valueOf(bundle
+					.getString(RES_KEY_CRAWL_PROXY_RATE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_MIN_RATE)) {
+			crawlMinRate = Double.valueOf(bundle
+					.getString(RES_KEY_CRAWL_MIN_RATE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_RATE_INCREASE)) {
+			crawlRateIncrease = Double.valueOf(bundle
+					.getString(RES_KEY_CRAWL_RATE_INCREASE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_BURST)) {
+			crawlBurst = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_BURST));
+		}
+		if (bundle.containsKey(RES_KEY_WEB_CLIENT_POOL_SIZE)) {
+			webClientPoolSize = Integer.valueOf(bundle
+					.getString(RES_KEY_WEB_CLIENT_POOL_SIZE));
+		}
+		if (bundle.containsKey(RES_KEY_WEB_CLIENT_IDLE_TIMEOUT)) {
+			webClientIdleTimeout = Long.valueOf(bundle
+					.getString(RES_KEY_WEB_CLIENT_IDLE_TIMEOUT));
+		}
+		if (bundle.containsKey(RES_KEY_HTTP_FETCH_CRAWLERS)) {
+			httpFetchCrawlers.clear();
+			for (String value : bundle.getString(RES_KEY_HTTP_FETCH_CRAWLERS)
+					.split(Constant.COMMA)) {
+				if (value.trim().length() > 0) {
+					httpFetchCrawlers.add(value.trim());
+				}
+			}
+		}
+		if (bundle.containsKey(RES_KEY_HTMLUNIT_URL_PATTERNS)) {
+			for (String value : bundle.getString(
+					RES_KEY_HTMLUNIT_URL_PATTERNS).split(Constant.COMMA)) {
+				if (value.trim().length() > 0) {
+					htmlUnitUrlPatterns.add(Pattern.compile(value.trim()));
+				}
+			}
+		}
+		if (bundle.containsKey(RES_KEY_HTTP_MAX_CONNECTIONS)) {
+			httpMaxConnections = Integer.valueOf(bundle
+					.getString(RES_KEY_HTTP_MAX_CONNECTIONS));
+		}
+		if (bundle.containsKey(RES_KEY_HTTP_TIMEOUT)) {
+			httpTimeout = Integer.valueOf(bundle
+					.getString(RES_KEY_HTTP_TIMEOUT));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_HOST_PARALLELISM)) {
+			crawlHostParallelism = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_HOST_PARALLELISM));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_PROXY_PARALLELISM)) {
+			crawlProxyParallelism = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_PROXY_PARALLELISM));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_ARCHIVE_SEGMENT_SIZE)) {
+			crawlArchiveSegmentSize = Long.valueOf(bundle
+					.getString(RES_KEY_CRAWL_ARCHIVE_SEGMENT_SIZE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_ARCHIVE_RETENTION_DAYS)) {
+			crawlArchiveRetentionDays = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_ARCHIVE_RETENTION_DAYS));
+		}
+		if (bundle.containsKey(RES_KEY_PROGRAM_TABLE_BATCH_SIZE)) {
+			programTableBatchSize = Integer.valueOf(bundle
+					.getString(RES_KEY_PROGRAM_TABLE_BATCH_SIZE));
+		}
+		if (bundle.containsKey(RES_KEY_PROGRAM_TABLE_BATCH_INTERVAL)) {
+			programTableBatchInterval = Long.valueOf(bundle
+					.getString(RES_KEY_PROGRAM_TABLE_BATCH_INTERVAL));
+		}
+		if (bundle.containsKey(RES_KEY_PROGRAM_TABLE_RETENTION_DAYS)) {
+			programTableRetentionDays = Integer.valueOf(bundle
+					.getString(RES_KEY_PROGRAM_TABLE_RETENTION_DAYS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_HEDGE_ENABLE)) {
+			crawlHedgeEnable = Boolean.valueOf(bundle
+					.getString(RES_KEY_CRAWL_HEDGE_ENABLE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_HEDGE_PERCENTILE)) {
+			crawlHedgePercentile = Double.valueOf(bundle
+					.getString(RES_KEY_CRAWL_HEDGE_PERCENTILE));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_HEDGE_DELAY)) {
+			crawlHedgeDelay = Long.valueOf(bundle
+					.getString(RES_KEY_CRAWL_HEDGE_DELAY));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_HEDGE_MIN_DELAY)) {
+			crawlHedgeMinDelay = Long.valueOf(bundle
+					.getString(RES_KEY_CRAWL_HEDGE_MIN_DELAY));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_LEDGER_EXPIRE_HOURS)) {
+			crawlLedgerExpireHours = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_LEDGER_EXPIRE_HOURS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_MIN_PROGRAMS)) {
+			crawlMinPrograms = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_MIN_PROGRAMS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_WINDOW_MODE)) {
+			crawlWindowMode = bundle.getString(RES_KEY_CRAWL_WINDOW_MODE);
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_WINDOW_DAYS)) {
+			crawlWindowDays = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_WINDOW_DAYS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_WINDOW_SPREAD_HOURS)) {
+			crawlWindowSpreadHours = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_WINDOW_SPREAD_HOURS));
+		}
+		if (bundle.containsKey(RES_KEY_QUERY_STATISTICS_HALF_LIFE_HOURS)) {
+			queryStatisticsHalfLifeHours = Integer.valueOf(bundle
+					.getString(RES_KEY_QUERY_STATISTICS_HALF_LIFE_HOURS));
+		}
+		if (bundle.containsKey(RES_KEY_PREFETCH_INTERVAL_MINUTES)) {
+			prefetchIntervalMinutes = Integer.valueOf(bundle
+					.getString(RES_KEY_PREFETCH_INTERVAL_MINUTES));
+		}
+		if (bundle.containsKey(RES_KEY_PREFETCH_TOP_STATIONS)) {
+			prefetchTopStations = Integer.valueOf(bundle
+					.getString(RES_KEY_PREFETCH_TOP_STATIONS));
+		}
+		if (bundle.containsKey(RES_KEY_PREFETCH_MAX_TASKS)) {
+			prefetchMaxTasks = Integer.valueOf(bundle
+					.getString(RES_KEY_PREFETCH_MAX_TASKS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_JOB_POLL_SECONDS)) {
+			crawlJobPollSeconds = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_JOB_POLL_SECONDS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_JOB_LEASE_SECONDS)) {
+			crawlJobLeaseSeconds = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_JOB_LEASE_SECONDS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_JOB_MAX_ATTEMPTS)) {
+			crawlJobMaxAttempts = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_JOB_MAX_ATTEMPTS));
+		}
+		if (bundle.containsKey(RES_KEY_CRAWL_JOB_BACKOFF_SECONDS)) {
+			crawlJobBackoffSeconds = Integer.valueOf(bundle
+					.getString(RES_KEY_CRAWL_JOB_BACKOFF_SECONDS));
+		}
+		if (bundle.containsKey(RES_KEY_QUERY_MAX_STATIONS)) {
+			queryMaxStations = Integer.valueOf(bundle
+					.getString(RES_KEY_QUERY_MAX_STATIONS));
+		}
+		if (bundle.containsKey(RES_KEY_QUERY_MAX_DATES)) {
+			queryMaxDates = Integer.valueOf(bundle
+					.getString(RES_KEY_QUERY_MAX_DATES));
+		}
+		if (bundle.containsKey(RES_KEY_QUERY_MAX_CRAWLS)) {
+			queryMaxCrawls = Integer.valueOf(bundle
+					.getString(RES_KEY_QUERY_MAX_CRAWLS));
+		}
 	}
 
 	public static String getDataFilePath() {
@@ -92,6 +406,191 @@ public class Config {
 		return dbType;
 	}
 
+	public static int getProgramTableCacheSize() {
+		return programTableCacheSize;
+	}
+
+	public static long getProgramTableCacheTtl() {
+		return programTableCacheTtl;
+	}
+
+	public static int getResponseCacheSize() {
+		return responseCacheSize;
+	}
+
+	public static long getCrawlWaitTimeout() {
+		return crawlWaitTimeout;
+	}
+
+	public static int getCrawlThreads() {
+		return crawlThreads;
+	}
+
+	public static double getCrawlHostRate() {
+		return crawlHostRate;
+	}
+
+	public static double getCrawlProxyRate() {
+		return crawlProxyRate;
+	}
+
+	public static double getCrawlMinRate() {
+		return crawlMinRate;
+	}
+
+	public static double getCrawlRateIncrease() {
+		return crawlRateIncrease;
+	}
+
+	public static int getCrawlBurst() {
+		return crawlBurst;
+	}
+
+	public static int getWebClientPoolSize() {
+		return webClientPoolSize;
+	}
+
+	public static long getWebClientIdleTimeout() {
+		return webClientIdleTimeout;
+	}
+
+	/**
+	 * 指定抓取器抓取指定网址时是否使用http直接抓取
+	 * 
+	 * @param crawlerName
+	 *            抓取器名称
+	 * @param url
+	 *            网址
+	 * @return
+	 */
+	public static boolean isHttpFetch(String crawlerName, String url) {
+		if (!httpFetchCrawlers.contains(crawlerName)) {
+			return false;
+		}
+		for (Pattern pattern : htmlUnitUrlPatterns) {
+			if (pattern.matcher(url).find()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static int getHttpMaxConnections() {
+		return httpMaxConnections;
+	}
+
+	public static int getHttpTimeout() {
+		return httpTimeout;
+	}
+
+	public static int getCrawlHostParallelism() {
+		return crawlHostParallelism;
+	}
+
+	public static int getCrawlProxyParallelism() {
+		return crawlProxyParallelism;
+	}
+
+	public static long getCrawlArchiveSegmentSize() {
+		return crawlArchiveSegmentSize;
+	}
+
+	public static int getCrawlArchiveRetentionDays() {
+		return crawlArchiveRetentionDays;
+	}
+
+	public static int getProgramTableBatchSize() {
+		return programTableBatchSize;
+	}
+
+	public static long getProgramTableBatchInterval() {
+		return programTableBatchInterval;
+	}
+
+	public static int getProgramTableRetentionDays() {
+		return programTableRetentionDays;
+	}
+
+	public static boolean isCrawlHedgeEnable() {
+		return crawlHedgeEnable;
+	}
+
+	public static double getCrawlHedgePercentile() {
+		return crawlHedgePercentile;
+	}
+
+	public static long getCrawlHedgeDelay() {
+		return crawlHedgeDelay;
+	}
+
+	public static long getCrawlHedgeMinDelay() {
+		return crawlHedgeMinDelay;
+	}
+
+	public static int getCrawlLedgerExpireHours() {
+		return crawlLedgerExpireHours;
+	}
+
+	public static int getCrawlMinPrograms() {
+		return crawlMinPrograms;
+	}
+
+	public static String getCrawlWindowMode() {
+		return crawlWindowMode;
+	}
+
+	public static int getCrawlWindowDays() {
+		return crawlWindowDays;
+	}
+
+	public static int getCrawlWindowSpreadHours() {
+		return crawlWindowSpreadHours;
+	}
+
+	public static int getQueryStatisticsHalfLifeHours() {
+		return queryStatisticsHalfLifeHours;
+	}
+
+	public static int getPrefetchIntervalMinutes() {
+		return prefetchIntervalMinutes;
+	}
+
+	public static int getPrefetchTopStations() {
+		return prefetchTopStations;
+	}
+
+	public static int getPrefetchMaxTasks() {
+		return prefetchMaxTasks;
+	}
+
+	public static int getCrawlJobPollSeconds() {
+		return crawlJobPollSeconds;
+	}
+
+	public static int getCrawlJobLeaseSeconds() {
+		return crawlJobLeaseSeconds;
+	}
+
+	public static int getCrawlJobMaxAttempts() {
+		return crawlJobMaxAttempts;
+	}
+
+	public static int getCrawlJobBackoffSeconds() {
+		return crawlJobBackoffSeconds;
+	}
+
+	public static int getQueryMaxStations() {
+		return queryMaxStations;
+	}
+
+	public static int getQueryMaxDates() {
+		return queryMaxDates;
+	}
+
+	public static int getQueryMaxCrawls() {
+		return queryMaxCrawls;
+	}
+
 	public static String getConfigFileName() {
 		return CONFIG_FILE_NAME;
 	}
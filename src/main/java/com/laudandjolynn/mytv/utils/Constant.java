@@ -39,10 +39,8 @@ public class Constant {
 	public final static String CRAWL_FILE_PATH = Constant.MY_TV_DATA_PATH
 			+ "crawlfiles" + File.separator;
 
-	public final static String XML_TAG_DB = "db";
 	public final static String XML_TAG_DATA = "data";
 	public final static String XML_TAG_STATION = "station";
-	public final static String XML_TAG_PROGRAM = "program";
 
 	public final static String TV_STATION_INIT_DATA_FILE_NAME = "tv_station.properties";
 	public final static String TV_STATION_ALIAS_INIT_DATA_FILE_NAME = "tv_station_alias.properties";
@@ -0,0 +1,711 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.laudandjolynn.mytv.exception.MyTvException;
+
+/**
+ * <pre>
+ * 抓取数据归档
+ * 1. 网页内容压缩后追加写入数据段文件，数据段达到上限后写入新的数据段
+ * 2. 以内容的SHA-1摘要去重，相同内容只保存一次
+ * 3. 索引文件追加记录(目录, 名称)到内容摘要、内容摘要到数据段位置的映射
+ * 4. 读取时使用内存映射访问数据段
+ * 5. 按保留期限压缩，淘汰过期日期目录下的数据并重写数据段，
+ *    新的数据段和索引完整写入后才替换旧的索引并删除旧的数据段，打开时删除未被索引引用的数据段
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月9日 上午11:06:52
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlArchive {
+	private final static Logger logger = LoggerFactory
+			.getLogger(CrawlArchive.class);
+	private final static String ARCHIVE_PATH = Constant.MY_TV_DATA_PATH
+			+ "archive" + File.separator;
+	private final static String INDEX_FILE_NAME = "index.log";
+	private final static String SEGMENT_FILE_PREFIX = "segment_";
+	private final static String SEGMENT_FILE_SUFFIX = ".dat";
+	private final static String INDEX_BLOB = "B";
+	private final static String INDEX_ENTRY = "E";
+	// 记录头：原始长度、压缩后长度
+	private final static int RECORD_HEADER_SIZE = 8;
+	private final static Pattern DATE_DIR_PATTERN = Pattern
+			.compile("\\d{4}-\\d{2}-\\d{2}");
+	private final static Pattern SEGMENT_FILE_PATTERN = Pattern.compile(Pattern
+			.quote(SEGMENT_FILE_PREFIX)
+			+ "(\\d+)"
+			+ Pattern.quote(SEGMENT_FILE_SUFFIX));
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// 目录 -> 名称 -> 内容摘要
+	private final Map<String, Map<String, String>> entries = new HashMap<String, Map<String, String>>();
+	// 内容摘要 -> 数据段位置
+	private final Map<String, BlobLocation> blobs = new HashMap<String, BlobLocation>();
+	private final Map<Integer, MappedByteBuffer> mappedSegments = new HashMap<Integer, MappedByteBuffer>();
+	private final long segmentSize;
+	private int currentSegment = 0;
+	private RandomAccessFile currentSegmentFile = null;
+	private final AppendLog index = new AppendLog(ARCHIVE_PATH
+			+ INDEX_FILE_NAME);
+
+	private CrawlArchive() {
+		this.segmentSize = Config.getCrawlArchiveSegmentSize();
+		File dir = new File(ARCHIVE_PATH);
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		try {
+			loadIndex();
+			deleteOrphanSegments();
+			currentSegmentFile = new RandomAccessFile(
+					segmentPath(currentSegment), "rw");
+		} catch (IOException e) {
+			throw new MyTvException("error occur while open crawl archive.", e);
+		}
+		importLegacyFiles();
+	}
+
+	public static CrawlArchive getInstance() {
+		return CrawlArchiveSingletonHolder.CRAWL_ARCHIVE;
+	}
+
+	private final static class CrawlArchiveSingletonHolder {
+		private final static CrawlArchive CRAWL_ARCHIVE = new CrawlArchive();
+	}
+
+	/**
+	 * 归档抓取数据
+	 * 
+	 * @param dirName
+	 *            目录名称，如日期，yyyy-MM-dd
+	 * @param name
+	 *            名称
+	 * @param data
+	 *            数据
+	 * @return 内容摘要
+	 */
+	public String put(String dirName, String name, String data) {
+		byte[] raw = toBytes(data);
+		String hash = hash(raw);
+		boolean exists = false;
+		lock.readLock().lock();
+		try {
+			exists = blobs.containsKey(hash);
+		} finally {
+			lock.readLock().unlock();
+		}
+		// 压缩在锁外进行，不阻塞其他读写
+		byte[] compressed = exists ? null : compress(raw);
+		lock.writeLock().lock();
+		try {
+			if (!blobs.containsKey(hash)) {
+				if (compressed == null) {
+					compressed = compress(raw);
+				}
+				if (currentSegmentFile.length() + RECORD_HEADER_SIZE
+						+ compressed.length > segmentSize
+						&& currentSegmentFile.length() > 0) {
+					rollSegment();
+				}
+				long offset = currentSegmentFile.length();
+				currentSegmentFile.seek(offset);
+				currentSegmentFile.writeInt(raw.length);
+				currentSegmentFile.writeInt(compressed.length);
+				currentSegmentFile.write(compressed);
+				BlobLocation location = new BlobLocation(currentSegment,
+						offset, RECORD_HEADER_SIZE + compressed.length);
+				blobs.put(hash, location);
+				index.append(INDEX_BLOB, hash,
+						String.valueOf(location.segment),
+						String.valueOf(location.offset),
+						String.valueOf(location.length));
+			}
+			String previous = putEntry(entries, dirName, name, hash);
+			if (!hash.equals(previous)) {
+				index.append(INDEX_ENTRY, dirName, name, hash);
+			}
+			index.flush();
+			logger.debug("archive crawl data: " + dirName + "/" + name
+					+ ", hash: " + hash);
+			return hash;
+		} catch (IOException e) {
+			throw new MyTvException(
+					"error occur while write crawled data to archive. ["
+							+ dirName + "/" + name + "].", e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 读取归档的抓取数据
+	 * 
+	 * @param dirName
+	 * @param name
+	 * @return 不存在时返回null
+	 */
+	public String get(String dirName, String name) {
+		lock.readLock().lock();
+		try {
+			String hash = getHash(dirName, name);
+			if (hash == null) {
+				return null;
+			}
+			BlobLocation location = blobs.get(hash);
+			if (location == null) {
+				return null;
+			}
+			return new String(read(location), FileUtils.DEFAULT_CHARSET_NAME);
+		} catch (IOException e) {
+			throw new MyTvException(
+					"error occur while read crawled data from archive. ["
+							+ dirName + "/" + name + "].", e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 获取归档数据的内容摘要
+	 * 
+	 * @param dirName
+	 * @param name
+	 * @return 不存在时返回null
+	 */
+	public String getHash(String dirName, String name) {
+		lock.readLock().lock();
+		try {
+			Map<String, String> dir = entries.get(dirName);
+			return dir == null ? null : dir.get(name);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 列出目录下的所有归档名称
+	 * 
+	 * @param dirName
+	 * @return
+	 */
+	public List<String> list(String dirName) {
+		lock.readLock().lock();
+		try {
+			Map<String, String> dir = entries.get(dirName);
+			if (dir == null) {
+				return Collections.emptyList();
+			}
+			return new ArrayList<String>(dir.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 淘汰早于指定日期的日期目录，并重写数据段只保留仍被引用的内容
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return 淘汰的归档数
+	 */
+	public int compact(String date) {
+		lock.writeLock().lock();
+		try {
+			int removed = 0;
+			Map<String, Map<String, String>> liveEntries = new HashMap<String, Map<String, String>>();
+			for (Map.Entry<String, Map<String, String>> entry : entries
+					.entrySet()) {
+				String dirName = entry.getKey();
+				if (DATE_DIR_PATTERN.matcher(dirName).matches()
+						&& dirName.compareTo(date) < 0) {
+					removed += entry.getValue().size();
+				} else {
+					liveEntries.put(dirName, entry.getValue());
+				}
+			}
+			rewrite(liveEntries);
+			logger.info("crawl archive compacted, " + removed
+					+ " entries before " + date + " removed, " + blobs.size()
+					+ " blobs remain.");
+			return removed;
+		} catch (IOException e) {
+			throw new MyTvException("error occur while compact crawl archive.",
+					e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 关闭归档
+	 */
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			closeQuietly();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.readLock().lock();
+		try {
+			int size = 0;
+			for (Map<String, String> dir : entries.values()) {
+				size += dir.size();
+			}
+			return "CrawlArchive [entries=" + size + ", blobs=" + blobs.size()
+					+ ", currentSegment=" + currentSegment + "]";
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 重写数据段及索引文件，只保留仍被引用的内容；
+	 * 新的数据段写在当前数据段之后，失败时删除新的数据段，归档状态保持不变
+	 * 
+	 * @param liveEntries
+	 *            保留的目录
+	 * @throws IOException
+	 */
+	private void rewrite(final Map<String, Map<String, String>> liveEntries)
+			throws IOException {
+		Set<String> liveHashes = new HashSet<String>();
+		for (Map<String, String> dir : liveEntries.values()) {
+			liveHashes.addAll(dir.values());
+		}
+		int firstNewSegment = currentSegment + 1;
+		int segment = firstNewSegment;
+		RandomAccessFile segmentFile = new RandomAccessFile(
+				segmentPath(segment), "rw");
+		final Map<String, BlobLocation> newBlobs = new HashMap<String, BlobLocation>();
+		try {
+			for (Map.Entry<String, BlobLocation> entry : blobs.entrySet()) {
+				String hash = entry.getKey();
+				if (!liveHashes.contains(hash)) {
+					continue;
+				}
+				byte[] record = readRecord(entry.getValue());
+				if (segmentFile.length() + record.length > segmentSize
+						&& segmentFile.length() > 0) {
+					segmentFile.getFD().sync();
+					segmentFile.close();
+					segmentFile = new RandomAccessFile(segmentPath(++segment),
+							"rw");
+				}
+				long offset = segmentFile.length();
+				segmentFile.seek(offset);
+				segmentFile.write(record);
+				newBlobs.put(hash, new BlobLocation(segment, offset,
+						record.length));
+			}
+			segmentFile.getFD().sync();
+			// 新的数据段已写入磁盘，再替换索引
+			index.rewrite(new AppendLog.LineSource() {
+
+				@Override
+				public void writeTo(AppendLog.LineWriter writer)
+						throws IOException {
+					for (Map.Entry<String, BlobLocation> entry : newBlobs
+							.entrySet()) {
+						BlobLocation location = entry.getValue();
+						writer.write(INDEX_BLOB, entry.getKey(),
+								String.valueOf(location.segment),
+								String.valueOf(location.offset),
+								String.valueOf(location.length));
+					}
+					for (Map.Entry<String, Map<String, String>> dir : liveEntries
+							.entrySet()) {
+						for (Map.Entry<String, String> entry : dir.getValue()
+								.entrySet()) {
+							writer.write(INDEX_ENTRY, dir.getKey(),
+									entry.getKey(), entry.getValue());
+						}
+					}
+				}
+			});
+		} catch (IOException e) {
+			try {
+				segmentFile.close();
+			} catch (IOException e1) {
+				logger.error("close crawl archive segment fail.", e1);
+			}
+			for (int i = firstNewSegment; i <= segment; i++) {
+				new File(segmentPath(i)).delete();
+			}
+			throw e;
+		}
+
+		// 新索引已生效，切换归档状态后删除旧的数据段
+		Set<Integer> oldSegments = new HashSet<Integer>();
+		for (BlobLocation location : blobs.values()) {
+			oldSegments.add(location.segment);
+		}
+		oldSegments.add(currentSegment);
+		currentSegmentFile.close();
+		currentSegmentFile = segmentFile;
+		currentSegment = segment;
+		blobs.clear();
+		blobs.putAll(newBlobs);
+		entries.clear();
+		entries.putAll(liveEntries);
+		for (Integer oldSegment : oldSegments) {
+			deleteSegment(oldSegment);
+		}
+	}
+
+	/**
+	 * 删除未被索引引用的数据段，如压缩完成后进程中断而未删除的旧数据段
+	 */
+	private void deleteOrphanSegments() {
+		Set<Integer> liveSegments = new HashSet<Integer>();
+		for (BlobLocation location : blobs.values()) {
+			liveSegments.add(location.segment);
+		}
+		liveSegments.add(currentSegment);
+		String[] names = new File(ARCHIVE_PATH).list();
+		for (int i = 0, length = names == null ? 0 : names.length; i < length; i++) {
+			Matcher matcher = SEGMENT_FILE_PATTERN.matcher(names[i]);
+			if (matcher.matches()
+					&& !liveSegments.contains(Integer.valueOf(matcher
+							.group(1)))) {
+				logger.info("delete orphan crawl archive segment: "
+						+ names[i]);
+				deleteSegment(Integer.valueOf(matcher.group(1)));
+			}
+		}
+	}
+
+	/**
+	 * 解除数据段的内存映射并删除数据段文件，须持有写锁
+	 * 
+	 * @param segment
+	 */
+	private void deleteSegment(int segment) {
+		MappedByteBuffer mapped = null;
+		synchronized (mappedSegments) {
+			mapped = mappedSegments.remove(segment);
+		}
+		if (mapped != null) {
+			unmap(mapped);
+		}
+		File file = new File(segmentPath(segment));
+		if (file.exists() && !file.delete()) {
+			logger.warn("can't delete old segment: " + file);
+		}
+	}
+
+	/**
+	 * 立即释放内存映射，不支持时等待垃圾回收释放
+	 * 
+	 * @param buffer
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			// java 9及以上
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+					ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// java 8及以下
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			logger.debug("can't unmap crawl archive segment.", e);
+		}
+	}
+
+	/**
+	 * 载入索引文件
+	 * 
+	 * @throws IOException
+	 */
+	private void loadIndex() throws IOException {
+		index.read(new AppendLog.LineHandler() {
+
+			@Override
+			public void handle(String[] values, String line) {
+				try {
+					if (INDEX_BLOB.equals(values[0]) && values.length == 5) {
+						blobs.put(values[1],
+								new BlobLocation(Integer.parseInt(values[2]),
+										Long.parseLong(values[3]), Integer
+												.parseInt(values[4])));
+					} else if (INDEX_ENTRY.equals(values[0])
+							&& values.length == 4) {
+						putEntry(entries, values[1], values[2], values[3]);
+					} else {
+						logger.warn("skip invalid index line: " + line);
+					}
+				} catch (NumberFormatException e) {
+					// 写入中断的记录
+					logger.warn("skip invalid index line: " + line);
+				}
+			}
+		});
+		// 丢弃内容缺失的索引
+		for (Map<String, String> dir : entries.values()) {
+			dir.values().retainAll(blobs.keySet());
+		}
+		for (BlobLocation location : blobs.values()) {
+			currentSegment = Math.max(currentSegment, location.segment);
+		}
+	}
+
+	/**
+	 * 导入旧版本按文件存放的抓取数据，导入后删除原文件
+	 */
+	private void importLegacyFiles() {
+		File[] dirs = new File(Constant.CRAWL_FILE_PATH).listFiles();
+		int count = 0;
+		for (int i = 0, length = dirs == null ? 0 : dirs.length; i < length; i++) {
+			File dir = dirs[i];
+			File[] files = dir.isDirectory() ? dir.listFiles() : null;
+			for (int j = 0, size = files == null ? 0 : files.length; j < size; j++) {
+				File file = files[j];
+				if (!file.isFile()) {
+					continue;
+				}
+				try {
+					put(dir.getName(), file.getName(),
+							MyTvUtils.readAsHtml(file.getPath()));
+					file.delete();
+					count++;
+				} catch (Exception e) {
+					logger.error("import crawl file fail: " + file, e);
+				}
+			}
+			if (dir.isDirectory()) {
+				String[] remain = dir.list();
+				if (remain == null || remain.length == 0) {
+					dir.delete();
+				}
+			}
+		}
+		if (count > 0) {
+			logger.info(count + " crawl files imported into archive.");
+		}
+	}
+
+	private void rollSegment() throws IOException {
+		currentSegmentFile.close();
+		currentSegment++;
+		currentSegmentFile = new RandomAccessFile(segmentPath(currentSegment),
+				"rw");
+	}
+
+	private static String putEntry(Map<String, Map<String, String>> entries,
+			String dirName, String name, String hash) {
+		Map<String, String> dir = entries.get(dirName);
+		if (dir == null) {
+			dir = new HashMap<String, String>();
+			entries.put(dirName, dir);
+		}
+		return dir.put(name, hash);
+	}
+
+	/**
+	 * 读取并解压内容
+	 * 
+	 * @param location
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] read(BlobLocation location) throws IOException {
+		ByteBuffer buffer = map(location);
+		int rawLength = buffer.getInt();
+		int compressedLength = buffer.getInt();
+		byte[] compressed = new byte[compressedLength];
+		buffer.get(compressed);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] raw = new byte[rawLength];
+			int offset = 0;
+			while (offset < rawLength && !inflater.finished()) {
+				int count = inflater.inflate(raw, offset, rawLength - offset);
+				if (count == 0 && inflater.needsInput()) {
+					break;
+				}
+				offset += count;
+			}
+			if (offset != rawLength) {
+				throw new IOException("corrupt archive record at segment "
+						+ location.segment + ", offset " + location.offset);
+			}
+			return raw;
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt archive record at segment "
+					+ location.segment + ", offset " + location.offset, e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * 读取原始记录，包括记录头
+	 * 
+	 * @param location
+	 * @return
+	 * @throws IOException
+	 */
+	private byte[] readRecord(BlobLocation location) throws IOException {
+		ByteBuffer buffer = map(location);
+		byte[] record = new byte[location.length];
+		buffer.get(record);
+		return record;
+	}
+
+	/**
+	 * 映射记录所在的数据段，返回定位到记录开始位置的独立缓冲区
+	 * 
+	 * @param location
+	 * @return
+	 * @throws IOException
+	 */
+	private ByteBuffer map(BlobLocation location) throws IOException {
+		MappedByteBuffer mapped = null;
+		synchronized (mappedSegments) {
+			mapped = mappedSegments.get(location.segment);
+			// 当前数据段仍在追加，映射范围不足时重新映射
+			if (mapped == null
+					|| mapped.capacity() < location.offset + location.length) {
+				RandomAccessFile file = new RandomAccessFile(
+						segmentPath(location.segment), "r");
+				try {
+					FileChannel channel = file.getChannel();
+					mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+							channel.size());
+				} finally {
+					file.close();
+				}
+				mappedSegments.put(location.segment, mapped);
+			}
+		}
+		ByteBuffer buffer = mapped.duplicate();
+		buffer.position((int) location.offset);
+		return buffer;
+	}
+
+	private void closeQuietly() {
+		index.close();
+		try {
+			if (currentSegmentFile != null) {
+				currentSegmentFile.close();
+				currentSegmentFile = null;
+			}
+		} catch (IOException e) {
+			logger.error("close crawl archive fail.", e);
+		}
+	}
+
+	private static String segmentPath(int segment) {
+		return ARCHIVE_PATH + SEGMENT_FILE_PREFIX + segment
+				+ SEGMENT_FILE_SUFFIX;
+	}
+
+	private static byte[] toBytes(String data) {
+		try {
+			return data.getBytes(FileUtils.DEFAULT_CHARSET_NAME);
+		} catch (IOException e) {
+			throw new MyTvException(e);
+		}
+	}
+
+	private static String hash(byte[] data) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return Hex.encodeHexString(digest.digest(data));
+		} catch (NoSuchAlgorithmException e) {
+			throw new MyTvException(e);
+		}
+	}
+
+	private static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					Math.max(64, data.length / 4));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private final static class BlobLocation {
+		private final int segment;
+		private final long offset;
+		private final int length;
+
+		private BlobLocation(int segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
@@ -15,7 +15,13 @@
  ******************************************************************************/
 package com.laudandjolynn.mytv.utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.jetty.util.ConcurrentHashSet;
 
@@ -23,14 +29,25 @@ import com.laudandjolynn.mytv.model.MyTv;
 import com.laudandjolynn.mytv.model.TvStation;
 
 /**
+ * <pre>
+ * 电视台内存缓存，按电视台名称、显示名+分类、城市+分类、分类建立索引
+ * 刷新时整体替换索引快照，读取方不会看到重建了一半的缓存；
+ * 从调用beginRefresh到替换快照期间增量写入的数据会补入新的快照，不会因替换而丢失
+ * </pre>
+ * 
  * @author: Laud
  * @email: htd0324@gmail.com
  * @date: 2015年4月16日 上午10:58:48
  * @copyright: www.laudandjolynn.com
  */
 public class MemoryCache {
-	private final static ConcurrentHashSet<TvStation> ALL_TV_STATION = new ConcurrentHashSet<TvStation>();
-	private final static ConcurrentHashSet<MyTv> ALL_MY_TV = new ConcurrentHashSet<MyTv>();
+	private final static char KEY_SEPARATOR = '|';
+	private volatile Snapshot snapshot = new Snapshot();
+	// 写操作互斥，避免增量写入丢失在被替换的快照中
+	private final Object writeLock = new Object();
+	// 刷新期间增量写入的数据，不在刷新时为null
+	private List<TvStation> pendingStations = null;
+	private List<MyTv> pendingMyTvList = null;
 
 	private MemoryCache() {
 	}
@@ -43,13 +60,63 @@ public class MemoryCache {
 		private final static MemoryCache MEMORY_CACHE = new MemoryCache();
 	}
 
+	/**
+	 * 开始刷新，须在从数据库读取刷新数据之前调用，之后增量写入的数据将补入刷新后的缓存
+	 */
+	public void beginRefresh() {
+		synchronized (writeLock) {
+			pendingStations = new ArrayList<TvStation>();
+			pendingMyTvList = new ArrayList<MyTv>();
+		}
+	}
+
+	/**
+	 * 以新的数据重建缓存，重建完成后整体替换
+	 * 
+	 * @param stations
+	 *            所有电视台
+	 * @param mytvList
+	 *            客户端显示的电视台
+	 */
+	public void refresh(List<TvStation> stations, List<MyTv> mytvList) {
+		Snapshot newSnapshot = new Snapshot();
+		if (stations != null) {
+			for (TvStation station : stations) {
+				newSnapshot.addStation(station);
+			}
+		}
+		if (mytvList != null) {
+			for (MyTv myTv : mytvList) {
+				newSnapshot.addMyTv(myTv);
+			}
+		}
+		synchronized (writeLock) {
+			if (pendingStations != null) {
+				for (TvStation station : pendingStations) {
+					newSnapshot.addStation(station);
+				}
+				for (MyTv myTv : pendingMyTvList) {
+					// 已从数据库读到的不会重复加入
+					newSnapshot.addMyTv(myTv);
+				}
+				pendingStations = null;
+				pendingMyTvList = null;
+			}
+			this.snapshot = newSnapshot;
+		}
+	}
+
 	/**
 	 * 缓存所有电视台
 	 * 
 	 * @param stations
 	 */
 	public void addCache(List<TvStation> stations) {
-		ALL_TV_STATION.addAll(stations);
+		synchronized (writeLock) {
+			for (TvStation station : stations) {
+				addStation(station);
+			}
+		}
 	}
 
 	/**
@@ -58,8 +125,10 @@ public class MemoryCache {
 	 * @param stations
 	 */
 	public void addCache(TvStation... stations) {
-		for (TvStation station : stations) {
-			ALL_TV_STATION.add(station);
+		synchronized (writeLock) {
+			for (TvStation station : stations) {
+				addStation(station);
+			}
 		}
 	}
 
@@ -70,12 +139,28 @@ public class MemoryCache {
 	 * @return
 	 */
 	public TvStation getStation(String stationName) {
-		for (TvStation station : ALL_TV_STATION) {
-			if (station.getName().equals(stationName)) {
-				return station;
-			}
+		if (stationName == null) {
+			return null;
 		}
-		return null;
+		return snapshot.stationsByName.get(stationName);
+	}
+
+	/**
+	 * 根据城市、分类查找电视台
+	 * 
+	 * @param city
+	 *            城市，可以为null
+	 * @param classify
+	 *            分类
+	 * @return
+	 */
+	public List<TvStation> getStations(String city, String classify) {
+		Set<TvStation> stations = snapshot.stationsByCityClassify.get(key(
+				city, classify));
+		if (stations == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<TvStation>(stations);
 	}
 
 	/**
@@ -84,7 +169,50 @@ public class MemoryCache {
 	 * @param stations
 	 */
 	public void addMyTvCache(List<MyTv> mytvList) {
-		ALL_MY_TV.addAll(mytvList);
+		synchronized (writeLock) {
+			for (MyTv myTv : mytvList) {
+				snapshot.addMyTv(myTv);
+				if (pendingMyTvList != null) {
+					pendingMyTvList.add(myTv);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 根据显示名、分类查找客户端显示的电视台
+	 * 
+	 * @param displayName
+	 * @param classify
+	 * @return
+	 */
+	public MyTv getMyTv(String displayName, String classify) {
+		return snapshot.myTvByDisplayName.get(key(displayName, classify));
+	}
+
+	/**
+	 * 获取指定分类下客户端显示的电视台，按显示顺序排列
+	 * 
+	 * @param classify
+	 * @return
+	 */
+	public List<MyTv> getMyTvByClassify(String classify) {
+		List<MyTv> myTvList = snapshot.myTvByClassify.get(key(classify, null));
+		if (myTvList == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<MyTv>(myTvList);
+	}
+
+	/**
+	 * 判断是否是客户端显示的电视台分类
+	 * 
+	 * @param classify
+	 * @return
+	 */
+	public boolean isMyTvClassify(String classify) {
+		return classify != null
+				&& snapshot.myTvByClassify.containsKey(key(classify, null));
 	}
 
 	/**
@@ -94,11 +222,83 @@ public class MemoryCache {
 	 * @return
 	 */
 	public boolean isInMyTv(TvStation tvStation) {
-		for (MyTv myTv : ALL_MY_TV) {
-			if (myTv.getStationName().equals(tvStation.getName())) {
-				return true;
+		String stationName = tvStation.getName();
+		return stationName != null
+				&& snapshot.myTvStationNames.contains(stationName);
+	}
+
+	/**
+	 * 写入当前快照，须持有writeLock
+	 * 
+	 * @param station
+	 */
+	private void addStation(TvStation station) {
+		snapshot.addStation(station);
+		if (pendingStations != null) {
+			pendingStations.add(station);
+		}
+	}
+
+	private static String key(String first, String second) {
+		return (first == null ? "" : first) + KEY_SEPARATOR
+				+ (second == null ? "" : second);
+	}
+
+	/**
+	 * 缓存索引快照
+	 */
+	private final static class Snapshot {
+		private final ConcurrentMap<String, TvStation> stationsByName = new ConcurrentHashMap<String, TvStation>();
+		private final ConcurrentMap<String, Set<TvStation>> stationsByCityClassify = new ConcurrentHashMap<String, Set<TvStation>>();
+		private final ConcurrentMap<String, MyTv> myTvByDisplayName = new ConcurrentHashMap<String, MyTv>();
+		private final Set<String> myTvStationNames = new ConcurrentHashSet<String>();
+		private final ConcurrentMap<String, CopyOnWriteArrayList<MyTv>> myTvByClassify = new ConcurrentHashMap<String, CopyOnWriteArrayList<MyTv>>();
+
+		private void addStation(TvStation station) {
+			String name = station.getName();
+			if (name == null) {
+				return;
+			}
+			stationsByName.putIfAbsent(name, station);
+			String key = key(station.getCity(), station.getClassify());
+			Set<TvStation> stations = stationsByCityClassify.get(key);
+			if (stations == null) {
+				stations = new ConcurrentHashSet<TvStation>();
+				Set<TvStation> existing = stationsByCityClassify.putIfAbsent(
+						key, stations);
+				if (existing != null) {
+					stations = existing;
+				}
+			}
+			stations.add(station);
+		}
+
+		/**
+		 * 加入客户端显示的电视台，同一分类、显示名的电视台只加入一次
+		 * 
+		 * @param myTv
+		 */
+		private void addMyTv(MyTv myTv) {
+			if (myTv.getDisplayName() != null
+					&& myTvByDisplayName.putIfAbsent(
+							key(myTv.getDisplayName(), myTv.getClassify()),
+							myTv) != null) {
+				return;
+			}
+			if (myTv.getStationName() != null) {
+				myTvStationNames.add(myTv.getStationName());
+			}
+			String key = key(myTv.getClassify(), null);
+			CopyOnWriteArrayList<MyTv> myTvList = myTvByClassify.get(key);
+			if (myTvList == null) {
+				myTvList = new CopyOnWriteArrayList<MyTv>();
+				CopyOnWriteArrayList<MyTv> existing = myTvByClassify
+						.putIfAbsent(key, myTvList);
+				if (existing != null) {
+					myTvList = existing;
+				}
 			}
+			myTvList.addIfAbsent(myTv);
 		}
-		return false;
 	}
 }
@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +47,7 @@ public class MyTvUtils {
 	}
 
 	/**
-	 * 输出抓取数据到文件
+	 * 输出抓取数据到归档
 	 * 
 	 * @param dirName
 	 *            目录名称，如日期，yyyy-MM-dd
@@ -54,30 +55,49 @@ public class MyTvUtils {
 	 *            数据
 	 * @param fileName
 	 *            文件名
+	 * @return 内容摘要
 	 */
-	public static void outputCrawlData(String dirName, String data,
+	public static String outputCrawlData(String dirName, String data,
 			String fileName) {
-		String crawlFileDir = Constant.CRAWL_FILE_PATH + dirName
-				+ File.separator;
-		File file = new File(crawlFileDir);
-		if (!file.exists()) {
-			file.mkdirs();
-		}
-		String crawlFilePath = crawlFileDir + fileName;
-		// 若文件已存在，则删除
-		file = new File(crawlFilePath);
-		if (file.exists()) {
-			file.delete();
-		}
-		try {
-			logger.info("write data to file: " + crawlFilePath);
-			FileUtils.writeWithNIO(data, FileUtils.DEFAULT_CHARSET_NAME,
-					crawlFilePath);
-		} catch (IOException e) {
-			throw new MyTvException(
-					"error occur while write crawled data to disk. filepaht ["
-							+ crawlFilePath + "].", e);
-		}
+		logger.info("write data to archive: " + dirName + File.separator
+				+ fileName);
+		return CrawlArchive.getInstance().put(dirName, fileName, data);
+	}
+
+	/**
+	 * 从归档读取抓取数据
+	 * 
+	 * @param dirName
+	 *            目录名称，如日期，yyyy-MM-dd
+	 * @param fileName
+	 *            文件名
+	 * @return 不存在时返回null
+	 */
+	public static String readCrawlData(String dirName, String fileName) {
+		return CrawlArchive.getInstance().get(dirName, fileName);
+	}
+
+	/**
+	 * 获取抓取数据的内容摘要
+	 * 
+	 * @param dirName
+	 *            目录名称
+	 * @param fileName
+	 *            文件名
+	 * @return 不存在时返回null
+	 */
+	public static String getCrawlDataHash(String dirName, String fileName) {
+		return CrawlArchive.getInstance().getHash(dirName, fileName);
+	}
+
+	/**
+	 * 列出归档目录下的所有抓取数据文件名
+	 * 
+	 * @param dirName
+	 * @return
+	 */
+	public static List<String> listCrawlData(String dirName) {
+		return CrawlArchive.getInstance().list(dirName);
 	}
 
 	/**
@@ -112,12 +132,5 @@ public class MyTvUtils {
 
 		return filePath;
 	}
-
-	public static boolean checkInvalidString(String string) {
-		if (string.indexOf("'") != -1) {
-			return false;
-		}
-		return true;
-	}
 	
 }
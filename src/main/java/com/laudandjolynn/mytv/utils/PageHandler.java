@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.utils;
+
+import java.io.IOException;
+
+import com.gargoylesoftware.htmlunit.Page;
+
+/**
+ * 网页处理器，处理期间占用抓取网页的浏览器，可在页面内点击等交互操作
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月8日 下午4:18:27
+ * @copyright: www.laudandjolynn.com
+ */
+public interface PageHandler<T> {
+	/**
+	 * 处理网页
+	 * 
+	 * @param page
+	 * @return
+	 * @throws IOException
+	 */
+	public T handle(Page page) throws IOException;
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.model.ProgramTable;
+
+/**
+ * <pre>
+ * 节目表缓存，以电视台名称、日期为键缓存一天的节目表
+ * 按最近最少使用淘汰，并且超过有效期的条目将被淘汰；
+ * 失效时记录该电视台、日期的失效版本号，失效前开始查询的节目表不会在失效后被写入缓存
+ * </pre>
+ * 
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月6日 上午9:48:21
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProgramTableCache {
+	private final int maxSize;
+	private final long ttl;
+	private final LinkedHashMap<CrawlerTask, CacheEntry> cache;
+	// 电视台、日期 -> 最近一次失效时的版本号
+	private final Map<CrawlerTask, Long> invalidations = new HashMap<CrawlerTask, Long>();
+	private final AtomicLong version = new AtomicLong();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private ProgramTableCache() {
+		this.maxSize = Config.getProgramTableCacheSize();
+		this.ttl = Config.getProgramTableCacheTtl() * 1000;
+		this.cache = new LinkedHashMap<CrawlerTask, CacheEntry>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = -6371529394829426706L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<CrawlerTask, CacheEntry> eldest) {
+				if (size() > maxSize) {
+					evictionCount.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public static ProgramTableCache getInstance() {
+		return ProgramTableCacheSingleton.PROGRAM_TABLE_CACHE;
+	}
+
+	private final static class ProgramTableCacheSingleton {
+		private final static ProgramTableCache PROGRAM_TABLE_CACHE = new ProgramTableCache();
+	}
+
+	/**
+	 * 获取缓存的节目表，返回的列表不可修改
+	 * 
+	 * @param stationName
+	 *            电视台名称
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @return 未缓存或已过期时返回null
+	 */
+	public List<ProgramTable> get(String stationName, String date) {
+		CrawlerTask key = new CrawlerTask(stationName, date);
+		synchronized (cache) {
+			CacheEntry entry = cache.get(key);
+			if (entry != null) {
+				if (System.currentTimeMillis() - entry.createTime < ttl) {
+					hitCount.incrementAndGet();
+					return entry.programTables;
+				}
+				cache.remove(key);
+				evictionCount.incrementAndGet();
+			}
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * 获取当前版本号，须在查询节目表前获取，写入缓存时传入
+	 * 
+	 * @return
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * 缓存节目表，空节目表不缓存，若查询后节目表已失效则不缓存
+	 * 
+	 * @param stationName
+	 *            电视台名称
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 * @param programTables
+	 * @param version
+	 *            查询节目表前获取的版本号
+	 * @return 不可修改的列表
+	 */
+	public List<ProgramTable> put(String stationName, String date,
+			List<ProgramTable> programTables, long version) {
+		if (programTables == null || programTables.isEmpty()) {
+			return programTables;
+		}
+		CacheEntry entry = new CacheEntry(
+				Collections.unmodifiableList(new ArrayList<ProgramTable>(
+						programTables)));
+		CrawlerTask key = new CrawlerTask(stationName, date);
+		synchronized (cache) {
+			Long invalidated = invalidations.get(key);
+			if (invalidated == null || invalidated <= version) {
+				cache.put(key, entry);
+			}
+		}
+		return entry.programTables;
+	}
+
+	/**
+	 * 使指定电视台、日期的节目表缓存失效
+	 * 
+	 * @param stationName
+	 * @param date
+	 */
+	public void invalidate(String stationName, String date) {
+		CrawlerTask key = new CrawlerTask(stationName, date);
+		synchronized (cache) {
+			invalidations.put(key, version.incrementAndGet());
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * 淘汰指定日期之前的所有节目表
+	 * 
+	 * @param date
+	 *            日期，yyyy-MM-dd
+	 */
+	public void evictBefore(String date) {
+		synchronized (cache) {
+			Iterator<CrawlerTask> iterator = cache.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().getDate().compareTo(date) < 0) {
+					iterator.remove();
+					evictionCount.incrementAndGet();
+				}
+			}
+			Iterator<CrawlerTask> invalidated = invalidations.keySet()
+					.iterator();
+			while (invalidated.hasNext()) {
+				if (invalidated.next().getDate().compareTo(date) < 0) {
+					invalidated.remove();
+				}
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "ProgramTableCache [size=" + size() + ", hitCount="
+				+ getHitCount() + ", missCount=" + getMissCount()
+				+ ", evictionCount=" + getEvictionCount() + "]";
+	}
+
+	private final static class CacheEntry {
+		private final List<ProgramTable> programTables;
+		private final long createTime = System.currentTimeMillis();
+
+		private CacheEntry(List<ProgramTable> programTables) {
+			this.programTables = programTables;
+		}
+	}
+}
@@ -16,9 +16,37 @@
 package com.laudandjolynn.mytv.utils;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,9 +55,14 @@ import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
 import com.gargoylesoftware.htmlunit.NicelyResynchronizingAjaxController;
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.ProxyConfig;
+import com.gargoylesoftware.htmlunit.TopLevelWindow;
 import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebWindow;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlScheduler;
 import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.metrics.MetricsRegistry;
 import com.laudandjolynn.mytv.model.Proxy;
 import com.laudandjolynn.mytv.proxy.MyTvProxyManager;
 
@@ -46,6 +79,32 @@ public class WebCrawler {
 	private final static BrowserVersion[] USER_AGENTS = new BrowserVersion[] {
 			BrowserVersion.CHROME, BrowserVersion.FIREFOX_24,
 			BrowserVersion.INTERNET_EXPLORER_11 };
+	private final static Random RANDOM = new Random();
+	private final static GenericKeyedObjectPool<WebClientKey, WebClient> WEB_CLIENTS = createWebClientPool();
+	private final static RequestConfig HTTP_REQUEST_CONFIG = RequestConfig
+			.custom().setConnectTimeout(Config.getHttpTimeout() * 1000)
+			.setSocketTimeout(Config.getHttpTimeout() * 1000).build();
+	private final static CloseableHttpClient HTTP_CLIENT = createHttpClient();
+	private final static String VALIDATOR_NAME_PREFIX = "http_";
+	// 缓存校验信息数上限，超出时淘汰最久未使用的
+	private final static int MAX_VALIDATORS = 10000;
+	// 网址到缓存校验信息的映射，访问须同步
+	private final static Map<String, Validator> VALIDATORS = new LinkedHashMap<String, Validator>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = -2843617720165938451L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Validator> eldest) {
+			return size() > MAX_VALIDATORS;
+		}
+	};
+	private final static AtomicLong notModifiedCount = new AtomicLong();
+	// 度量名称中的主机数上限，超出的主机合并为other
+	private final static int MAX_METRIC_HOSTS = 32;
+	private final static String METRIC_HOST_OTHER = "other";
+	private final static String METRIC_HOST_UNKNOWN = "unknown";
+	private final static Set<String> METRIC_HOSTS = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	/**
 	 * 根据url抓取
@@ -54,57 +113,527 @@ public class WebCrawler {
 	 * @return
 	 */
 	public static String crawlAsXml(String url) {
-		Page page = crawl(url);
-		if (page instanceof HtmlPage) {
-			return ((HtmlPage) page).asXml();
+		return crawl(url, new PageHandler<String>() {
+
+			@Override
+			public String handle(Page page) throws IOException {
+				if (page instanceof HtmlPage) {
+					return ((HtmlPage) page).asXml();
+				}
+				throw new MyTvException("my crawler is only to get html page.");
+			}
+		});
+	}
+
+	/**
+	 * <pre>
+	 * 抓取网页并解析为jsoup文档
+	 * 抓取器启用了http抓取且网址不要求使用htmlunit时，直接以http获取网页并以流的方式解析，
+	 * 否则使用htmlunit抓取
+	 * </pre>
+	 * 
+	 * @param crawlerName
+	 *            抓取器名称
+	 * @param url
+	 * @return
+	 */
+	public static Document crawlAsDocument(String crawlerName, String url) {
+		if (Config.isHttpFetch(crawlerName, url)) {
+			return fetch(url);
+		}
+		return Jsoup.parse(crawlAsXml(url), url);
+	}
+
+	/**
+	 * <pre>
+	 * 使用http直接获取网页，不执行javascript
+	 * 网站返回ETag或Last-Modified时网页归档到抓取数据中，再次获取时发送条件请求，
+	 * 网页未改变(304)时直接使用归档的网页；归档已被淘汰时不发送条件请求
+	 * </pre>
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public static Document fetch(String url) {
+		Validator validator = getValidator(url);
+		Document doc = fetch(url, validator);
+		if (doc == null) {
+			// 检查后归档才被淘汰，不带校验信息重新获取
+			doc = fetch(url, null);
+		}
+		return doc;
+	}
+
+	/**
+	 * 获取网页，validator不为null时发送条件请求
+	 * 
+	 * @param url
+	 * @param validator
+	 * @return 网页未改变但归档已被淘汰时返回null
+	 */
+	private static Document fetch(String url, Validator validator) {
+		Proxy proxy = MyTvProxyManager.getInstance().pickProxy();
+		HttpGet httpGet = new HttpGet(url);
+		httpGet.setHeader(HttpHeaders.USER_AGENT,
+				USER_AGENTS[RANDOM.nextInt(USER_AGENTS.length)].getUserAgent());
+		if (proxy != null) {
+			httpGet.setConfig(RequestConfig.copy(HTTP_REQUEST_CONFIG)
+					.setProxy(new HttpHost(proxy.getIp(), proxy.getPort()))
+					.build());
+		}
+		if (validator != null) {
+			if (validator.etag != null) {
+				httpGet.setHeader(HttpHeaders.IF_NONE_MATCH, validator.etag);
+			}
+			if (validator.lastModified != null) {
+				httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE,
+						validator.lastModified);
+			}
+		}
+
+		CrawlScheduler scheduler = CrawlScheduler.getInstance();
+		scheduler.acquire(url, proxy);
+		CloseableHttpResponse response = null;
+		long start = System.nanoTime();
+		try {
+			logger.info("begin to fetch page: " + url
+					+ (proxy != null ? ", using: " + proxy : ""));
+			response = HTTP_CLIENT.execute(httpGet);
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode == HttpStatus.SC_NOT_MODIFIED && validator != null) {
+				scheduler.onSuccess(url, proxy);
+				recordPage(url, proxy, start);
+				return readValidated(url, validator);
+			}
+			HttpEntity entity = response.getEntity();
+			if (statusCode >= 400 || entity == null) {
+				if (isThrottled(statusCode)) {
+					scheduler.onThrottled(url, proxy);
+				}
+				recordError(url);
+				throw new MyTvException("can't connect to " + url
+						+ ", status: " + statusCode);
+			}
+			Charset charset = ContentType.getOrDefault(entity).getCharset();
+			// 未指定编码时由jsoup根据网页meta识别
+			Document doc = Jsoup.parse(entity.getContent(),
+					charset == null ? null : charset.name(), url);
+			scheduler.onSuccess(url, proxy);
+			recordPage(url, proxy, start);
+			saveValidator(url, response, doc);
+			return doc;
+		} catch (IOException e) {
+			if (e instanceof InterruptedIOException) {
+				// 连接或读取超时
+				scheduler.onThrottled(url, proxy);
+			}
+			httpGet.abort();
+			recordError(url);
+			throw new MyTvException("error occur while connect to " + url, e);
+		} finally {
+			if (response != null) {
+				try {
+					response.close();
+				} catch (IOException e) {
+					logger.error("close response of " + url + " fail.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 获取网址的缓存校验信息，归档已被淘汰时移除校验信息并返回null
+	 * 
+	 * @param url
+	 * @return
+	 */
+	private static Validator getValidator(String url) {
+		Validator validator;
+		synchronized (VALIDATORS) {
+			validator = VALIDATORS.get(url);
+		}
+		if (validator == null
+				|| CrawlArchive.getInstance().getHash(validator.dirName,
+						validator.name) != null) {
+			return validator;
 		}
-		throw new MyTvException("my crawler is only to get html page.");
+		removeValidator(url, validator);
+		return null;
 	}
 
 	/**
-	 * 使用htmlunit抓取网页
+	 * 移除网址的缓存校验信息，已被替换为其他校验信息时不移除
+	 * 
+	 * @param url
+	 * @param validator
+	 */
+	private static void removeValidator(String url, Validator validator) {
+		synchronized (VALIDATORS) {
+			if (VALIDATORS.get(url) == validator) {
+				VALIDATORS.remove(url);
+			}
+		}
+	}
+
+	/**
+	 * 读取条件请求未改变的网页，归档已被淘汰时移除校验信息并返回null
+	 * 
+	 * @param url
+	 * @param validator
+	 * @return
+	 */
+	private static Document readValidated(String url, Validator validator) {
+		CrawlArchive archive = CrawlArchive.getInstance();
+		String html = archive.get(validator.dirName, validator.name);
+		if (html == null) {
+			removeValidator(url, validator);
+			return null;
+		}
+		notModifiedCount.incrementAndGet();
+		logger.debug(url + " isn't modified since last fetch.");
+		String today = DateUtils.today();
+		if (!today.equals(validator.dirName)) {
+			// 归档到当天目录，避免仍在使用的网页被按日期淘汰
+			archive.put(today, validator.name, html);
+			synchronized (VALIDATORS) {
+				if (VALIDATORS.get(url) == validator) {
+					VALIDATORS.put(url, new Validator(validator.etag,
+							validator.lastModified, today, validator.name));
+				}
+			}
+		}
+		return Jsoup.parse(html, url);
+	}
+
+	/**
+	 * 网站返回了缓存校验信息时归档网页，用于之后的条件请求
+	 * 
+	 * @param url
+	 * @param response
+	 * @param doc
+	 */
+	private static void saveValidator(String url,
+			CloseableHttpResponse response, Document doc) {
+		Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+		Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+		if (etag == null && lastModified == null) {
+			synchronized (VALIDATORS) {
+				VALIDATORS.remove(url);
+			}
+			return;
+		}
+		String today = DateUtils.today();
+		String name = VALIDATOR_NAME_PREFIX + url;
+		CrawlArchive.getInstance().put(today, name, doc.outerHtml());
+		Validator validator = new Validator(etag == null ? null
+				: etag.getValue(), lastModified == null ? null : lastModified
+				.getValue(), today, name);
+		synchronized (VALIDATORS) {
+			VALIDATORS.put(url, validator);
+		}
+	}
+
+	/**
+	 * 使用htmlunit抓取网页，返回的html页面是脱离浏览器的副本，只能用于读取；
+	 * 需要在页面内点击等交互操作时使用{@link #crawl(String, PageHandler)}
 	 * 
 	 * @param url
 	 * @return
 	 */
 	public static Page crawl(String url) {
+		return crawl(url, new PageHandler<Page>() {
+
+			@Override
+			public Page handle(Page page) throws IOException {
+				if (page instanceof HtmlPage) {
+					return (Page) ((HtmlPage) page).cloneNode(true);
+				}
+				return page;
+			}
+		});
+	}
+
+	/**
+	 * 使用htmlunit抓取网页，并在归还浏览器前处理网页
+	 * 
+	 * @param url
+	 * @param handler
+	 *            网页处理器
+	 * @return 网页处理器的处理结果
+	 */
+	public static <T> T crawl(String url, PageHandler<T> handler) {
 		Proxy proxy = MyTvProxyManager.getInstance().pickProxy();
+		WebClientKey key = new WebClientKey(proxy, RANDOM.nextInt(USER_AGENTS.length));
 		WebClient webClient = null;
-		if (proxy != null) {
-			webClient = new WebClient(randomUserAgent());
-			ProxyConfig pc = new ProxyConfig(proxy.getIp(), proxy.getPort());
-			webClient.getOptions().setProxyConfig(pc);
-		} else {
-			webClient = new WebClient(randomUserAgent());
+		try {
+			webClient = WEB_CLIENTS.borrowObject(key);
+		} catch (Exception e) {
+			throw new MyTvException("can't borrow web client for " + url, e);
 		}
-		webClient.getOptions().setJavaScriptEnabled(true);
-		webClient.getOptions().setCssEnabled(false);
-		webClient.getOptions().setThrowExceptionOnScriptError(false);
-		webClient.setAjaxController(new NicelyResynchronizingAjaxController());
 
+		CrawlScheduler scheduler = CrawlScheduler.getInstance();
+		boolean broken = false;
 		try {
+			scheduler.acquire(url, proxy);
 			logger.info("begin to get page: " + url
 					+ (proxy != null ? ", using: " + proxy : ""));
-			return webClient.getPage(url);
+			long start = System.nanoTime();
+			Page page = webClient.getPage(url);
+			scheduler.onSuccess(url, proxy);
+			recordPage(url, proxy, start);
+			return handler.handle(page);
 		} catch (FailingHttpStatusCodeException e) {
+			if (isThrottled(e.getStatusCode())) {
+				scheduler.onThrottled(url, proxy);
+			}
+			recordError(url);
 			throw new MyTvException("can't connect to " + url, e);
 		} catch (MalformedURLException e) {
 			throw new MyTvException("invalid url " + url, e);
 		} catch (IOException e) {
+			if (e instanceof InterruptedIOException) {
+				// 连接或读取超时
+				scheduler.onThrottled(url, proxy);
+			}
+			// 连接可能已不可用，不再复用该浏览器
+			broken = true;
+			recordError(url);
 			throw new MyTvException("error occur while connect to " + url, e);
+		} catch (RuntimeException e) {
+			broken = true;
+			throw e;
 		} finally {
-			webClient.closeAllWindows();
+			try {
+				if (broken) {
+					WEB_CLIENTS.invalidateObject(key, webClient);
+				} else {
+					WEB_CLIENTS.returnObject(key, webClient);
+				}
+			} catch (Exception e) {
+				logger.error("return web client fail.", e);
+			}
 		}
 	}
 
 	/**
-	 * 取得随机浏览器标识
+	 * 记录成功获取的网页数及按主机、是否使用代理区分的获取耗时，
+	 * 代理服务器数量不定，不以代理服务器名称区分
+	 * 
+	 * @param url
+	 * @param proxy
+	 * @param start
+	 *            开始获取的时间，纳秒
+	 */
+	private static void recordPage(String url, Proxy proxy, long start) {
+		long elapsed = System.nanoTime() - start;
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		metrics.meter("crawler.pages").mark();
+		metrics.timer("crawler.fetch.host." + getMetricHost(url)).update(
+				elapsed, TimeUnit.NANOSECONDS);
+		metrics.timer(
+				"crawler.fetch." + (proxy == null ? "direct" : "proxy"))
+				.update(elapsed, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 记录获取网页失败的次数
 	 * 
+	 * @param url
+	 */
+	private static void recordError(String url) {
+		MetricsRegistry.getInstance().counter(
+				"crawler.errors." + getMetricHost(url)).inc();
+	}
+
+	/**
+	 * 获取度量名称中的主机，无法解析时为unknown，主机数超过上限时为other
+	 * 
+	 * @param url
 	 * @return
 	 */
-	private static BrowserVersion randomUserAgent() {
-		Random random = new Random();
-		int max = USER_AGENTS.length;
-		return USER_AGENTS[random.nextInt(max)];
+	private static String getMetricHost(String url) {
+		String host = null;
+		try {
+			host = new URL(url).getHost();
+		} catch (MalformedURLException e) {
+			return METRIC_HOST_UNKNOWN;
+		}
+		if (host == null || host.length() == 0) {
+			return METRIC_HOST_UNKNOWN;
+		}
+		host = host.toLowerCase(Locale.ENGLISH);
+		if (METRIC_HOSTS.contains(host)) {
+			return host;
+		}
+		synchronized (METRIC_HOSTS) {
+			if (METRIC_HOSTS.size() < MAX_METRIC_HOSTS) {
+				METRIC_HOSTS.add(host);
+				return host;
+			}
+		}
+		return METRIC_HOST_OTHER;
+	}
+
+	/**
+	 * 获取浏览器池统计信息
+	 * 
+	 * @return
+	 */
+	public static String getStatistics() {
+		int validators;
+		synchronized (VALIDATORS) {
+			validators = VALIDATORS.size();
+		}
+		return "WebClientPool [numActive=" + WEB_CLIENTS.getNumActive()
+				+ ", numIdle=" + WEB_CLIENTS.getNumIdle() + ", validators="
+				+ validators + ", notModified="
+				+ notModifiedCount.get() + "]";
+	}
+
+	/**
+	 * 是否是被目标网站限流的响应状态
+	 * 
+	 * @param statusCode
+	 * @return
+	 */
+	private static boolean isThrottled(int statusCode) {
+		return statusCode == 403 || statusCode == 429 || statusCode == 503;
+	}
+
+	/**
+	 * 创建http客户端，连接在多次抓取间复用
+	 * 
+	 * @return
+	 */
+	private static CloseableHttpClient createHttpClient() {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(Config.getHttpMaxConnections());
+		connectionManager.setDefaultMaxPerRoute(Config.getHttpMaxConnections());
+		return HttpClients.custom().setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(HTTP_REQUEST_CONFIG).build();
+	}
+
+	/**
+	 * 创建浏览器池
+	 * 
+	 * @return
+	 */
+	private static GenericKeyedObjectPool<WebClientKey, WebClient> createWebClientPool() {
+		int size = Config.getWebClientPoolSize();
+		GenericKeyedObjectPool.Config config = new GenericKeyedObjectPool.Config();
+		config.maxActive = size;
+		config.maxIdle = size;
+		config.maxTotal = size;
+		config.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK;
+		config.maxWait = Config.getCrawlWaitTimeout() * 1000;
+		config.minEvictableIdleTimeMillis = Config.getWebClientIdleTimeout() * 1000;
+		config.timeBetweenEvictionRunsMillis = 60000;
+		config.numTestsPerEvictionRun = size;
+		return new GenericKeyedObjectPool<WebClientKey, WebClient>(
+				new WebClientFactory(), config);
+	}
+
+	/**
+	 * 浏览器工厂，同一代理服务器、浏览器标识的浏览器可复用，连接与cookie在多次抓取间保留
+	 */
+	private final static class WebClientFactory extends
+			BaseKeyedPoolableObjectFactory<WebClientKey, WebClient> {
+
+		@Override
+		public WebClient makeObject(WebClientKey key) throws Exception {
+			WebClient webClient = new WebClient(USER_AGENTS[key.userAgent]);
+			if (key.proxy != null) {
+				ProxyConfig pc = new ProxyConfig(key.proxy.getIp(),
+						key.proxy.getPort());
+				webClient.getOptions().setProxyConfig(pc);
+			}
+			webClient.getOptions().setJavaScriptEnabled(true);
+			webClient.getOptions().setCssEnabled(false);
+			webClient.getOptions().setThrowExceptionOnScriptError(false);
+			webClient
+					.setAjaxController(new NicelyResynchronizingAjaxController());
+			return webClient;
+		}
+
+		@Override
+		public void passivateObject(WebClientKey key, WebClient webClient)
+				throws Exception {
+			// 关闭弹出窗口，当前窗口载入空白页，停止上一个页面的脚本
+			WebWindow current = webClient.getCurrentWindow().getTopWindow();
+			for (TopLevelWindow window : new ArrayList<TopLevelWindow>(
+					webClient.getTopLevelWindows())) {
+				if (window != current) {
+					window.close();
+				}
+			}
+			webClient.getPage(current, new WebRequest(
+					WebClient.URL_ABOUT_BLANK));
+		}
+
+		@Override
+		public void destroyObject(WebClientKey key, WebClient webClient)
+				throws Exception {
+			webClient.closeAllWindows();
+		}
+	}
+
+	private final static class WebClientKey {
+		private final Proxy proxy;
+		private final String proxyAddress;
+		private final int userAgent;
+
+		private WebClientKey(Proxy proxy, int userAgent) {
+			this.proxy = proxy;
+			this.proxyAddress = proxy == null ? null : proxy.getIp() + ":"
+					+ proxy.getPort();
+			this.userAgent = userAgent;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result
+					+ ((proxyAddress == null) ? 0 : proxyAddress.hashCode());
+			result = prime * result + userAgent;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			WebClientKey other = (WebClientKey) obj;
+			if (proxyAddress == null) {
+				if (other.proxyAddress != null)
+					return false;
+			} else if (!proxyAddress.equals(other.proxyAddress))
+				return false;
+			if (userAgent != other.userAgent)
+				return false;
+			return true;
+		}
+	}
+
+	/**
+	 * 网页的缓存校验信息及归档位置
+	 */
+	private final static class Validator {
+		private final String etag;
+		private final String lastModified;
+		private final String dirName;
+		private final String name;
+
+		private Validator(String etag, String lastModified, String dirName,
+				String name) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.dirName = dirName;
+			this.name = name;
+		}
 	}
 }
@@ -0,0 +1,8 @@
+-- init schema
+ALTER DATABASE mytv DEFAULT CHARACTER SET utf8 COLLATE utf8_bin;
+create table tv_station(id int primary key AUTO_INCREMENT, name varchar(64) not null, city varchar(64), classify varchar(32) not null, sequence int not null);
+create table program_table(id bigint primary key AUTO_INCREMENT, stationName varchar(16) not null, program varchar(512) not null, airdate date not null, airtime datetime not null, week int not null);
+create table my_tv(id bigint primary key AUTO_INCREMENT, stationName varchar(64) not null, displayName varchar(64) not null, classify varchar(32) not null, channel varchar(32), sequence int not null);
+create index tv_station_idx1 on tv_station(name);
+create index program_table_idx1 on program_table(airdate,stationName);
+create index my_tv_idx1 on my_tv(displayName,stationName);
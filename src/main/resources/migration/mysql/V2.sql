@@ -0,0 +1,6 @@
+-- natural key of tv_station and program_table
+update tv_station set city='' where city is null;
+delete a from tv_station a join tv_station b on a.name=b.name and a.city=b.city and a.classify=b.classify and a.id>b.id;
+alter table tv_station add unique index tv_station_uk1 (name,city,classify), ALGORITHM=INPLACE, LOCK=NONE;
+delete a from program_table a join program_table b on a.stationName=b.stationName and a.airdate=b.airdate and a.airtime=b.airtime and a.id>b.id;
+alter table program_table add unique index program_table_uk1 (stationName,airdate,airtime), ALGORITHM=INPLACE, LOCK=NONE;
@@ -0,0 +1,2 @@
+-- index of my_tv for query by classify
+alter table my_tv add index my_tv_idx2 (classify,sequence), ALGORITHM=INPLACE, LOCK=NONE;
@@ -0,0 +1,3 @@
+-- partition program_table by week of airdate
+alter table program_table drop primary key, add primary key (id,airdate);
+alter table program_table partition by range (to_days(airdate)) (partition p_max values less than maxvalue);
@@ -0,0 +1,2 @@
+-- durable crawl job queue
+create table crawl_job(stationName varchar(64) not null, airdate date not null, priority varchar(16) not null, status varchar(16) not null, attempt int not null default 0, next_run_at bigint not null, lease_owner varchar(255), lease_expire_at bigint not null default 0, last_error varchar(512), updated_at bigint not null, primary key(stationName,airdate), index crawl_job_idx1 (status,next_run_at));
@@ -0,0 +1,7 @@
+-- init schema
+create table tv_station(id INTEGER primary key AUTOINCREMENT, name varchar(64), city varchar(64), classify varchar(32), sequence INTEGER);
+create table program_table(id INTEGER primary key AUTOINCREMENT, stationName varchar(16), program varchar(512), airdate date, airtime datetime, week INTEGER);
+create table my_tv(id INTEGER primary key AUTOINCREMENT, displayName varchar(64), stationName varchar(64), classify varchar(32), channel varchar(32), sequence INTEGER);
+create index tv_station_idx1 on tv_station(name);
+create index program_table_idx1 on program_table(airdate,stationName);
+create index my_tv_idx1 on my_tv(displayName,stationName);
@@ -0,0 +1,6 @@
+-- natural key of tv_station and program_table
+update tv_station set city='' where city is null;
+delete from tv_station where id not in (select min(id) from tv_station group by name,city,classify);
+create unique index if not exists tv_station_uk1 on tv_station(name,city,classify);
+delete from program_table where id not in (select min(id) from program_table group by stationName,airdate,airtime);
+create unique index if not exists program_table_uk1 on program_table(stationName,airdate,airtime);
@@ -0,0 +1,2 @@
+-- index of my_tv for query by classify
+create index if not exists my_tv_idx2 on my_tv(classify,sequence);
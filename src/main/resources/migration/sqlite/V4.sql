@@ -0,0 +1,2 @@
+-- crawl ledger of program table
+create table if not exists crawl_ledger(stationName varchar(64) not null, airdate date not null, fetched_at bigint not null, hash varchar(40) not null, row_count INTEGER not null, primary key(stationName,airdate));
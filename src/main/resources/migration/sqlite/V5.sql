@@ -0,0 +1,3 @@
+-- durable crawl job queue
+create table if not exists crawl_job(stationName varchar(64) not null, airdate date not null, priority varchar(16) not null, status varchar(16) not null, attempt INTEGER not null default 0, next_run_at bigint not null, lease_owner varchar(255), lease_expire_at bigint not null default 0, last_error varchar(512), updated_at bigint not null, primary key(stationName,airdate));
+create index if not exists crawl_job_idx1 on crawl_job(status,next_run_at);
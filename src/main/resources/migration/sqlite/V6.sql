@@ -0,0 +1,2 @@
+-- lease token of crawl job claim
+alter table crawl_job add column lease_token varchar(64);
@@ -0,0 +1,4 @@
+-- priority order of crawl job
+alter table crawl_job add column priority_order INTEGER not null default 2;
+update crawl_job set priority_order=case priority when 'ON_DEMAND' then 0 when 'PREFETCH' then 1 else 2 end;
+create index if not exists crawl_job_idx2 on crawl_job(status,priority_order,next_run_at);
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlPriority;
+import com.laudandjolynn.mytv.datasource.SchemaMigrator;
+import com.laudandjolynn.mytv.datasource.TvDao;
+import com.laudandjolynn.mytv.datasource.TvDaoImpl;
+import com.laudandjolynn.mytv.model.CrawlJob;
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.service.CrawlJobQueue;
+import com.laudandjolynn.mytv.utils.Config;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月18日 下午2:20:43
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlJobQueueTest extends TestCase {
+	// 早于任何真实任务的日期，测试结束时删除
+	private final static String AIR_DATE = "2000-01-01";
+	private final TvDao tvDao = new TvDaoImpl();
+	private String stationName;
+
+	@Override
+	protected void setUp() throws Exception {
+		SchemaMigrator.migrate();
+		stationName = "queue_test_" + System.nanoTime();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		tvDao.deleteCrawlJobBefore("2000-01-02");
+	}
+
+	/**
+	 * 测试失败重试的等待时间按次数加倍且不超过上限
+	 */
+	public void testBackoff() {
+		long base = Config.getCrawlJobBackoffSeconds() * 1000L;
+		assertEquals(base, CrawlJobQueue.getBackoff(1));
+		assertEquals(base * 2, CrawlJobQueue.getBackoff(2));
+		assertEquals(base * 4, CrawlJobQueue.getBackoff(3));
+		long max = CrawlJobQueue.getBackoff(100);
+		assertTrue(max > 0);
+		assertEquals(max, CrawlJobQueue.getBackoff(Integer.MAX_VALUE));
+		assertTrue(CrawlJobQueue.getBackoff(10) <= max);
+	}
+
+	/**
+	 * 测试排队中的任务不重复加入
+	 */
+	public void testEnqueue() {
+		List<CrawlerTask> tasks = Arrays.asList(new CrawlerTask(stationName,
+				AIR_DATE));
+		CrawlJobQueue queue = CrawlJobQueue.getInstance();
+		assertEquals(1, queue.enqueue(tasks, CrawlPriority.BULK, 0));
+		assertEquals(0, queue.enqueue(tasks, CrawlPriority.BULK, 0));
+		// 排队中的任务提升优先级
+		assertEquals(1, queue.enqueue(tasks, CrawlPriority.ON_DEMAND, 0));
+		CrawlJob job = getRunnableJob(System.currentTimeMillis());
+		assertNotNull(job);
+		assertEquals(CrawlPriority.ON_DEMAND, job.getPriority());
+	}
+
+	/**
+	 * 测试租约：同一时间只能被领取一次，过期后可被重新领取，旧租约不能续约、结束任务
+	 */
+	public void testLease() {
+		CrawlJob job = new CrawlJob();
+		job.setStationName(stationName);
+		job.setAirDate(AIR_DATE);
+		job.setPriority(CrawlPriority.ON_DEMAND);
+		job.setNextRunAt(0);
+		assertEquals(1, tvDao.enqueueCrawlJob(job));
+
+		long now = System.currentTimeMillis();
+		job = getRunnableJob(now);
+		assertNotNull(job);
+		assertTrue(tvDao.claimCrawlJob(job, "a", "a:1", now + 1000, now));
+		assertFalse(tvDao.claimCrawlJob(job, "b", "b:1", now + 1000, now));
+		assertNull(getRunnableJob(now + 500));
+
+		job.setLeaseToken("a:1");
+		assertEquals(1, tvDao.renewCrawlJob(job, now + 3000));
+		// 续约后原到期时间已不能领取
+		assertFalse(tvDao.claimCrawlJob(job, "b", "b:1", now + 5000,
+				now + 2000));
+		// 租约过期后被b领取
+		assertNotNull(getRunnableJob(now + 4000));
+		assertTrue(tvDao.claimCrawlJob(job, "b", "b:1", now + 9000, now + 4000));
+
+		// a的租约已失效
+		job.setStatus(CrawlJob.STATUS_DONE);
+		assertEquals(0, tvDao.renewCrawlJob(job, now + 9000));
+		assertEquals(0, tvDao.finishCrawlJob(job));
+
+		job.setLeaseToken("b:1");
+		assertEquals(1, tvDao.releaseCrawlJob(job));
+		assertNotNull(getRunnableJob(now + 4000));
+	}
+
+	private CrawlJob getRunnableJob(long now) {
+		for (CrawlJob job : tvDao.getRunnableCrawlJob(now, 100)) {
+			if (stationName.equals(job.getStationName())) {
+				return job;
+			}
+		}
+		return null;
+	}
+}
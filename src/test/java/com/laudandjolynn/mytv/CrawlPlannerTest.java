@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.datasource.DataSourceManager;
+import com.laudandjolynn.mytv.datasource.ProgramTablePartition;
+import com.laudandjolynn.mytv.datasource.SchemaMigrator;
+import com.laudandjolynn.mytv.model.CrawlerTask;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.service.CrawlPlanner;
+import com.laudandjolynn.mytv.service.ProgramTableWriter;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.DateUtils;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月18日 上午11:12:09
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlPlannerTest extends TestCase {
+	private final CrawlPlanner planner = new CrawlPlanner();
+	private String prefix;
+	private String yesterday;
+	private String today;
+	private String tomorrow;
+	private List<TvStation> stations;
+
+	@Override
+	protected void setUp() throws Exception {
+		SchemaMigrator.migrate();
+		ProgramTablePartition.getInstance().init();
+		prefix = "plan_test_" + System.nanoTime() + "_";
+		yesterday = DateUtils.date2String(
+				DateUtils.addDay(DateUtils.string2Date(DateUtils.today(),
+						"yyyy-MM-dd"), -1), "yyyy-MM-dd");
+		today = DateUtils.today();
+		tomorrow = DateUtils.tommorow();
+		stations = new ArrayList<TvStation>();
+		for (String name : new String[] { "full", "partial", "empty" }) {
+			TvStation station = new TvStation();
+			station.setName(prefix + name);
+			stations.add(station);
+		}
+		int programs = Config.getCrawlMinPrograms();
+		// full: 昨天、今天节目完整；partial：今天节目不全；empty：没有节目
+		List<ProgramTable> ptList = new ArrayList<ProgramTable>();
+		ptList.addAll(programTables("full", yesterday, programs));
+		ptList.addAll(programTables("full", today, programs));
+		ptList.addAll(programTables("partial", today, programs - 1));
+		ProgramTableWriter writer = ProgramTableWriter.getInstance();
+		writer.write(ptList.toArray(new ProgramTable[ptList.size()]));
+		writer.flush();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		// 删除测试写入的节目表及抓取记录，不在数据库中留下测试数据
+		ProgramTablePartition partition = ProgramTablePartition.getInstance();
+		List<String> sqls = new ArrayList<String>();
+		for (String table : partition.getTableNames(yesterday, tomorrow)) {
+			sqls.add("delete from " + table + " where stationName=?");
+		}
+		sqls.add("delete from crawl_ledger where stationName=?");
+		Connection conn = DataSourceManager.getConnection();
+		try {
+			for (String sql : sqls) {
+				PreparedStatement stmt = conn.prepareStatement(sql);
+				try {
+					for (TvStation station : stations) {
+						stmt.setString(1, station.getName());
+						stmt.executeUpdate();
+					}
+				} finally {
+					stmt.close();
+				}
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * 测试缺失、节目不全、未记录抓取的节目表需要抓取，过去完整的节目表不需要抓取
+	 */
+	public void testPlan() {
+		Set<CrawlerTask> plan = new HashSet<CrawlerTask>(planner.plan(
+				stations, Arrays.asList(yesterday, today, tomorrow)));
+		assertFalse(plan.contains(task("full", yesterday)));
+		// 没有抓取记录，视为已过期
+		assertTrue(plan.contains(task("full", today)));
+		assertTrue(plan.contains(task("full", tomorrow)));
+		assertTrue(plan.contains(task("partial", today)));
+		assertTrue(plan.contains(task("empty", yesterday)));
+		assertTrue(plan.contains(task("empty", today)));
+		assertTrue(plan.contains(task("empty", tomorrow)));
+	}
+
+	/**
+	 * 测试记录抓取后不再重复抓取
+	 */
+	public void testRecord() {
+		planner.record(prefix + "full", today,
+				programTables("full", today, Config.getCrawlMinPrograms()));
+		// 最近一次抓取也只有这么多节目
+		planner.record(prefix + "partial", today,
+				programTables("partial", today,
+						Config.getCrawlMinPrograms() - 1));
+		Set<CrawlerTask> plan = new HashSet<CrawlerTask>(planner.plan(
+				stations, Arrays.asList(today)));
+		assertFalse(plan.contains(task("full", today)));
+		assertFalse(plan.contains(task("partial", today)));
+		assertTrue(plan.contains(task("empty", today)));
+		assertFalse(planner.isDue(stations.get(0), today));
+		assertTrue(planner.isDue(stations.get(2), today));
+	}
+
+	/**
+	 * 测试只抓取缺失的节目表
+	 */
+	public void testPlanMissing() {
+		Set<CrawlerTask> plan = new HashSet<CrawlerTask>(
+				planner.planMissing(stations, Arrays.asList(today, tomorrow)));
+		assertEquals(4, plan.size());
+		assertTrue(plan.contains(task("full", tomorrow)));
+		assertTrue(plan.contains(task("partial", tomorrow)));
+		assertTrue(plan.contains(task("empty", today)));
+		assertTrue(plan.contains(task("empty", tomorrow)));
+	}
+
+	private CrawlerTask task(String name, String date) {
+		return new CrawlerTask(prefix + name, date);
+	}
+
+	private List<ProgramTable> programTables(String name, String date,
+			int count) {
+		List<ProgramTable> ptList = new ArrayList<ProgramTable>();
+		for (int i = 0; i < count; i++) {
+			ProgramTable pt = new ProgramTable();
+			pt.setStationName(prefix + name);
+			pt.setAirDate(date);
+			pt.setAirTime(date + " " + (10 + i) + ":00");
+			pt.setProgram("program" + i);
+			pt.setWeek(1);
+			ptList.add(pt);
+		}
+		return ptList;
+	}
+}
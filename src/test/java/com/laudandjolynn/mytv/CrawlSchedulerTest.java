@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.crawler.scheduler.CrawlScheduler;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月19日 上午9:16:40
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlSchedulerTest extends TestCase {
+	/**
+	 * 测试按主机名限速，无法解析的地址共用一个主机名
+	 */
+	public void testGetHost() {
+		assertEquals("tv.cntv.cn",
+				CrawlScheduler.getHost("http://tv.cntv.cn/epg?a=1"));
+		assertEquals("tv.cntv.cn",
+				CrawlScheduler.getHost("http://TV.cntv.cn/index.html"));
+		String unknown = CrawlScheduler.getHost("not a url 1");
+		assertEquals(unknown, CrawlScheduler.getHost("not a url 2"));
+		assertEquals(unknown, CrawlScheduler.getHost("file:///tmp/epg.html"));
+	}
+}
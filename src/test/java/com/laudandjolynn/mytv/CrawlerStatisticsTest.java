@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.crawler.AbstractCrawler;
+import com.laudandjolynn.mytv.crawler.Crawler;
+import com.laudandjolynn.mytv.crawler.CrawlerGroup;
+import com.laudandjolynn.mytv.crawler.CrawlerStatistics;
+import com.laudandjolynn.mytv.event.CrawlEvent;
+import com.laudandjolynn.mytv.event.CrawlEventListener;
+import com.laudandjolynn.mytv.event.CrawlEventListenerAdapter;
+import com.laudandjolynn.mytv.event.ProgramTableCrawlEndEvent;
+import com.laudandjolynn.mytv.event.ProgramTableFoundEvent;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.model.TvStation;
+import com.laudandjolynn.mytv.utils.Config;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月18日 上午10:31:52
+ * @copyright: www.laudandjolynn.com
+ */
+public class CrawlerStatisticsTest extends TestCase {
+	private final CrawlerStatistics statistics = CrawlerStatistics
+			.getInstance();
+	private String prefix;
+
+	@Override
+	protected void setUp() throws Exception {
+		prefix = "statistics_test_" + System.nanoTime() + "_";
+	}
+
+	/**
+	 * 测试按成功率与耗时排列抓取器
+	 */
+	public void testRank() {
+		Crawler fast = new FakeCrawler(prefix + "fast", 0, true);
+		Crawler slow = new FakeCrawler(prefix + "slow", 0, true);
+		Crawler failing = new FakeCrawler(prefix + "failing", 0, true);
+		for (int i = 0; i < 5; i++) {
+			statistics.record(fast.getCrawlerName(), "s", true, 100);
+			statistics.record(slow.getCrawlerName(), "s", true, 1000);
+			statistics.record(failing.getCrawlerName(), "s", false, 100);
+		}
+		List<Crawler> ranked = statistics.rank(
+				Arrays.asList(failing, slow, fast), "s");
+		assertSame(fast, ranked.get(0));
+		assertSame(slow, ranked.get(1));
+		assertSame(failing, ranked.get(2));
+	}
+
+	/**
+	 * 测试电视台没有统计数据时使用抓取器的整体数据
+	 */
+	public void testRankByCrawler() {
+		Crawler fast = new FakeCrawler(prefix + "fast", 0, true);
+		Crawler slow = new FakeCrawler(prefix + "slow", 0, true);
+		statistics.record(fast.getCrawlerName(), "s1", true, 100);
+		statistics.record(slow.getCrawlerName(), "s1", true, 1000);
+		assertSame(fast, statistics.rank(Arrays.asList(slow, fast), "s2")
+				.get(0));
+	}
+
+	/**
+	 * 测试启动备用抓取器前的等待时间
+	 */
+	public void testHedgeDelay() {
+		String crawlerName = prefix + "hedge";
+		long defaultDelay = Math.max(Config.getCrawlHedgeDelay(),
+				Config.getCrawlHedgeMinDelay());
+		assertEquals(defaultDelay, statistics.getHedgeDelay(crawlerName));
+		for (int i = 0; i < 20; i++) {
+			statistics.record(crawlerName, "s", true, 2000);
+		}
+		assertEquals(Math.max(2000, Config.getCrawlHedgeMinDelay()),
+				statistics.getHedgeDelay(crawlerName));
+
+		String fastName = prefix + "hedge_fast";
+		for (int i = 0; i < 20; i++) {
+			statistics.record(fastName, "s", true, 1);
+		}
+		assertEquals(Config.getCrawlHedgeMinDelay(),
+				statistics.getHedgeDelay(fastName));
+	}
+
+	/**
+	 * 测试主抓取器较慢时由备用抓取器的结果返回，只发出胜出抓取器的节目
+	 */
+	public void testHedgeSlowPrimary() {
+		if (!Config.isCrawlHedgeEnable()) {
+			return;
+		}
+		FakeCrawler primary = new FakeCrawler(prefix + "primary", 5000, true);
+		FakeCrawler backup = new FakeCrawler(prefix + "backup", 10, true);
+		// 主抓取器平时很快，等待时间为下限
+		for (int i = 0; i < 20; i++) {
+			statistics.record(primary.getCrawlerName(), "s", true, 1);
+			statistics.record(backup.getCrawlerName(), "s", true, 100);
+		}
+		long start = System.currentTimeMillis();
+		List<String> items = new ArrayList<String>();
+		List<ProgramTable> ptList = crawl(items, primary, backup);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(1, ptList.size());
+		assertEquals(backup.getCrawlerName(), ptList.get(0).getProgram());
+		assertEquals(Arrays.asList(backup.getCrawlerName()), items);
+	}
+
+	/**
+	 * 测试主抓取器没有抓取到节目时使用备用抓取器的结果
+	 */
+	public void testHedgeEmptyPrimary() {
+		FakeCrawler primary = new FakeCrawler(prefix + "primary", 10, false);
+		FakeCrawler backup = new FakeCrawler(prefix + "backup", 10, true);
+		List<String> items = new ArrayList<String>();
+		List<ProgramTable> ptList = crawl(items, primary, backup);
+		assertEquals(1, ptList.size());
+		assertEquals(backup.getCrawlerName(), ptList.get(0).getProgram());
+		assertEquals(Arrays.asList(backup.getCrawlerName()), items);
+	}
+
+	/**
+	 * 测试节目边抓取边转发，不等抓取结束
+	 */
+	public void testStream() {
+		FakeCrawler primary = new FakeCrawler(prefix + "primary", 300, true,
+				true);
+		final long[] foundAt = new long[1];
+		CrawlerGroup group = new CrawlerGroup();
+		group.addCrawler(primary);
+		group.registerCrawlEventListener(new CrawlEventListenerAdapter() {
+
+			@Override
+			public void itemFound(CrawlEvent event) {
+				foundAt[0] = System.currentTimeMillis();
+			}
+		});
+		TvStation station = new TvStation();
+		station.setName("s");
+		assertEquals(1, group.crawlProgramTable("2015-05-18", station).size());
+		assertTrue(foundAt[0] > 0);
+		assertTrue(System.currentTimeMillis() - foundAt[0] >= 200);
+	}
+
+	/**
+	 * 测试已转发节目的抓取器没有抓取成功时，转发备用抓取器的结果并标记替换
+	 */
+	public void testStreamFallback() {
+		FakeCrawler primary = new FakeCrawler(prefix + "primary", 10, false,
+				true);
+		FakeCrawler backup = new FakeCrawler(prefix + "backup", 10, true);
+		List<String> items = new ArrayList<String>();
+		List<ProgramTableCrawlEndEvent> ends = new ArrayList<ProgramTableCrawlEndEvent>();
+		List<ProgramTable> ptList = crawl(items, ends, primary, backup);
+		assertEquals(1, ptList.size());
+		assertEquals(backup.getCrawlerName(), ptList.get(0).getProgram());
+		assertEquals(
+				Arrays.asList(primary.getCrawlerName(),
+						backup.getCrawlerName()), items);
+		assertEquals(1, ends.size());
+		assertTrue(ends.get(0).isReplace());
+	}
+
+	private List<ProgramTable> crawl(List<String> items, Crawler... crawlers) {
+		List<ProgramTableCrawlEndEvent> ends = new ArrayList<ProgramTableCrawlEndEvent>();
+		List<ProgramTable> ptList = crawl(items, ends, crawlers);
+		assertEquals(1, ends.size());
+		assertFalse(ends.get(0).isReplace());
+		return ptList;
+	}
+
+	private List<ProgramTable> crawl(final List<String> items,
+			final List<ProgramTableCrawlEndEvent> ends, Crawler... crawlers) {
+		CrawlerGroup group = new CrawlerGroup();
+		for (Crawler crawler : crawlers) {
+			group.addCrawler(crawler);
+		}
+		group.registerCrawlEventListener(new CrawlEventListenerAdapter() {
+
+			@Override
+			public void itemFound(CrawlEvent event) {
+				if (event instanceof ProgramTableFoundEvent) {
+					synchronized (items) {
+						items.add(((ProgramTableFoundEvent) event).getItem()
+								.getProgram());
+					}
+				}
+			}
+
+			@Override
+			public void crawlEnd(CrawlEvent event) {
+				if (event instanceof ProgramTableCrawlEndEvent) {
+					ends.add((ProgramTableCrawlEndEvent) event);
+				}
+			}
+		});
+		TvStation station = new TvStation();
+		station.setName("s");
+		return group.crawlProgramTable("2015-05-18", station);
+	}
+
+	/**
+	 * 按指定耗时返回以抓取器名称为节目名的节目表，streamFirst为true时先发出节目再等待，
+	 * 没有抓取到节目时也发出节目，模拟抓取到部分节目后失败
+	 */
+	private final static class FakeCrawler extends AbstractCrawler {
+		private final String name;
+		private final long delay;
+		private final boolean found;
+		private final boolean streamFirst;
+
+		private FakeCrawler(String name, long delay, boolean found) {
+			this(name, delay, found, false);
+		}
+
+		private FakeCrawler(String name, long delay, boolean found,
+				boolean streamFirst) {
+			this.name = name;
+			this.delay = delay;
+			this.found = found;
+			this.streamFirst = streamFirst;
+		}
+
+		@Override
+		public List<TvStation> crawlAllTvStation() {
+			return null;
+		}
+
+		@Override
+		public List<ProgramTable> crawlProgramTable(String date,
+				TvStation station) {
+			List<ProgramTable> ptList = new ArrayList<ProgramTable>();
+			ProgramTable pt = new ProgramTable();
+			pt.setStationName(station.getName());
+			pt.setAirDate(date);
+			pt.setProgram(name);
+			if (streamFirst) {
+				fire(pt);
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				return ptList;
+			}
+			if (found) {
+				ptList.add(pt);
+				if (!streamFirst) {
+					fire(pt);
+				}
+			}
+			return ptList;
+		}
+
+		private void fire(ProgramTable pt) {
+			for (CrawlEventListener listener : listeners) {
+				listener.itemFound(new ProgramTableFoundEvent(this, pt));
+			}
+		}
+
+		@Override
+		public boolean exists(TvStation station) {
+			return true;
+		}
+
+		@Override
+		public String getCrawlerName() {
+			return name;
+		}
+
+		@Override
+		public String getUrl() {
+			return null;
+		}
+	}
+}
@@ -19,6 +19,7 @@ import junit.framework.TestCase;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.caucho.hessian.client.HessianProxyFactory;
 import com.laudandjolynn.mytv.service.JolynnTv;
 import com.laudandjolynn.mytv.utils.Config;
@@ -79,4 +80,36 @@ public class HessianTest extends TestCase {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * 测试正在播出的节目
+	 */
+	public void testEpgOnAirProgram() {
+		HessianProxyFactory proxy = new HessianProxyFactory();
+		try {
+			JolynnTv tv = (JolynnTv) proxy.create(JolynnTv.class, url);
+			String program = tv.getOnAirProgram("番禺有线", null);
+			JSONArray array = JSON.parseArray(program);
+			assertNotNull(array);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 测试批量获取电视节目
+	 */
+	public void testEpgPrograms() {
+		HessianProxyFactory proxy = new HessianProxyFactory();
+		try {
+			JolynnTv tv = (JolynnTv) proxy.create(JolynnTv.class, url);
+			String programs = tv.getProgramTables(new String[] {
+					"CCTV-1 综合", "CCTV-2 财经" }, new String[] { "番禺有线",
+					"番禺有线" }, DateUtils.today(), DateUtils.tommorow());
+			JSONObject object = JSON.parseObject(programs);
+			assertNotNull(object);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
 }
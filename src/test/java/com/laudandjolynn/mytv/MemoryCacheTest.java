@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.model.MyTv;
+import com.laudandjolynn.mytv.utils.MemoryCache;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月19日 上午9:48:23
+ * @copyright: www.laudandjolynn.com
+ */
+public class MemoryCacheTest extends TestCase {
+	/**
+	 * 测试客户端显示的电视台重复加入时只保留一个
+	 */
+	public void testAddMyTvCache() {
+		String classify = "cache_test_" + System.nanoTime();
+		MemoryCache cache = MemoryCache.getInstance();
+		cache.addMyTvCache(Arrays.asList(myTv(classify, "CCTV1"),
+				myTv(classify, "CCTV2")));
+		cache.addMyTvCache(Arrays.asList(myTv(classify, "CCTV1")));
+		assertEquals(2, cache.getMyTvByClassify(classify).size());
+		assertTrue(cache.isMyTvClassify(classify));
+		assertNotNull(cache.getMyTv("CCTV1", classify));
+	}
+
+	private MyTv myTv(String classify, String displayName) {
+		MyTv myTv = new MyTv();
+		myTv.setClassify(classify);
+		myTv.setDisplayName(displayName);
+		myTv.setStationName(displayName);
+		return myTv;
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.datasource.DataSourceManager;
+import com.laudandjolynn.mytv.datasource.ProgramTablePartition;
+import com.laudandjolynn.mytv.datasource.SchemaMigrator;
+import com.laudandjolynn.mytv.model.ProgramTable;
+import com.laudandjolynn.mytv.service.ProgramScheduleIndex;
+import com.laudandjolynn.mytv.service.ProgramTableWriter;
+import com.laudandjolynn.mytv.utils.DateUtils;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月18日 上午9:42:16
+ * @copyright: www.laudandjolynn.com
+ */
+public class ProgramScheduleIndexTest extends TestCase {
+	private String stationName;
+	private String today;
+	private String tomorrow;
+
+	@Override
+	protected void setUp() throws Exception {
+		SchemaMigrator.migrate();
+		ProgramTablePartition.getInstance().init();
+		stationName = "schedule_test_" + System.nanoTime();
+		today = DateUtils.today();
+		tomorrow = DateUtils.tommorow();
+		write(programTable(today, "00:30", "A"),
+				programTable(today, "08:00", "B"),
+				programTable(today, "20:00", "C"),
+				programTable(tomorrow, "01:00", "D"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		// 删除测试写入的节目表，不在数据库中留下测试数据
+		ProgramTablePartition partition = ProgramTablePartition.getInstance();
+		Connection conn = DataSourceManager.getConnection();
+		try {
+			for (String table : partition.getTableNames(today, tomorrow)) {
+				PreparedStatement stmt = conn.prepareStatement("delete from "
+						+ table + " where stationName=?");
+				try {
+					stmt.setString(1, stationName);
+					stmt.executeUpdate();
+				} finally {
+					stmt.close();
+				}
+			}
+		} finally {
+			conn.close();
+		}
+	}
+
+	/**
+	 * 测试正在播出及下一个播出的节目
+	 */
+	public void testOnAir() {
+		assertOnAir("09:00:00", "B", "C");
+		assertOnAir("08:00:00", "B", "C");
+		assertOnAir("23:00:00", "C", "D");
+		assertOnAir("00:10:00", null, "A");
+	}
+
+	/**
+	 * 测试节目表写入后索引失效
+	 */
+	public void testInvalidate() {
+		assertOnAir("21:00:00", "C", "D");
+		write(programTable(today, "22:00", "E"));
+		assertOnAir("21:00:00", "C", "E");
+		assertOnAir("23:00:00", "E", "D");
+	}
+
+	/**
+	 * 测试没有节目表的电视台
+	 */
+	public void testNoProgram() {
+		ProgramTable[] result = ProgramScheduleIndex.getInstance().getOnAir(
+				stationName + "_none",
+				DateUtils.string2Date(today + " 12:00:00"));
+		assertEquals(2, result.length);
+		assertNull(result[0]);
+		assertNull(result[1]);
+	}
+
+	private void assertOnAir(String time, String current, String next) {
+		ProgramTable[] result = ProgramScheduleIndex.getInstance().getOnAir(
+				stationName, DateUtils.string2Date(today + " " + time));
+		assertEquals(current, result[0] == null ? null : result[0]
+				.getProgram());
+		assertEquals(next, result[1] == null ? null : result[1].getProgram());
+	}
+
+	private void write(ProgramTable... programTables) {
+		ProgramTableWriter writer = ProgramTableWriter.getInstance();
+		writer.write(programTables);
+		writer.flush();
+	}
+
+	private ProgramTable programTable(String date, String time, String program) {
+		ProgramTable pt = new ProgramTable();
+		pt.setStationName(stationName);
+		pt.setAirDate(date);
+		pt.setAirTime(date + " " + time);
+		pt.setProgram(program);
+		pt.setWeek(1);
+		return pt;
+	}
+}
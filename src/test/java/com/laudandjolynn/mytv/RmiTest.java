@@ -21,6 +21,7 @@ import junit.framework.TestCase;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.laudandjolynn.mytv.service.JolynnTv;
 import com.laudandjolynn.mytv.utils.Config;
 import com.laudandjolynn.mytv.utils.DateUtils;
@@ -80,4 +81,36 @@ public class RmiTest extends TestCase {
 		JSONArray array = JSON.parseArray(program);
 		assertNotNull(array);
 	}
+
+	/**
+	 * 测试正在播出的节目
+	 */
+	public void testEpgOnAirProgram() {
+		String program = null;
+		try {
+			JolynnTv jolynnTv = (JolynnTv) Naming.lookup(url);
+			program = jolynnTv.getOnAirProgram("番禺有线", null);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		JSONArray array = JSON.parseArray(program);
+		assertNotNull(array);
+	}
+
+	/**
+	 * 测试批量获取电视节目
+	 */
+	public void testEpgPrograms() {
+		String programs = null;
+		try {
+			JolynnTv jolynnTv = (JolynnTv) Naming.lookup(url);
+			programs = jolynnTv.getProgramTables(new String[] { "CCTV-1 综合",
+					"CCTV-2 财经" }, new String[] { "番禺有线", "番禺有线" },
+					DateUtils.today(), DateUtils.tommorow());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		JSONObject object = JSON.parseObject(programs);
+		assertNotNull(object);
+	}
 }
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2015 htd0324@gmail.com
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.laudandjolynn.mytv;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import junit.framework.TestCase;
+
+import com.laudandjolynn.mytv.datasource.SchemaMigrator;
+import com.laudandjolynn.mytv.exception.MyTvException;
+import com.laudandjolynn.mytv.utils.Config;
+import com.laudandjolynn.mytv.utils.Config.DbType;
+
+/**
+ * @author: Laud
+ * @email: htd0324@gmail.com
+ * @date: 2015年5月18日 上午10:05:37
+ * @copyright: www.laudandjolynn.com
+ */
+public class SchemaMigratorTest extends TestCase {
+	private File dbFile;
+	private Connection conn;
+
+	@Override
+	protected void setUp() throws Exception {
+		Class.forName("org.sqlite.JDBC");
+		dbFile = File.createTempFile("mytv_migration", ".db");
+		conn = DriverManager.getConnection("jdbc:sqlite:"
+				+ dbFile.getAbsolutePath());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		conn.close();
+		dbFile.delete();
+	}
+
+	/**
+	 * 测试迁移空数据库，重复迁移不再执行脚本
+	 */
+	public void testMigrate() throws Exception {
+		if (Config.getDbType() != DbType.SQLITE) {
+			return;
+		}
+		int latest = getLatestVersion();
+		assertEquals(latest, SchemaMigrator.migrate(conn));
+		assertEquals(latest, SchemaMigrator.migrate(conn));
+		assertEquals(latest, queryInt("select count(*) from schema_version"));
+		assertEquals(0, queryInt("select count(*) from crawl_job"));
+	}
+
+	/**
+	 * 测试迁移机制引入前创建的数据库视为已执行版本1
+	 */
+	public void testBaseline() throws Exception {
+		if (Config.getDbType() != DbType.SQLITE) {
+			return;
+		}
+		execute("create table tv_station(id INTEGER primary key AUTOINCREMENT, name varchar(64), city varchar(64), classify varchar(32), sequence INTEGER)");
+		execute("create table program_table(id INTEGER primary key AUTOINCREMENT, stationName varchar(16), program varchar(512), airdate date, airtime datetime, week INTEGER)");
+		execute("create table my_tv(id INTEGER primary key AUTOINCREMENT, displayName varchar(64), stationName varchar(64), classify varchar(32), channel varchar(32), sequence INTEGER)");
+		execute("insert into tv_station(name,city,classify,sequence) values('a',null,'c',1)");
+		execute("insert into tv_station(name,city,classify,sequence) values('a',null,'c',2)");
+
+		assertEquals(getLatestVersion(), SchemaMigrator.migrate(conn));
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rs = stmt
+					.executeQuery("select description from schema_version where version=1");
+			assertTrue(rs.next());
+			assertEquals("<< baseline >>", rs.getString(1));
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		// 版本2去除了重复的电视台
+		assertEquals(1, queryInt("select count(*) from tv_station"));
+	}
+
+	/**
+	 * 测试已执行的脚本被修改时拒绝迁移
+	 */
+	public void testChecksumMismatch() throws Exception {
+		if (Config.getDbType() != DbType.SQLITE) {
+			return;
+		}
+		SchemaMigrator.migrate(conn);
+		execute("update schema_version set checksum=checksum+1 where version=1");
+		try {
+			SchemaMigrator.migrate(conn);
+			fail("checksum mismatch should be rejected.");
+		} catch (MyTvException e) {
+			assertTrue(e.getMessage().contains("V1"));
+		}
+	}
+
+	private int getLatestVersion() {
+		int version = 0;
+		while (SchemaMigrator.class.getResource("/migration/"
+				+ Config.getDbType().getValue() + "/V" + (version + 1)
+				+ ".sql") != null) {
+			version++;
+		}
+		return version;
+	}
+
+	private void execute(String sql) throws Exception {
+		Statement stmt = conn.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private int queryInt(String sql) throws Exception {
+		Statement stmt = conn.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			assertTrue(rs.next());
+			int value = rs.getInt(1);
+			rs.close();
+			return value;
+		} finally {
+			stmt.close();
+		}
+	}
+}